@@ -0,0 +1,74 @@
+package com.swissre.coffeecorner.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.swissre.coffeecorner.entity.Product;
+import com.swissre.coffeecorner.service.ClientBasketService;
+
+/**
+ * Single-threaded benchmarks of the basket hot paths: adding the products, applying the bonus program and
+ * printing the receipt, for basket sizes from 1 to 10 000 items and different product mixes.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BasketBenchmark {
+
+	@Param({ "1", "10", "100", "1000", "10000" })
+	public int basketSize;
+
+	@Param({ "BEVERAGES", "MIXED", "WITH_EXTRAS" })
+	public OrderLines.Mix mix;
+
+	private String[] productLines;
+
+	private ClientBasketService filledBasket;
+
+	@Setup
+	public void setup() {
+		productLines = OrderLines.generate(mix, basketSize, 42);
+
+		filledBasket = new ClientBasketService();
+		for(String productLine : productLines)
+			filledBasket.addProduct(productLine);
+	}
+
+	@Benchmark
+	public ClientBasketService addProduct() {
+		ClientBasketService basket = new ClientBasketService();
+
+		for(String productLine : productLines)
+			basket.addProduct(productLine);
+
+		return basket;
+	}
+
+	@Benchmark
+	public List<Product> applyBonusProgram() {
+		return filledBasket.applyBonusProgram();
+	}
+
+	@Benchmark
+	public String printReceipt() {
+		return filledBasket.printReceipt();
+	}
+}
@@ -0,0 +1,115 @@
+package com.swissre.coffeecorner.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.swissre.coffeecorner.service.BasketRegistry;
+import com.swissre.coffeecorner.service.ClientBasketService;
+import com.swissre.coffeecorner.service.ConcurrentClientBasket;
+
+/**
+ * Multi-threaded benchmarks of many independent baskets: each thread checks out its own baskets, either
+ * directly or through a shared {@link BasketRegistry}; and of a single {@link ConcurrentClientBasket} all the
+ * threads add to (compare with -t 1 for the single-threaded rate). Run with -t to change the number of threads.
+ *
+ * To check that the registry scales close to linearly with the cores, run registryBaskets and independentBaskets
+ * with -t 1, 2, 4, ... up to the number of cores: the registry rate should grow with the threads like the rate of
+ * the independent baskets, i.e. their ratio should stay about the same.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class ConcurrentBasketsBenchmark {
+
+	@State(Scope.Thread)
+	public static class Orders {
+
+		String[] productLines;
+
+		int nextLine;
+
+		@Setup
+		public void setup() {
+			productLines = OrderLines.generate(OrderLines.Mix.WITH_EXTRAS, 8, Thread.currentThread().getId());
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Registry {
+
+		BasketRegistry registry;
+
+		@Setup(Level.Trial)
+		public void setup() {
+			registry = new BasketRegistry(ClientBasketService::new, 1, TimeUnit.MINUTES);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			registry.close();
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Tab {
+
+		ConcurrentClientBasket basket;
+
+		@Setup(Level.Iteration)
+		public void setup() {
+			basket = new ConcurrentClientBasket();
+		}
+	}
+
+	@Benchmark
+	public String independentBaskets(Orders orders) {
+		ClientBasketService basket = new ClientBasketService();
+
+		for(String productLine : orders.productLines)
+			basket.addProduct(productLine);
+
+		basket.applyBonusProgram();
+
+		return basket.printReceipt();
+	}
+
+	@Benchmark
+	public String registryBaskets(Orders orders, Registry registry) {
+		long id = registry.registry.open();
+
+		for(String productLine : orders.productLines)
+			registry.registry.addProduct(id, productLine);
+
+		registry.registry.applyBonusProgram(id);
+		String receipt = registry.registry.printReceipt(id);
+		registry.registry.close(id);
+
+		return receipt;
+	}
+
+	@Benchmark
+	public Object sharedTab(Orders orders, Tab tab) {
+		orders.nextLine = (orders.nextLine + 1) % orders.productLines.length;
+
+		return tab.basket.addProduct(orders.productLines[orders.nextLine]);
+	}
+}
@@ -0,0 +1,58 @@
+package com.swissre.coffeecorner.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.swissre.coffeecorner.entity.Product;
+import com.swissre.coffeecorner.metrics.BasketMetrics;
+import com.swissre.coffeecorner.metrics.InstrumentedClientBasket;
+import com.swissre.coffeecorner.service.BonusProgram;
+import com.swissre.coffeecorner.service.ClientBasketService;
+import com.swissre.coffeecorner.service.IClientBasket;
+
+/**
+ * Overhead of {@link InstrumentedClientBasket} on addProduct, with the metrics enabled and disabled, compared
+ * to the plain basket.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InstrumentationBenchmark {
+
+	@Param({ "PLAIN", "ENABLED", "DISABLED" })
+	public String instrumentation;
+
+	private IClientBasket basket;
+
+	@Setup
+	public void setup() {
+		IClientBasket plain = new ClientBasketService(BonusProgram.empty());
+		BasketMetrics metrics = new BasketMetrics();
+
+		metrics.setEnabled(!"DISABLED".equals(instrumentation));
+		basket = "PLAIN".equals(instrumentation) ? plain : new InstrumentedClientBasket(plain, metrics);
+	}
+
+	@Benchmark
+	public List<Product> addProduct() {
+		return basket.addProduct("large coffee with extra milk");
+	}
+}
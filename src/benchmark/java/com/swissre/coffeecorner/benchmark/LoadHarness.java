@@ -0,0 +1,230 @@
+package com.swissre.coffeecorner.benchmark;
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.ThreadMXBean;
+import com.swissre.coffeecorner.exception.UnknownProductException;
+import com.swissre.coffeecorner.metrics.LatencyHistogram;
+import com.swissre.coffeecorner.service.ClientBasketService;
+import com.swissre.coffeecorner.service.IClientBasket;
+import com.swissre.coffeecorner.service.ProductCatalog;
+
+/**
+ * Load test of the whole checkout of an {@link IClientBasket}, from the order lines to the receipt, with synthetic
+ * orders of an {@link OrderGenerator}.
+ *
+ * Every thread checks out baskets on a fixed schedule (open load): the latency of a basket is measured from its
+ * intended start, so a stall (e.g. a GC pause) is charged to all the baskets that should have started during it,
+ * not only to the one that hit it (coordinated omission). The service time, measured from the actual start, is
+ * reported next to it to show the difference.
+ *
+ * Besides the throughput and the latency percentiles the harness reports the GC pauses (from the GC notifications)
+ * and the bytes allocated per basket by the load threads.
+ *
+ * Usage:
+ * <pre>
+ * LoadHarness [threads] [baskets per second] [seconds] [min items] [max items] [with share] [invalid share]
+ * </pre>
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public final class LoadHarness {
+
+	private static final long WARMUP_SECONDS = 5;
+
+	private final Supplier<? extends IClientBasket> basketFactory;
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	private final LatencyHistogram serviceTime = new LatencyHistogram();
+
+	private final LatencyHistogram gcPauses = new LatencyHistogram();
+
+	private final LongAdder rejected = new LongAdder();
+
+	private final LongAdder allocatedBytes = new LongAdder();
+
+	private volatile boolean recording;
+
+	// duration of the recorded run, the longest of its threads
+	private volatile long recordedNanos;
+
+	public LoadHarness(Supplier<? extends IClientBasket> basketFactory) {
+		this.basketFactory = basketFactory;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int rate = args.length > 1 ? Integer.parseInt(args[1]) : 50000;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+		int minItems = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+		int maxItems = args.length > 4 ? Integer.parseInt(args[4]) : 8;
+		double withShare = args.length > 5 ? Double.parseDouble(args[5]) : 0.3;
+		double invalidShare = args.length > 6 ? Double.parseDouble(args[6]) : 0.01;
+
+		List<OrderGenerator> generators = new ArrayList<>();
+		for(int t = 0 ; t < threads ; t++) {
+			generators.add(new OrderGenerator(ProductCatalog.getDefault().getSnapshot(), t)
+					.basketSize(minItems, maxItems).withShare(withShare).invalidShare(invalidShare));
+		}
+
+		System.out.println(generators.get(0));
+
+		LoadHarness harness = new LoadHarness(ClientBasketService::new);
+
+		harness.run(generators, rate, WARMUP_SECONDS, false);
+		harness.run(generators, rate, seconds, true);
+		harness.report(System.out);
+	}
+
+	/**
+	 * Checks out the baskets of the generators, one thread per generator
+	 *
+	 * @param generators the generators of the orders
+	 * @param rate baskets per second of all the threads together
+	 * @param seconds duration of the run
+	 * @param record false for a warm-up run that is not reported
+	 */
+	public void run(List<OrderGenerator> generators, int rate, long seconds, boolean record) throws InterruptedException {
+		int threadCount = generators.size();
+		long intervalNanos = TimeUnit.SECONDS.toNanos(1) * threadCount / rate;
+		long basketsPerThread = (long) rate * seconds / threadCount;
+		long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+
+		List<Thread> threads = new ArrayList<>();
+		for(int t = 0 ; t < threadCount ; t++) {
+			OrderGenerator generator = generators.get(t);
+			long threadStart = start + intervalNanos * t / threadCount;
+
+			threads.add(new Thread(() -> drive(generator, threadStart, intervalNanos, basketsPerThread), "load-" + t));
+		}
+
+		NotificationListener gcListener = this::gcNotification;
+		List<NotificationEmitter> emitters = new ArrayList<>();
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if(gc instanceof NotificationEmitter) {
+				((NotificationEmitter) gc).addNotificationListener(gcListener, null, null);
+				emitters.add((NotificationEmitter) gc);
+			}
+		}
+
+		recording = record;
+		try {
+			for(Thread thread : threads)
+				thread.start();
+			for(Thread thread : threads)
+				thread.join();
+		} finally {
+			recording = false;
+
+			for(NotificationEmitter emitter : emitters) {
+				try {
+					emitter.removeNotificationListener(gcListener);
+				} catch (ListenerNotFoundException e) {
+					// not registered
+				}
+			}
+		}
+	}
+
+	/**
+	 * Prints the throughput, latency, GC and allocation figures of the recorded run
+	 */
+	public void report(PrintStream out) {
+		long baskets = latency.getCount();
+
+		out.printf("baskets %d (rejected %d), %.0f/s%n", baskets, rejected.sum(),
+				baskets / (Math.max(1, recordedNanos) / 1e9));
+		print(out, "latency (from intended start) us", latency);
+		print(out, "service time (from actual start) us", serviceTime);
+		out.printf("gc pauses %d, total %.1f ms, p99 %.1f ms, max %.1f ms%n", gcPauses.getCount(),
+				gcPauses.getMean() * gcPauses.getCount() / 1e6, gcPauses.getValueAtPercentile(99) / 1e6, gcPauses.getMax() / 1e6);
+		out.printf("allocated %.0f bytes per basket%n", baskets == 0 ? 0 : allocatedBytes.sum() / (double) baskets);
+	}
+
+	private void drive(OrderGenerator generator, long start, long intervalNanos, long count) {
+		ThreadMXBean threadBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		// generated up front, so neither the generation nor its allocation is measured
+		List<List<String>> baskets = new ArrayList<>();
+		for(int i = 0 ; i < Math.min(count, 4096) ; i++)
+			baskets.add(generator.nextBasket());
+
+		long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+
+		for(long i = 0 ; i < count ; i++) {
+			long intended = start + i * intervalNanos;
+			long wait = intended - System.nanoTime();
+			if(wait > 0)
+				LockSupport.parkNanos(wait);
+
+			long actual = System.nanoTime();
+			checkout(baskets.get((int) (i % baskets.size())));
+			long end = System.nanoTime();
+
+			if(recording) {
+				latency.record(end - intended);
+				serviceTime.record(end - actual);
+			}
+		}
+
+		if(recording) {
+			allocatedBytes.add(threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore);
+
+			synchronized (this) {
+				recordedNanos = Math.max(recordedNanos, System.nanoTime() - start);
+			}
+		}
+	}
+
+	private void checkout(List<String> productLines) {
+		IClientBasket basket = basketFactory.get();
+
+		try {
+			basket.addProducts(productLines);
+			basket.applyBonusProgram();
+			basket.printReceipt();
+		} catch (UnknownProductException e) {
+			if(recording)
+				rejected.increment();
+		}
+	}
+
+	private void gcNotification(Notification notification, Object handback) {
+		if(!recording || !GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType()))
+			return;
+
+		GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+
+		// the concurrent cycles of e.g. G1 and ZGC are reported too, but they do not stop the application
+		if(!info.getGcCause().contains("No GC") && !info.getGcName().contains("Concurrent"))
+			gcPauses.record(TimeUnit.MILLISECONDS.toNanos(info.getGcInfo().getDuration()));
+	}
+
+	private static void print(PrintStream out, String title, LatencyHistogram histogram) {
+		out.printf("%s: mean %.1f p50 %.1f p90 %.1f p99 %.1f p99.9 %.1f max %.1f%n", title,
+				histogram.getMean() / 1e3,
+				histogram.getValueAtPercentile(50) / 1e3,
+				histogram.getValueAtPercentile(90) / 1e3,
+				histogram.getValueAtPercentile(99) / 1e3,
+				histogram.getValueAtPercentile(99.9) / 1e3,
+				histogram.getMax() / 1e3);
+	}
+}
@@ -0,0 +1,159 @@
+package com.swissre.coffeecorner.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.swissre.coffeecorner.entity.Product;
+import com.swissre.coffeecorner.entity.Product.ProductType;
+import com.swissre.coffeecorner.service.CatalogSnapshot;
+
+/**
+ * Generator of synthetic orders over the products of a catalog, for the load tests.
+ *
+ * The basket sizes are uniform between the minimum and the maximum number of items. Every item is a beverage, an
+ * extras or a snack with the configured weights; a share of the beverages is ordered together with an extras on a
+ * " with " line. A share of the baskets contains one line that is not in the catalog, so checking it out fails
+ * with an {@link com.swissre.coffeecorner.exception.UnknownProductException}.
+ *
+ * Not thread-safe, every thread needs its own generator.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public final class OrderGenerator {
+
+	private static final String INVALID_LINE = "large tea";
+
+	private final String[] beverages;
+
+	private final String[] extras;
+
+	private final String[] snacks;
+
+	private final Random random;
+
+	private int minItems = 1;
+
+	private int maxItems = 8;
+
+	private int beverageWeight = 5;
+
+	private int extrasWeight = 2;
+
+	private int snackWeight = 3;
+
+	private double withShare = 0.3;
+
+	private double invalidShare = 0.01;
+
+	/**
+	 * @param catalog the catalog the products are drawn from
+	 * @param seed seed of the random generator, the same seed gives the same orders
+	 */
+	public OrderGenerator(CatalogSnapshot catalog, long seed) {
+		this.beverages = namesOf(catalog, ProductType.BEVERAGE);
+		this.extras = namesOf(catalog, ProductType.EXTRAS);
+		this.snacks = namesOf(catalog, ProductType.SNACK);
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * @param minItems minimum number of items of a basket
+	 * @param maxItems maximum number of items of a basket
+	 * @return this generator
+	 */
+	public OrderGenerator basketSize(int minItems, int maxItems) {
+		if(minItems < 1 || maxItems < minItems)
+			throw new IllegalArgumentException("Invalid basket size [" + minItems + ", " + maxItems + "].");
+
+		this.minItems = minItems;
+		this.maxItems = maxItems;
+		return this;
+	}
+
+	/**
+	 * @return this generator
+	 */
+	public OrderGenerator weights(int beverageWeight, int extrasWeight, int snackWeight) {
+		if(beverageWeight < 0 || extrasWeight < 0 || snackWeight < 0 || beverageWeight + extrasWeight + snackWeight == 0)
+			throw new IllegalArgumentException("Invalid weights [" + beverageWeight + ", " + extrasWeight + ", " + snackWeight + "].");
+
+		this.beverageWeight = beverages.length == 0 ? 0 : beverageWeight;
+		this.extrasWeight = extras.length == 0 ? 0 : extrasWeight;
+		this.snackWeight = snacks.length == 0 ? 0 : snackWeight;
+		return this;
+	}
+
+	/**
+	 * @param withShare share of the beverages ordered with an extras on the same line, between 0 and 1
+	 * @return this generator
+	 */
+	public OrderGenerator withShare(double withShare) {
+		this.withShare = withShare;
+		return this;
+	}
+
+	/**
+	 * @param invalidShare share of the baskets containing a product not in the catalog, between 0 and 1
+	 * @return this generator
+	 */
+	public OrderGenerator invalidShare(double invalidShare) {
+		this.invalidShare = invalidShare;
+		return this;
+	}
+
+	/**
+	 * @return the order lines of the next basket
+	 */
+	public List<String> nextBasket() {
+		int items = minItems + random.nextInt(maxItems - minItems + 1);
+		List<String> lines = new ArrayList<>(items);
+		int count = 0;
+
+		while(count < items) {
+			int kind = random.nextInt(beverageWeight + extrasWeight + snackWeight);
+
+			if(kind < beverageWeight) {
+				String beverage = pick(beverages);
+
+				if(extras.length > 0 && count + 2 <= items && random.nextDouble() < withShare) {
+					lines.add(beverage + " with " + pick(extras));
+					count += 2;
+				} else {
+					lines.add(beverage);
+					count++;
+				}
+			} else {
+				lines.add(kind < beverageWeight + extrasWeight ? pick(extras) : pick(snacks));
+				count++;
+			}
+		}
+
+		if(random.nextDouble() < invalidShare)
+			lines.set(random.nextInt(lines.size()), INVALID_LINE);
+
+		return lines;
+	}
+
+	@Override
+	public String toString() {
+		return "OrderGenerator [items=" + minItems + ".." + maxItems + ", weights=" + beverageWeight + "/" + extrasWeight
+				+ "/" + snackWeight + ", withShare=" + withShare + ", invalidShare=" + invalidShare + "]";
+	}
+
+	private String pick(String[] names) {
+		return names[random.nextInt(names.length)];
+	}
+
+	private static String[] namesOf(CatalogSnapshot catalog, ProductType productType) {
+		List<String> names = new ArrayList<>();
+
+		for(Product product : catalog.getProducts()) {
+			if(product.getProductType() == productType)
+				names.add(product.getName());
+		}
+
+		return names.toArray(new String[0]);
+	}
+}
@@ -0,0 +1,77 @@
+package com.swissre.coffeecorner.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generator of the order lines used by the benchmarks.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public final class OrderLines {
+
+	/**
+	 * Mixes of products in the generated baskets
+	 */
+	public enum Mix {
+		/** beverages only */
+		BEVERAGES,
+		/** beverages, snacks and extras ordered on their own */
+		MIXED,
+		/** beverages with extras (" with " lines) and snacks */
+		WITH_EXTRAS
+	}
+
+	private static final String[] BEVERAGES = { "large coffee", "medium coffee", "small coffee", "orange juice" };
+
+	private static final String[] EXTRAS = { "extra milk", "foamed milk", "special roast" };
+
+	private static final String[] SNACKS = { "bacon roll" };
+
+	private OrderLines() {
+	}
+
+	/**
+	 * Generates the lines of a basket
+	 *
+	 * @param mix the mix of the products
+	 * @param items number of items in the basket
+	 * @param seed seed of the random generator, the same seed gives the same lines
+	 * @return the order lines
+	 */
+	public static String[] generate(Mix mix, int items, long seed) {
+		Random random = new Random(seed);
+		List<String> lines = new ArrayList<>();
+		int count = 0;
+
+		while(count < items) {
+			String beverage = BEVERAGES[random.nextInt(BEVERAGES.length)];
+
+			switch (mix) {
+			case BEVERAGES:
+				lines.add(beverage);
+				count++;
+				break;
+			case MIXED:
+				int kind = random.nextInt(3);
+				lines.add(kind == 0 ? beverage
+						: kind == 1 ? EXTRAS[random.nextInt(EXTRAS.length)] : SNACKS[random.nextInt(SNACKS.length)]);
+				count++;
+				break;
+			case WITH_EXTRAS:
+				if(random.nextBoolean() && count + 2 <= items) {
+					lines.add(beverage + " with " + EXTRAS[random.nextInt(EXTRAS.length)]);
+					count += 2;
+				} else {
+					lines.add(random.nextBoolean() ? beverage : SNACKS[random.nextInt(SNACKS.length)]);
+					count++;
+				}
+				break;
+			}
+		}
+
+		return lines.toArray(new String[0]);
+	}
+}
@@ -0,0 +1,161 @@
+package com.swissre.coffeecorner.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.swissre.coffeecorner.benchmark.OrderLines.Mix;
+import com.swissre.coffeecorner.metrics.LatencyHistogram;
+
+/**
+ * Load client of the {@link com.swissre.coffeecorner.server.OrderServer}: sends the requests of the tills at a
+ * target rate and reports the latency percentiles.
+ *
+ * The load is open: every request has its intended send time on a fixed schedule, whether the previous responses
+ * came back or not, and its latency is measured from that time. A server that stalls is charged for all the
+ * requests queued behind the stall (no coordinated omission).
+ *
+ * Usage:
+ * <pre>
+ * OrderLoadClient [host] [port] [connections] [requests per second] [seconds]
+ * </pre>
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public final class OrderLoadClient {
+
+	// requests of a basket: its items, the receipt and a new basket
+	private static final int ITEMS_PER_BASKET = 5;
+
+	private OrderLoadClient() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		String host = args.length > 0 ? args[0] : "localhost";
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 7070;
+		int connections = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+		int rate = args.length > 3 ? Integer.parseInt(args[3]) : 10000;
+		int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 30;
+
+		LatencyHistogram latency = new LatencyHistogram();
+		LongAdder errors = new LongAdder();
+		long intervalNanos = TimeUnit.SECONDS.toNanos(1) * connections / rate;
+		long requestsPerConnection = (long) rate * seconds / connections;
+		long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+
+		List<Thread> threads = new ArrayList<>();
+		List<Socket> sockets = new ArrayList<>();
+
+		for(int c = 0 ; c < connections ; c++) {
+			Socket socket = new Socket(host, port);
+			socket.setTcpNoDelay(true);
+			sockets.add(socket);
+
+			ConcurrentLinkedQueue<Request> pending = new ConcurrentLinkedQueue<>();
+			String[] lines = OrderLines.generate(Mix.WITH_EXTRAS, ITEMS_PER_BASKET, c);
+			long connectionStart = start + intervalNanos * c / connections;
+
+			threads.add(new Thread(() -> send(socket, lines, pending, connectionStart, intervalNanos, requestsPerConnection),
+					"load-sender-" + c));
+			threads.add(new Thread(() -> receive(socket, pending, requestsPerConnection, latency, errors),
+					"load-receiver-" + c));
+		}
+
+		for(Thread thread : threads)
+			thread.start();
+		for(Thread thread : threads)
+			thread.join();
+		for(Socket socket : sockets)
+			socket.close();
+
+		double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.printf("requests %d in %.1f s (%.0f/s), errors %d%n", latency.getCount(), elapsedSeconds,
+				latency.getCount() / elapsedSeconds, errors.sum());
+		System.out.printf("latency us: mean %.1f p50 %.1f p90 %.1f p99 %.1f p99.9 %.1f max %.1f%n",
+				latency.getMean() / 1e3,
+				latency.getValueAtPercentile(50) / 1e3,
+				latency.getValueAtPercentile(90) / 1e3,
+				latency.getValueAtPercentile(99) / 1e3,
+				latency.getValueAtPercentile(99.9) / 1e3,
+				latency.getMax() / 1e3);
+	}
+
+	private static void send(Socket socket, String[] lines, ConcurrentLinkedQueue<Request> pending, long start,
+			long intervalNanos, long count) {
+		try {
+			OutputStream out = socket.getOutputStream();
+
+			for(long i = 0 ; i < count ; i++) {
+				long intended = start + i * intervalNanos;
+				long wait = intended - System.nanoTime();
+				if(wait > 0)
+					LockSupport.parkNanos(wait);
+
+				int step = (int) (i % (ITEMS_PER_BASKET + 2));
+				boolean print = step == ITEMS_PER_BASKET;
+				String request = step < ITEMS_PER_BASKET ? "ADD " + lines[step % lines.length] : print ? "PRINT" : "NEW";
+
+				pending.add(new Request(intended, print));
+				out.write((request + "\n").getBytes(StandardCharsets.US_ASCII));
+				out.flush();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Sending failed.", e);
+		}
+	}
+
+	private static void receive(Socket socket, ConcurrentLinkedQueue<Request> pending, long count,
+			LatencyHistogram latency, LongAdder errors) {
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+
+			for(long i = 0 ; i < count ; i++) {
+				String line = in.readLine();
+				if(line == null)
+					throw new IOException("Connection closed by the server.");
+
+				if(line.startsWith("ERR"))
+					errors.increment();
+
+				Request request;
+				while((request = pending.poll()) == null)
+					Thread.yield();
+
+				if(request.print) {
+					while(!".".equals(line)) {
+						line = in.readLine();
+						if(line == null)
+							throw new IOException("Connection closed by the server.");
+					}
+				}
+
+				latency.record(System.nanoTime() - request.intendedNanos);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Receiving failed.", e);
+		}
+	}
+
+	private static final class Request {
+
+		final long intendedNanos;
+
+		final boolean print;
+
+		Request(long intendedNanos, boolean print) {
+			this.intendedNanos = intendedNanos;
+			this.print = print;
+		}
+	}
+}
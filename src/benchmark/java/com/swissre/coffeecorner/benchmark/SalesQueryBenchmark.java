@@ -0,0 +1,154 @@
+package com.swissre.coffeecorner.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.swissre.coffeecorner.service.BonusProgram;
+import com.swissre.coffeecorner.service.CatalogSnapshot;
+import com.swissre.coffeecorner.service.ClientBasketService;
+import com.swissre.coffeecorner.service.ProductCatalog;
+import com.swissre.coffeecorner.service.SalesExport;
+import com.swissre.coffeecorner.service.SalesExportReader;
+import com.swissre.coffeecorner.service.SalesQuery;
+
+/**
+ * Benchmarks of the {@link SalesQuery}s over a month of line items of a {@link SalesExport}: the sales of every
+ * product (a scan of the whole month) and the bacon rolls sold with a coffee between 7 and 9, sequentially and in
+ * parallel.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SalesQueryBenchmark {
+
+	private static final ZoneId ZONE = ZoneId.of("Europe/Zurich");
+
+	private static final int DAYS = 30;
+
+	@Param({ "20000" })
+	public int basketsPerDay;
+
+	private Path file;
+
+	private SalesExportReader export;
+
+	private int baconRoll;
+
+	private int[] coffees;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		CatalogSnapshot catalog = ProductCatalog.getDefault().getSnapshot();
+		BonusProgram bonusProgram = ClientBasketService.getDefaultBonusProgram();
+		OrderGenerator generator = new OrderGenerator(catalog, 42).basketSize(1, 8).withShare(0.3).invalidShare(0);
+		SteppingClock clock = new SteppingClock(Instant.parse("2024-03-01T00:00:00Z"), 24 * 60 * 60 * 1000L / basketsPerDay);
+
+		file = Files.createTempFile("sales", ".export");
+
+		try (SalesExport writer = new SalesExport(file, SalesExport.DEFAULT_BLOCK_ROWS, clock)) {
+			for(int i = 0 ; i < DAYS * basketsPerDay ; i++) {
+				ClientBasketService basket = new ClientBasketService(catalog, bonusProgram);
+				basket.addProducts(generator.nextBasket());
+				basket.applyBonusProgram();
+
+				writer.append(i % 4, basket);
+			}
+		}
+
+		export = SalesExport.read(file);
+		baconRoll = catalog.getOrdinal("bacon roll");
+		coffees = new int[] { catalog.getOrdinal("large coffee"), catalog.getOrdinal("medium coffee"),
+				catalog.getOrdinal("small coffee") };
+
+		System.out.println();
+		System.out.println("line items: " + export.getRowCount() + ", blocks: " + export.getBlockCount());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		export.close();
+		Files.delete(file);
+	}
+
+	@Benchmark
+	public long[] quantityByProduct() {
+		return export.query().quantityByOrdinal();
+	}
+
+	@Benchmark
+	public long baconRollsWithCoffeeInTheMorning() {
+		return morningQuery().sumQuantity();
+	}
+
+	@Benchmark
+	public long baconRollsWithCoffeeInTheMorningParallel() {
+		return morningQuery().parallel(ForkJoinPool.commonPool()).sumQuantity();
+	}
+
+	private SalesQuery morningQuery() {
+		return export.query().hoursOfDay(7, 9, ZONE).product(baconRoll).inBasketsWith(coffees);
+	}
+
+	/**
+	 * Clock moving by a fixed step every time it is read
+	 */
+	private static class SteppingClock extends Clock {
+
+		private long millis;
+
+		private final long stepMillis;
+
+		SteppingClock(Instant start, long stepMillis) {
+			this.millis = start.toEpochMilli();
+			this.stepMillis = stepMillis;
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public long millis() {
+			millis += stepMillis;
+			return millis;
+		}
+
+		@Override
+		public Instant instant() {
+			return Instant.ofEpochMilli(millis());
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package com.swissre.coffeecorner.build;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Build step generating the built-in catalog class from the catalog definition file, run by the build as a single
+ * source file program (it does not depend on the classes of the project).
+ *
+ * The generated class com.swissre.coffeecorner.service.GeneratedCatalog holds the products as constants, the
+ * prices already in cents, and looks the product names up with a switch over strings, so loading the built-in
+ * catalog neither reads nor parses a file.
+ *
+ * Usage:
+ * <pre>
+ * java CatalogGenerator.java catalogFile generatedSourcesDirectory
+ * </pre>
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public final class CatalogGenerator {
+
+	private static final List<String> PRODUCT_TYPES = Arrays.asList("BEVERAGE", "EXTRAS", "SNACK");
+
+	private CatalogGenerator() {
+	}
+
+	public static void main(String[] args) throws IOException {
+		if(args.length != 2)
+			throw new IllegalArgumentException("Usage: CatalogGenerator catalogFile generatedSourcesDirectory");
+
+		Path catalogFile = Paths.get(args[0]);
+		Path target = Paths.get(args[1], "com", "swissre", "coffeecorner", "service", "GeneratedCatalog.java");
+
+		String source = generate(read(catalogFile), catalogFile.getFileName().toString());
+
+		// unchanged sources are not rewritten, so the incremental compilation does not recompile them
+		if(Files.exists(target) && new String(Files.readAllBytes(target), StandardCharsets.UTF_8).equals(source))
+			return;
+
+		Files.createDirectories(target.getParent());
+		Files.write(target, source.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Reads the products in the format of ProductCatalog: name;type;price, empty lines and lines starting with #
+	 * ignored
+	 *
+	 * @return the products as {name, type, price in cents}
+	 */
+	private static List<String[]> read(Path catalogFile) throws IOException {
+		List<String[]> products = new ArrayList<>();
+		Set<String> names = new HashSet<>();
+		int lineNumber = 0;
+
+		for(String line : Files.readAllLines(catalogFile, StandardCharsets.UTF_8)) {
+			lineNumber++;
+			line = line.trim();
+
+			if(line.isEmpty() || line.startsWith("#"))
+				continue;
+
+			String[] fields = line.split(";");
+
+			if(fields.length != 3)
+				throw invalidLine(catalogFile, lineNumber, "expected name;type;price");
+
+			String name = fields[0].trim();
+			String type = fields[1].trim();
+			long priceInCents;
+
+			try {
+				priceInCents = new BigDecimal(fields[2].trim()).movePointRight(2).longValueExact();
+			} catch (ArithmeticException | NumberFormatException e) {
+				throw invalidLine(catalogFile, lineNumber, "invalid price " + fields[2].trim());
+			}
+
+			if(!PRODUCT_TYPES.contains(type))
+				throw invalidLine(catalogFile, lineNumber, "invalid type " + type);
+			if(!names.add(name))
+				throw invalidLine(catalogFile, lineNumber, "duplicate product " + name);
+
+			products.add(new String[] { name, type, Long.toString(priceInCents) });
+		}
+
+		return products;
+	}
+
+	private static String generate(List<String[]> products, String catalogFileName) {
+		StringBuilder out = new StringBuilder();
+
+		out.append("package com.swissre.coffeecorner.service;\n\n");
+		out.append("import java.math.BigDecimal;\n");
+		out.append("import java.util.Arrays;\n");
+		out.append("import java.util.List;\n\n");
+		out.append("import com.swissre.coffeecorner.entity.Product;\n");
+		out.append("import com.swissre.coffeecorner.entity.Product.ProductType;\n\n");
+		out.append("/**\n");
+		out.append(" * Built-in product catalog generated from ").append(catalogFileName).append(" by the build, do not edit.\n");
+		out.append(" */\n");
+		out.append("final class GeneratedCatalog {\n\n");
+
+		out.append("\tstatic final long[] PRICES_IN_CENTS = {");
+		for(int ordinal = 0 ; ordinal < products.size() ; ordinal++)
+			out.append(ordinal == 0 ? " " : ", ").append(products.get(ordinal)[2]);
+		out.append(" };\n\n");
+
+		out.append("\tprivate GeneratedCatalog() {\n\t}\n\n");
+
+		out.append("\t/**\n\t * @return the products in the order of their catalog ordinals\n\t */\n");
+		out.append("\tstatic List<Product> products() {\n");
+		out.append("\t\treturn Arrays.asList(");
+		for(int ordinal = 0 ; ordinal < products.size() ; ordinal++) {
+			String[] product = products.get(ordinal);
+
+			out.append(ordinal == 0 ? "\n" : ",\n");
+			out.append("\t\t\t\tnew Product(").append(literal(product[0])).append(", ProductType.").append(product[1])
+					.append(", BigDecimal.valueOf(PRICES_IN_CENTS[").append(ordinal).append("], 2))");
+		}
+		out.append(");\n\t}\n\n");
+
+		out.append("\t/**\n\t * @param name name of a product\n\t * @return catalog ordinal of the product, -1 if the catalog does not contain it\n\t */\n");
+		out.append("\tstatic int ordinalOf(String name) {\n");
+		out.append("\t\tswitch (name) {\n");
+		for(int ordinal = 0 ; ordinal < products.size() ; ordinal++)
+			out.append("\t\tcase ").append(literal(products.get(ordinal)[0])).append(":\n\t\t\treturn ").append(ordinal).append(";\n");
+		out.append("\t\tdefault:\n\t\t\treturn -1;\n");
+		out.append("\t\t}\n\t}\n");
+
+		out.append("}\n");
+
+		return out.toString();
+	}
+
+	private static String literal(String text) {
+		StringBuilder literal = new StringBuilder("\"");
+
+		for(char c : text.toCharArray()) {
+			if(c == '"' || c == '\\')
+				literal.append('\\').append(c);
+			else if(c < ' ' || c > '~')
+				literal.append(String.format("\\u%04x", (int) c));
+			else
+				literal.append(c);
+		}
+
+		return literal.append('"').toString();
+	}
+
+	private static IOException invalidLine(Path catalogFile, int lineNumber, String message) {
+		return new IOException(String.format("Invalid catalog line %d of [%s]: %s", lineNumber, catalogFile, message));
+	}
+}
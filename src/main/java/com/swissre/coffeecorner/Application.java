@@ -1,18 +1,68 @@
 package com.swissre.coffeecorner;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.swissre.coffeecorner.server.OrderServer;
+import com.swissre.coffeecorner.service.BatchCheckoutService;
+import com.swissre.coffeecorner.service.CheckoutPipeline;
 import com.swissre.coffeecorner.service.ClientBasketService;
 import com.swissre.coffeecorner.service.IClientBasket;
+import com.swissre.coffeecorner.service.OrderFileSplitter;
+import com.swissre.coffeecorner.service.ProductCatalog;
+import com.swissre.coffeecorner.service.PromotionConfig;
+import com.swissre.coffeecorner.service.PromotionSimulator;
 
 /**
  * 
  * This is a command line based entry for the Charlene's Coffee Corner Work Assignment at Swiss Re.
  * 
+ * Usage:
+ * <pre>
+ * Application                      prints the receipt of a sample basket
+ * Application --batch orderFile    prints the receipts of all the baskets of the order file (separated by blank lines)
+ * Application --pipeline orderFile like --batch, checking out the baskets in a {@link CheckoutPipeline}
+ * Application --simulate orderFile prints the revenue and the gratis value of the order file under candidate promotions:
+ *                                  no free beverage and beverage thresholds 1 to 10, each without and with free extras
+ * Application --server port        takes the orders of the tills on the TCP port (see {@link OrderServer})
+ * </pre>
+ * 
  * @author Andrzej Dabkowski
  *
  */
 public class Application {
 	
-	public static void main(String[] args) {
+	public static void main(String[] args) throws IOException {
+		if(args.length == 2 && "--batch".equals(args[0])) {
+			checkoutBatch(args[1]);
+			return;
+		}
+		
+		if(args.length == 2 && "--pipeline".equals(args[0])) {
+			checkoutPipelined(args[1]);
+			return;
+		}
+		
+		if(args.length == 2 && "--simulate".equals(args[0])) {
+			simulate(args[1]);
+			return;
+		}
+		
+		if(args.length == 2 && "--server".equals(args[0])) {
+			serve(Integer.parseInt(args[1]));
+			return;
+		}
+		
 		String [] inputProductList = {
 				"large coffee with extra milk",
 				"small coffee with special roast",
@@ -22,12 +72,77 @@ public class Application {
 		
 		IClientBasket clientBasketService = new ClientBasketService();
 		
-		for(String singleProductLine : inputProductList)
-			clientBasketService.addProduct(singleProductLine);
+		clientBasketService.addProducts(Arrays.asList(inputProductList));
 		
 		clientBasketService.applyBonusProgram();
 		String printedReceipt = clientBasketService.printReceipt();
 
         System.out.println(printedReceipt);
 	}
+	
+	private static void checkoutBatch(String orderFile) throws IOException {
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+		
+		BatchCheckoutService.Summary summary = new BatchCheckoutService().checkout(Paths.get(orderFile), out);
+		out.flush();
+		
+		System.err.println(summary);
+	}
+	
+	private static void checkoutPipelined(String orderFile) throws IOException {
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+		String lineSeparator = System.getProperty("line.separator");
+		
+		CheckoutPipeline pipeline = new CheckoutPipeline(checkout -> {
+			try {
+				if(checkout.isRejected())
+					out.append("Rejected basket : ").append(checkout.getRejection()).append(lineSeparator);
+				else
+					out.append(checkout.getReceipt());
+				out.append(lineSeparator);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		
+		try (pipeline) {
+			OrderFileSplitter.forEachBasket(Paths.get(orderFile), pipeline::submit);
+		}
+		
+		try {
+			pipeline.getCompletion().join();
+		} finally {
+			out.flush();
+		}
+	}
+	
+	private static void simulate(String orderFile) throws IOException {
+		List<PromotionConfig> configs = new ArrayList<>();
+		for(int threshold = 0 ; threshold <= 10 ; threshold++) {
+			configs.add(PromotionConfig.of(threshold, false));
+			configs.add(PromotionConfig.of(threshold, true));
+		}
+		
+		List<PromotionSimulator.Result> results = new PromotionSimulator(ProductCatalog.getDefault().getSnapshot())
+				.simulate(Paths.get(orderFile), configs);
+		
+		System.out.printf("%-40s %15s %15s%n", "Promotion", "Revenue", "Gratis value");
+		for(PromotionSimulator.Result result : results) {
+			System.out.printf("%-40s %15s %15s%n", result.getConfig().getName(),
+					BigDecimal.valueOf(result.getRevenueInCents(), 2), BigDecimal.valueOf(result.getGratisValueInCents(), 2));
+		}
+		System.err.println("Baskets " + results.get(0).getBasketCount() + ", rejected " + results.get(0).getRejectedBasketCount());
+	}
+	
+	private static void serve(int port) throws IOException {
+		OrderServer server = new OrderServer(new InetSocketAddress(port), ClientBasketService::new).start();
+		
+		System.err.println("Taking orders on port " + server.getPort());
+		
+		try {
+			server.join();
+		} catch (InterruptedException e) {
+			server.close();
+		}
+	}
 }
@@ -2,17 +2,18 @@ package com.swissre.coffeecorner.entity;
 
 import java.math.BigDecimal;
 
-public class Product {
+/**
+ * Product of the catalog. Products are immutable, so they can be shared by all the baskets.
+ */
+public final class Product {
 	
 	public enum ProductType {
 		BEVERAGE, EXTRAS, SNACK
 	}
 	
-	String name;
-	BigDecimal price;
-	ProductType productType;
-	
-	public Product() {}
+	private final String name;
+	private final BigDecimal price;
+	private final ProductType productType;
 	
 	public Product(String name, ProductType productType, BigDecimal price)  {
 		this.name = name;
@@ -24,26 +25,14 @@ public class Product {
 		return name;
 	}
 
-	public void setName(String name) {
-		this.name = name;
-	}
-
 	public BigDecimal getPrice() {
 		return price;
 	}
 
-	public void setPrice(BigDecimal price) {
-		this.price = price;
-	}
-
 	public ProductType getProductType() {
 		return productType;
 	}
 
-	public void setProductType(ProductType productType) {
-		this.productType = productType;
-	}
-
 	@Override
 	public String toString() {
 		return "Product [name=" + name + ", productType=" + productType + ", price=" + price + "]";
@@ -0,0 +1,11 @@
+package com.swissre.coffeecorner.exception;
+
+public class UnknownBasketException extends RuntimeException {
+	
+	private static final long serialVersionUID = -6220960841917216514L;
+
+	public UnknownBasketException(String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,187 @@
+package com.swissre.coffeecorner.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of the basket operations: a latency histogram and counters per operation, the failures caused by
+ * unknown products and the gratis products granted.
+ *
+ * The counters are {@link LongAdder}s and the histograms are lock-free, so recording from many threads does not
+ * contend. When the metrics are disabled, the instrumented baskets only pay for reading a volatile flag.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public class BasketMetrics {
+
+	/**
+	 * Measured basket operations
+	 */
+	public enum Operation {
+		ADD_PRODUCT("addProduct"),
+		ADD_PRODUCTS("addProducts"),
+		APPLY_BONUS_PROGRAM("applyBonusProgram"),
+		PRINT_RECEIPT("printReceipt");
+
+		private final String label;
+
+		private Operation(String label) {
+			this.label = label;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+	}
+
+	private static final BasketMetrics GLOBAL = new BasketMetrics();
+
+	private static final double[] EXPORTED_PERCENTILES = { 50, 90, 99, 99.9 };
+
+	private static final String[] EXPORTED_PERCENTILE_LABELS = { "p50", "p90", "p99", "p999" };
+
+	private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+
+	private final LongAdder[] failures = new LongAdder[Operation.values().length];
+
+	private final LongAdder unknownProductCount = new LongAdder();
+
+	private final LongAdder gratisProductCount = new LongAdder();
+
+	private volatile boolean enabled = true;
+
+	public BasketMetrics() {
+		for(int i = 0 ; i < latencies.length ; i++) {
+			latencies[i] = new LatencyHistogram();
+			failures[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * @return the metrics shared by the whole application
+	 */
+	public static BasketMetrics global() {
+		return GLOBAL;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Records a completed operation
+	 *
+	 * @param operation the operation
+	 * @param nanos duration of the operation
+	 */
+	public void recordLatency(Operation operation, long nanos) {
+		latencies[operation.ordinal()].record(nanos);
+	}
+
+	/**
+	 * Records an operation that failed
+	 *
+	 * @param operation the operation
+	 */
+	public void recordFailure(Operation operation) {
+		failures[operation.ordinal()].increment();
+	}
+
+	public void recordUnknownProduct() {
+		unknownProductCount.increment();
+	}
+
+	/**
+	 * @param count number of newly granted gratis products
+	 */
+	public void recordGratisProducts(int count) {
+		gratisProductCount.add(count);
+	}
+
+	public LatencyHistogram getLatency(Operation operation) {
+		return latencies[operation.ordinal()];
+	}
+
+	public long getFailureCount(Operation operation) {
+		return failures[operation.ordinal()].sum();
+	}
+
+	public long getUnknownProductCount() {
+		return unknownProductCount.sum();
+	}
+
+	public long getGratisProductCount() {
+		return gratisProductCount.sum();
+	}
+
+	public void reset() {
+		for(int i = 0 ; i < latencies.length ; i++) {
+			latencies[i].reset();
+			failures[i].reset();
+		}
+
+		unknownProductCount.reset();
+		gratisProductCount.reset();
+	}
+
+	/**
+	 * Writes a snapshot of the metrics as JSON, the latencies in nanoseconds
+	 *
+	 * @param out the target
+	 * @throws IOException if appending to the target fails
+	 */
+	public void writeSnapshot(Appendable out) throws IOException {
+		out.append("{\"timestamp\":").append(Long.toString(System.currentTimeMillis()));
+		out.append(",\"operations\":{");
+
+		for(Operation operation : Operation.values()) {
+			LatencyHistogram latency = latencies[operation.ordinal()];
+
+			if(operation.ordinal() > 0)
+				out.append(',');
+
+			out.append('"').append(operation.getLabel()).append("\":{");
+			out.append("\"count\":").append(Long.toString(latency.getCount()));
+			out.append(",\"failures\":").append(Long.toString(getFailureCount(operation)));
+			out.append(",\"mean\":").append(Long.toString(latency.getMean()));
+
+			for(int i = 0 ; i < EXPORTED_PERCENTILES.length ; i++) {
+				out.append(",\"").append(EXPORTED_PERCENTILE_LABELS[i]).append("\":")
+						.append(Long.toString(latency.getValueAtPercentile(EXPORTED_PERCENTILES[i])));
+			}
+
+			out.append(",\"max\":").append(Long.toString(latency.getMax())).append('}');
+		}
+
+		out.append("},\"unknownProducts\":").append(Long.toString(getUnknownProductCount()));
+		out.append(",\"gratisProducts\":").append(Long.toString(getGratisProductCount()));
+		out.append("}");
+	}
+
+	/**
+	 * Exports a snapshot of the metrics as JSON to a local file, replacing it atomically
+	 *
+	 * @param file the target file
+	 * @throws IOException if writing the file fails
+	 */
+	public void exportSnapshot(Path file) throws IOException {
+		Path absolute = file.toAbsolutePath();
+		Path temporary = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+
+		try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+			writeSnapshot(writer);
+		}
+
+		Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
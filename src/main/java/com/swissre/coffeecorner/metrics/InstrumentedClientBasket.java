@@ -0,0 +1,188 @@
+package com.swissre.coffeecorner.metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.swissre.coffeecorner.entity.Product;
+import com.swissre.coffeecorner.exception.UnknownProductException;
+import com.swissre.coffeecorner.metrics.BasketMetrics.Operation;
+import com.swissre.coffeecorner.service.IClientBasket;
+
+/**
+ * Decorator of a basket recording the latency of its operations, the unknown products and the gratis products
+ * granted into {@link BasketMetrics}. When the metrics are disabled the calls go straight to the decorated basket.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public class InstrumentedClientBasket implements IClientBasket {
+
+	private final IClientBasket delegate;
+
+	private final BasketMetrics metrics;
+
+	// gratis products already recorded as granted, the bonus program may be applied repeatedly
+	private int recordedGratisProducts;
+
+	public InstrumentedClientBasket(IClientBasket delegate) {
+		this(delegate, BasketMetrics.global());
+	}
+
+	public InstrumentedClientBasket(IClientBasket delegate, BasketMetrics metrics) {
+		this.delegate = delegate;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public List<Product> addProduct(String productLine) {
+		return addProduct((CharSequence) productLine);
+	}
+
+	@Override
+	public List<Product> addProduct(CharSequence productLine) {
+		if(!metrics.isEnabled())
+			return delegate.addProduct(productLine);
+
+		long start = System.nanoTime();
+		try {
+			List<Product> products = delegate.addProduct(productLine);
+			metrics.recordLatency(Operation.ADD_PRODUCT, System.nanoTime() - start);
+
+			return products;
+		} catch (UnknownProductException e) {
+			metrics.recordUnknownProduct();
+			metrics.recordFailure(Operation.ADD_PRODUCT);
+			throw e;
+		} catch (RuntimeException e) {
+			metrics.recordFailure(Operation.ADD_PRODUCT);
+			throw e;
+		}
+	}
+
+	@Override
+	public int addProductLine(CharSequence productLine) {
+		if(!metrics.isEnabled())
+			return delegate.addProductLine(productLine);
+
+		long start = System.nanoTime();
+		try {
+			int count = delegate.addProductLine(productLine);
+			metrics.recordLatency(Operation.ADD_PRODUCT, System.nanoTime() - start);
+
+			return count;
+		} catch (UnknownProductException e) {
+			metrics.recordUnknownProduct();
+			metrics.recordFailure(Operation.ADD_PRODUCT);
+			throw e;
+		} catch (RuntimeException e) {
+			metrics.recordFailure(Operation.ADD_PRODUCT);
+			throw e;
+		}
+	}
+
+	/**
+	 * Delegates the whole batch, so a basket evaluating the bonus program once per batch is measured doing so
+	 */
+	@Override
+	public List<Product> addProducts(Iterable<String> productLines) {
+		if(!metrics.isEnabled())
+			return delegate.addProducts(productLines);
+
+		long start = System.nanoTime();
+		try {
+			List<Product> products = delegate.addProducts(productLines);
+			metrics.recordLatency(Operation.ADD_PRODUCTS, System.nanoTime() - start);
+
+			return products;
+		} catch (UnknownProductException e) {
+			metrics.recordUnknownProduct();
+			metrics.recordFailure(Operation.ADD_PRODUCTS);
+			throw e;
+		} catch (RuntimeException e) {
+			metrics.recordFailure(Operation.ADD_PRODUCTS);
+			throw e;
+		}
+	}
+
+	@Override
+	public List<Product> applyBonusProgram() {
+		if(!metrics.isEnabled())
+			return delegate.applyBonusProgram();
+
+		long start = System.nanoTime();
+		try {
+			List<Product> gratisProducts = delegate.applyBonusProgram();
+			metrics.recordLatency(Operation.APPLY_BONUS_PROGRAM, System.nanoTime() - start);
+
+			int granted = gratisProducts.size() - recordedGratisProducts;
+			if(granted > 0) {
+				metrics.recordGratisProducts(granted);
+				recordedGratisProducts += granted;
+			}
+
+			return gratisProducts;
+		} catch (RuntimeException e) {
+			metrics.recordFailure(Operation.APPLY_BONUS_PROGRAM);
+			throw e;
+		}
+	}
+
+	@Override
+	public String printReceipt() {
+		if(!metrics.isEnabled())
+			return delegate.printReceipt();
+
+		long start = System.nanoTime();
+		try {
+			String receipt = delegate.printReceipt();
+			metrics.recordLatency(Operation.PRINT_RECEIPT, System.nanoTime() - start);
+
+			return receipt;
+		} catch (RuntimeException e) {
+			metrics.recordFailure(Operation.PRINT_RECEIPT);
+			throw e;
+		}
+	}
+
+	@Override
+	public void writeReceipt(Appendable out) throws IOException {
+		if(!metrics.isEnabled()) {
+			delegate.writeReceipt(out);
+			return;
+		}
+
+		long start = System.nanoTime();
+		try {
+			delegate.writeReceipt(out);
+			metrics.recordLatency(Operation.PRINT_RECEIPT, System.nanoTime() - start);
+		} catch (IOException | RuntimeException e) {
+			metrics.recordFailure(Operation.PRINT_RECEIPT);
+			throw e;
+		}
+	}
+
+	@Override
+	public void writeReceipt(ByteBuffer out) {
+		if(!metrics.isEnabled()) {
+			delegate.writeReceipt(out);
+			return;
+		}
+
+		long start = System.nanoTime();
+		try {
+			delegate.writeReceipt(out);
+			metrics.recordLatency(Operation.PRINT_RECEIPT, System.nanoTime() - start);
+		} catch (RuntimeException e) {
+			metrics.recordFailure(Operation.PRINT_RECEIPT);
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the decorated basket
+	 */
+	public IClientBasket getDelegate() {
+		return delegate;
+	}
+}
@@ -0,0 +1,124 @@
+package com.swissre.coffeecorner.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets, in the spirit of HdrHistogram.
+ *
+ * Every power of two is split into {@value #SUB_BUCKETS} linear sub-buckets, so a recorded value is reported
+ * with a relative error below 1 / {@value #SUB_BUCKETS} over the whole range of long values, with a fixed
+ * number of buckets. Recording is a couple of arithmetic operations and one atomic increment.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	private final LongAdder totalCount = new LongAdder();
+
+	private final LongAdder totalValue = new LongAdder();
+
+	/**
+	 * Records a value, negative values are recorded as 0
+	 *
+	 * @param value the value, e.g. a latency in nanoseconds
+	 */
+	public void record(long value) {
+		long positive = Math.max(value, 0);
+
+		counts.incrementAndGet(indexOf(positive));
+		totalCount.increment();
+		totalValue.add(positive);
+	}
+
+	public long getCount() {
+		return totalCount.sum();
+	}
+
+	/**
+	 * @return mean of the recorded values, 0 if nothing was recorded
+	 */
+	public long getMean() {
+		long count = totalCount.sum();
+
+		return count == 0 ? 0 : totalValue.sum() / count;
+	}
+
+	/**
+	 * @param percentile the percentile, between 0 and 100
+	 * @return the highest value equivalent to the value at the percentile, 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long[] snapshot = new long[BUCKETS];
+		long count = 0;
+
+		for(int i = 0 ; i < BUCKETS ; i++) {
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+
+		if(count == 0)
+			return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+		long seen = 0;
+
+		for(int i = 0 ; i < BUCKETS ; i++) {
+			seen += snapshot[i];
+
+			if(seen >= rank)
+				return highestValueOf(i);
+		}
+
+		return highestValueOf(BUCKETS - 1);
+	}
+
+	/**
+	 * @return the highest value equivalent to the highest recorded value, 0 if nothing was recorded
+	 */
+	public long getMax() {
+		for(int i = BUCKETS - 1 ; i >= 0 ; i--) {
+			if(counts.get(i) > 0)
+				return highestValueOf(i);
+		}
+
+		return 0;
+	}
+
+	public void reset() {
+		for(int i = 0 ; i < BUCKETS ; i++)
+			counts.set(i, 0);
+
+		totalCount.reset();
+		totalValue.reset();
+	}
+
+	static int indexOf(long value) {
+		if(value < SUB_BUCKETS)
+			return (int) value;
+
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	static long highestValueOf(int index) {
+		if(index < SUB_BUCKETS)
+			return index;
+
+		int shift = index / SUB_BUCKETS - 1;
+		long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+
+		return lowest + (1L << shift) - 1;
+	}
+}
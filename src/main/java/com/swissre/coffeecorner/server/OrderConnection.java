@@ -0,0 +1,241 @@
+package com.swissre.coffeecorner.server;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+import com.swissre.coffeecorner.service.ByteCharSequence;
+import com.swissre.coffeecorner.service.IClientBasket;
+
+/**
+ * State of one till connected to the {@link OrderServer}: its basket and its request and response buffers.
+ *
+ * The requests are processed in the order they arrive and their responses are queued in the same order, so a
+ * till may pipeline requests. When too many responses are waiting to be sent, the connection stops reading until
+ * the till has read them. A till that shuts down its output after the last request still gets all the responses
+ * before the connection is closed.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+final class OrderConnection {
+
+	static final int REQUEST_BUFFER_SIZE = 8 * 1024;
+
+	// the connection stops processing requests while more response bytes wait to be sent
+	static final int RESPONSE_HIGH_WATER_MARK = 64 * 1024;
+
+	private static final byte[] OK = "OK".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] ERR = "ERR ".getBytes(StandardCharsets.US_ASCII);
+
+	private static final byte[] RECEIPT_END = ".\n".getBytes(StandardCharsets.US_ASCII);
+
+	private final SocketChannel channel;
+
+	private final Supplier<? extends IClientBasket> basketFactory;
+
+	private final ByteBuffer requests = ByteBuffer.allocate(REQUEST_BUFFER_SIZE);
+
+	// in write mode: the bytes between 0 and the position wait to be sent
+	private ByteBuffer responses = ByteBuffer.allocate(REQUEST_BUFFER_SIZE);
+
+	private final ByteCharSequence request = new ByteCharSequence();
+
+	private final ByteCharSequence productLine = new ByteCharSequence();
+
+	private IClientBasket basket;
+
+	private boolean quit;
+
+	// the till has shut down its output, the requests already read are still answered
+	private boolean endOfRequests;
+
+	OrderConnection(SocketChannel channel, Supplier<? extends IClientBasket> basketFactory) {
+		this.channel = channel;
+		this.basketFactory = basketFactory;
+		this.basket = basketFactory.get();
+	}
+
+	/**
+	 * Reads the available requests, processes them and sends their responses
+	 *
+	 * @param key the selection key of the connection
+	 * @throws IOException if the connection fails
+	 */
+	void handle(SelectionKey key) throws IOException {
+		if(key.isWritable())
+			send();
+
+		if(key.isReadable() && !quit && !endOfRequests && responses.position() < RESPONSE_HIGH_WATER_MARK) {
+			if(channel.read(requests) < 0)
+				endOfRequests = true;
+		}
+
+		processRequests();
+		send();
+
+		// the responses sent make room for the requests already read, no event would come for them
+		while(!quit && responses.position() < RESPONSE_HIGH_WATER_MARK && indexOfNewLine(0, requests.position()) >= 0) {
+			processRequests();
+			send();
+		}
+
+		// an incomplete last request is dropped, like the rest of a connection after QUIT
+		if(endOfRequests && indexOfNewLine(0, requests.position()) < 0)
+			quit = true;
+
+		if(quit && responses.position() == 0) {
+			close(key);
+			return;
+		}
+
+		if(!quit && !requests.hasRemaining() && indexOfNewLine(0, requests.position()) < 0) {
+			// a request longer than the buffer cannot be framed
+			respondError("Request too long.");
+			quit = true;
+			send();
+		}
+
+		boolean pending = responses.position() > 0;
+		boolean readable = !quit && !endOfRequests && responses.position() < RESPONSE_HIGH_WATER_MARK;
+
+		key.interestOps((pending ? SelectionKey.OP_WRITE : 0) | (readable ? SelectionKey.OP_READ : 0));
+	}
+
+	void close(SelectionKey key) throws IOException {
+		key.cancel();
+		channel.close();
+	}
+
+	private void processRequests() {
+		requests.flip();
+
+		int start = requests.position();
+		int end;
+
+		while(!quit && responses.position() < RESPONSE_HIGH_WATER_MARK && (end = indexOfNewLine(start, requests.limit())) >= 0) {
+			int length = end - start;
+
+			if(length > 0 && requests.get(start + length - 1) == '\r')
+				length--;
+
+			process(start, length);
+			start = end + 1;
+		}
+
+		requests.position(start);
+		requests.compact();
+	}
+
+	private int indexOfNewLine(int start, int end) {
+		for(int i = start ; i < end ; i++) {
+			if(requests.get(i) == '\n')
+				return i;
+		}
+
+		return -1;
+	}
+
+	private void process(int start, int length) {
+		request.wrap(requests, start, length);
+
+		try {
+			if(request.startsWith("ADD ")) {
+				productLine.wrap(requests, start + 4, length - 4);
+
+				// the product names are ASCII, other lines are decoded for the error message
+				int count = basket.addProductLine(productLine.isAscii() ? productLine : productLine.toString());
+				respondOk(count);
+			} else if(request.contentEquals("BONUS")) {
+				respondOk(basket.applyBonusProgram().size());
+			} else if(request.contentEquals("PRINT")) {
+				respondReceipt();
+			} else if(request.contentEquals("NEW")) {
+				basket = basketFactory.get();
+				respondOk(-1);
+			} else if(request.contentEquals("QUIT")) {
+				quit = true;
+				respondOk(-1);
+			} else {
+				respondError("Unknown request [" + request + "].");
+			}
+		} catch (RuntimeException e) {
+			respondError(e.getMessage());
+		}
+	}
+
+	/**
+	 * @param value value of the response, none if negative
+	 */
+	private void respondOk(int value) {
+		ensureCapacity(OK.length + 12);
+
+		responses.put(OK);
+		if(value >= 0) {
+			responses.put((byte) ' ');
+			putDigits(value);
+		}
+		responses.put((byte) '\n');
+	}
+
+	private void respondError(String message) {
+		byte[] bytes = String.valueOf(message).replace('\n', ' ').getBytes(StandardCharsets.UTF_8);
+
+		ensureCapacity(ERR.length + bytes.length + 1);
+		responses.put(ERR).put(bytes).put((byte) '\n');
+	}
+
+	/**
+	 * The receipt is followed by a line with a single dot, the receipt itself never contains such a line
+	 */
+	private void respondReceipt() {
+		int start = responses.position();
+
+		while(true) {
+			try {
+				basket.writeReceipt(responses);
+				break;
+			} catch (BufferOverflowException e) {
+				responses.position(start);
+				grow(responses.capacity() * 2);
+			}
+		}
+
+		ensureCapacity(RECEIPT_END.length);
+		responses.put(RECEIPT_END);
+	}
+
+	private void send() throws IOException {
+		if(responses.position() == 0)
+			return;
+
+		responses.flip();
+		channel.write(responses);
+		responses.compact();
+	}
+
+	private void putDigits(int value) {
+		if(value >= 10)
+			putDigits(value / 10);
+
+		responses.put((byte) ('0' + value % 10));
+	}
+
+	private void ensureCapacity(int length) {
+		if(responses.remaining() < length)
+			grow(Math.max(responses.capacity() * 2, responses.position() + length));
+	}
+
+	private void grow(int capacity) {
+		ByteBuffer grown = ByteBuffer.allocate(capacity);
+
+		responses.flip();
+		grown.put(responses);
+		responses = grown;
+	}
+}
@@ -0,0 +1,162 @@
+package com.swissre.coffeecorner.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.function.Supplier;
+
+import com.swissre.coffeecorner.service.IClientBasket;
+
+/**
+ * Non-blocking TCP server taking the orders of the tills.
+ *
+ * A single selector thread serves all the connections, every connection has its own basket. The protocol is line
+ * based (ASCII, lines terminated by \n or \r\n) and the requests may be pipelined, the responses come in the order
+ * of the requests:
+ * <pre>
+ * ADD product line    OK number of added products      adds the product(s) of the line to the basket
+ * BONUS               OK number of gratis products     applies the bonus program
+ * PRINT               receipt lines, then a line "."   prints the receipt
+ * NEW                 OK                               starts a new basket
+ * QUIT                OK                               closes the connection
+ * </pre>
+ * A failed request is answered by <code>ERR message</code>. The request and response buffers of a connection
+ * are reused from request to request, the product lines are parsed straight from the request buffer and the
+ * receipts are written straight into the response buffer.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public class OrderServer implements AutoCloseable {
+
+	private final Supplier<? extends IClientBasket> basketFactory;
+
+	private final Selector selector;
+
+	private final ServerSocketChannel serverChannel;
+
+	private final Thread selectorThread;
+
+	private volatile boolean closed;
+
+	/**
+	 * Binds the server, {@link #start()} starts serving the connections
+	 *
+	 * @param address address to listen on, port 0 for any free port
+	 * @param basketFactory creates the basket of every connection
+	 * @throws IOException if the server cannot be bound
+	 */
+	public OrderServer(InetSocketAddress address, Supplier<? extends IClientBasket> basketFactory) throws IOException {
+		this.basketFactory = basketFactory;
+		this.selector = Selector.open();
+		this.serverChannel = ServerSocketChannel.open();
+
+		try {
+			serverChannel.bind(address);
+			serverChannel.configureBlocking(false);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			serverChannel.close();
+			selector.close();
+			throw e;
+		}
+
+		this.selectorThread = new Thread(this::serve, "order-server");
+	}
+
+	public OrderServer start() {
+		selectorThread.start();
+
+		return this;
+	}
+
+	/**
+	 * @return the port the server listens on
+	 */
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * Waits until the server is closed
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void join() throws InterruptedException {
+		selectorThread.join();
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		selector.wakeup();
+
+		try {
+			selectorThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		for(SelectionKey key : selector.keys())
+			key.channel().close();
+
+		selector.close();
+	}
+
+	private void serve() {
+		while(!closed) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				return;
+			}
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+			while(keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+
+				if(!key.isValid())
+					continue;
+
+				if(key.isAcceptable()) {
+					accept();
+					continue;
+				}
+
+				OrderConnection connection = (OrderConnection) key.attachment();
+
+				try {
+					connection.handle(key);
+				} catch (IOException e) {
+					// the till went away, only its connection is affected
+					try {
+						connection.close(key);
+					} catch (IOException closeFailure) {
+						e.addSuppressed(closeFailure);
+					}
+				}
+			}
+		}
+	}
+
+	private void accept() {
+		try {
+			SocketChannel channel = serverChannel.accept();
+
+			if(channel == null)
+				return;
+
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			channel.register(selector, SelectionKey.OP_READ, new OrderConnection(channel, basketFactory));
+		} catch (IOException e) {
+			// the connection failed before it was accepted, keep serving the others
+		}
+	}
+}
@@ -0,0 +1,305 @@
+package com.swissre.coffeecorner.service;
+
+import java.util.Arrays;
+
+import com.swissre.coffeecorner.entity.Product;
+import com.swissre.coffeecorner.entity.Product.ProductType;
+
+/**
+ * Primitive representation of the client's basket.
+ *
+ * The basket keeps a quantity per catalog ordinal, a counter per {@link ProductType} and, per product type,
+ * the ordinals in the order they were added together with the running sum of their prices. All money is
+ * kept as a long number of minor units (cents). Adding a product and computing the total are O(1) and,
+ * once the internal arrays have grown to the size of the basket, do not allocate.
+ *
+ * Gratis products of a type are always the first products of that type added to the basket
+ * (see {@link #setGratisCount(ProductType, int)}).
+ *
+ * This class is not thread-safe.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public final class BasketContent {
+
+	private static final ProductType[] PRODUCT_TYPES = ProductType.values();
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private static final int HASH_TABLE_INITIAL_CAPACITY = 16;
+
+	private final Product[] products;
+
+	private final long[] pricesInCents;
+
+	// catalog ordinal -> hash of the product name (spread the same way java.util.HashMap does)
+	private final int[] nameHashes;
+
+	// catalog ordinal -> number of items in the basket
+	private final int[] quantities;
+
+	// catalog ordinal -> number of gratis items in the basket
+	private final int[] gratisQuantities;
+
+	// catalog ordinal -> position (in the sequence of its type) of the first item that is not gratis, -1 if none
+	private final int[] firstPayablePositions;
+
+	// catalog ordinal -> position (in the sequence of its type) of the last item added
+	private final int[] lastPositions;
+
+	// product type -> ordinals in the order they were added
+	private final int[][] sequences;
+
+	// product type -> position -> position of the next item with the same ordinal, -1 if none
+	private final int[][] nextPositions;
+
+	// product type -> i -> sum of the prices of the first i items
+	private final long[][] priceSums;
+
+	// scratch array for collectPayableOrdinals, sized to the catalog
+	private final int[] ordinalsBuffer;
+
+	private final int[] typeCounts = new int[PRODUCT_TYPES.length];
+
+	private final int[] gratisCounts = new int[PRODUCT_TYPES.length];
+
+	public BasketContent(Product[] products, long[] pricesInCents) {
+		this.products = products;
+		this.pricesInCents = pricesInCents;
+
+		nameHashes = new int[products.length];
+		for(int ordinal = 0 ; ordinal < products.length ; ordinal++) {
+			int hash = products[ordinal].getName().hashCode();
+			nameHashes[ordinal] = hash ^ (hash >>> 16);
+		}
+
+		quantities = new int[products.length];
+		gratisQuantities = new int[products.length];
+		firstPayablePositions = new int[products.length];
+		lastPositions = new int[products.length];
+		ordinalsBuffer = new int[products.length];
+		Arrays.fill(firstPayablePositions, -1);
+		Arrays.fill(lastPositions, -1);
+
+		sequences = new int[PRODUCT_TYPES.length][INITIAL_CAPACITY];
+		nextPositions = new int[PRODUCT_TYPES.length][INITIAL_CAPACITY];
+		priceSums = new long[PRODUCT_TYPES.length][INITIAL_CAPACITY + 1];
+	}
+
+	/**
+	 * Adds one item of the product with the given catalog ordinal
+	 *
+	 * @param ordinal catalog ordinal of the product
+	 */
+	public void add(int ordinal) {
+		int type = products[ordinal].getProductType().ordinal();
+		int position = typeCounts[type];
+
+		if(position == sequences[type].length)
+			grow(type);
+
+		sequences[type][position] = ordinal;
+		nextPositions[type][position] = -1;
+		priceSums[type][position + 1] = priceSums[type][position] + pricesInCents[ordinal];
+
+		if(lastPositions[ordinal] >= 0)
+			nextPositions[type][lastPositions[ordinal]] = position;
+		lastPositions[ordinal] = position;
+
+		if(firstPayablePositions[ordinal] < 0)
+			firstPayablePositions[ordinal] = position;
+
+		quantities[ordinal]++;
+		typeCounts[type]++;
+	}
+
+	/**
+	 * Marks the first count items of the given type as gratis. Moving the gratis boundary costs
+	 * O(difference between the old and the new count).
+	 *
+	 * @param productType type of the products
+	 * @param count number of gratis items, capped by the number of items of this type
+	 */
+	public void setGratisCount(ProductType productType, int count) {
+		int type = productType.ordinal();
+		int newCount = Math.max(0, Math.min(count, typeCounts[type]));
+		int[] sequence = sequences[type];
+
+		while(gratisCounts[type] < newCount) {
+			int position = gratisCounts[type]++;
+			int ordinal = sequence[position];
+
+			gratisQuantities[ordinal]++;
+			firstPayablePositions[ordinal] = nextPositions[type][position];
+		}
+
+		while(gratisCounts[type] > newCount) {
+			int position = --gratisCounts[type];
+			int ordinal = sequence[position];
+
+			gratisQuantities[ordinal]--;
+			firstPayablePositions[ordinal] = position;
+		}
+	}
+
+	public int getGratisCount(ProductType productType) {
+		return gratisCounts[productType.ordinal()];
+	}
+
+	/**
+	 * @param productType type of the products
+	 * @param index index of the item among the items of this type in the order they were added
+	 * @return catalog ordinal of the item
+	 */
+	public int getOrdinal(ProductType productType, int index) {
+		return sequences[productType.ordinal()][index];
+	}
+
+	/**
+	 * @return number of items indexed by {@link ProductType#ordinal()}, must not be modified
+	 */
+	int[] getTypeCounts() {
+		return typeCounts;
+	}
+
+	public int getTypeCount(ProductType productType) {
+		return typeCounts[productType.ordinal()];
+	}
+
+	public int getQuantity(int ordinal) {
+		return quantities[ordinal];
+	}
+
+	public int getGratisQuantity(int ordinal) {
+		return gratisQuantities[ordinal];
+	}
+
+	public int getPayableQuantity(int ordinal) {
+		return quantities[ordinal] - gratisQuantities[ordinal];
+	}
+
+	public Product getProduct(int ordinal) {
+		return products[ordinal];
+	}
+
+	public long getPriceInCents(int ordinal) {
+		return pricesInCents[ordinal];
+	}
+
+	public int getCatalogSize() {
+		return products.length;
+	}
+
+	/**
+	 * @param productType type of the products
+	 * @return value of the items of this type that are not gratis
+	 */
+	public long getTotalInCents(ProductType productType) {
+		int type = productType.ordinal();
+
+		return priceSums[type][typeCounts[type]] - priceSums[type][gratisCounts[type]];
+	}
+
+	/**
+	 * @return value of all the items that are not gratis
+	 */
+	public long getTotalInCents() {
+		long total = 0;
+
+		for(ProductType productType : PRODUCT_TYPES)
+			total += getTotalInCents(productType);
+
+		return total;
+	}
+
+	/**
+	 * @param productType type of the products
+	 * @return value of the gratis items of this type
+	 */
+	public long getGratisValueInCents(ProductType productType) {
+		return priceSums[productType.ordinal()][gratisCounts[productType.ordinal()]];
+	}
+
+	/**
+	 * Collects the ordinals of the products of the given type that have to be paid for, in the order of the
+	 * receipt lines. The order is the one the receipt has always had, i.e. the iteration order of a
+	 * java.util.HashMap grouping the items by product name: by hash bucket and, within a bucket, the most
+	 * recently first seen product first.
+	 *
+	 * @param productType type of the products
+	 * @param ordinals array of at least {@link #getCatalogSize()} elements receiving the ordinals
+	 * @return number of ordinals collected
+	 */
+	public int collectPayableOrdinals(ProductType productType, int[] ordinals) {
+		int count = 0;
+
+		for(int ordinal = 0 ; ordinal < products.length ; ordinal++) {
+			if(products[ordinal].getProductType() == productType && getPayableQuantity(ordinal) > 0)
+				ordinals[count++] = ordinal;
+		}
+
+		// computeIfAbsent resizes a map above its threshold (3/4 of the capacity) at the start of the next call, so
+		// a map of threshold + 1 products has not been resized only if the last item was the first of its product
+		int type = productType.ordinal();
+		int last = typeCounts[type] - 1;
+		boolean lastItemFirstOfProduct = count > 0 && firstPayablePositions[sequences[type][last]] == last;
+
+		int tableSize = HASH_TABLE_INITIAL_CAPACITY;
+		while(count > tableSize / 4 * 3 + 1 || (count == tableSize / 4 * 3 + 1 && !lastItemFirstOfProduct))
+			tableSize <<= 1;
+
+		int mask = tableSize - 1;
+
+		// insertion sort, there are at most as many elements as products of this type in the catalog
+		for(int i = 1 ; i < count ; i++) {
+			int ordinal = ordinals[i];
+			int j = i - 1;
+
+			while(j >= 0 && precedes(ordinal, ordinals[j], mask)) {
+				ordinals[j + 1] = ordinals[j];
+				j--;
+			}
+			ordinals[j + 1] = ordinal;
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return a scratch array owned by this basket that can receive the result of collectPayableOrdinals
+	 */
+	int[] getOrdinalsBuffer() {
+		return ordinalsBuffer;
+	}
+
+	/**
+	 * Removes all items, keeping the allocated arrays for the next client
+	 */
+	public void clear() {
+		Arrays.fill(quantities, 0);
+		Arrays.fill(gratisQuantities, 0);
+		Arrays.fill(firstPayablePositions, -1);
+		Arrays.fill(lastPositions, -1);
+		Arrays.fill(typeCounts, 0);
+		Arrays.fill(gratisCounts, 0);
+	}
+
+	private boolean precedes(int ordinal, int other, int mask) {
+		int bucket = nameHashes[ordinal] & mask;
+		int otherBucket = nameHashes[other] & mask;
+
+		if(bucket != otherBucket)
+			return bucket < otherBucket;
+
+		return firstPayablePositions[ordinal] > firstPayablePositions[other];
+	}
+
+	private void grow(int type) {
+		int capacity = sequences[type].length * 2;
+
+		sequences[type] = Arrays.copyOf(sequences[type], capacity);
+		nextPositions[type] = Arrays.copyOf(nextPositions[type], capacity);
+		priceSums[type] = Arrays.copyOf(priceSums[type], capacity + 1);
+	}
+}
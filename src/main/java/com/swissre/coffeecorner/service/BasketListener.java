@@ -0,0 +1,22 @@
+package com.swissre.coffeecorner.service;
+
+/**
+ * Listener of the changes of a {@link ClientBasketService}, e.g. a customer-facing display.
+ *
+ * The listener is called on the thread changing the basket, after the products have been added (and, except in
+ * the middle of {@link ClientBasketService#addProducts(Iterable)}, after the bonus program has been applied).
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public interface BasketListener {
+
+	/**
+	 * Called when the basket has changed
+	 *
+	 * @param content the basket, must not be modified
+	 * @param addedOrdinals catalog ordinals of the added items, valid only during the call
+	 * @param addedCount number of added items, 0 if only the gratis products have changed
+	 */
+	void basketChanged(BasketContent content, int[] addedOrdinals, int addedCount);
+}
@@ -0,0 +1,134 @@
+package com.swissre.coffeecorner.service;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free pool of baskets reused from customer to customer, so that the checkout does not allocate once the
+ * pooled baskets have grown to the size of the orders.
+ *
+ * The pool is a fixed array of slots taken and filled with compare-and-set; every thread starts looking at its own
+ * slot, so the threads rarely compete for a slot. A basket is {@link ClientBasketService#reset() reset} when it is
+ * released. The baskets priced against an older snapshot of the catalog, or with a bonus program that is no longer
+ * the {@link PromotionSchedule#current() current} one, are dropped, so a catalog reload and the start or the end of
+ * a time-windowed promotion reach the pooled baskets too.
+ *
+ * Used as:
+ * <pre>
+ * ClientBasketService basket = pool.acquire();
+ * try {
+ *     basket.addProductLine(productLine);
+ *     ...
+ *     basket.writeReceipt(buffer);
+ * } finally {
+ *     pool.release(basket);
+ * }
+ * </pre>
+ * The allocation-free calls of the basket are {@link ClientBasketService#addProductLine(CharSequence)},
+ * {@link ClientBasketService#applyBonusProgram()} and the writeReceipt methods, with a reused target.
+ *
+ * Instances are thread-safe.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public class BasketPool {
+
+	private final ProductCatalog catalog;
+
+	private final PromotionSchedule schedule;
+
+	private final AtomicReferenceArray<ClientBasketService> slots;
+
+	public BasketPool(int capacity) {
+		this(ProductCatalog.getDefault(), ClientBasketService.getDefaultBonusProgram(), capacity);
+	}
+
+	/**
+	 * @param catalog the catalog the baskets are priced against, its current snapshot for the new baskets
+	 * @param bonusProgram the bonus program of the baskets
+	 * @param capacity maximum number of idle baskets kept in the pool
+	 */
+	public BasketPool(ProductCatalog catalog, BonusProgram bonusProgram, int capacity) {
+		this(catalog, PromotionSchedule.of(bonusProgram), capacity);
+	}
+
+	/**
+	 * @param catalog the catalog the baskets are priced against, its current snapshot for the new baskets
+	 * @param schedule the schedule of the bonus programs, its current program for the new baskets
+	 * @param capacity maximum number of idle baskets kept in the pool
+	 */
+	public BasketPool(ProductCatalog catalog, PromotionSchedule schedule, int capacity) {
+		if(capacity <= 0)
+			throw new IllegalArgumentException("Capacity has to be positive [" + capacity + "].");
+
+		this.catalog = catalog;
+		this.schedule = schedule;
+		this.slots = new AtomicReferenceArray<>(capacity);
+	}
+
+	/**
+	 * @return an empty basket, a pooled one if there is one priced against the current snapshot of the catalog and
+	 * with the current bonus program
+	 */
+	public ClientBasketService acquire() {
+		CatalogSnapshot snapshot = catalog.getSnapshot();
+		BonusProgram bonusProgram = schedule.current();
+		int start = startSlot();
+
+		for(int i = 0 ; i < slots.length() ; i++) {
+			int slot = (start + i) % slots.length();
+			ClientBasketService basket = slots.get(slot);
+
+			if(basket != null && slots.compareAndSet(slot, basket, null)) {
+				if(basket.getCatalog() == snapshot && basket.getBonusProgram() == bonusProgram)
+					return basket;
+				// priced against an older snapshot or with another bonus program, dropped
+			}
+		}
+
+		return new ClientBasketService(snapshot, bonusProgram);
+	}
+
+	/**
+	 * Resets the basket and returns it to the pool. The basket must not be used after it has been released.
+	 *
+	 * @param basket a basket acquired from this pool
+	 */
+	public void release(ClientBasketService basket) {
+		if(basket.getCatalog() != catalog.getSnapshot())
+			return;
+
+		basket.reset();
+
+		int start = startSlot();
+
+		for(int i = 0 ; i < slots.length() ; i++) {
+			int slot = (start + i) % slots.length();
+
+			if(slots.get(slot) == null && slots.compareAndSet(slot, null, basket))
+				return;
+		}
+
+		// the pool is full, the basket is left to the garbage collector
+	}
+
+	/**
+	 * @return number of idle baskets in the pool
+	 */
+	public int size() {
+		int size = 0;
+
+		for(int i = 0 ; i < slots.length() ; i++) {
+			if(slots.get(i) != null)
+				size++;
+		}
+
+		return size;
+	}
+
+	private int startSlot() {
+		long id = Thread.currentThread().getId();
+
+		return (int) ((id ^ (id >>> 16)) % slots.length());
+	}
+}
@@ -0,0 +1,278 @@
+package com.swissre.coffeecorner.service;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import com.swissre.coffeecorner.entity.Product;
+import com.swissre.coffeecorner.exception.UnknownBasketException;
+
+/**
+ * Registry of the open baskets of all the registers and mobile orders.
+ *
+ * The baskets are kept in a {@link ConcurrentHashMap} by id and every basket has its own lock, so operations on
+ * different baskets never contend on a shared lock. The locks are {@link ReentrantLock}s rather than monitors, so a
+ * virtual thread waiting for a basket does not pin its carrier thread. Baskets not used for longer than the idle timeout are evicted,
+ * so abandoned orders do not leak memory.
+ *
+ * The asynchronous operations run one virtual thread per request when the JDK provides virtual threads, and on a
+ * cached thread pool otherwise.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public class BasketRegistry implements AutoCloseable {
+
+	private final Map<Long, Entry> baskets = new ConcurrentHashMap<>();
+
+	private final AtomicLong nextId = new AtomicLong();
+
+	private final Supplier<? extends ClientBasketService> basketFactory;
+
+	private final long idleTimeoutNanos;
+
+	private final LongSupplier nanoClock;
+
+	private final ExecutorService requestExecutor = newRequestExecutor();
+
+	private final ScheduledExecutorService evictionExecutor;
+
+	private final LongAdder evictedCount = new LongAdder();
+
+	/**
+	 * Creates a registry evicting the idle baskets every idleTimeout / 2
+	 *
+	 * @param basketFactory creates the empty baskets
+	 * @param idleTimeout time after which an unused basket is evicted
+	 * @param unit unit of the idle timeout
+	 */
+	public BasketRegistry(Supplier<? extends ClientBasketService> basketFactory, long idleTimeout, TimeUnit unit) {
+		this(basketFactory, unit.toNanos(idleTimeout), System::nanoTime);
+
+		evictionExecutor.scheduleWithFixedDelay(this::evictIdle, idleTimeout / 2 + 1, idleTimeout / 2 + 1, unit);
+	}
+
+	/**
+	 * Creates a registry that evicts the idle baskets only when {@link #evictIdle()} is called
+	 *
+	 * @param basketFactory creates the empty baskets
+	 * @param idleTimeoutNanos time after which an unused basket is evicted
+	 * @param nanoClock source of the time in nanoseconds
+	 */
+	public BasketRegistry(Supplier<? extends ClientBasketService> basketFactory, long idleTimeoutNanos, LongSupplier nanoClock) {
+		this.basketFactory = basketFactory;
+		this.idleTimeoutNanos = idleTimeoutNanos;
+		this.nanoClock = nanoClock;
+		this.evictionExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "basket-registry-eviction");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Opens a new empty basket
+	 *
+	 * @return id of the basket
+	 */
+	public long open() {
+		long id = nextId.incrementAndGet();
+
+		baskets.put(id, new Entry(basketFactory.get(), nanoClock.getAsLong()));
+
+		return id;
+	}
+
+	/**
+	 * Runs an operation on the basket while holding the lock of the basket
+	 *
+	 * @param id id of the basket
+	 * @param operation the operation
+	 * @return result of the operation
+	 * @throws UnknownBasketException if there is no open basket with this id
+	 */
+	public <T> T apply(long id, Function<? super ClientBasketService, T> operation) {
+		Entry entry = get(id);
+
+		entry.lock.lock();
+		try {
+			if(entry.closed)
+				throw unknownBasket(id);
+
+			try {
+				return operation.apply(entry.basket);
+			} finally {
+				entry.lastAccessNanos = nanoClock.getAsLong();
+			}
+		} finally {
+			entry.lock.unlock();
+		}
+	}
+
+	/**
+	 * Runs an operation on the basket asynchronously, on its own (virtual) thread
+	 *
+	 * @param id id of the basket
+	 * @param operation the operation
+	 * @return future result of the operation
+	 */
+	public <T> CompletableFuture<T> applyAsync(long id, Function<? super ClientBasketService, T> operation) {
+		return CompletableFuture.supplyAsync(() -> apply(id, operation), requestExecutor);
+	}
+
+	public List<Product> addProduct(long id, String productLine) {
+		return apply(id, basket -> basket.addProduct(productLine));
+	}
+
+	/**
+	 * @param id id of the basket
+	 * @return copy of the gratis products, taken under the lock of the basket (the basket returns a live view)
+	 */
+	public List<Product> applyBonusProgram(long id) {
+		return apply(id, basket -> new ArrayList<>(basket.applyBonusProgram()));
+	}
+
+	public String printReceipt(long id) {
+		return apply(id, ClientBasketService::printReceipt);
+	}
+
+	/**
+	 * Removes the basket from the registry
+	 *
+	 * @param id id of the basket
+	 * @return the closed basket
+	 * @throws UnknownBasketException if there is no open basket with this id
+	 */
+	public ClientBasketService close(long id) {
+		Entry entry = get(id);
+
+		entry.lock.lock();
+		try {
+			if(entry.closed)
+				throw unknownBasket(id);
+
+			entry.closed = true;
+			baskets.remove(id, entry);
+
+			return entry.basket;
+		} finally {
+			entry.lock.unlock();
+		}
+	}
+
+	/**
+	 * Evicts the baskets not used for longer than the idle timeout
+	 *
+	 * @return number of evicted baskets
+	 */
+	public int evictIdle() {
+		int evicted = 0;
+
+		for(Map.Entry<Long, Entry> mapEntry : baskets.entrySet()) {
+			Entry entry = mapEntry.getValue();
+
+			if(!isIdle(entry))
+				continue;
+
+			entry.lock.lock();
+			try {
+				if(!entry.closed && isIdle(entry)) {
+					entry.closed = true;
+					baskets.remove(mapEntry.getKey(), entry);
+					evicted++;
+				}
+			} finally {
+				entry.lock.unlock();
+			}
+		}
+
+		evictedCount.add(evicted);
+
+		return evicted;
+	}
+
+	/**
+	 * @return number of open baskets
+	 */
+	public int size() {
+		return baskets.size();
+	}
+
+	/**
+	 * @return number of baskets evicted since the registry was created
+	 */
+	public long getEvictedCount() {
+		return evictedCount.sum();
+	}
+
+	@Override
+	public void close() {
+		evictionExecutor.shutdownNow();
+		requestExecutor.shutdown();
+	}
+
+	private boolean isIdle(Entry entry) {
+		return nanoClock.getAsLong() - entry.lastAccessNanos > idleTimeoutNanos;
+	}
+
+	private Entry get(long id) {
+		Entry entry = baskets.get(id);
+
+		if(entry == null)
+			throw unknownBasket(id);
+
+		return entry;
+	}
+
+	private static UnknownBasketException unknownBasket(long id) {
+		return new UnknownBasketException(String.format("There is no open basket [%d].", id));
+	}
+
+	/**
+	 * @return an executor starting a virtual thread per task if the JDK supports them, a cached thread pool otherwise
+	 */
+	static ExecutorService newRequestExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool(runnable -> {
+				Thread thread = new Thread(runnable, "basket-registry-request");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	private static class Entry {
+
+		final ClientBasketService basket;
+
+		final ReentrantLock lock = new ReentrantLock();
+
+		// written under the lock of the entry, read without it by the eviction
+		volatile long lastAccessNanos;
+
+		// guarded by the lock of the entry
+		boolean closed;
+
+		Entry(ClientBasketService basket, long lastAccessNanos) {
+			this.basket = basket;
+			this.lastAccessNanos = lastAccessNanos;
+		}
+	}
+}
@@ -0,0 +1,488 @@
+package com.swissre.coffeecorner.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.swissre.coffeecorner.entity.Product.ProductType;
+
+/**
+ * Write-ahead log of the open baskets of a till, so that the baskets survive a crash of the till process.
+ *
+ * Every product added to an {@link #attach(long, ClientBasketService) attached} basket is logged as a record of 16
+ * bytes (basket id, catalog ordinal and quantity) written into a memory-mapped segment file: the record is in the
+ * page cache of the operating system as soon as it is written, so it survives the death of the process without any
+ * system call on the checkout path. The segment is forced to the disk (against the loss of the machine) by a
+ * background thread, batching the records of an interval.
+ *
+ * When a segment is full, a new one is started with a checkpoint of the baskets still open and the old segment is
+ * deleted, so the log only grows with the open baskets. After a restart, {@link #recover(CatalogSnapshot,
+ * BonusProgram)} rebuilds the open baskets from the log, with their items in the order they were added.
+ *
+ * A torn record at the end of the log is ignored. The catalog ordinals are logged, so the baskets are recovered
+ * against a catalog that has only had products added at its end.
+ *
+ * Instances are thread-safe.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public class BasketWriteAheadLog implements AutoCloseable {
+
+	/** Default size of a segment file in bytes */
+	public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+	/** Default interval of forcing the log to the disk in milliseconds */
+	public static final long DEFAULT_FORCE_INTERVAL_MILLIS = 50;
+
+	static final String SEGMENT_PREFIX = "baskets-";
+
+	static final String SEGMENT_SUFFIX = ".wal";
+
+	static final int SEGMENT_MAGIC = 0x42574C31;
+
+	// basket id, ordinal, quantity, check, type (written last)
+	static final int RECORD_SIZE = 8 + 4 + 2 + 1 + 1;
+
+	// magic, padded to a record
+	static final int SEGMENT_HEADER_SIZE = RECORD_SIZE;
+
+	private static final byte OPEN = 1;
+	private static final byte ADD = 2;
+	private static final byte CLOSE = 3;
+
+	private static final int MAX_QUANTITY = 0xFFFF;
+
+	private final Path directory;
+
+	private final int segmentSize;
+
+	private final ScheduledExecutorService forcer;
+
+	// guarded by this
+	private final Map<Long, OpenBasket> openBaskets = new LinkedHashMap<>();
+
+	// guarded by this
+	private long segmentNumber;
+
+	// guarded by this
+	private FileChannel segmentChannel;
+
+	private volatile MappedByteBuffer segment;
+
+	// guarded by this
+	private int position;
+
+	private volatile boolean dirty;
+
+	// guarded by this
+	private boolean closed;
+
+	public BasketWriteAheadLog(Path directory) throws IOException {
+		this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_FORCE_INTERVAL_MILLIS);
+	}
+
+	/**
+	 * Opens the log in the directory, reading the open baskets of the existing segments
+	 *
+	 * @param directory directory of the segment files
+	 * @param segmentSize size of a segment file in bytes
+	 * @param forceIntervalMillis interval of forcing the log to the disk, 0 to force it only on {@link #force()}
+	 * @throws IOException if the log cannot be read or created
+	 */
+	public BasketWriteAheadLog(Path directory, int segmentSize, long forceIntervalMillis) throws IOException {
+		if(segmentSize < 4096)
+			throw new IllegalArgumentException("Segment size too small [" + segmentSize + "].");
+
+		this.directory = Files.createDirectories(directory);
+		this.segmentSize = segmentSize;
+
+		List<Path> segments = listSegments(directory);
+
+		for(Path path : segments)
+			replay(path);
+
+		synchronized (this) {
+			startSegment(segments.isEmpty() ? 1 : parseSegmentNumber(segments.get(segments.size() - 1)) + 1);
+		}
+
+		for(Path path : segments)
+			Files.delete(path);
+
+		if(forceIntervalMillis > 0) {
+			forcer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "basket-wal-force");
+				thread.setDaemon(true);
+				return thread;
+			});
+			forcer.scheduleWithFixedDelay(this::forceIfDirty, forceIntervalMillis, forceIntervalMillis, TimeUnit.MILLISECONDS);
+		} else {
+			forcer = null;
+		}
+	}
+
+	/**
+	 * Starts logging the products added to the basket. The products already in the basket are logged at once.
+	 *
+	 * @param basketId id of the basket, unique among the open baskets
+	 * @param basket the basket
+	 * @throws IOException if a new segment cannot be created
+	 * @throws IllegalStateException if the log is closed
+	 */
+	public synchronized void attach(long basketId, ClientBasketService basket) throws IOException {
+		checkOpen();
+
+		if(openBaskets.containsKey(basketId))
+			throw new IllegalArgumentException("Basket already open [" + basketId + "].");
+
+		OpenBasket openBasket = new OpenBasket(basketId);
+		openBaskets.put(basketId, openBasket);
+		append(OPEN, basketId, 0, 0);
+
+		BasketContent content = basket.getContent();
+		for(ProductType productType : ProductType.values()) {
+			for(int index = 0 ; index < content.getTypeCount(productType) ; index++)
+				add(openBasket, content.getOrdinal(productType, index), 1);
+		}
+
+		listen(openBasket, basket);
+	}
+
+	/**
+	 * Logs the basket as closed (checked out or abandoned) and stops logging its products
+	 *
+	 * @param basketId id of the basket
+	 * @throws IOException if a new segment cannot be created
+	 * @throws IllegalStateException if the log is closed
+	 */
+	public synchronized void close(long basketId) throws IOException {
+		checkOpen();
+
+		OpenBasket openBasket = openBaskets.remove(basketId);
+
+		if(openBasket == null)
+			return;
+
+		detach(openBasket);
+
+		append(CLOSE, basketId, 0, 0);
+	}
+
+	/**
+	 * Rebuilds the baskets left open in the log when it was opened and resumes logging their products
+	 *
+	 * @param catalog the catalog the baskets are priced against
+	 * @param bonusProgram the bonus program of the baskets
+	 * @return the recovered baskets by id, in the order they were opened
+	 * @throws IllegalStateException if the log is closed
+	 */
+	public synchronized Map<Long, ClientBasketService> recover(CatalogSnapshot catalog, BonusProgram bonusProgram) {
+		checkOpen();
+
+		Map<Long, ClientBasketService> recovered = new LinkedHashMap<>();
+
+		for(OpenBasket openBasket : openBaskets.values()) {
+			if(openBasket.basket != null)
+				continue;
+
+			ClientBasketService basket = new ClientBasketService(catalog, bonusProgram);
+			BasketContent content = basket.getContent();
+
+			for(int run = 0 ; run < openBasket.runCount ; run++) {
+				for(int i = 0 ; i < openBasket.quantities[run] ; i++)
+					content.add(openBasket.ordinals[run]);
+			}
+			bonusProgram.apply(content);
+
+			listen(openBasket, basket);
+			recovered.put(openBasket.id, basket);
+		}
+
+		return recovered;
+	}
+
+	/**
+	 * @return number of the baskets open in the log
+	 */
+	public synchronized int getOpenBasketCount() {
+		return openBaskets.size();
+	}
+
+	/**
+	 * Forces the current segment to the disk
+	 */
+	public void force() {
+		dirty = false;
+		segment.force();
+	}
+
+	/**
+	 * Stops logging the products added to the attached baskets and closes the log. The baskets stay open in the log,
+	 * to be recovered when it is opened again.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if(closed)
+			return;
+
+		closed = true;
+
+		for(OpenBasket openBasket : openBaskets.values())
+			detach(openBasket);
+
+		if(forcer != null)
+			forcer.shutdownNow();
+
+		segment.force();
+		segmentChannel.close();
+	}
+
+	// guarded by this
+	private void checkOpen() {
+		if(closed)
+			throw new IllegalStateException("Basket log is closed.");
+	}
+
+	// guarded by this
+	private void detach(OpenBasket openBasket) {
+		openBasket.closed = true;
+
+		if(openBasket.basket != null)
+			openBasket.basket.removeListener(openBasket.listener);
+	}
+
+	private void listen(OpenBasket openBasket, ClientBasketService basket) {
+		openBasket.basket = basket;
+		openBasket.listener = (content, addedOrdinals, addedCount) -> {
+			if(addedCount == 0)
+				return;
+
+			try {
+				synchronized (this) {
+					// a product added while the basket was being closed
+					if(openBasket.closed)
+						return;
+
+					// the items of a line are logged as runs of the same product
+					int start = 0;
+					for(int i = 1 ; i <= addedCount ; i++) {
+						if(i == addedCount || addedOrdinals[i] != addedOrdinals[start]) {
+							add(openBasket, addedOrdinals[start], i - start);
+							start = i;
+						}
+					}
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		};
+		basket.addListener(openBasket.listener);
+	}
+
+	// guarded by this
+	private void add(OpenBasket openBasket, int ordinal, int quantity) throws IOException {
+		while(quantity > 0) {
+			int logged = Math.min(quantity, MAX_QUANTITY);
+
+			// a full segment is rolled over before the basket changes, its checkpoint does not include this record
+			if(position + RECORD_SIZE > segmentSize)
+				startSegment(segmentNumber + 1);
+
+			openBasket.addRun(ordinal, logged);
+			append(ADD, openBasket.id, ordinal, logged);
+			quantity -= logged;
+		}
+	}
+
+	// guarded by this
+	private void append(byte type, long basketId, int ordinal, int quantity) throws IOException {
+		if(position + RECORD_SIZE > segmentSize)
+			startSegment(segmentNumber + 1);
+
+		MappedByteBuffer buffer = segment;
+
+		buffer.putLong(position, basketId);
+		buffer.putInt(position + 8, ordinal);
+		buffer.putShort(position + 12, (short) quantity);
+		buffer.put(position + 14, check(type, basketId, ordinal, quantity));
+		// the type is written last, a record without it is torn
+		buffer.put(position + 15, type);
+
+		position += RECORD_SIZE;
+		dirty = true;
+	}
+
+	/**
+	 * Starts a new segment with a checkpoint of the open baskets and deletes the previous one
+	 */
+	// guarded by this
+	private void startSegment(long number) throws IOException {
+		int checkpointSize = SEGMENT_HEADER_SIZE;
+		for(OpenBasket openBasket : openBaskets.values())
+			checkpointSize += RECORD_SIZE * (1 + openBasket.runCount);
+
+		if(checkpointSize + RECORD_SIZE > segmentSize)
+			throw new IllegalStateException("Open baskets too large for a log segment [" + checkpointSize + " bytes].");
+
+		FileChannel previousChannel = segmentChannel;
+		Path path = directory.resolve(segmentName(number));
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+
+		try {
+			segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+
+		segmentChannel = channel;
+		segmentNumber = number;
+		segment.putInt(0, SEGMENT_MAGIC);
+		position = SEGMENT_HEADER_SIZE;
+
+		for(OpenBasket openBasket : openBaskets.values()) {
+			append(OPEN, openBasket.id, 0, 0);
+
+			for(int run = 0 ; run < openBasket.runCount ; run++)
+				append(ADD, openBasket.id, openBasket.ordinals[run], openBasket.quantities[run]);
+		}
+
+		// the checkpoint has to be on the disk before the previous segment is gone
+		segment.force();
+
+		if(previousChannel != null) {
+			previousChannel.close();
+			Files.delete(directory.resolve(segmentName(number - 1)));
+		}
+	}
+
+	private void forceIfDirty() {
+		if(dirty)
+			force();
+	}
+
+	/**
+	 * Reads the records of a segment into the open baskets
+	 */
+	private void replay(Path path) throws IOException {
+		MappedByteBuffer buffer;
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if(buffer.limit() < SEGMENT_HEADER_SIZE || buffer.getInt(0) != SEGMENT_MAGIC)
+			throw new IOException("Invalid basket log segment [" + path + "].");
+
+		for(int record = SEGMENT_HEADER_SIZE ; record + RECORD_SIZE <= buffer.limit() ; record += RECORD_SIZE) {
+			byte type = buffer.get(record + 15);
+			long basketId = buffer.getLong(record);
+			int ordinal = buffer.getInt(record + 8);
+			int quantity = buffer.getShort(record + 12) & MAX_QUANTITY;
+
+			// the end of the log, or a torn record
+			if(type < OPEN || type > CLOSE || buffer.get(record + 14) != check(type, basketId, ordinal, quantity))
+				break;
+
+			if(type == OPEN) {
+				// also a checkpoint of a basket already open, it starts over
+				openBaskets.put(basketId, new OpenBasket(basketId));
+			} else if(type == CLOSE) {
+				openBaskets.remove(basketId);
+			} else {
+				OpenBasket openBasket = openBaskets.get(basketId);
+
+				if(openBasket != null)
+					openBasket.addRun(ordinal, quantity);
+			}
+		}
+	}
+
+	private static byte check(byte type, long basketId, int ordinal, int quantity) {
+		int hash = (int) (basketId ^ (basketId >>> 32));
+		hash = hash * 31 + ordinal;
+		hash = hash * 31 + quantity;
+		hash = hash * 31 + type;
+
+		return (byte) (hash ^ (hash >>> 8) ^ (hash >>> 16) ^ (hash >>> 24));
+	}
+
+	static String segmentName(long number) {
+		return String.format("%s%012d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX);
+	}
+
+	static long parseSegmentNumber(Path segment) {
+		String name = segment.getFileName().toString();
+
+		return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	static List<Path> listSegments(Path directory) throws IOException {
+		List<Path> segments = new ArrayList<>();
+
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for(Path segment : stream)
+				segments.add(segment);
+		}
+
+		// the numbers are zero padded, the names sort in the order of the segments
+		Collections.sort(segments);
+
+		return segments;
+	}
+
+	/**
+	 * Logged state of an open basket: its items as runs of the same product, in the order they were added
+	 */
+	private static final class OpenBasket {
+
+		final long id;
+
+		int[] ordinals = new int[8];
+
+		int[] quantities = new int[8];
+
+		int runCount;
+
+		ClientBasketService basket;
+
+		BasketListener listener;
+
+		// no longer logged: closed in the log, or the log is closed
+		boolean closed;
+
+		OpenBasket(long id) {
+			this.id = id;
+		}
+
+		void addRun(int ordinal, int quantity) {
+			if(runCount > 0 && ordinals[runCount - 1] == ordinal && quantities[runCount - 1] + quantity <= MAX_QUANTITY) {
+				quantities[runCount - 1] += quantity;
+				return;
+			}
+
+			if(runCount == ordinals.length) {
+				ordinals = Arrays.copyOf(ordinals, runCount * 2);
+				quantities = Arrays.copyOf(quantities, runCount * 2);
+			}
+
+			ordinals[runCount] = ordinal;
+			quantities[runCount++] = quantity;
+		}
+	}
+}
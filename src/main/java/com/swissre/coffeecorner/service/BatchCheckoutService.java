@@ -0,0 +1,190 @@
+package com.swissre.coffeecorner.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+
+import com.swissre.coffeecorner.exception.UnknownProductException;
+
+/**
+ * Batch checkout of an order file, used e.g. to replay a whole day of orders for reconciliation.
+ *
+ * The order file contains one product line per line; the baskets are separated by blank lines. The file is
+ * read through memory mapped regions, split on the basket boundaries (see {@link OrderFileSplitter}) and the
+ * baskets are priced in parallel on a {@link ForkJoinPool}. The receipts are written in the order of the baskets in
+ * the file, each followed by a blank line, so the output does not depend on the parallelism. A basket containing
+ * an unknown product is reported in the output instead of its receipt and does not stop the batch.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public class BatchCheckoutService {
+
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+	private static final int DEFAULT_MAPPING_SIZE = 64 << 20;
+
+	// number of baskets priced in parallel before their receipts are written
+	private static final int WINDOW_SIZE = 4096;
+
+	// number of baskets priced sequentially by a single fork-join task
+	private static final int SEQUENTIAL_THRESHOLD = 16;
+
+	private final Supplier<? extends ClientBasketService> basketFactory;
+
+	private final ForkJoinPool pool;
+
+	private final int mappingSize;
+
+	public BatchCheckoutService() {
+		this(ClientBasketService::new, ForkJoinPool.commonPool());
+	}
+
+	public BatchCheckoutService(Supplier<? extends ClientBasketService> basketFactory, ForkJoinPool pool) {
+		this(basketFactory, pool, DEFAULT_MAPPING_SIZE);
+	}
+
+	/**
+	 * @param basketFactory creates an empty basket for every basket of the order file
+	 * @param pool the pool pricing the baskets
+	 * @param mappingSize size of the regions of the order file mapped at once, grows if a basket does not fit
+	 */
+	public BatchCheckoutService(Supplier<? extends ClientBasketService> basketFactory, ForkJoinPool pool, int mappingSize) {
+		this.basketFactory = basketFactory;
+		this.pool = pool;
+		this.mappingSize = mappingSize;
+	}
+
+	/**
+	 * Checks out all the baskets of the order file
+	 *
+	 * @param orderFile the order file
+	 * @param out the target of the receipts
+	 * @return summary of the batch
+	 * @throws IOException if reading the order file or writing the receipts fails
+	 */
+	public Summary checkout(Path orderFile, Appendable out) throws IOException {
+		Summary summary = new Summary();
+
+		OrderFileSplitter.split(orderFile, mappingSize, WINDOW_SIZE,
+				(region, basketStarts, basketEnds, baskets) -> checkoutWindow(region, basketStarts, basketEnds, baskets, out, summary));
+
+		return summary;
+	}
+
+	private void checkoutWindow(ByteBuffer region, int[] basketStarts, int[] basketEnds, int baskets,
+			Appendable out, Summary summary) throws IOException {
+		String[] receipts = new String[baskets];
+		long[] totals = new long[baskets];
+		boolean[] rejected = new boolean[baskets];
+
+		pool.invoke(new PricingTask(region, basketStarts, basketEnds, receipts, totals, rejected, 0, baskets));
+
+		for(int i = 0 ; i < baskets ; i++) {
+			out.append(receipts[i]).append(LINE_SEPARATOR);
+
+			summary.basketCount++;
+			if(rejected[i])
+				summary.rejectedBasketCount++;
+			else
+				summary.totalInCents += totals[i];
+		}
+	}
+
+	private void price(ByteBuffer region, int start, int end, String[] receipts, long[] totals, boolean[] rejected, int index) {
+		List<String> productLines = OrderFileSplitter.productLines(region, start, end);
+
+		ClientBasketService basket = basketFactory.get();
+		try {
+			basket.addProducts(productLines);
+
+			StringBuilder receipt = new StringBuilder();
+			basket.writeReceipt(receipt);
+
+			receipts[index] = receipt.toString();
+			totals[index] = basket.getTotalInCents();
+		} catch (UnknownProductException e) {
+			receipts[index] = "Rejected basket : " + e.getMessage() + LINE_SEPARATOR;
+			rejected[index] = true;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private class PricingTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final ByteBuffer region;
+		private final int[] basketStarts;
+		private final int[] basketEnds;
+		private final String[] receipts;
+		private final long[] totals;
+		private final boolean[] rejected;
+		private final int from;
+		private final int to;
+
+		PricingTask(ByteBuffer region, int[] basketStarts, int[] basketEnds, String[] receipts, long[] totals,
+				boolean[] rejected, int from, int to) {
+			this.region = region;
+			this.basketStarts = basketStarts;
+			this.basketEnds = basketEnds;
+			this.receipts = receipts;
+			this.totals = totals;
+			this.rejected = rejected;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from <= SEQUENTIAL_THRESHOLD) {
+				for(int i = from ; i < to ; i++)
+					price(region, basketStarts[i], basketEnds[i], receipts, totals, rejected, i);
+				return;
+			}
+
+			int middle = (from + to) >>> 1;
+			invokeAll(new PricingTask(region, basketStarts, basketEnds, receipts, totals, rejected, from, middle),
+					new PricingTask(region, basketStarts, basketEnds, receipts, totals, rejected, middle, to));
+		}
+	}
+
+	/**
+	 * Summary of a batch checkout
+	 */
+	public static class Summary {
+
+		private long basketCount;
+
+		private long rejectedBasketCount;
+
+		private long totalInCents;
+
+		public long getBasketCount() {
+			return basketCount;
+		}
+
+		public long getRejectedBasketCount() {
+			return rejectedBasketCount;
+		}
+
+		/**
+		 * @return value of all the baskets that were not rejected, in cents
+		 */
+		public long getTotalInCents() {
+			return totalInCents;
+		}
+
+		@Override
+		public String toString() {
+			return "Summary [basketCount=" + basketCount + ", rejectedBasketCount=" + rejectedBasketCount
+					+ ", totalInCents=" + totalInCents + "]";
+		}
+	}
+}
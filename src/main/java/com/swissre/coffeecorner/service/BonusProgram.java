@@ -0,0 +1,144 @@
+package com.swissre.coffeecorner.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.swissre.coffeecorner.entity.Product.ProductType;
+
+/**
+ * Bonus program compiled from a set of {@link BonusRule}s.
+ *
+ * The conflicts and the ordering of the rules are resolved once, when the program is compiled:
+ * <ul>
+ * <li>the rules are ordered by priority (lower values first, ties keep the order of the given collection),</li>
+ * <li>the rules making gratis the same product type do not stack, the most generous one applies,</li>
+ * <li>the gratis products are listed by product type in the order of the highest priority rule of each type.</li>
+ * </ul>
+ * Applying the program is then a single pass over the compiled rules reading the per-type counts of the
+ * basket, independent of the number of items.
+ *
+ * Instances are immutable and can be shared between threads.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public final class BonusProgram {
+
+	private static final BonusProgram EMPTY = new BonusProgram(new ProductType[0], new int[] { 0 }, new BonusRule[0]);
+
+	// product types having gratis products, in the order of the gratis products list
+	private final ProductType[] gratisProductTypes;
+
+	// rules of gratisProductTypes[i] are rules[ruleOffsets[i]] ... rules[ruleOffsets[i + 1] - 1]
+	private final int[] ruleOffsets;
+
+	private final BonusRule[] rules;
+
+	private BonusProgram(ProductType[] gratisProductTypes, int[] ruleOffsets, BonusRule[] rules) {
+		this.gratisProductTypes = gratisProductTypes;
+		this.ruleOffsets = ruleOffsets;
+		this.rules = rules;
+	}
+
+	/**
+	 * @return a bonus program without any rule
+	 */
+	public static BonusProgram empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * Compiles the given rules into a bonus program
+	 *
+	 * @param bonusRules the active rules
+	 * @return the compiled bonus program
+	 */
+	public static BonusProgram compile(Collection<? extends BonusRule> bonusRules) {
+		List<BonusRule> sortedRules = new ArrayList<>(bonusRules);
+		Collections.sort(sortedRules, Comparator.comparingInt(BonusRule::getPriority));
+
+		List<ProductType> types = new ArrayList<>();
+		for(BonusRule rule : sortedRules) {
+			if(!types.contains(rule.getGratisProductType()))
+				types.add(rule.getGratisProductType());
+		}
+
+		BonusRule[] rules = new BonusRule[sortedRules.size()];
+		int[] ruleOffsets = new int[types.size() + 1];
+		int count = 0;
+
+		for(int i = 0 ; i < types.size() ; i++) {
+			ruleOffsets[i] = count;
+
+			for(BonusRule rule : sortedRules) {
+				if(rule.getGratisProductType() == types.get(i))
+					rules[count++] = rule;
+			}
+		}
+		ruleOffsets[types.size()] = count;
+
+		return new BonusProgram(types.toArray(new ProductType[0]), ruleOffsets, rules);
+	}
+
+	/**
+	 * Compiles a new program with the rules of this one and the given rule
+	 *
+	 * @param rule the additional rule
+	 * @return the compiled bonus program
+	 */
+	public BonusProgram with(BonusRule rule) {
+		List<BonusRule> extendedRules = new ArrayList<>(Arrays.asList(rules));
+		extendedRules.add(rule);
+
+		return compile(extendedRules);
+	}
+
+	/**
+	 * Computes the gratis products of the basket and marks them in it
+	 *
+	 * @param content the basket
+	 */
+	public void apply(BasketContent content) {
+		int[] typeCounts = content.getTypeCounts();
+
+		for(int i = 0 ; i < gratisProductTypes.length ; i++) {
+			int gratisCount = 0;
+
+			for(int r = ruleOffsets[i] ; r < ruleOffsets[i + 1] ; r++)
+				gratisCount = Math.max(gratisCount, rules[r].computeGratisCount(typeCounts));
+
+			content.setGratisCount(gratisProductTypes[i], gratisCount);
+		}
+	}
+
+	/**
+	 * @return number of product types having gratis products
+	 */
+	public int getGratisProductTypeCount() {
+		return gratisProductTypes.length;
+	}
+
+	/**
+	 * @param index index of the product type in the order of the gratis products list
+	 * @return the product type
+	 */
+	public ProductType getGratisProductType(int index) {
+		return gratisProductTypes[index];
+	}
+
+	/**
+	 * @return the compiled rules, grouped by product type and ordered by priority
+	 */
+	public List<BonusRule> getRules() {
+		return Collections.unmodifiableList(Arrays.asList(rules));
+	}
+
+	@Override
+	public String toString() {
+		return "BonusProgram [rules=" + Arrays.toString(rules) + "]";
+	}
+}
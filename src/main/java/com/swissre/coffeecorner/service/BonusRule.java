@@ -0,0 +1,41 @@
+package com.swissre.coffeecorner.service;
+
+import com.swissre.coffeecorner.entity.Product.ProductType;
+
+/**
+ * Single rule of a bonus program, e.g. "every 5th beverage is for free".
+ *
+ * A rule makes gratis some of the products of one type. The number of gratis products is computed from the
+ * number of items of each product type in the basket only, which allows {@link BonusProgram} to evaluate all
+ * the rules in one pass without looking at the items. The gratis products are always the first products of
+ * the type added to the basket.
+ *
+ * Implementations have to be immutable and thread-safe, because a compiled bonus program is shared by the
+ * baskets.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public interface BonusRule {
+
+	/**
+	 * @return type of the products this rule makes gratis
+	 */
+	public ProductType getGratisProductType();
+
+	/**
+	 * Priority of the rule, lower values come first. The gratis products of the rule with the highest
+	 * priority are listed first.
+	 *
+	 * @return priority of the rule
+	 */
+	public int getPriority();
+
+	/**
+	 * Computes how many products of {@link #getGratisProductType()} are free of charge
+	 *
+	 * @param typeCounts number of items in the basket indexed by {@link ProductType#ordinal()}, must not be modified
+	 * @return number of gratis products
+	 */
+	public int computeGratisCount(int[] typeCounts);
+}
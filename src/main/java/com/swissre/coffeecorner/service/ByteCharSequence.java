@@ -0,0 +1,103 @@
+package com.swissre.coffeecorner.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reusable view of a range of ASCII bytes of a buffer as a {@link CharSequence}, so a request or an order line can
+ * be parsed without decoding it into a String.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public final class ByteCharSequence implements CharSequence {
+
+	private ByteBuffer buffer;
+
+	private int offset;
+
+	private int length;
+
+	/**
+	 * Points the view at a range of the buffer
+	 *
+	 * @param buffer the buffer
+	 * @param offset index of the first byte
+	 * @param length number of bytes
+	 * @return this view
+	 */
+	public ByteCharSequence wrap(ByteBuffer buffer, int offset, int length) {
+		this.buffer = buffer;
+		this.offset = offset;
+		this.length = length;
+
+		return this;
+	}
+
+	/**
+	 * @return true if all the bytes are ASCII, i.e. each byte is one character
+	 */
+	public boolean isAscii() {
+		for(int i = 0 ; i < length ; i++) {
+			if(buffer.get(offset + i) < 0)
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * @param prefix an ASCII prefix
+	 * @return true if the bytes start with the prefix
+	 */
+	public boolean startsWith(String prefix) {
+		if(prefix.length() > length)
+			return false;
+
+		for(int i = 0 ; i < prefix.length() ; i++) {
+			if(buffer.get(offset + i) != prefix.charAt(i))
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * @param text an ASCII text
+	 * @return true if the bytes are the text
+	 */
+	public boolean contentEquals(String text) {
+		return text.length() == length && startsWith(text);
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if(index < 0 || index >= length)
+			throw new IndexOutOfBoundsException("Index " + index + " out of [0, " + length + ").");
+
+		return (char) buffer.get(offset + index);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if(start < 0 || end > length || start > end)
+			throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") out of [0, " + length + ").");
+
+		return new ByteCharSequence().wrap(buffer, offset + start, end - start);
+	}
+
+	@Override
+	public String toString() {
+		byte[] bytes = new byte[length];
+
+		for(int i = 0 ; i < length ; i++)
+			bytes[i] = buffer.get(offset + i);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,126 @@
+package com.swissre.coffeecorner.service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.swissre.coffeecorner.entity.Product;
+import com.swissre.coffeecorner.exception.UnknownProductException;
+
+/**
+ * Immutable version of the product catalog.
+ *
+ * The catalog ordinal of a product is its index in the snapshot. Together with the products the snapshot holds
+ * everything derived from them that the baskets need: the prices in cents, the compiled {@link ProductLineParser}
+ * with its {@link ProductLineCache} and the {@link ReceiptWriter}. A basket keeps pricing against the snapshot it was created with.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public final class CatalogSnapshot {
+
+	private final long version;
+
+	private final Product[] products;
+
+	private final long[] pricesInCents;
+
+	private final ProductLineParser productLineParser;
+
+	private final ProductLineCache productLineCache;
+
+	private final ReceiptWriter receiptWriter;
+
+	private final ReceiptLineCache receiptLineCache;
+
+	public CatalogSnapshot(long version, List<Product> products) {
+		this.version = version;
+		this.products = products.toArray(new Product[0]);
+		this.pricesInCents = new long[this.products.length];
+
+		for(int ordinal = 0 ; ordinal < this.products.length ; ordinal++) {
+			for(int other = 0 ; other < ordinal ; other++) {
+				if(this.products[other].getName().equals(this.products[ordinal].getName()))
+					throw new IllegalArgumentException("Duplicate product [" + this.products[ordinal].getName() + "].");
+			}
+
+			pricesInCents[ordinal] = this.products[ordinal].getPrice().movePointRight(2).longValueExact();
+		}
+
+		this.productLineParser = new ProductLineParser(this.products);
+		this.productLineCache = new ProductLineCache(productLineParser, ProductLineCache.DEFAULT_CAPACITY);
+		this.receiptWriter = new ReceiptWriter(this.products);
+		this.receiptLineCache = new ReceiptLineCache(receiptWriter, pricesInCents);
+	}
+
+	/**
+	 * @return version of the snapshot, increasing with every reload of the catalog
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	public int size() {
+		return products.length;
+	}
+
+	public Product getProduct(int ordinal) {
+		return products[ordinal];
+	}
+
+	public long getPriceInCents(int ordinal) {
+		return pricesInCents[ordinal];
+	}
+
+	/**
+	 * @param name name of the product
+	 * @return catalog ordinal of the product
+	 * @throws UnknownProductException if the catalog does not contain the product
+	 */
+	public int getOrdinal(String name) {
+		int[] ordinals = new int[ProductLineParser.MAX_PRODUCTS_PER_LINE];
+
+		if(productLineParser.parse(name, ordinals) != 1)
+			throw new UnknownProductException(String.format("Product catalog does not contain product [%s].", name));
+
+		return ordinals[0];
+	}
+
+	public List<Product> getProducts() {
+		return Collections.unmodifiableList(Arrays.asList(products));
+	}
+
+	public ProductLineParser getProductLineParser() {
+		return productLineParser;
+	}
+
+	/**
+	 * @return the cache of the order lines parsed against this snapshot
+	 */
+	public ProductLineCache getProductLineCache() {
+		return productLineCache;
+	}
+
+	public ReceiptWriter getReceiptWriter() {
+		return receiptWriter;
+	}
+
+	/**
+	 * @return the rendered receipt lines shared by the incremental receipts of this snapshot
+	 */
+	ReceiptLineCache getReceiptLineCache() {
+		return receiptLineCache;
+	}
+
+	/**
+	 * @return a new empty basket content priced against this snapshot
+	 */
+	public BasketContent newBasketContent() {
+		return new BasketContent(products, pricesInCents);
+	}
+
+	@Override
+	public String toString() {
+		return "CatalogSnapshot [version=" + version + ", products=" + products.length + "]";
+	}
+}
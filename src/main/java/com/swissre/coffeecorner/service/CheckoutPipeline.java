@@ -0,0 +1,300 @@
+package com.swissre.coffeecorner.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.swissre.coffeecorner.exception.UnknownProductException;
+
+/**
+ * Pipelined checkout of whole baskets, the alternative to checking out a {@link ClientBasketService} on the
+ * caller's thread.
+ *
+ * The checkout is split into the stages parse, price, bonus, render and sink, connected by {@link Flow} publishers
+ * with bounded buffers. Every stage runs on its own thread, so the stages work on different baskets at the same
+ * time, while every stage handles the baskets one by one in the order they were submitted: the sink receives the
+ * receipts in the submission order. When a stage falls behind (typically a slow receipt printer in the sink), the
+ * buffers in front of it fill up and {@link #submit(List)} blocks, instead of the baskets piling up in memory.
+ *
+ * A basket containing an unknown product skips the remaining stages and reaches the sink rejected.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public class CheckoutPipeline implements AutoCloseable {
+
+	/** Default number of baskets buffered in front of every stage */
+	public static final int DEFAULT_BUFFER_CAPACITY = 256;
+
+	private static final AtomicInteger pipelineCount = new AtomicInteger();
+
+	private final CatalogSnapshot catalog;
+
+	private final BonusProgram bonusProgram;
+
+	private final ExecutorService executor;
+
+	private final SubmissionPublisher<Checkout> intake;
+
+	private final CompletableFuture<Void> completion;
+
+	private long nextSequence;
+
+	public CheckoutPipeline(Consumer<? super Checkout> sink) {
+		this(ProductCatalog.getDefault().getSnapshot(), ClientBasketService.getDefaultBonusProgram(), sink,
+				DEFAULT_BUFFER_CAPACITY);
+	}
+
+	/**
+	 * @param catalog the catalog the baskets are priced against
+	 * @param bonusProgram the bonus program
+	 * @param sink receives the checked out baskets in the submission order, on the thread of the sink stage
+	 * @param bufferCapacity number of baskets buffered in front of every stage, rounded up to a power of 2
+	 */
+	public CheckoutPipeline(CatalogSnapshot catalog, BonusProgram bonusProgram, Consumer<? super Checkout> sink,
+			int bufferCapacity) {
+		this.catalog = catalog;
+		this.bonusProgram = bonusProgram;
+
+		int pipeline = pipelineCount.incrementAndGet();
+		AtomicInteger threadCount = new AtomicInteger();
+		// every stage blocks its thread while the buffer of the next stage is full, so it cannot share a pool
+		this.executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "checkout-pipeline-" + pipeline + "-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		this.intake = new SubmissionPublisher<>(executor, bufferCapacity);
+
+		Stage parse = new Stage(this::parse, bufferCapacity);
+		Stage price = new Stage(this::price, bufferCapacity);
+		Stage bonus = new Stage(this::applyBonus, bufferCapacity);
+		Stage render = new Stage(this::render, bufferCapacity);
+
+		intake.subscribe(parse);
+		parse.subscribe(price);
+		price.subscribe(bonus);
+		bonus.subscribe(render);
+		this.completion = render.consume(sink);
+		completion.whenComplete((result, failure) -> {
+			if(failure == null)
+				executor.shutdown();
+			else
+				intake.closeExceptionally(failure);
+		});
+	}
+
+	/**
+	 * Submits a basket, blocking while the pipeline is full
+	 *
+	 * @param productLines the product lines of the basket
+	 * @return sequence number of the basket, starting at 0
+	 * @throws IllegalStateException if the pipeline has been closed
+	 */
+	public synchronized long submit(List<String> productLines) {
+		Checkout checkout = new Checkout(nextSequence++, productLines);
+
+		intake.submit(checkout);
+
+		return checkout.sequence;
+	}
+
+	/**
+	 * Stops the intake, the baskets already submitted still reach the sink
+	 */
+	@Override
+	public void close() {
+		intake.close();
+	}
+
+	/**
+	 * @return completed when all the submitted baskets have reached the sink after {@link #close()}, or
+	 *         exceptionally when a stage or the sink has failed
+	 */
+	public CompletableFuture<Void> getCompletion() {
+		return completion;
+	}
+
+	/**
+	 * @return estimate of the number of baskets waiting in front of the parse stage
+	 */
+	public int getIntakeLag() {
+		return intake.estimateMaximumLag();
+	}
+
+	private void parse(Checkout checkout) {
+		ProductLineCache productLineCache = catalog.getProductLineCache();
+		int[] lineOrdinals = new int[ProductLineCache.MAX_PRODUCTS_PER_LINE];
+		int[] ordinals = new int[ProductLineCache.MAX_PRODUCTS_PER_LINE * checkout.productLines.size()];
+		int count = 0;
+
+		try {
+			for(String productLine : checkout.productLines) {
+				int lineCount = productLineCache.parse(productLine, lineOrdinals);
+
+				System.arraycopy(lineOrdinals, 0, ordinals, count, lineCount);
+				count += lineCount;
+			}
+		} catch (UnknownProductException e) {
+			checkout.rejection = e.getMessage();
+			return;
+		}
+
+		checkout.ordinals = ordinals;
+		checkout.ordinalCount = count;
+	}
+
+	private void price(Checkout checkout) {
+		BasketContent content = catalog.newBasketContent();
+
+		for(int i = 0 ; i < checkout.ordinalCount ; i++)
+			content.add(checkout.ordinals[i]);
+
+		checkout.content = content;
+		checkout.ordinals = null;
+	}
+
+	private void applyBonus(Checkout checkout) {
+		bonusProgram.apply(checkout.content);
+	}
+
+	private void render(Checkout checkout) {
+		StringBuilder receipt = new StringBuilder();
+
+		try {
+			catalog.getReceiptWriter().write(checkout.content, bonusProgram, receipt);
+		} catch (IOException e) {
+			// a StringBuilder does not throw
+			throw new UncheckedIOException(e);
+		}
+
+		checkout.receipt = receipt.toString();
+		checkout.totalInCents = checkout.content.getTotalInCents();
+		checkout.content = null;
+	}
+
+	/**
+	 * A stage of the pipeline: handles the baskets one by one and passes them on to the next stage, blocking while
+	 * the buffer of the next stage is full. The rejected baskets are passed on as they are.
+	 */
+	private class Stage extends SubmissionPublisher<Checkout> implements Flow.Processor<Checkout, Checkout> {
+
+		private final Consumer<Checkout> step;
+
+		private Flow.Subscription subscription;
+
+		Stage(Consumer<Checkout> step, int bufferCapacity) {
+			super(executor, bufferCapacity);
+			this.step = step;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			subscription.request(1);
+		}
+
+		@Override
+		public void onNext(Checkout checkout) {
+			try {
+				if(!checkout.isRejected())
+					step.accept(checkout);
+			} catch (RuntimeException e) {
+				subscription.cancel();
+				closeExceptionally(e);
+				return;
+			}
+
+			submit(checkout);
+			subscription.request(1);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			closeExceptionally(throwable);
+		}
+
+		@Override
+		public void onComplete() {
+			close();
+		}
+	}
+
+	/**
+	 * A basket passing through the pipeline, filled in by the stages. Every stage hands the basket over to the
+	 * next one through a {@link SubmissionPublisher}, which makes the changes of a stage visible to the next one.
+	 */
+	public static class Checkout {
+
+		private final long sequence;
+
+		private final List<String> productLines;
+
+		private int[] ordinals;
+
+		private int ordinalCount;
+
+		private BasketContent content;
+
+		private String receipt;
+
+		private long totalInCents;
+
+		private String rejection;
+
+		Checkout(long sequence, List<String> productLines) {
+			this.sequence = sequence;
+			this.productLines = new ArrayList<>(productLines);
+		}
+
+		/**
+		 * @return sequence number of the basket, in the submission order
+		 */
+		public long getSequence() {
+			return sequence;
+		}
+
+		public List<String> getProductLines() {
+			return productLines;
+		}
+
+		/**
+		 * @return true if the basket contains an unknown product
+		 */
+		public boolean isRejected() {
+			return rejection != null;
+		}
+
+		/**
+		 * @return the reason the basket has been rejected, null if it has not
+		 */
+		public String getRejection() {
+			return rejection;
+		}
+
+		/**
+		 * @return the receipt of the basket, null if it has been rejected
+		 */
+		public String getReceipt() {
+			return receipt;
+		}
+
+		public long getTotalInCents() {
+			return totalInCents;
+		}
+
+		@Override
+		public String toString() {
+			return "Checkout [sequence=" + sequence + ", rejection=" + rejection + ", totalInCents=" + totalInCents + "]";
+		}
+	}
+}
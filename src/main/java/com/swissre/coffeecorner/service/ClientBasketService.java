@@ -1,239 +1,279 @@
 package com.swissre.coffeecorner.service;
 
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
 
 import com.swissre.coffeecorner.entity.Product;
 import com.swissre.coffeecorner.entity.Product.ProductType;
 import com.swissre.coffeecorner.exception.UnknownProductException;
 
-import java.math.BigDecimal;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 
 /**
  * This is the service class representing the necessary logic for client's basket 
  * in Charlene's Coffee Corner Work Assignment.
  * 
  * It provides the implementation of all necessary business operations.
+ * The items are kept in a {@link BasketContent}, i.e. as quantities per catalog ordinal with prices in cents.
+ * The {@link BonusProgram} is kept up to date on every added product, so the gratis products can be read at any time.
  * 
  * @author Andrzej Dabkowski
  *
  */
 public class ClientBasketService implements IClientBasket {
 	
-	private static final String BEVERAGE_EXTRAS_DELIMITER = " with ";
+	public static final int BEVERAGE_FREE_THRESHOLD = 5;
 	
-	private static final int BEVERAGE_FREE_THRESHOLD = 5;
+	private static final BasketListener[] NO_LISTENERS = new BasketListener[0];
 	
-	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+	private static final BonusProgram defaultBonusProgram = BonusProgram.compile(Arrays.asList(
+			new FreeExtrasRule(),
+			new FreeBeverageRule(BEVERAGE_FREE_THRESHOLD)));
 	
-	private static Map<String, Product> productCatalog = new HashMap<>();
+	private final CatalogSnapshot catalog;
 	
-	static {
-		
-		productCatalog.put( "large coffee", 
-				new Product("large coffee", ProductType.BEVERAGE, new BigDecimal("3.50")));
-		
-		productCatalog.put( "medium coffee", 
-				new Product("medium coffee", ProductType.BEVERAGE, new BigDecimal("3.00")));
-		
-		productCatalog.put( "small coffee",
-				new Product("small coffee", ProductType.BEVERAGE, new BigDecimal("2.50")));
-		
-		productCatalog.put( "orange juice",
-				new Product("orange juice", ProductType.BEVERAGE, new BigDecimal("3.95")));
-		
-		productCatalog.put( "extra milk",		
-				new Product("extra milk", ProductType.EXTRAS, new BigDecimal("0.30")));
-		
-		productCatalog.put( "foamed milk",
-				new Product("foamed milk", ProductType.EXTRAS, new BigDecimal("4.50")));
-		
-		productCatalog.put( "special roast",
-				new Product("special roast", ProductType.EXTRAS, new BigDecimal("0.90")));
-		
-		productCatalog.put( "bacon roll",
-				new Product("bacon roll", ProductType.SNACK, new BigDecimal("4.50")));
-	}
+	private final ProductLineCache productLineCache;
+	
+	private final BonusProgram bonusProgram;
 	
-	private List<Product> items = new ArrayList<>();
+	private final BasketContent content;
 	
-	// having applied bonus programs these lists get populated
-	private List<Product> gratisProducts = new ArrayList<>();
+	// live view of the gratis products, kept up to date by addProduct
+	private final List<Product> gratisProducts = new GratisProducts();
 	
-	private List<Product> beverages = new ArrayList<>();
-	private List<Product> snacks = new ArrayList<>();
-	private List<Product> extras = new ArrayList<>();
+	private final int[] parsedOrdinals = new int[ProductLineCache.MAX_PRODUCTS_PER_LINE];
+	
+	private BasketListener[] listeners = NO_LISTENERS;
 	
 	
 	public ClientBasketService() {
-		
+		this(defaultBonusProgram);
+	}
+	
+	public ClientBasketService(BonusProgram bonusProgram) {
+		this(ProductCatalog.getDefault().getSnapshot(), bonusProgram);
+	}
+	
+	/**
+	 * @param catalog the catalog snapshot the basket is priced against for its whole life
+	 * @param bonusProgram the bonus program
+	 */
+	public ClientBasketService(CatalogSnapshot catalog, BonusProgram bonusProgram) {
+		this.catalog = catalog;
+		this.productLineCache = catalog.getProductLineCache();
+		this.bonusProgram = bonusProgram;
+		this.content = catalog.newBasketContent();
+	}
+	
+	/**
+	 * @return the default bonus program: free extras with a beverage and a snack, every 5th beverage free
+	 */
+	public static BonusProgram getDefaultBonusProgram() {
+		return defaultBonusProgram;
 	}
 	
 	public List<Product> addProduct(String productLine) {
-		List<Product> products = parseProductLine(productLine);
+		return addProduct((CharSequence) productLine);
+	}
+	
+	/**
+	 * Parses the line without copying it into a String
+	 */
+	@Override
+	public List<Product> addProduct(CharSequence productLine) {
+		int count = addProductLine(productLine);
+		List<Product> products = new ArrayList<>(count);
 		
-		items.addAll(products);
+		for(int i = 0 ; i < count ; i++)
+			products.add(catalog.getProduct(parsedOrdinals[i]));
 		
 		return products;
 	}
 	
+	/**
+	 * Adds the products of the line like {@link #addProduct(CharSequence)}, without building the list of the added
+	 * products: once the basket has grown to its size, adding a line in the exact format does not allocate.
+	 * 
+	 * @param productLine the product line
+	 * @return number of products added
+	 * @throws UnknownProductException if the line cannot be parsed
+	 */
 	@Override
-	public List<Product> applyBonusProgram() {
-		
-		Map<ProductType, List<Product>> productsByProductType =
-				items.stream().collect(Collectors.groupingBy(Product::getProductType));
+	public int addProductLine(CharSequence productLine) {
+		int count = productLineCache.parse(productLine, parsedOrdinals);
 		
-		beverages = productsByProductType.get(Product.ProductType.BEVERAGE);
-		snacks = productsByProductType.get(Product.ProductType.SNACK);
-		extras = productsByProductType.get(Product.ProductType.EXTRAS);
+		for(int i = 0 ; i < count ; i++)
+			content.add(parsedOrdinals[i]);
 		
-		int beveragesSize = beverages == null ? 0 : beverages.size();
-		int snacksSize = snacks == null ? 0 : snacks.size();
+		bonusProgram.apply(content);
+		fireBasketChanged(count);
 		
-		// Rule : if a customer orders a beverage and a snack, one of the extras is free
-		int noOfFreeExtras = Math.min(beveragesSize, snacksSize);
-		
-		// Rule : every 5th beverage is for free
-		int noOfFreeBeverages = beveragesSize / BEVERAGE_FREE_THRESHOLD;
-		
-		// Removing extras that are for free
-		for(int i = 0 ; i < noOfFreeExtras && !extras.isEmpty() ; i++) {
-			Product gratisExtras = extras.remove(0); // Assumption: gratis are the first x extras in this list (not the first x cheapest)
-			gratisProducts.add(gratisExtras);
-		}
+		return count;
+	}
+	
+	/**
+	 * Empties the basket for the next customer and removes the listeners, keeping the internal arrays
+	 * (see {@link BasketPool})
+	 */
+	public void reset() {
+		content.clear();
+		listeners = NO_LISTENERS;
+	}
+	
+	/**
+	 * Adds all the lines and evaluates the bonus program once, after the last line.
+	 */
+	@Override
+	public List<Product> addProducts(Iterable<String> productLines) {
+		List<Product> products = new ArrayList<>();
 		
-		// Removing beverages that are for free
-		for(int i = 0 ; i < noOfFreeBeverages ; i++) {
-			Product gratisBeverage = beverages.remove(0); // Assumption: gratis are the first x beverages in this list (not the first x cheapest)
-			gratisProducts.add(gratisBeverage);
+		try {
+			for(String productLine : productLines) {
+				int count = productLineCache.parse(productLine, parsedOrdinals);
+				
+				for(int i = 0 ; i < count ; i++) {
+					content.add(parsedOrdinals[i]);
+					products.add(catalog.getProduct(parsedOrdinals[i]));
+				}
+				fireBasketChanged(count);
+			}
+		} finally {
+			bonusProgram.apply(content);
+			fireBasketChanged(0);
 		}
 		
+		return products;
+	}
+	
+	/**
+	 * The bonus program is evaluated incrementally by addProduct, so applying it is idempotent
+	 * and only returns the current gratis products.
+	 */
+	@Override
+	public List<Product> applyBonusProgram() {
 		return gratisProducts;
 	}
 	
 	public String printReceipt() {
-		BigDecimal sumTotalValue = new BigDecimal("0.00");
-		StringBuffer buffer = new StringBuffer();
+		StringBuilder buffer = new StringBuilder();
 		
-		buffer.append("Your receipt :").append(LINE_SEPARATOR);
-		buffer.append("Product description   Quantity   Price    Total").append(LINE_SEPARATOR);
-		
-		if(gratisProducts!=null && !gratisProducts.isEmpty()) {
-			buffer.append("Gratis products:").append(LINE_SEPARATOR);
-			
-			for(Product gratisProduct : gratisProducts ) {
-				buffer.append(String.format(" %-21s  %3d      %.2f     %.2f", gratisProduct.getName(), 1, 0.00, 0.00)).append(LINE_SEPARATOR);
-			}
+		try {
+			writeReceipt(buffer);
+		} catch (IOException e) {
+			// StringBuilder does not throw IOException
+			throw new UncheckedIOException(e);
 		}
 		
-		if(beverages!=null && !beverages.isEmpty()) {
-			buffer.append("Beverages:").append(LINE_SEPARATOR);
-			
-			Map<String, Long> beveragesByCount = beverages.stream().collect(
-	                Collectors.groupingBy(Product::getName, Collectors.counting()));
-			
-			for(Map.Entry<String, Long> entry : beveragesByCount.entrySet()) {
-				String name = entry.getKey();
-				long quantity =  entry.getValue();
-				BigDecimal price = productCatalog.get(name).getPrice();
-				BigDecimal totalValue = price.multiply(new BigDecimal(quantity));
-				sumTotalValue = sumTotalValue.add(totalValue);
-				
-				buffer.append(String.format(" %-21s  %3d      %.2f     %.2f", name, quantity, 
-						price.doubleValue(), totalValue.doubleValue())).append(LINE_SEPARATOR);
+		return buffer.toString();	
+	}
+	
+	@Override
+	public void writeReceipt(Appendable out) throws IOException {
+		catalog.getReceiptWriter().write(content, bonusProgram, out);
+	}
+	
+	@Override
+	public void writeReceipt(ByteBuffer out) {
+		catalog.getReceiptWriter().write(content, bonusProgram, out);
+	}
+	
+	public List<Product> getGratisProducts() {
+		return gratisProducts;
+	}
+	
+	/**
+	 * @return the catalog snapshot the basket is priced against
+	 */
+	public CatalogSnapshot getCatalog() {
+		return catalog;
+	}
+	
+	/**
+	 * @return value of the basket in cents, the gratis products excluded
+	 */
+	public long getTotalInCents() {
+		return content.getTotalInCents();
+	}
+	
+	/**
+	 * @param productType the product type
+	 * @return number of products of the type in the basket, the gratis ones included
+	 */
+	public int getProductCount(ProductType productType) {
+		return content.getTypeCount(productType);
+	}
+	
+	/**
+	 * Registers a listener called after every change of the basket
+	 * 
+	 * @param listener the listener
+	 */
+	public void addListener(BasketListener listener) {
+		listeners = Arrays.copyOf(listeners, listeners.length + 1);
+		listeners[listeners.length - 1] = listener;
+	}
+	
+	public void removeListener(BasketListener listener) {
+		for(int i = 0 ; i < listeners.length ; i++) {
+			if(listeners[i] == listener) {
+				BasketListener[] remaining = new BasketListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, remaining, 0, i);
+				System.arraycopy(listeners, i + 1, remaining, i, remaining.length - i);
+				listeners = remaining;
+				return;
 			}
 		}
+	}
+	
+	private void fireBasketChanged(int addedCount) {
+		for(BasketListener listener : listeners)
+			listener.basketChanged(content, parsedOrdinals, addedCount);
+	}
+	
+	BasketContent getContent() {
+		return content;
+	}
+	
+	BonusProgram getBonusProgram() {
+		return bonusProgram;
+	}
+	
+	/**
+	 * Read-only view of the gratis products, grouped by product type in the order given by the bonus program.
+	 */
+	private class GratisProducts extends AbstractList<Product> {
 		
-		if(extras!=null && !extras.isEmpty()) {
-			buffer.append("Extras:").append(LINE_SEPARATOR);
-			
-			Map<String, Long> extrasByCount = extras.stream().collect(
-	                Collectors.groupingBy(Product::getName, Collectors.counting()));
+		@Override
+		public Product get(int index) {
+			if(index < 0)
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
 			
-			for(Map.Entry<String, Long> entry : extrasByCount.entrySet()) {
-				String name = entry.getKey();
-				long quantity =  entry.getValue();
-				BigDecimal price = productCatalog.get(name).getPrice();
-				BigDecimal totalValue = price.multiply(new BigDecimal(quantity));
-				sumTotalValue = sumTotalValue.add(totalValue);
+			int remaining = index;
+			for(int i = 0 ; i < bonusProgram.getGratisProductTypeCount() ; i++) {
+				ProductType productType = bonusProgram.getGratisProductType(i);
+				int gratisCount = content.getGratisCount(productType);
 				
-				buffer.append(String.format(" %-21s  %3d      %.2f     %.2f", name, quantity, 
-						price.doubleValue(), totalValue.doubleValue())).append(LINE_SEPARATOR);
-			}
-		}
-		
-		if(snacks!=null && !snacks.isEmpty()) {
-			buffer.append("Snacks:").append(LINE_SEPARATOR);
-			
-			Map<String, Long> stacksByCount = snacks.stream().collect(
-	                Collectors.groupingBy(Product::getName, Collectors.counting()));
-			
-			for(Map.Entry<String, Long> entry : stacksByCount.entrySet()) {
-				String name = entry.getKey();
-				long quantity = entry.getValue();
-				BigDecimal price = productCatalog.get(name).getPrice();
-				BigDecimal totalValue = price.multiply(new BigDecimal(quantity));
-				sumTotalValue = sumTotalValue.add(totalValue);
+				if(remaining < gratisCount)
+					return catalog.getProduct(content.getOrdinal(productType, remaining));
 				
-				buffer.append(String.format(" %-21s  %3d      %.2f     %.2f", name, quantity, 
-						price.doubleValue(), totalValue.doubleValue())).append(LINE_SEPARATOR);
+				remaining -= gratisCount;
 			}
+			
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
 		}
 		
-		buffer.append(String.format("                                Total:   %.2f",sumTotalValue))
-				.append(LINE_SEPARATOR);
-		
-		// System.out.print(buffer.toString());
-		
-		return buffer.toString();	
-	}
-	
-	private List<Product> parseProductLine(String productLine) {
-		List<Product> products = new ArrayList<>();
-		
-		if(productLine.contains(BEVERAGE_EXTRAS_DELIMITER)) {
-			// productLine contains a beverage and an extras
-			String[] singleProductLines = productLine.split(BEVERAGE_EXTRAS_DELIMITER);
-			
-			if(singleProductLines.length !=2 || singleProductLines[0].isEmpty() 
-					|| singleProductLines[1].isEmpty()  ) {
-				throw new UnknownProductException(
-						String.format("Some input parsing issue. It was supposed to containg beverage and extras [%s].", productLine));
-			}
-			
-			Product beverage = parseSingleProductLine(singleProductLines[0]);
-			Product extras = parseSingleProductLine(singleProductLines[1]);
+		@Override
+		public int size() {
+			int size = 0;
 			
-			products.add(beverage);
-			products.add(extras);
+			for(int i = 0 ; i < bonusProgram.getGratisProductTypeCount() ; i++)
+				size += content.getGratisCount(bonusProgram.getGratisProductType(i));
 			
-		} else {
-			// productLine contains one product
-			Product beverage = parseSingleProductLine(productLine);
-			products.add(beverage);
+			return size;
 		}
-		
-		return products;
-	}
-	
-	private Product parseSingleProductLine(String singleProductLine) {
-		Product product = new Product();
-		
-		if(productCatalog.containsKey(singleProductLine)) {
-			product = productCatalog.get(singleProductLine);
-		} else {
-			throw new UnknownProductException(
-					String.format("Product catalog does not contain product [%s].", singleProductLine));
-
-		}
-		
-		return product;
-	}
-
-	public List<Product> getGratisProducts() {
-		return gratisProducts;
 	}
 }
@@ -0,0 +1,264 @@
+package com.swissre.coffeecorner.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.swissre.coffeecorner.entity.Product;
+import com.swissre.coffeecorner.entity.Product.ProductType;
+
+/**
+ * Basket shared by several terminals, e.g. the tab of a table that several waiters add to at the same time.
+ *
+ * Adding a line is lock-free: the line is parsed on the caller's thread, the caller reserves the slots of its
+ * products in an append-only log with a single atomic increment and writes the catalog ordinals into them. The log
+ * is a linked list of fixed-size chunks, so it never has to be copied while other threads write into it.
+ *
+ * Applying the bonus program and printing the receipt work on a snapshot of the log: the longest prefix of slots
+ * that have all been written, caught up incrementally into a private {@link BasketContent}. The writers are never
+ * stopped, the adds that are still in flight are simply not in the snapshot yet. The products of one line are
+ * written last slot first, so a snapshot contains a line either entirely or not at all.
+ *
+ * The items are in the order their slots were reserved, which decides which of them are gratis.
+ *
+ * Instances are thread-safe.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public class ConcurrentClientBasket implements IClientBasket {
+
+	private static final int CHUNK_SIZE = 1024;
+
+	private final CatalogSnapshot catalog;
+
+	private final ProductLineCache productLineCache;
+
+	private final BonusProgram bonusProgram;
+
+	// number of reserved slots
+	private final AtomicLong reserved = new AtomicLong();
+
+	private final Chunk head = new Chunk(0);
+
+	// the chunk of the most recent reservation, a hint where the writers start looking for their chunk
+	private final AtomicReference<Chunk> tail = new AtomicReference<>(head);
+
+	// state of the snapshot side, guarded by itself
+	private final BasketContent content;
+
+	private Chunk snapshotChunk = head;
+
+	private long snapshotSize;
+
+	public ConcurrentClientBasket() {
+		this(ProductCatalog.getDefault().getSnapshot(), ClientBasketService.getDefaultBonusProgram());
+	}
+
+	/**
+	 * @param catalog the catalog snapshot the basket is priced against for its whole life
+	 * @param bonusProgram the bonus program
+	 */
+	public ConcurrentClientBasket(CatalogSnapshot catalog, BonusProgram bonusProgram) {
+		this.catalog = catalog;
+		this.productLineCache = catalog.getProductLineCache();
+		this.bonusProgram = bonusProgram;
+		this.content = catalog.newBasketContent();
+	}
+
+	@Override
+	public List<Product> addProduct(String productLine) {
+		return addProduct((CharSequence) productLine);
+	}
+
+	@Override
+	public List<Product> addProduct(CharSequence productLine) {
+		int[] ordinals = new int[ProductLineCache.MAX_PRODUCTS_PER_LINE];
+		int count = productLineCache.parse(productLine, ordinals);
+
+		long first = reserved.getAndAdd(count);
+
+		// the first slot is written last, it publishes the whole line
+		for(int i = count - 1 ; i >= 0 ; i--) {
+			long slot = first + i;
+			chunkOf(slot).publish((int) (slot % CHUNK_SIZE), ordinals[i]);
+		}
+
+		List<Product> products = new ArrayList<>(count);
+		for(int i = 0 ; i < count ; i++)
+			products.add(catalog.getProduct(ordinals[i]));
+
+		return products;
+	}
+
+	/**
+	 * Applies the bonus program to a snapshot of the basket
+	 *
+	 * @return the gratis products of the snapshot, grouped by product type in the order given by the bonus program
+	 */
+	@Override
+	public List<Product> applyBonusProgram() {
+		synchronized (content) {
+			catchUp();
+
+			List<Product> gratisProducts = new ArrayList<>();
+			for(int i = 0 ; i < bonusProgram.getGratisProductTypeCount() ; i++) {
+				ProductType productType = bonusProgram.getGratisProductType(i);
+
+				for(int index = 0 ; index < content.getGratisCount(productType) ; index++)
+					gratisProducts.add(catalog.getProduct(content.getOrdinal(productType, index)));
+			}
+
+			return Collections.unmodifiableList(gratisProducts);
+		}
+	}
+
+	/**
+	 * Prints the receipt of a snapshot of the basket, with the bonus program applied
+	 */
+	@Override
+	public String printReceipt() {
+		StringBuilder buffer = new StringBuilder();
+
+		try {
+			writeReceipt(buffer);
+		} catch (IOException e) {
+			// StringBuilder does not throw IOException
+			throw new UncheckedIOException(e);
+		}
+
+		return buffer.toString();
+	}
+
+	@Override
+	public void writeReceipt(Appendable out) throws IOException {
+		synchronized (content) {
+			catchUp();
+			catalog.getReceiptWriter().write(content, bonusProgram, out);
+		}
+	}
+
+	@Override
+	public void writeReceipt(ByteBuffer out) {
+		synchronized (content) {
+			catchUp();
+			catalog.getReceiptWriter().write(content, bonusProgram, out);
+		}
+	}
+
+	/**
+	 * @return value of a snapshot of the basket in cents, the gratis products excluded
+	 */
+	public long getTotalInCents() {
+		synchronized (content) {
+			catchUp();
+			return content.getTotalInCents();
+		}
+	}
+
+	/**
+	 * @return number of items in a snapshot of the basket
+	 */
+	public long getItemCount() {
+		synchronized (content) {
+			catchUp();
+			return snapshotSize;
+		}
+	}
+
+	/**
+	 * @return the catalog snapshot the basket is priced against
+	 */
+	public CatalogSnapshot getCatalog() {
+		return catalog;
+	}
+
+	/**
+	 * Adds the published prefix of the log to the content and applies the bonus program, called holding the lock
+	 * of the content
+	 */
+	private void catchUp() {
+		long size = snapshotSize;
+		long limit = reserved.get();
+
+		while(size < limit) {
+			if(size == snapshotChunk.base + CHUNK_SIZE) {
+				Chunk next = snapshotChunk.next.get();
+				if(next == null)
+					break; // the writer of the next slot has not created the chunk yet
+				snapshotChunk = next;
+			}
+
+			int ordinal = snapshotChunk.get((int) (size % CHUNK_SIZE));
+			if(ordinal < 0)
+				break; // the slot has been reserved but not written yet
+
+			content.add(ordinal);
+			size++;
+		}
+
+		if(size != snapshotSize) {
+			snapshotSize = size;
+			bonusProgram.apply(content);
+		}
+	}
+
+	private Chunk chunkOf(long slot) {
+		Chunk chunk = tail.get();
+
+		// a writer that has been overtaken by a lot of others may have to start from the beginning
+		if(slot < chunk.base)
+			chunk = head;
+
+		while(slot >= chunk.base + CHUNK_SIZE) {
+			Chunk next = chunk.next.get();
+
+			if(next == null) {
+				Chunk created = new Chunk(chunk.base + CHUNK_SIZE);
+				next = chunk.next.compareAndSet(null, created) ? created : chunk.next.get();
+			}
+
+			chunk = next;
+		}
+
+		Chunk current = tail.get();
+		if(current.base < chunk.base)
+			tail.compareAndSet(current, chunk);
+
+		return chunk;
+	}
+
+	/**
+	 * A chunk of the log: the catalog ordinals of {@value #CHUNK_SIZE} items
+	 */
+	private static final class Chunk {
+
+		final long base;
+
+		// catalog ordinal + 1, 0 for the slots not written yet
+		final AtomicIntegerArray ordinals = new AtomicIntegerArray(CHUNK_SIZE);
+
+		final AtomicReference<Chunk> next = new AtomicReference<>();
+
+		Chunk(long base) {
+			this.base = base;
+		}
+
+		/**
+		 * @return the catalog ordinal in the slot, -1 if the slot has not been written yet
+		 */
+		int get(int index) {
+			return ordinals.get(index) - 1;
+		}
+
+		void publish(int index, int ordinal) {
+			ordinals.set(index, ordinal + 1);
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package com.swissre.coffeecorner.service;
+
+import com.swissre.coffeecorner.entity.Product.ProductType;
+
+/**
+ * Rule : every n-th beverage is for free
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public class FreeBeverageRule implements BonusRule {
+
+	public static final int DEFAULT_PRIORITY = 20;
+
+	private final int threshold;
+
+	private final int priority;
+
+	public FreeBeverageRule(int threshold) {
+		this(threshold, DEFAULT_PRIORITY);
+	}
+
+	public FreeBeverageRule(int threshold, int priority) {
+		if(threshold <= 0)
+			throw new IllegalArgumentException("Threshold has to be positive [" + threshold + "].");
+
+		this.threshold = threshold;
+		this.priority = priority;
+	}
+
+	@Override
+	public ProductType getGratisProductType() {
+		return ProductType.BEVERAGE;
+	}
+
+	@Override
+	public int getPriority() {
+		return priority;
+	}
+
+	@Override
+	public int computeGratisCount(int[] typeCounts) {
+		return typeCounts[ProductType.BEVERAGE.ordinal()] / threshold;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	@Override
+	public String toString() {
+		return "FreeBeverageRule [threshold=" + threshold + ", priority=" + priority + "]";
+	}
+}
@@ -0,0 +1,44 @@
+package com.swissre.coffeecorner.service;
+
+import com.swissre.coffeecorner.entity.Product.ProductType;
+
+/**
+ * Rule : if a customer orders a beverage and a snack, one of the extras is free
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public class FreeExtrasRule implements BonusRule {
+
+	public static final int DEFAULT_PRIORITY = 10;
+
+	private final int priority;
+
+	public FreeExtrasRule() {
+		this(DEFAULT_PRIORITY);
+	}
+
+	public FreeExtrasRule(int priority) {
+		this.priority = priority;
+	}
+
+	@Override
+	public ProductType getGratisProductType() {
+		return ProductType.EXTRAS;
+	}
+
+	@Override
+	public int getPriority() {
+		return priority;
+	}
+
+	@Override
+	public int computeGratisCount(int[] typeCounts) {
+		return Math.min(typeCounts[ProductType.BEVERAGE.ordinal()], typeCounts[ProductType.SNACK.ordinal()]);
+	}
+
+	@Override
+	public String toString() {
+		return "FreeExtrasRule [priority=" + priority + "]";
+	}
+}
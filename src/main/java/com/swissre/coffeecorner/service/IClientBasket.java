@@ -1,6 +1,11 @@
 package com.swissre.coffeecorner.service;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Stream;
 
 import com.swissre.coffeecorner.entity.Product;
 
@@ -20,6 +25,51 @@ public interface IClientBasket {
 	 */
 	public List<Product> addProduct(String productLine);
 	
+	/**
+	 * Used to add product(s) formatted as a character sequence, e.g. a view of a network buffer
+	 * 
+	 * @param productLine
+	 * @return a list of added products
+	 */
+	public default List<Product> addProduct(CharSequence productLine) {
+		return addProduct(productLine.toString());
+	}
+	
+	/**
+	 * Used to add product(s) formatted as a character sequence when only their number is needed
+	 * 
+	 * @param productLine
+	 * @return number of added products
+	 */
+	public default int addProductLine(CharSequence productLine) {
+		return addProduct(productLine).size();
+	}
+	
+	/**
+	 * Used to add many product lines at once. If a line cannot be parsed, the lines before it stay added.
+	 * 
+	 * @param productLines
+	 * @return a list of added products
+	 */
+	public default List<Product> addProducts(Iterable<String> productLines) {
+		List<Product> products = new ArrayList<>();
+		
+		for(String productLine : productLines)
+			products.addAll(addProduct(productLine));
+		
+		return products;
+	}
+	
+	/**
+	 * Used to add many product lines at once. If a line cannot be parsed, the lines before it stay added.
+	 * 
+	 * @param productLines
+	 * @return a list of added products
+	 */
+	public default List<Product> addProducts(Stream<String> productLines) {
+		return addProducts((Iterable<String>) productLines::iterator);
+	}
+	
 	/**
 	 * Applies a bonus program (a set of rules specifying discounts for clients)
 	 * 
@@ -33,4 +83,24 @@ public interface IClientBasket {
 	 * @return a generated receipt
 	 */
 	public String printReceipt();
+	
+	/**
+	 * Writes the receipt (the same text as {@link #printReceipt()}) into the given target
+	 * 
+	 * @param out the target, e.g. a Writer or a StringBuilder
+	 * @throws IOException if appending to the target fails
+	 */
+	public default void writeReceipt(Appendable out) throws IOException {
+		out.append(printReceipt());
+	}
+	
+	/**
+	 * Writes the receipt (the same text as {@link #printReceipt()}) encoded as UTF-8 into the given buffer
+	 * 
+	 * @param out the target buffer
+	 * @throws java.nio.BufferOverflowException if the receipt does not fit in the remaining space of the buffer
+	 */
+	public default void writeReceipt(ByteBuffer out) {
+		out.put(printReceipt().getBytes(StandardCharsets.UTF_8));
+	}
 }
@@ -0,0 +1,132 @@
+package com.swissre.coffeecorner.service;
+
+import com.swissre.coffeecorner.entity.Product.ProductType;
+
+/**
+ * Receipt of a basket kept up to date incrementally, for the customer-facing displays.
+ *
+ * Attached to a {@link ClientBasketService}, the receipt sends to its {@link ReceiptDisplay} only the lines that
+ * have changed and the new total. The lines changed by an update are the lines of the added products and of the
+ * items whose gratis state has changed, i.e. the items between the old and the new gratis boundary of each
+ * product type, so the cost of an update does not depend on the size of the basket. The rendered lines are cached
+ * per product and quantity, and shared by all the receipts of the catalog snapshot.
+ *
+ * The lines have the format of the {@link ReceiptWriter}, the gratis items of a product are shown on one line.
+ *
+ * This class is not thread-safe, it is updated on the thread changing the basket.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public class IncrementalReceipt implements BasketListener {
+
+	private static final ProductType[] PRODUCT_TYPES = ProductType.values();
+
+	private final ReceiptLineCache lineCache;
+
+	private final ReceiptDisplay display;
+
+	// catalog ordinal -> quantities shown on the display
+	private final int[] shownPayableQuantities;
+	private final int[] shownGratisQuantities;
+
+	// product type -> gratis count when the receipt was last updated
+	private final int[] gratisCounts = new int[PRODUCT_TYPES.length];
+
+	// ordinals changed by the current update, without duplicates
+	private final int[] changedOrdinals;
+	private final boolean[] changed;
+	private int changedCount;
+
+	private long shownTotal = -1;
+
+	/**
+	 * @param catalog the catalog of the basket
+	 * @param display target of the updates
+	 */
+	public IncrementalReceipt(CatalogSnapshot catalog, ReceiptDisplay display) {
+		this.lineCache = catalog.getReceiptLineCache();
+		this.display = display;
+
+		shownPayableQuantities = new int[catalog.size()];
+		shownGratisQuantities = new int[catalog.size()];
+		changedOrdinals = new int[catalog.size()];
+		changed = new boolean[catalog.size()];
+	}
+
+	/**
+	 * Attaches a receipt to the basket, sending the current lines of the basket to the display
+	 *
+	 * @param basket the basket
+	 * @param display target of the updates
+	 * @return the attached receipt
+	 */
+	public static IncrementalReceipt attach(ClientBasketService basket, ReceiptDisplay display) {
+		IncrementalReceipt receipt = new IncrementalReceipt(basket.getCatalog(), display);
+		BasketContent content = basket.getContent();
+
+		for(int ordinal = 0 ; ordinal < content.getCatalogSize() ; ordinal++) {
+			if(content.getQuantity(ordinal) > 0)
+				receipt.markChanged(ordinal);
+		}
+		receipt.update(content);
+
+		basket.addListener(receipt);
+
+		return receipt;
+	}
+
+	@Override
+	public void basketChanged(BasketContent content, int[] addedOrdinals, int addedCount) {
+		for(int i = 0 ; i < addedCount ; i++)
+			markChanged(addedOrdinals[i]);
+
+		update(content);
+	}
+
+	private void update(BasketContent content) {
+		for(ProductType productType : PRODUCT_TYPES) {
+			int type = productType.ordinal();
+			int gratisCount = content.getGratisCount(productType);
+
+			// the items between the old and the new boundary have changed their gratis state
+			for(int index = Math.min(gratisCounts[type], gratisCount) ; index < Math.max(gratisCounts[type], gratisCount) ; index++)
+				markChanged(content.getOrdinal(productType, index));
+
+			gratisCounts[type] = gratisCount;
+		}
+
+		for(int i = 0 ; i < changedCount ; i++) {
+			int ordinal = changedOrdinals[i];
+			changed[ordinal] = false;
+
+			int payableQuantity = content.getPayableQuantity(ordinal);
+			if(payableQuantity != shownPayableQuantities[ordinal]) {
+				shownPayableQuantities[ordinal] = payableQuantity;
+				display.lineChanged(ordinal, false, payableQuantity,
+						payableQuantity == 0 ? null : lineCache.getPayableLine(ordinal, payableQuantity));
+			}
+
+			int gratisQuantity = content.getGratisQuantity(ordinal);
+			if(gratisQuantity != shownGratisQuantities[ordinal]) {
+				shownGratisQuantities[ordinal] = gratisQuantity;
+				display.lineChanged(ordinal, true, gratisQuantity,
+						gratisQuantity == 0 ? null : lineCache.getGratisLine(ordinal, gratisQuantity));
+			}
+		}
+		changedCount = 0;
+
+		long total = content.getTotalInCents();
+		if(total != shownTotal) {
+			shownTotal = total;
+			display.totalChanged(total, ReceiptLineCache.renderTotal(total));
+		}
+	}
+
+	private void markChanged(int ordinal) {
+		if(!changed[ordinal]) {
+			changed[ordinal] = true;
+			changedOrdinals[changedCount++] = ordinal;
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package com.swissre.coffeecorner.service;
+
+import com.swissre.coffeecorner.entity.Product.ProductType;
+
+/**
+ * Rule : every n-th beverage is for free, counting the beverages of the customer's previous visits too
+ *
+ * The rule is created per basket with the number of beverages the customer bought before (see
+ * {@link LoyaltyStore#newBonusProgram(String, BonusProgram)}). As it is never less generous than
+ * {@link FreeBeverageRule} with the same threshold, it replaces it in a compiled bonus program.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public class LoyaltyBeverageRule implements BonusRule {
+
+	private final int threshold;
+
+	// beverages bought before, modulo the threshold
+	private final int carriedBeverages;
+
+	private final int priority;
+
+	public LoyaltyBeverageRule(int threshold, long previousBeverages) {
+		this(threshold, previousBeverages, FreeBeverageRule.DEFAULT_PRIORITY);
+	}
+
+	public LoyaltyBeverageRule(int threshold, long previousBeverages, int priority) {
+		if(threshold <= 0)
+			throw new IllegalArgumentException("Threshold has to be positive [" + threshold + "].");
+
+		this.threshold = threshold;
+		this.carriedBeverages = (int) (Math.max(previousBeverages, 0) % threshold);
+		this.priority = priority;
+	}
+
+	@Override
+	public ProductType getGratisProductType() {
+		return ProductType.BEVERAGE;
+	}
+
+	@Override
+	public int getPriority() {
+		return priority;
+	}
+
+	@Override
+	public int computeGratisCount(int[] typeCounts) {
+		return (carriedBeverages + typeCounts[ProductType.BEVERAGE.ordinal()]) / threshold;
+	}
+
+	@Override
+	public String toString() {
+		return "LoyaltyBeverageRule [threshold=" + threshold + ", carriedBeverages=" + carriedBeverages
+				+ ", priority=" + priority + "]";
+	}
+}
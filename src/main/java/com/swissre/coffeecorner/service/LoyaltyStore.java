@@ -0,0 +1,563 @@
+package com.swissre.coffeecorner.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+import com.swissre.coffeecorner.entity.Product.ProductType;
+
+/**
+ * Loyalty stamps of the customers, carried across visits: the number of beverages every customer has bought.
+ *
+ * The stamps are kept in memory and every checkout is appended to a log on a memory-mapped file. Checkouts only
+ * update the memory and enqueue the log record; a single writer thread appends the queued records and forces them
+ * to the disk once per batch (group commit), so the baskets never wait for the disk. When the log is half full,
+ * the writer thread writes a snapshot of all the stamps and starts a new log, so a restart reads one snapshot and
+ * a short log.
+ *
+ * The log and the snapshot carry a generation number: the snapshot of generation g contains all the records of
+ * the log of generation g, and only a log of a newer generation is replayed on recovery. The records are checked
+ * by a CRC, the recovery stops at the first torn record.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public class LoyaltyStore implements AutoCloseable {
+
+	public static final String LOG_FILE = "loyalty.log";
+
+	public static final String SNAPSHOT_FILE = "loyalty.snapshot";
+
+	/** Default capacity of the log file in bytes */
+	public static final int DEFAULT_LOG_CAPACITY = 16 * 1024 * 1024;
+
+	/** Default longest time between a checkout and the commit of its record in milliseconds */
+	public static final long DEFAULT_COMMIT_INTERVAL_MILLIS = 10;
+
+	private static final int LOG_MAGIC = 0x4C4F594C;
+
+	private static final int SNAPSHOT_MAGIC = 0x4C4F5953;
+
+	// magic, generation
+	private static final int LOG_HEADER_SIZE = 4 + 8;
+
+	// length, crc
+	private static final int RECORD_HEADER_SIZE = 4 + 4;
+
+	private static final int MAX_CUSTOMER_ID_BYTES = 1024;
+
+	private final Path directory;
+
+	private final int logCapacity;
+
+	private final long commitIntervalNanos;
+
+	private final Map<String, AtomicLong> beverages = new ConcurrentHashMap<>();
+
+	private final BlockingQueue<Stamp> pending = new LinkedBlockingQueue<>();
+
+	// stamps contained in the log and the last snapshot, owned by the writer thread
+	private final Map<String, Long> durableBeverages = new HashMap<>();
+
+	private final FileChannel logChannel;
+
+	private final MappedByteBuffer log;
+
+	private final CRC32 crc = new CRC32();
+
+	private final Thread writer;
+
+	private long generation;
+
+	private final Object commitMonitor = new Object();
+
+	// guarded by commitMonitor
+	private long enqueuedCount;
+
+	// guarded by commitMonitor
+	private long committedCount;
+
+	// guarded by commitMonitor
+	private IOException failure;
+
+	private volatile boolean closed;
+
+	private final LongAdder commitCount = new LongAdder();
+
+	private final LongAdder snapshotCount = new LongAdder();
+
+	/**
+	 * Opens the store in the directory with the default log capacity and commit interval, recovering the stamps
+	 * of the previous runs
+	 *
+	 * @param directory directory of the log and the snapshot
+	 * @throws IOException if the store cannot be read or created
+	 */
+	public LoyaltyStore(Path directory) throws IOException {
+		this(directory, DEFAULT_LOG_CAPACITY, DEFAULT_COMMIT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Opens the store in the directory, recovering the stamps of the previous runs
+	 *
+	 * @param directory directory of the log and the snapshot
+	 * @param logCapacity size of the memory-mapped log file in bytes
+	 * @param commitInterval longest time between a checkout and the commit of its record
+	 * @param unit unit of the commit interval
+	 * @throws IOException if the store cannot be read or created
+	 */
+	public LoyaltyStore(Path directory, int logCapacity, long commitInterval, TimeUnit unit) throws IOException {
+		if(logCapacity < LOG_HEADER_SIZE + 2 * (RECORD_HEADER_SIZE + 2 + MAX_CUSTOMER_ID_BYTES + 8))
+			throw new IllegalArgumentException("Log capacity too small [" + logCapacity + "].");
+
+		this.directory = Files.createDirectories(directory);
+		this.logCapacity = logCapacity;
+		this.commitIntervalNanos = unit.toNanos(commitInterval);
+
+		long snapshotGeneration = readSnapshot();
+
+		this.logChannel = FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		try {
+			this.log = logChannel.map(FileChannel.MapMode.READ_WRITE, 0, logCapacity);
+			recoverLog(snapshotGeneration);
+		} catch (IOException | RuntimeException e) {
+			logChannel.close();
+			throw e;
+		}
+
+		for(Map.Entry<String, Long> entry : durableBeverages.entrySet())
+			beverages.put(entry.getKey(), new AtomicLong(entry.getValue()));
+
+		this.writer = new Thread(this::writeLoop, "loyalty-store-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * @param customerId the customer
+	 * @return number of beverages the customer has bought so far
+	 */
+	public long getBeverageCount(String customerId) {
+		AtomicLong count = beverages.get(customerId);
+
+		return count == null ? 0 : count.get();
+	}
+
+	/**
+	 * Records the beverages bought by the customer at a checkout. The stamps are updated in memory at once, the
+	 * record is committed to the log asynchronously.
+	 *
+	 * @param customerId the customer
+	 * @param beverageCount number of beverages bought
+	 * @return number of beverages the customer has bought so far, this checkout included
+	 * @throws IllegalStateException if the store is closed, or its log cannot be written any more
+	 */
+	public long addBeverages(String customerId, int beverageCount) {
+		if(beverageCount < 0)
+			throw new IllegalArgumentException("Beverage count cannot be negative [" + beverageCount + "].");
+		if(customerId.getBytes(StandardCharsets.UTF_8).length > MAX_CUSTOMER_ID_BYTES)
+			throw new IllegalArgumentException("Customer id too long [" + customerId + "].");
+
+		Stamp stamp = beverageCount > 0 ? new Stamp(customerId, beverageCount) : null;
+
+		// the stamp is accepted only while the writer commits the log, so the memory never runs ahead of the log
+		synchronized (commitMonitor) {
+			if(closed)
+				throw new IllegalStateException("Loyalty store is closed.");
+			if(failure != null)
+				throw new IllegalStateException("Loyalty store cannot write its log.", failure);
+			if(!writer.isAlive())
+				throw new IllegalStateException("Loyalty store writer stopped.");
+
+			long total = beverages.computeIfAbsent(customerId, id -> new AtomicLong()).addAndGet(beverageCount);
+
+			if(stamp != null) {
+				enqueuedCount++;
+				pending.add(stamp);
+			}
+
+			return total;
+		}
+	}
+
+	/**
+	 * Records the beverages of a checked out basket
+	 *
+	 * @param customerId the customer
+	 * @param basket the checked out basket
+	 * @return number of beverages the customer has bought so far, this basket included
+	 */
+	public long checkout(String customerId, ClientBasketService basket) {
+		return addBeverages(customerId, basket.getProductCount(ProductType.BEVERAGE));
+	}
+
+	/**
+	 * Creates the bonus program of a basket of the customer: the beverage rule counts the beverages bought on
+	 * the previous visits too
+	 *
+	 * @param customerId the customer
+	 * @param bonusProgram the bonus program of all the customers
+	 * @return the bonus program of the customer's basket
+	 */
+	public BonusProgram newBonusProgram(String customerId, BonusProgram bonusProgram) {
+		return newBonusProgram(customerId, bonusProgram, ClientBasketService.BEVERAGE_FREE_THRESHOLD);
+	}
+
+	/**
+	 * Creates the bonus program of a basket of the customer, every threshold-th beverage being for free
+	 *
+	 * @param customerId the customer
+	 * @param bonusProgram the bonus program of all the customers
+	 * @param threshold number of beverages making one of them for free
+	 * @return the bonus program of the customer's basket
+	 */
+	public BonusProgram newBonusProgram(String customerId, BonusProgram bonusProgram, int threshold) {
+		return bonusProgram.with(new LoyaltyBeverageRule(threshold, getBeverageCount(customerId)));
+	}
+
+	/**
+	 * Waits until all the checkouts recorded so far are committed to the disk
+	 *
+	 * @throws IOException if writing the log failed
+	 */
+	public void flush() throws IOException {
+		synchronized (commitMonitor) {
+			long target = enqueuedCount;
+
+			while(committedCount < target && failure == null) {
+				if(!writer.isAlive())
+					throw new IOException("Loyalty store writer stopped.");
+
+				try {
+					commitMonitor.wait(100);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while flushing the loyalty store.", e);
+				}
+			}
+
+			if(failure != null)
+				throw failure;
+		}
+	}
+
+	/**
+	 * @return number of group commits (forces of the log to the disk)
+	 */
+	public long getCommitCount() {
+		return commitCount.sum();
+	}
+
+	/**
+	 * @return number of snapshots written since the store was opened
+	 */
+	public long getSnapshotCount() {
+		return snapshotCount.sum();
+	}
+
+	/**
+	 * @return number of customers with stamps
+	 */
+	public int size() {
+		return beverages.size();
+	}
+
+	/**
+	 * Commits the pending checkouts and closes the log
+	 *
+	 * @throws IOException if writing the log failed
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (commitMonitor) {
+			if(closed)
+				return;
+
+			// no stamp is accepted any more, the writer commits the pending ones before it stops
+			closed = true;
+		}
+
+		try {
+			flush();
+		} finally {
+			writer.interrupt();
+
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			logChannel.close();
+		}
+	}
+
+	private void writeLoop() {
+		List<Stamp> batch = new ArrayList<>();
+
+		while(!closed || !pending.isEmpty()) {
+			try {
+				Stamp first = pending.poll(commitIntervalNanos, TimeUnit.NANOSECONDS);
+
+				if(first == null)
+					continue;
+
+				batch.add(first);
+				pending.drainTo(batch);
+
+				commit(batch);
+			} catch (InterruptedException e) {
+				// woken up by close, the pending stamps are still committed
+			} catch (IOException | RuntimeException e) {
+				synchronized (commitMonitor) {
+					failure = e instanceof IOException ? (IOException) e : new IOException(e);
+					commitMonitor.notifyAll();
+				}
+				return;
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	private void commit(List<Stamp> batch) throws IOException {
+		for(Stamp stamp : batch) {
+			if(log.remaining() < RECORD_HEADER_SIZE + 2 + stamp.customerId.length + 4) {
+				// the log is full, the snapshot makes the records written so far obsolete
+				log.force();
+				writeSnapshot();
+			}
+
+			append(stamp);
+			durableBeverages.merge(stamp.customerIdString, (long) stamp.beverageCount, Long::sum);
+		}
+
+		log.force();
+
+		if(log.position() > logCapacity / 2)
+			writeSnapshot();
+
+		commitCount.increment();
+
+		synchronized (commitMonitor) {
+			committedCount += batch.size();
+			commitMonitor.notifyAll();
+		}
+	}
+
+	private void append(Stamp stamp) {
+		int start = log.position();
+		int length = 2 + stamp.customerId.length + 4;
+
+		log.position(start + RECORD_HEADER_SIZE);
+		log.putShort((short) stamp.customerId.length);
+		log.put(stamp.customerId);
+		log.putInt(stamp.beverageCount);
+
+		crc.reset();
+		ByteBuffer payload = log.duplicate();
+		payload.position(start + RECORD_HEADER_SIZE).limit(start + RECORD_HEADER_SIZE + length);
+		crc.update(payload);
+
+		log.putInt(start, length);
+		log.putInt(start + 4, (int) crc.getValue());
+	}
+
+	private void writeSnapshot() throws IOException {
+		Path snapshotFile = directory.resolve(SNAPSHOT_FILE);
+		Path temporary = directory.resolve(SNAPSHOT_FILE + ".tmp");
+
+		// the snapshot covers the log of the current generation
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			buffer.putInt(SNAPSHOT_MAGIC).putLong(generation).putInt(durableBeverages.size());
+
+			for(Map.Entry<String, Long> entry : durableBeverages.entrySet()) {
+				byte[] customerId = entry.getKey().getBytes(StandardCharsets.UTF_8);
+
+				if(buffer.remaining() < 2 + customerId.length + 8) {
+					buffer.flip();
+					writeFully(channel, buffer);
+					buffer.clear();
+				}
+
+				buffer.putShort((short) customerId.length).put(customerId).putLong(entry.getValue());
+			}
+
+			buffer.flip();
+			writeFully(channel, buffer);
+			channel.force(true);
+		}
+
+		Files.move(temporary, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		startGeneration(generation + 1);
+
+		snapshotCount.increment();
+	}
+
+	/**
+	 * @return generation of the snapshot, -1 if there is none
+	 */
+	private long readSnapshot() throws IOException {
+		Path snapshotFile = directory.resolve(SNAPSHOT_FILE);
+
+		if(!Files.exists(snapshotFile))
+			return -1;
+
+		ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(snapshotFile));
+
+		try {
+			if(buffer.getInt() != SNAPSHOT_MAGIC)
+				throw new IOException("Invalid loyalty snapshot [" + snapshotFile + "].");
+
+			long snapshotGeneration = buffer.getLong();
+			int count = buffer.getInt();
+
+			for(int i = 0 ; i < count ; i++) {
+				byte[] customerId = new byte[buffer.getShort()];
+				buffer.get(customerId);
+
+				durableBeverages.put(new String(customerId, StandardCharsets.UTF_8), buffer.getLong());
+			}
+
+			return snapshotGeneration;
+		} catch (RuntimeException e) {
+			throw new IOException("Invalid loyalty snapshot [" + snapshotFile + "].", e);
+		}
+	}
+
+	private void recoverLog(long snapshotGeneration) throws IOException {
+		int magic = log.getInt(0);
+
+		if(magic != 0 && magic != LOG_MAGIC)
+			throw new IOException("Invalid loyalty log [" + directory.resolve(LOG_FILE) + "].");
+
+		long logGeneration = magic == LOG_MAGIC ? log.getLong(4) : -1;
+
+		log.position(scanEnd());
+
+		if(logGeneration > snapshotGeneration) {
+			replay();
+			generation = logGeneration;
+		} else {
+			// new log, or a log already covered by the snapshot
+			startGeneration(snapshotGeneration + 1);
+		}
+	}
+
+	/**
+	 * Clears the records of the log and starts a new generation. The records are cleared before the new
+	 * generation is written, a crash in between leaves a log the snapshot already covers.
+	 */
+	private void startGeneration(long nextGeneration) {
+		int end = log.position();
+		for(int i = LOG_HEADER_SIZE ; i < end ; i++)
+			log.put(i, (byte) 0);
+		log.force();
+
+		generation = nextGeneration;
+		log.putInt(0, LOG_MAGIC);
+		log.putLong(4, generation);
+		log.position(LOG_HEADER_SIZE);
+		log.force();
+	}
+
+	private void replay() {
+		int position = LOG_HEADER_SIZE;
+
+		while(true) {
+			int length = readRecordLength(position);
+			if(length < 0)
+				break;
+
+			int payload = position + RECORD_HEADER_SIZE;
+			byte[] customerId = new byte[log.getShort(payload)];
+			for(int i = 0 ; i < customerId.length ; i++)
+				customerId[i] = log.get(payload + 2 + i);
+
+			durableBeverages.merge(new String(customerId, StandardCharsets.UTF_8),
+					(long) log.getInt(payload + 2 + customerId.length), Long::sum);
+
+			position = payload + length;
+		}
+	}
+
+	/**
+	 * @return position after the last valid record of the log
+	 */
+	private int scanEnd() {
+		int position = LOG_HEADER_SIZE;
+		int length;
+
+		while((length = readRecordLength(position)) >= 0)
+			position += RECORD_HEADER_SIZE + length;
+
+		return position;
+	}
+
+	/**
+	 * @return length of the payload of the record at the position, -1 if there is no valid record
+	 */
+	private int readRecordLength(int position) {
+		if(position + RECORD_HEADER_SIZE > logCapacity)
+			return -1;
+
+		int length = log.getInt(position);
+		int payload = position + RECORD_HEADER_SIZE;
+
+		if(length < 6 || payload + length > logCapacity)
+			return -1;
+
+		int customerIdLength = log.getShort(payload);
+		if(customerIdLength < 0 || customerIdLength + 6 != length)
+			return -1;
+
+		crc.reset();
+		ByteBuffer record = log.duplicate();
+		record.position(payload).limit(payload + length);
+		crc.update(record);
+
+		return (int) crc.getValue() == log.getInt(position + 4) ? length : -1;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	private static class Stamp {
+
+		final String customerIdString;
+
+		final byte[] customerId;
+
+		final int beverageCount;
+
+		Stamp(String customerId, int beverageCount) {
+			this.customerIdString = customerId;
+			this.customerId = customerId.getBytes(StandardCharsets.UTF_8);
+			this.beverageCount = beverageCount;
+		}
+	}
+}
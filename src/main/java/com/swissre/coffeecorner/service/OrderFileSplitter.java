@@ -0,0 +1,238 @@
+package com.swissre.coffeecorner.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Splits an order file into its baskets for the services processing whole order files.
+ *
+ * The order file contains one product line per line; the baskets are separated by blank lines. The file is read
+ * through memory mapped regions of a {@link FileChannel}: a region is consumed up to the end of its last complete
+ * basket, the next region starts there, and the regions grow when a single basket does not fit. The complete
+ * baskets are handed over in windows, in the order of the file.
+ *
+ * {@link #forEachBasket(Path, Consumer)} hands over the product lines of the baskets to the callers outside of
+ * the package.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public final class OrderFileSplitter {
+
+	private static final int DEFAULT_MAPPING_SIZE = 64 << 20;
+
+	private static final int DEFAULT_WINDOW_SIZE = 1024;
+
+	/**
+	 * Action run on a window of complete baskets of a region
+	 */
+	interface WindowAction {
+
+		/**
+		 * The arrays are reused for the next window once the action returns.
+		 *
+		 * @param region the mapped region
+		 * @param basketStarts index in the region of the first line of every basket
+		 * @param basketEnds index in the region of the end of the last line of every basket
+		 * @param baskets number of baskets of the window, at least one
+		 * @throws IOException if the action fails to write its output
+		 */
+		void accept(ByteBuffer region, int[] basketStarts, int[] basketEnds, int baskets) throws IOException;
+	}
+
+	private OrderFileSplitter() {
+	}
+
+	/**
+	 * Runs the action on the product lines of every basket of the order file, in the order of the file
+	 *
+	 * @param orderFile the order file
+	 * @param action receives the product lines of a basket, without the blank lines
+	 * @throws IOException if reading the order file fails
+	 */
+	public static void forEachBasket(Path orderFile, Consumer<? super List<String>> action) throws IOException {
+		split(orderFile, DEFAULT_MAPPING_SIZE, DEFAULT_WINDOW_SIZE, (region, basketStarts, basketEnds, baskets) -> {
+			for(int i = 0 ; i < baskets ; i++)
+				action.accept(productLines(region, basketStarts[i], basketEnds[i]));
+		});
+	}
+
+	/**
+	 * Runs the action on all the baskets of the order file
+	 *
+	 * @param orderFile the order file
+	 * @param mappingSize size of the regions mapped at once, grows if a basket does not fit
+	 * @param windowSize maximum number of baskets of a window
+	 * @param action the action run on every window
+	 * @throws IOException if reading the order file or the action fails
+	 */
+	static void split(Path orderFile, int mappingSize, int windowSize, WindowAction action) throws IOException {
+		int[] basketStarts = new int[windowSize];
+		int[] basketEnds = new int[windowSize];
+
+		try (FileChannel channel = FileChannel.open(orderFile, StandardOpenOption.READ)) {
+			long size = channel.size();
+			long position = 0;
+			int regionSize = mappingSize;
+
+			while(position < size) {
+				long length = Math.min(regionSize, size - position);
+				boolean lastRegion = position + length == size;
+				MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+				int consumed = splitRegion(region, lastRegion, basketStarts, basketEnds, action);
+
+				if(consumed == 0) {
+					// a single basket does not fit in the region
+					regionSize = (int) Math.min(Integer.MAX_VALUE, regionSize * 2L);
+					continue;
+				}
+
+				position += consumed;
+			}
+		}
+	}
+
+	/**
+	 * Runs the action on the complete baskets of the region
+	 *
+	 * @return number of bytes of the region consumed
+	 */
+	private static int splitRegion(ByteBuffer region, boolean lastRegion, int[] basketStarts, int[] basketEnds,
+			WindowAction action) throws IOException {
+		int limit = region.limit();
+		int baskets = 0;
+		int basketStart = -1;
+		int basketEnd = -1;
+		int consumed = 0;
+		int lineStart = 0;
+
+		while(lineStart < limit) {
+			int lineEnd = lineEnd(region, lineStart, limit);
+
+			if(lineEnd == limit && !lastRegion)
+				break; // the line continues in the next region
+
+			int next = Math.min(lineEnd + 1, limit);
+
+			if(isBlank(region, lineStart, lineEnd)) {
+				if(basketStart >= 0) {
+					basketStarts[baskets] = basketStart;
+					basketEnds[baskets] = basketEnd;
+					baskets++;
+					basketStart = -1;
+				}
+				consumed = next;
+			} else {
+				if(basketStart < 0)
+					basketStart = lineStart;
+				basketEnd = lineEnd;
+			}
+
+			if(baskets == basketStarts.length) {
+				action.accept(region, basketStarts, basketEnds, baskets);
+				baskets = 0;
+			}
+
+			lineStart = next;
+		}
+
+		if(lastRegion && basketStart >= 0) {
+			basketStarts[baskets] = basketStart;
+			basketEnds[baskets] = basketEnd;
+			baskets++;
+		}
+
+		if(lastRegion)
+			consumed = limit;
+
+		if(baskets > 0)
+			action.accept(region, basketStarts, basketEnds, baskets);
+
+		return consumed;
+	}
+
+	/**
+	 * @param region the region
+	 * @param start index of the start of the line
+	 * @param end index the line ends at, at the latest
+	 * @return index of the new line character ending the line, end if there is none before it
+	 */
+	static int lineEnd(ByteBuffer region, int start, int end) {
+		int lineEnd = start;
+
+		while(lineEnd < end && region.get(lineEnd) != '\n')
+			lineEnd++;
+
+		return lineEnd;
+	}
+
+	/**
+	 * @param region the region
+	 * @param start index of the first line of the basket
+	 * @param end index of the end of the last line of the basket
+	 * @return the decoded product lines of the basket, without the blank lines
+	 */
+	static List<String> productLines(ByteBuffer region, int start, int end) {
+		List<String> productLines = new ArrayList<>();
+		int lineStart = start;
+
+		while(lineStart <= end) {
+			int lineEnd = lineEnd(region, lineStart, end);
+
+			if(!isBlank(region, lineStart, lineEnd))
+				productLines.add(decode(region, lineStart, lineEnd));
+
+			lineStart = lineEnd + 1;
+		}
+
+		return productLines;
+	}
+
+	/**
+	 * Points the view at a line of the region, without its carriage return
+	 *
+	 * @param line the reused view
+	 * @param region the region
+	 * @param start index of the start of the line
+	 * @param end index of the new line character ending the line
+	 * @return the view, or the decoded line if it is not ASCII
+	 */
+	static CharSequence line(ByteCharSequence line, ByteBuffer region, int start, int end) {
+		if(end > start && region.get(end - 1) == '\r')
+			end--;
+
+		line.wrap(region, start, end - start);
+
+		return line.isAscii() ? line : line.toString();
+	}
+
+	static String decode(ByteBuffer region, int start, int end) {
+		if(end > start && region.get(end - 1) == '\r')
+			end--;
+
+		byte[] bytes = new byte[end - start];
+		for(int i = 0 ; i < bytes.length ; i++)
+			bytes[i] = region.get(start + i);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	static boolean isBlank(ByteBuffer region, int start, int end) {
+		for(int i = start ; i < end ; i++) {
+			byte b = region.get(i);
+			if(b != ' ' && b != '\t' && b != '\r')
+				return false;
+		}
+
+		return true;
+	}
+}
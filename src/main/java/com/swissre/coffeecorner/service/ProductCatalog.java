@@ -0,0 +1,328 @@
+package com.swissre.coffeecorner.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.swissre.coffeecorner.entity.Product;
+import com.swissre.coffeecorner.entity.Product.ProductType;
+import com.swissre.coffeecorner.exception.UnknownProductException;
+
+/**
+ * Product catalog loaded from a local file, a class path resource or built into the application.
+ *
+ * The catalog is published as immutable {@link CatalogSnapshot}s through an atomic reference: lookups never
+ * lock and {@link #reload()} swaps in a new snapshot without stopping the baskets being served. A basket keeps
+ * pricing against the snapshot it started with.
+ *
+ * The file contains one product per line in the format <code>name;type;price</code>; empty lines and lines
+ * starting with # are ignored. The position of a product in the file is its catalog ordinal.
+ *
+ * The built-in catalog is generated from src/main/resources/catalog.csv by the build (see CatalogGenerator in
+ * src/build/java): loading it does not read or parse a file and its lookups are a switch over the product names.
+ *
+ * The catalog counts the lookups, the reloads and their cost; the lookup latency is measured on a sample of
+ * the lookups.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public class ProductCatalog {
+
+	/** System property with the path of the catalog file used by {@link #getDefault()} */
+	public static final String CATALOG_FILE_PROPERTY = "coffeecorner.catalog";
+
+	/** Class path resource with the catalog the built-in catalog is generated from */
+	public static final String DEFAULT_CATALOG_RESOURCE = "/catalog.csv";
+
+	private static final String FIELD_DELIMITER = ";";
+
+	// one of LOOKUP_SAMPLING_RATE lookups is timed
+	private static final int LOOKUP_SAMPLING_RATE = 64;
+
+	private static volatile ProductCatalog defaultCatalog;
+
+	private final Path catalogFile;
+
+	private final String catalogResource;
+
+	// neither a file nor a resource, the catalog generated by the build
+	private final boolean builtIn;
+
+	private final AtomicReference<CatalogSnapshot> snapshot = new AtomicReference<>();
+
+	private volatile FileTime lastModified;
+
+	private final LongAdder lookupCount = new LongAdder();
+	private final LongAdder lookupMissCount = new LongAdder();
+	private final LongAdder sampledLookupCount = new LongAdder();
+	private final LongAdder sampledLookupNanos = new LongAdder();
+	private final LongAdder reloadCount = new LongAdder();
+	private final LongAdder reloadFailureCount = new LongAdder();
+	private final LongAdder reloadNanos = new LongAdder();
+	private volatile long lastReloadNanos;
+
+	private ProductCatalog(Path catalogFile, String catalogResource) throws IOException {
+		this.catalogFile = catalogFile;
+		this.catalogResource = catalogResource;
+		this.builtIn = catalogFile == null && catalogResource == null;
+
+		reload();
+	}
+
+	/**
+	 * Loads the catalog from a local file
+	 *
+	 * @param catalogFile the catalog file
+	 * @return the loaded catalog
+	 * @throws IOException if the file cannot be read or parsed
+	 */
+	public static ProductCatalog fromFile(Path catalogFile) throws IOException {
+		return new ProductCatalog(catalogFile, null);
+	}
+
+	/**
+	 * Loads the catalog from a class path resource
+	 *
+	 * @param catalogResource the resource name
+	 * @return the loaded catalog
+	 * @throws IOException if the resource cannot be read or parsed
+	 */
+	public static ProductCatalog fromResource(String catalogResource) throws IOException {
+		return new ProductCatalog(null, catalogResource);
+	}
+
+	/**
+	 * @return the catalog generated from the {@value #DEFAULT_CATALOG_RESOURCE} resource by the build
+	 */
+	public static ProductCatalog builtIn() {
+		try {
+			return new ProductCatalog(null, null);
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot load the built-in product catalog.", e);
+		}
+	}
+
+	/**
+	 * @return the catalog of the file given by the {@value #CATALOG_FILE_PROPERTY} system property, or the
+	 * {@link #builtIn() built-in} catalog
+	 */
+	public static ProductCatalog getDefault() {
+		ProductCatalog catalog = defaultCatalog;
+
+		if(catalog == null) {
+			synchronized (ProductCatalog.class) {
+				catalog = defaultCatalog;
+
+				if(catalog == null) {
+					String catalogFile = System.getProperty(CATALOG_FILE_PROPERTY);
+
+					try {
+						catalog = catalogFile != null ? fromFile(Paths.get(catalogFile)) : builtIn();
+					} catch (IOException e) {
+						throw new IllegalStateException("Cannot load the product catalog.", e);
+					}
+
+					defaultCatalog = catalog;
+				}
+			}
+		}
+
+		return catalog;
+	}
+
+	/**
+	 * @return the current snapshot of the catalog
+	 */
+	public CatalogSnapshot getSnapshot() {
+		return snapshot.get();
+	}
+
+	/**
+	 * Looks up a product in the current snapshot
+	 *
+	 * @param name name of the product
+	 * @return the product
+	 * @throws UnknownProductException if the catalog does not contain the product
+	 */
+	public Product lookup(String name) {
+		boolean sampled = ThreadLocalRandom.current().nextInt(LOOKUP_SAMPLING_RATE) == 0;
+		long start = sampled ? System.nanoTime() : 0;
+
+		lookupCount.increment();
+		try {
+			CatalogSnapshot current = snapshot.get();
+			int ordinal = builtIn ? GeneratedCatalog.ordinalOf(name) : -1;
+
+			return current.getProduct(ordinal >= 0 ? ordinal : current.getOrdinal(name));
+		} catch (UnknownProductException e) {
+			lookupMissCount.increment();
+			throw e;
+		} finally {
+			if(sampled) {
+				sampledLookupNanos.add(System.nanoTime() - start);
+				sampledLookupCount.increment();
+			}
+		}
+	}
+
+	/**
+	 * Reads the catalog again and publishes it as a new snapshot. If reading fails, the current snapshot stays.
+	 *
+	 * @return the new snapshot
+	 * @throws IOException if the catalog cannot be read or parsed
+	 */
+	public synchronized CatalogSnapshot reload() throws IOException {
+		long start = System.nanoTime();
+
+		try {
+			FileTime modified = catalogFile != null ? Files.getLastModifiedTime(catalogFile) : null;
+			List<Product> products;
+
+			if(builtIn) {
+				products = GeneratedCatalog.products();
+			} else if(catalogFile != null) {
+				try (BufferedReader reader = Files.newBufferedReader(catalogFile, StandardCharsets.UTF_8)) {
+					products = read(reader, catalogFile.toString());
+				}
+			} else {
+				InputStream in = ProductCatalog.class.getResourceAsStream(catalogResource);
+
+				if(in == null)
+					throw new IOException("Catalog resource not found [" + catalogResource + "].");
+
+				try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+					products = read(reader, catalogResource);
+				}
+			}
+
+			CatalogSnapshot current = snapshot.get();
+			CatalogSnapshot next = new CatalogSnapshot(current == null ? 1 : current.getVersion() + 1, products);
+
+			snapshot.set(next);
+			lastModified = modified;
+			reloadCount.increment();
+
+			return next;
+		} catch (IOException | RuntimeException e) {
+			reloadFailureCount.increment();
+			throw e;
+		} finally {
+			lastReloadNanos = System.nanoTime() - start;
+			reloadNanos.add(lastReloadNanos);
+		}
+	}
+
+	/**
+	 * Reloads the catalog if the catalog file has been modified since it was last read. Meant to be called
+	 * periodically, e.g. from a scheduled executor.
+	 *
+	 * @return true if the catalog was reloaded
+	 * @throws IOException if the catalog cannot be read or parsed
+	 */
+	public boolean reloadIfModified() throws IOException {
+		if(catalogFile == null || Files.getLastModifiedTime(catalogFile).equals(lastModified))
+			return false;
+
+		reload();
+
+		return true;
+	}
+
+	public long getLookupCount() {
+		return lookupCount.sum();
+	}
+
+	public long getLookupMissCount() {
+		return lookupMissCount.sum();
+	}
+
+	/**
+	 * @return average latency of the sampled lookups in nanoseconds, 0 if no lookup was sampled yet
+	 */
+	public long getAverageLookupNanos() {
+		long count = sampledLookupCount.sum();
+
+		return count == 0 ? 0 : sampledLookupNanos.sum() / count;
+	}
+
+	/**
+	 * @return number of successful reloads, the initial load included
+	 */
+	public long getReloadCount() {
+		return reloadCount.sum();
+	}
+
+	public long getReloadFailureCount() {
+		return reloadFailureCount.sum();
+	}
+
+	/**
+	 * @return time spent by all the reloads (failed ones included) in nanoseconds
+	 */
+	public long getTotalReloadNanos() {
+		return reloadNanos.sum();
+	}
+
+	/**
+	 * @return time spent by the last reload in nanoseconds
+	 */
+	public long getLastReloadNanos() {
+		return lastReloadNanos;
+	}
+
+	static List<Product> read(BufferedReader reader, String source) throws IOException {
+		List<Product> products = new ArrayList<>();
+		Set<String> names = new HashSet<>();
+		String line;
+		int lineNumber = 0;
+
+		while((line = reader.readLine()) != null) {
+			lineNumber++;
+			line = line.trim();
+
+			if(line.isEmpty() || line.startsWith("#"))
+				continue;
+
+			String[] fields = line.split(FIELD_DELIMITER);
+
+			try {
+				if(fields.length != 3)
+					throw new IllegalArgumentException("expected name;type;price");
+
+				String name = fields[0].trim();
+				BigDecimal price = new BigDecimal(fields[2].trim());
+
+				// the snapshot prices the products in whole cents
+				try {
+					price.movePointRight(2).longValueExact();
+				} catch (ArithmeticException e) {
+					throw new IllegalArgumentException("invalid price " + fields[2].trim(), e);
+				}
+
+				if(!names.add(name))
+					throw new IllegalArgumentException("duplicate product " + name);
+
+				products.add(new Product(name, ProductType.valueOf(fields[1].trim()), price));
+			} catch (IllegalArgumentException e) {
+				throw new IOException(String.format("Invalid catalog line %d of [%s]: %s", lineNumber, source, e.getMessage()), e);
+			}
+		}
+
+		return products;
+	}
+}
@@ -0,0 +1,258 @@
+package com.swissre.coffeecorner.service;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.swissre.coffeecorner.exception.UnknownProductException;
+
+/**
+ * Parser of the order lines as the customers type them, with the results memoized per raw line.
+ *
+ * The lines in the exact format of the {@link ProductLineParser} are parsed by it straight away: the single pass
+ * over the trie is cheaper than hashing the line. The other lines are normalized (case, whitespace) and may list
+ * several extras after the beverage, e.g. "Large Coffee with extra milk and special roast" or
+ * "large coffee with extra milk, foamed milk, and special roast". As the same few lines make up most of the
+ * traffic, their results (and failures) are kept in a bounded concurrent cache keyed on the raw line, evicting the
+ * entries not used recently (CLOCK, an approximation of LRU).
+ *
+ * A line that cannot be parsed fails with the error the {@link ProductLineParser} reports for the raw line.
+ *
+ * Every {@link CatalogSnapshot} has its own cache, so reloading the catalog starts with an empty cache.
+ *
+ * Instances are thread-safe.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public final class ProductLineCache {
+
+	/** Maximum number of products a single line can contain (a beverage and its extras) */
+	public static final int MAX_PRODUCTS_PER_LINE = 8;
+
+	/** Default maximum number of cached lines */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private static final String BEVERAGE_EXTRAS_DELIMITER = " with ";
+
+	private static final String EXTRAS_DELIMITER = " and ";
+
+	// the last extras of a list can follow a serial comma
+	private static final String SERIAL_EXTRAS_DELIMITER = ", and ";
+
+	private final ProductLineParser parser;
+
+	private final int capacity;
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+	private final ReentrantLock evictionLock = new ReentrantLock();
+
+	// position of the clock hand, guarded by evictionLock
+	private Iterator<Map.Entry<String, Entry>> clockHand;
+
+	private final LongAdder hitCount = new LongAdder();
+
+	private final LongAdder missCount = new LongAdder();
+
+	private final LongAdder evictionCount = new LongAdder();
+
+	/**
+	 * @param parser the parser of the exact lines
+	 * @param capacity maximum number of cached lines
+	 */
+	public ProductLineCache(ProductLineParser parser, int capacity) {
+		if(capacity <= 0)
+			throw new IllegalArgumentException("Capacity has to be positive [" + capacity + "].");
+
+		this.parser = parser;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Parses a single order line
+	 *
+	 * @param productLine the order line
+	 * @param ordinals an array of at least {@link #MAX_PRODUCTS_PER_LINE} elements receiving the catalog ordinals
+	 * @return the number of products parsed into the ordinals array
+	 * @throws UnknownProductException if the line is malformed or contains a product not present in the catalog
+	 */
+	public int parse(CharSequence productLine, int[] ordinals) {
+		int count = parser.tryParse(productLine, ordinals);
+
+		if(count >= 0)
+			return count;
+
+		String key = productLine.toString();
+		Entry entry = entries.get(key);
+
+		if(entry != null) {
+			hitCount.increment();
+
+			if(!entry.referenced)
+				entry.referenced = true;
+		} else {
+			missCount.increment();
+
+			entry = parseNormalized(key);
+			if(entries.putIfAbsent(key, entry) == null && entries.size() > capacity)
+				evict();
+		}
+
+		if(entry.ordinals == null)
+			throw new UnknownProductException(entry.failure);
+
+		System.arraycopy(entry.ordinals, 0, ordinals, 0, entry.ordinals.length);
+
+		return entry.ordinals.length;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return number of cached lines
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return number of the lines not in the exact format found in the cache
+	 */
+	public long getHitCount() {
+		return hitCount.sum();
+	}
+
+	/**
+	 * @return number of the lines not in the exact format that had to be parsed
+	 */
+	public long getMissCount() {
+		return missCount.sum();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.sum();
+	}
+
+	/**
+	 * Lower case, without the leading and trailing whitespace and with the other whitespace sequences replaced
+	 * by a single space
+	 *
+	 * @param productLine the order line
+	 * @return the normalized line
+	 */
+	static String normalize(String productLine) {
+		StringBuilder normalized = new StringBuilder(productLine.length());
+		boolean whitespace = false;
+
+		for(int i = 0 ; i < productLine.length() ; i++) {
+			char c = productLine.charAt(i);
+
+			if(Character.isWhitespace(c)) {
+				whitespace = normalized.length() > 0;
+				continue;
+			}
+
+			if(whitespace)
+				normalized.append(' ');
+			whitespace = false;
+
+			normalized.append(c);
+		}
+
+		return normalized.toString().toLowerCase(Locale.ROOT);
+	}
+
+	private Entry parseNormalized(String productLine) {
+		String normalized = normalize(productLine);
+		int[] ordinals = new int[MAX_PRODUCTS_PER_LINE];
+		int[] segmentOrdinals = new int[ProductLineParser.MAX_PRODUCTS_PER_LINE];
+
+		int delimiter = normalized.indexOf(BEVERAGE_EXTRAS_DELIMITER);
+		String beverage = delimiter < 0 ? normalized : normalized.substring(0, delimiter);
+
+		if(parser.tryParse(beverage, segmentOrdinals) != 1)
+			return new Entry(null, failureOf(productLine));
+
+		ordinals[0] = segmentOrdinals[0];
+		int count = 1;
+
+		if(delimiter >= 0) {
+			String extras = normalized.substring(delimiter + BEVERAGE_EXTRAS_DELIMITER.length())
+					.replace(SERIAL_EXTRAS_DELIMITER, EXTRAS_DELIMITER).replace(",", EXTRAS_DELIMITER);
+
+			for(String extra : extras.split(EXTRAS_DELIMITER, -1)) {
+				extra = extra.trim();
+
+				if(count == MAX_PRODUCTS_PER_LINE || extra.isEmpty() || parser.tryParse(extra, segmentOrdinals) != 1)
+					return new Entry(null, failureOf(productLine));
+
+				ordinals[count++] = segmentOrdinals[0];
+			}
+		}
+
+		return new Entry(Arrays.copyOf(ordinals, count), null);
+	}
+
+	/**
+	 * @return the message of the error the exact parser reports for the line
+	 */
+	private String failureOf(String productLine) {
+		try {
+			parser.parse(productLine, new int[ProductLineParser.MAX_PRODUCTS_PER_LINE]);
+		} catch (UnknownProductException e) {
+			return e.getMessage();
+		}
+
+		return String.format("Product catalog does not contain product [%s].", productLine);
+	}
+
+	private void evict() {
+		if(!evictionLock.tryLock())
+			return; // another thread is evicting
+
+		try {
+			// every entry is passed at most twice: once to clear its reference bit, once to evict it
+			for(int steps = 2 * entries.size() + 1 ; steps > 0 && entries.size() > capacity ; steps--) {
+				if(clockHand == null || !clockHand.hasNext())
+					clockHand = entries.entrySet().iterator();
+
+				if(!clockHand.hasNext())
+					return;
+
+				Map.Entry<String, Entry> candidate = clockHand.next();
+				Entry entry = candidate.getValue();
+
+				if(entry.referenced) {
+					entry.referenced = false;
+				} else if(entries.remove(candidate.getKey(), entry)) {
+					evictionCount.increment();
+				}
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	private static final class Entry {
+
+		// catalog ordinals of the products of the line, null if the line cannot be parsed
+		final int[] ordinals;
+
+		final String failure;
+
+		// set when the entry is used, cleared when the clock hand passes it
+		volatile boolean referenced;
+
+		Entry(int[] ordinals, String failure) {
+			this.ordinals = ordinals;
+			this.failure = failure;
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package com.swissre.coffeecorner.service;
+
+import java.util.Arrays;
+
+import com.swissre.coffeecorner.entity.Product;
+import com.swissre.coffeecorner.exception.UnknownProductException;
+
+/**
+ * Parser of the order lines (e.g. "large coffee with extra milk") compiled once from the product catalog.
+ *
+ * The product names are compiled into a trie stored in flat arrays, so a line is scanned in a single pass
+ * without creating intermediate strings or map lookups. The result of parsing are the catalog ordinals,
+ * i.e. the indices of the matched products in the catalog array the parser was built from.
+ *
+ * Instances are immutable and can be shared between threads.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public final class ProductLineParser {
+
+	/** Maximum number of products a single line can contain (a beverage and an extras) */
+	public static final int MAX_PRODUCTS_PER_LINE = 2;
+
+	private static final String BEVERAGE_EXTRAS_DELIMITER = " with ";
+
+	private static final int NO_ORDINAL = -1;
+
+	private static final int NO_NODE = 0;
+
+	private static final int ROOT_NODE = 0;
+
+	// char -> index in the alphabet of product names, -1 for chars not used by any product
+	private final int[] alphabetIndex;
+
+	private final int alphabetSize;
+
+	// node * alphabetSize + alphabetIndex -> child node (root is never a child, so 0 means no transition)
+	private final int[] transitions;
+
+	// node -> catalog ordinal of the product ending in this node
+	private final int[] terminalOrdinals;
+
+	public ProductLineParser(Product[] catalog) {
+		char maxChar = 0;
+		int maxNodes = 1;
+
+		for(Product product : catalog) {
+			String name = product.getName();
+			maxNodes += name.length();
+
+			for(int i = 0 ; i < name.length() ; i++)
+				maxChar = (char) Math.max(maxChar, name.charAt(i));
+		}
+
+		alphabetIndex = new int[maxChar + 1];
+		Arrays.fill(alphabetIndex, -1);
+
+		int size = 0;
+		for(Product product : catalog) {
+			String name = product.getName();
+
+			for(int i = 0 ; i < name.length() ; i++) {
+				char c = name.charAt(i);
+				if(alphabetIndex[c] < 0)
+					alphabetIndex[c] = size++;
+			}
+		}
+		alphabetSize = Math.max(size, 1);
+
+		int[] nodeTransitions = new int[maxNodes * alphabetSize];
+		int[] nodeOrdinals = new int[maxNodes];
+		Arrays.fill(nodeOrdinals, NO_ORDINAL);
+		int nodes = 1;
+
+		for(int ordinal = 0 ; ordinal < catalog.length ; ordinal++) {
+			String name = catalog[ordinal].getName();
+			int node = ROOT_NODE;
+
+			for(int i = 0 ; i < name.length() ; i++) {
+				int transition = node * alphabetSize + alphabetIndex[name.charAt(i)];
+
+				if(nodeTransitions[transition] == NO_NODE)
+					nodeTransitions[transition] = nodes++;
+
+				node = nodeTransitions[transition];
+			}
+
+			if(nodeOrdinals[node] == NO_ORDINAL)
+				nodeOrdinals[node] = ordinal;
+		}
+
+		transitions = Arrays.copyOf(nodeTransitions, nodes * alphabetSize);
+		terminalOrdinals = Arrays.copyOf(nodeOrdinals, nodes);
+	}
+
+	/**
+	 * Parses a single order line. The line contains either one product or a beverage and an extras
+	 * separated by " with ".
+	 *
+	 * @param productLine the order line
+	 * @param ordinals an array of at least {@link #MAX_PRODUCTS_PER_LINE} elements receiving the catalog ordinals
+	 * @return the number of products parsed into the ordinals array
+	 * @throws UnknownProductException if the line is malformed or contains a product not present in the catalog
+	 */
+	public int parse(CharSequence productLine, int[] ordinals) {
+		return parse(productLine, ordinals, true);
+	}
+
+	/**
+	 * Parses a single order line like {@link #parse(CharSequence, int[])}, without throwing when it fails
+	 *
+	 * @param productLine the order line
+	 * @param ordinals an array of at least {@link #MAX_PRODUCTS_PER_LINE} elements receiving the catalog ordinals
+	 * @return the number of products parsed into the ordinals array, -1 if the line cannot be parsed
+	 */
+	int tryParse(CharSequence productLine, int[] ordinals) {
+		return parse(productLine, ordinals, false);
+	}
+
+	private int parse(CharSequence productLine, int[] ordinals, boolean throwing) {
+		int length = productLine.length();
+		int delimiterStart = -1;
+		int segmentStart = 0;
+		int node = ROOT_NODE;
+		int firstNode = NO_NODE;
+
+		for(int i = 0 ; i < length ; i++) {
+			char c = productLine.charAt(i);
+
+			if(c == ' ' && matchesDelimiter(productLine, i)) {
+				if(delimiterStart >= 0) { // only one beverage and one extras are allowed
+					if(throwing)
+						throw parsingIssue(productLine);
+					return -1;
+				}
+
+				delimiterStart = i;
+				firstNode = node;
+				segmentStart = i + BEVERAGE_EXTRAS_DELIMITER.length();
+				node = ROOT_NODE;
+				i = segmentStart - 1;
+				continue;
+			}
+
+			if(node >= 0)
+				node = step(node, c);
+		}
+
+		if(delimiterStart < 0) {
+			ordinals[0] = ordinalOf(node, productLine, 0, length, throwing);
+			return ordinals[0] == NO_ORDINAL ? -1 : 1;
+		}
+
+		// productLine contains a beverage and an extras
+		if(delimiterStart == 0 || segmentStart == length) {
+			if(throwing)
+				throw parsingIssue(productLine);
+			return -1;
+		}
+
+		ordinals[0] = ordinalOf(firstNode, productLine, 0, delimiterStart, throwing);
+		ordinals[1] = ordinalOf(node, productLine, segmentStart, length, throwing);
+
+		return ordinals[0] == NO_ORDINAL || ordinals[1] == NO_ORDINAL ? -1 : 2;
+	}
+
+	private int step(int node, char c) {
+		if(c >= alphabetIndex.length || alphabetIndex[c] < 0)
+			return -1;
+
+		int child = transitions[node * alphabetSize + alphabetIndex[c]];
+
+		return child == NO_NODE ? -1 : child;
+	}
+
+	private int ordinalOf(int node, CharSequence productLine, int start, int end, boolean throwing) {
+		int ordinal = node < 0 ? NO_ORDINAL : terminalOrdinals[node];
+
+		if(ordinal == NO_ORDINAL && throwing) {
+			throw new UnknownProductException(
+					String.format("Product catalog does not contain product [%s].", productLine.subSequence(start, end)));
+		}
+
+		return ordinal;
+	}
+
+	private static boolean matchesDelimiter(CharSequence productLine, int offset) {
+		if(offset + BEVERAGE_EXTRAS_DELIMITER.length() > productLine.length())
+			return false;
+
+		for(int i = 1 ; i < BEVERAGE_EXTRAS_DELIMITER.length() ; i++) {
+			if(productLine.charAt(offset + i) != BEVERAGE_EXTRAS_DELIMITER.charAt(i))
+				return false;
+		}
+
+		return true;
+	}
+
+	private static UnknownProductException parsingIssue(CharSequence productLine) {
+		return new UnknownProductException(
+				String.format("Some input parsing issue. It was supposed to containg beverage and extras [%s].", productLine));
+	}
+}
@@ -0,0 +1,118 @@
+package com.swissre.coffeecorner.service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.swissre.coffeecorner.exception.UnknownProductException;
+
+/**
+ * Candidate promotion evaluated by the {@link PromotionSimulator}: a bonus program and the prices overriding
+ * the catalog prices.
+ *
+ * Instances are immutable.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public final class PromotionConfig {
+
+	private final String name;
+
+	private final BonusProgram bonusProgram;
+
+	// product name -> price overriding the catalog price
+	private final Map<String, BigDecimal> prices;
+
+	/**
+	 * @param name name of the promotion, used in the reports
+	 * @param bonusProgram the bonus program of the promotion
+	 */
+	public PromotionConfig(String name, BonusProgram bonusProgram) {
+		this(name, bonusProgram, Collections.emptyMap());
+	}
+
+	private PromotionConfig(String name, BonusProgram bonusProgram, Map<String, BigDecimal> prices) {
+		this.name = name;
+		this.bonusProgram = bonusProgram;
+		this.prices = prices;
+	}
+
+	/**
+	 * Promotion with the rules of the default bonus program, with the given beverage threshold
+	 *
+	 * @param beverageFreeThreshold every n-th beverage is free, 0 for no free beverages
+	 * @param freeExtras true if an extras is free with a beverage and a snack
+	 * @return the promotion
+	 */
+	public static PromotionConfig of(int beverageFreeThreshold, boolean freeExtras) {
+		List<BonusRule> rules = new ArrayList<>();
+
+		if(freeExtras)
+			rules.add(new FreeExtrasRule());
+		if(beverageFreeThreshold > 0)
+			rules.add(new FreeBeverageRule(beverageFreeThreshold));
+
+		String name = "beverage threshold " + (beverageFreeThreshold > 0 ? beverageFreeThreshold : "none")
+				+ (freeExtras ? ", free extras" : "");
+
+		return new PromotionConfig(name, BonusProgram.compile(rules));
+	}
+
+	/**
+	 * @param productName name of a product of the catalog
+	 * @param price the price of the product during the promotion
+	 * @return a copy of this promotion with the price overridden
+	 * @throws IllegalArgumentException if the price is not in whole cents
+	 */
+	public PromotionConfig withPrice(String productName, BigDecimal price) {
+		try {
+			price.movePointRight(2).longValueExact();
+		} catch (ArithmeticException e) {
+			throw new IllegalArgumentException("Invalid price of product [" + productName + "] [" + price + "].", e);
+		}
+
+		Map<String, BigDecimal> overridden = new LinkedHashMap<>(prices);
+		overridden.put(productName, price);
+
+		return new PromotionConfig(name + ", " + productName + " " + price, bonusProgram,
+				Collections.unmodifiableMap(overridden));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public BonusProgram getBonusProgram() {
+		return bonusProgram;
+	}
+
+	public Map<String, BigDecimal> getPrices() {
+		return prices;
+	}
+
+	/**
+	 * @param catalog the catalog
+	 * @return the prices in cents indexed by catalog ordinal, the overrides applied
+	 * @throws UnknownProductException if a product of the overrides is not in the catalog
+	 */
+	long[] pricesInCents(CatalogSnapshot catalog) {
+		long[] pricesInCents = new long[catalog.size()];
+
+		for(int ordinal = 0 ; ordinal < pricesInCents.length ; ordinal++)
+			pricesInCents[ordinal] = catalog.getPriceInCents(ordinal);
+
+		for(Map.Entry<String, BigDecimal> price : prices.entrySet())
+			pricesInCents[catalog.getOrdinal(price.getKey())] = price.getValue().movePointRight(2).longValueExact();
+
+		return pricesInCents;
+	}
+
+	@Override
+	public String toString() {
+		return "PromotionConfig [name=" + name + ", bonusProgram=" + bonusProgram + ", prices=" + prices + "]";
+	}
+}
@@ -0,0 +1,220 @@
+package com.swissre.coffeecorner.service;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bonus programs of the time-windowed promotions, compiled from a set of {@link ScheduledRule}s.
+ *
+ * The windows of the rules are compiled once into an index of the week: the boundaries of the windows (in seconds
+ * from Monday 00:00, local time of the clock's zone) sorted in an array, each segment between two boundaries mapped
+ * to the {@link BonusProgram} of the rules active in it. The same set of active rules gives the same program
+ * instance, and the adjacent segments with the same program are merged. The program of an instant is found by a
+ * binary search of the boundaries.
+ *
+ * {@link #current()} caches the program of the current segment until its end (or the next change of the zone's
+ * offset), so a checkout only reads the clock and compares it with the end of the segment.
+ *
+ * Instances are thread-safe.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public final class PromotionSchedule {
+
+	private final Clock clock;
+
+	private final ZoneId zone;
+
+	// starts of the segments in seconds of the week, the first one 0
+	private final int[] boundaries;
+
+	// program of each segment
+	private final BonusProgram[] programs;
+
+	private final int programCount;
+
+	private volatile ActiveProgram active;
+
+	private PromotionSchedule(Clock clock, int[] boundaries, BonusProgram[] programs, int programCount) {
+		this.clock = clock;
+		this.zone = clock.getZone();
+		this.boundaries = boundaries;
+		this.programs = programs;
+		this.programCount = programCount;
+	}
+
+	/**
+	 * @param bonusProgram the program
+	 * @return a schedule with the program active all the time
+	 */
+	public static PromotionSchedule of(BonusProgram bonusProgram) {
+		return new PromotionSchedule(Clock.systemDefaultZone(), new int[] { 0 }, new BonusProgram[] { bonusProgram }, 1);
+	}
+
+	/**
+	 * Compiles the given rules into a schedule
+	 *
+	 * @param scheduledRules the rules and their windows, the order of the collection breaks the ties of the
+	 * priorities as in {@link BonusProgram#compile(Collection)}
+	 * @param clock source of the current time and of the time zone of the windows
+	 * @return the compiled schedule
+	 */
+	public static PromotionSchedule compile(Collection<ScheduledRule> scheduledRules, Clock clock) {
+		List<ScheduledRule> rules = new ArrayList<>(scheduledRules);
+		int[] starts = new int[14];
+		int[] ends = new int[14];
+		long[] events = new long[rules.size() * 28];
+		int eventCount = 0;
+
+		// event: second of the week, index of the rule, 1 for a start and 0 for an end
+		for(int index = 0 ; index < rules.size() ; index++) {
+			int count = rules.get(index).getWindow().weekIntervals(starts, ends);
+
+			for(int i = 0 ; i < count ; i++) {
+				events[eventCount++] = (long) starts[i] << 32 | (long) index << 1 | 1;
+				events[eventCount++] = (long) ends[i] << 32 | (long) index << 1;
+			}
+		}
+
+		Arrays.sort(events, 0, eventCount);
+
+		// a rule is active while the number of its started intervals exceeds the number of its ended ones
+		int[] openIntervals = new int[rules.size()];
+		BitSet activeRules = new BitSet(rules.size());
+		Map<BitSet, BonusProgram> compiled = new HashMap<>();
+		int[] boundaries = new int[eventCount + 1];
+		BonusProgram[] programs = new BonusProgram[eventCount + 1];
+		int segmentCount = 0;
+		int event = 0;
+		int second = 0;
+
+		while(second < TimeWindow.SECONDS_PER_WEEK) {
+			while(event < eventCount && (int) (events[event] >>> 32) == second) {
+				int index = (int) (events[event] & 0xFFFFFFFFL) >>> 1;
+				boolean start = (events[event] & 1) != 0;
+
+				openIntervals[index] += start ? 1 : -1;
+				activeRules.set(index, openIntervals[index] > 0);
+				event++;
+			}
+
+			BonusProgram program = compiled.get(activeRules);
+			if(program == null) {
+				List<BonusRule> active = new ArrayList<>();
+				for(int index = activeRules.nextSetBit(0) ; index >= 0 ; index = activeRules.nextSetBit(index + 1))
+					active.add(rules.get(index).getRule());
+
+				program = BonusProgram.compile(active);
+				compiled.put((BitSet) activeRules.clone(), program);
+			}
+
+			if(segmentCount == 0 || programs[segmentCount - 1] != program) {
+				boundaries[segmentCount] = second;
+				programs[segmentCount++] = program;
+			}
+
+			second = event < eventCount ? (int) (events[event] >>> 32) : TimeWindow.SECONDS_PER_WEEK;
+		}
+
+		return new PromotionSchedule(clock, Arrays.copyOf(boundaries, segmentCount), Arrays.copyOf(programs, segmentCount),
+				compiled.size());
+	}
+
+	/**
+	 * @return the program active now, to be used for a basket started now
+	 */
+	public BonusProgram current() {
+		long now = clock.millis();
+		ActiveProgram entry = active;
+
+		if(entry == null || now < entry.fromMillis || now >= entry.untilMillis) {
+			entry = lookup(now);
+			active = entry;
+		}
+
+		return entry.program;
+	}
+
+	/**
+	 * @param instant the instant
+	 * @return the program active at the instant
+	 */
+	public BonusProgram getProgram(Instant instant) {
+		return lookup(instant.toEpochMilli()).program;
+	}
+
+	/**
+	 * @param instant the instant
+	 * @return end of the segment of the instant, when the active program may change next; null if it never
+	 * changes
+	 */
+	public Instant getNextBoundary(Instant instant) {
+		long untilMillis = lookup(instant.toEpochMilli()).untilMillis;
+
+		return untilMillis == Long.MAX_VALUE ? null : Instant.ofEpochMilli(untilMillis);
+	}
+
+	/**
+	 * @return number of the different programs of the schedule
+	 */
+	public int getProgramCount() {
+		return programCount;
+	}
+
+	private ActiveProgram lookup(long millis) {
+		if(boundaries.length == 1)
+			return new ActiveProgram(programs[0], Long.MIN_VALUE, Long.MAX_VALUE);
+
+		Instant instant = Instant.ofEpochMilli(millis);
+		LocalDateTime local = LocalDateTime.ofInstant(instant, zone);
+		int second = (local.getDayOfWeek().getValue() - 1) * TimeWindow.SECONDS_PER_DAY + local.toLocalTime().toSecondOfDay();
+
+		int segment = Arrays.binarySearch(boundaries, second);
+		if(segment < 0)
+			segment = -segment - 2;
+
+		int end = segment + 1 < boundaries.length ? boundaries[segment + 1] : TimeWindow.SECONDS_PER_WEEK;
+		long untilMillis = local.withNano(0).plusSeconds(end - second).atZone(zone).toInstant().toEpochMilli();
+
+		// the local time jumps at a change of the offset, the segment is looked up again after it
+		ZoneOffsetTransition transition = zone.getRules().nextTransition(instant);
+		if(transition != null)
+			untilMillis = Math.min(untilMillis, transition.toEpochSecond() * 1000);
+
+		return new ActiveProgram(programs[segment], millis, Math.max(untilMillis, millis + 1));
+	}
+
+	@Override
+	public String toString() {
+		return "PromotionSchedule [segments=" + boundaries.length + ", programs=" + programCount + ", zone=" + zone + "]";
+	}
+
+	/**
+	 * Program of a segment with the time range it is valid in
+	 */
+	private static final class ActiveProgram {
+
+		final BonusProgram program;
+
+		final long fromMillis;
+
+		final long untilMillis;
+
+		ActiveProgram(BonusProgram program, long fromMillis, long untilMillis) {
+			this.program = program;
+			this.fromMillis = fromMillis;
+			this.untilMillis = untilMillis;
+		}
+	}
+}
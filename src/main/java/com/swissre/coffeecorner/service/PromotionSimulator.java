@@ -0,0 +1,295 @@
+package com.swissre.coffeecorner.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.swissre.coffeecorner.entity.Product;
+import com.swissre.coffeecorner.entity.Product.ProductType;
+import com.swissre.coffeecorner.exception.UnknownProductException;
+
+/**
+ * What-if simulation of candidate promotions over the recorded orders: what the revenue and the value of the
+ * gratis products would have been with each of the {@link PromotionConfig}s.
+ *
+ * The orders are read from an order file in the format of the {@link BatchCheckoutService}. All the promotions
+ * are evaluated in one pass: the file is split into its baskets by the {@link OrderFileSplitter}, the baskets of
+ * a window are split between the tasks of a {@link ForkJoinPool} and every basket is parsed once, then priced against every promotion. A
+ * basket containing an unknown product is counted as rejected and left out of the figures of all the promotions.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public class PromotionSimulator {
+
+	private static final ProductType[] PRODUCT_TYPES = ProductType.values();
+
+	private static final int DEFAULT_MAPPING_SIZE = 256 << 20;
+
+	// number of baskets of a region simulated by one fork-join invocation
+	private static final int WINDOW_SIZE = 64 * 1024;
+
+	// number of baskets simulated sequentially by a single fork-join task
+	private static final int SEQUENTIAL_THRESHOLD = 512;
+
+	private final CatalogSnapshot catalog;
+
+	private final ForkJoinPool pool;
+
+	private final int mappingSize;
+
+	public PromotionSimulator(CatalogSnapshot catalog) {
+		this(catalog, ForkJoinPool.commonPool(), DEFAULT_MAPPING_SIZE);
+	}
+
+	/**
+	 * @param catalog the catalog the orders are parsed and, unless overridden, priced against
+	 * @param pool the pool simulating the baskets
+	 * @param mappingSize size of the regions of the order file mapped at once, grows if a basket does not fit
+	 */
+	public PromotionSimulator(CatalogSnapshot catalog, ForkJoinPool pool, int mappingSize) {
+		this.catalog = catalog;
+		this.pool = pool;
+		this.mappingSize = mappingSize;
+	}
+
+	/**
+	 * Simulates the promotions over the orders of the order file
+	 *
+	 * @param orderFile the order file
+	 * @param configs the candidate promotions
+	 * @return the results, in the order of the promotions
+	 * @throws IOException if reading the order file fails
+	 * @throws UnknownProductException if a price override refers to a product not in the catalog
+	 */
+	public List<Result> simulate(Path orderFile, List<PromotionConfig> configs) throws IOException {
+		Simulation simulation = new Simulation(configs);
+		Tally tally = new Tally(configs.size());
+
+		OrderFileSplitter.split(orderFile, mappingSize, WINDOW_SIZE, (region, basketStarts, basketEnds, baskets) ->
+				tally.merge(pool.invoke(new SimulationTask(simulation, region, basketStarts, basketEnds, 0, baskets))));
+
+		List<Result> results = new ArrayList<>(configs.size());
+		for(int k = 0 ; k < configs.size() ; k++) {
+			results.add(new Result(configs.get(k), tally.basketCount, tally.rejectedBasketCount, tally.revenues[k],
+					tally.gratisValues[k]));
+		}
+
+		return results;
+	}
+
+	/**
+	 * The promotions prepared for the simulation, shared by its tasks
+	 */
+	private final class Simulation {
+
+		final Product[] products;
+
+		final BonusProgram[] bonusPrograms;
+
+		final long[][] pricesInCents;
+
+		Simulation(List<PromotionConfig> configs) {
+			products = catalog.getProducts().toArray(new Product[0]);
+			bonusPrograms = new BonusProgram[configs.size()];
+			pricesInCents = new long[configs.size()][];
+
+			for(int k = 0 ; k < configs.size() ; k++) {
+				bonusPrograms[k] = configs.get(k).getBonusProgram();
+				pricesInCents[k] = configs.get(k).pricesInCents(catalog);
+			}
+		}
+
+		/**
+		 * Simulates the baskets of a range sequentially
+		 */
+		Tally simulate(ByteBuffer region, int[] basketStarts, int[] basketEnds, int from, int to) {
+			int configCount = bonusPrograms.length;
+			Tally tally = new Tally(configCount);
+			ProductLineCache productLineCache = catalog.getProductLineCache();
+
+			BasketContent[] contents = new BasketContent[configCount];
+			for(int k = 0 ; k < configCount ; k++)
+				contents[k] = new BasketContent(products, pricesInCents[k]);
+
+			int[] lineOrdinals = new int[ProductLineCache.MAX_PRODUCTS_PER_LINE];
+			int[] ordinals = new int[64];
+			// the exact lines are parsed in place, only the others are copied into the String key of the cache
+			ByteCharSequence productLine = new ByteCharSequence();
+
+			for(int i = from ; i < to ; i++) {
+				int count = 0;
+				int lineStart = basketStarts[i];
+				int end = basketEnds[i];
+
+				tally.basketCount++;
+
+				try {
+					// every basket is parsed once, whatever the number of promotions
+					while(lineStart <= end) {
+						int lineEnd = OrderFileSplitter.lineEnd(region, lineStart, end);
+
+						if(!OrderFileSplitter.isBlank(region, lineStart, lineEnd)) {
+							int lineCount = productLineCache.parse(
+									OrderFileSplitter.line(productLine, region, lineStart, lineEnd), lineOrdinals);
+
+							if(count + lineCount > ordinals.length)
+								ordinals = Arrays.copyOf(ordinals, ordinals.length * 2);
+							System.arraycopy(lineOrdinals, 0, ordinals, count, lineCount);
+							count += lineCount;
+						}
+
+						lineStart = lineEnd + 1;
+					}
+				} catch (UnknownProductException e) {
+					tally.rejectedBasketCount++;
+					continue;
+				}
+
+				for(int k = 0 ; k < configCount ; k++) {
+					BasketContent content = contents[k];
+
+					content.clear();
+					for(int j = 0 ; j < count ; j++)
+						content.add(ordinals[j]);
+					bonusPrograms[k].apply(content);
+
+					tally.revenues[k] += content.getTotalInCents();
+					for(ProductType productType : PRODUCT_TYPES)
+						tally.gratisValues[k] += content.getGratisValueInCents(productType);
+				}
+			}
+
+			return tally;
+		}
+	}
+
+	private static final class SimulationTask extends RecursiveTask<Tally> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient Simulation simulation;
+		private final transient ByteBuffer region;
+		private final int[] basketStarts;
+		private final int[] basketEnds;
+		private final int from;
+		private final int to;
+
+		SimulationTask(Simulation simulation, ByteBuffer region, int[] basketStarts, int[] basketEnds, int from, int to) {
+			this.simulation = simulation;
+			this.region = region;
+			this.basketStarts = basketStarts;
+			this.basketEnds = basketEnds;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Tally compute() {
+			if(to - from <= SEQUENTIAL_THRESHOLD)
+				return simulation.simulate(region, basketStarts, basketEnds, from, to);
+
+			int middle = (from + to) >>> 1;
+			SimulationTask left = new SimulationTask(simulation, region, basketStarts, basketEnds, from, middle);
+			SimulationTask right = new SimulationTask(simulation, region, basketStarts, basketEnds, middle, to);
+
+			left.fork();
+			Tally tally = right.compute();
+			tally.merge(left.join());
+
+			return tally;
+		}
+	}
+
+	/**
+	 * Figures of a part of the orders, per promotion
+	 */
+	private static final class Tally {
+
+		long basketCount;
+
+		long rejectedBasketCount;
+
+		final long[] revenues;
+
+		final long[] gratisValues;
+
+		Tally(int configCount) {
+			revenues = new long[configCount];
+			gratisValues = new long[configCount];
+		}
+
+		void merge(Tally other) {
+			basketCount += other.basketCount;
+			rejectedBasketCount += other.rejectedBasketCount;
+
+			for(int k = 0 ; k < revenues.length ; k++) {
+				revenues[k] += other.revenues[k];
+				gratisValues[k] += other.gratisValues[k];
+			}
+		}
+	}
+
+	/**
+	 * Figures of a promotion over all the orders
+	 */
+	public static class Result {
+
+		private final PromotionConfig config;
+
+		private final long basketCount;
+
+		private final long rejectedBasketCount;
+
+		private final long revenueInCents;
+
+		private final long gratisValueInCents;
+
+		Result(PromotionConfig config, long basketCount, long rejectedBasketCount, long revenueInCents,
+				long gratisValueInCents) {
+			this.config = config;
+			this.basketCount = basketCount;
+			this.rejectedBasketCount = rejectedBasketCount;
+			this.revenueInCents = revenueInCents;
+			this.gratisValueInCents = gratisValueInCents;
+		}
+
+		public PromotionConfig getConfig() {
+			return config;
+		}
+
+		public long getBasketCount() {
+			return basketCount;
+		}
+
+		public long getRejectedBasketCount() {
+			return rejectedBasketCount;
+		}
+
+		/**
+		 * @return value of the products paid for in the baskets that were not rejected, in cents
+		 */
+		public long getRevenueInCents() {
+			return revenueInCents;
+		}
+
+		/**
+		 * @return value of the gratis products (the cost of the promotion) at the prices of the promotion, in cents
+		 */
+		public long getGratisValueInCents() {
+			return gratisValueInCents;
+		}
+
+		@Override
+		public String toString() {
+			return "Result [config=" + config.getName() + ", basketCount=" + basketCount + ", rejectedBasketCount="
+					+ rejectedBasketCount + ", revenueInCents=" + revenueInCents + ", gratisValueInCents="
+					+ gratisValueInCents + "]";
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package com.swissre.coffeecorner.service;
+
+/**
+ * Target of the updates of an {@link IncrementalReceipt}, e.g. a customer-facing display.
+ *
+ * Every receipt line is identified by the catalog ordinal of its product and whether it lists the payable or the
+ * gratis items of the product.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public interface ReceiptDisplay {
+
+	/**
+	 * Called when a line has changed
+	 *
+	 * @param ordinal catalog ordinal of the product
+	 * @param gratis true for the line of the gratis items of the product
+	 * @param quantity new quantity of the line, 0 if the line has been removed
+	 * @param line the rendered line without the line separator, null if the line has been removed
+	 */
+	void lineChanged(int ordinal, boolean gratis, int quantity, String line);
+
+	/**
+	 * Called when the total has changed
+	 *
+	 * @param totalInCents the new total
+	 * @param line the rendered total line without the line separator
+	 */
+	void totalChanged(long totalInCents, String line);
+}
@@ -0,0 +1,313 @@
+package com.swissre.coffeecorner.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.swissre.coffeecorner.entity.Product.ProductType;
+
+/**
+ * Audit trail of the receipts: every closed basket is appended as a compact binary record to a journal of
+ * memory-mapped segment files.
+ *
+ * A record holds the receipt number, the time, the catalog version, the totals in cents, the payable lines
+ * (catalog ordinal and quantity, in the order of the receipt) and the ordinals of the gratis items (in the order of
+ * the receipt). The numbers are variable-length encoded, a receipt of a few lines takes a few tens of bytes.
+ * Records are framed by their length and a CRC, a torn record at the end of the journal is ignored and
+ * overwritten.
+ *
+ * Only the current segment is mapped; when a record does not fit, the segment is forced to the disk and the next
+ * one is started, so the memory used does not depend on the size of the journal. The records are read back with
+ * a {@link ReceiptJournalReader}.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public class ReceiptJournal implements AutoCloseable {
+
+	/** Default size of a segment file in bytes */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	static final String SEGMENT_PREFIX = "receipts-";
+
+	static final String SEGMENT_SUFFIX = ".journal";
+
+	static final int SEGMENT_MAGIC = 0x52434A31;
+
+	// magic
+	static final int SEGMENT_HEADER_SIZE = 4;
+
+	// length, crc
+	static final int RECORD_HEADER_SIZE = 4 + 4;
+
+	private static final ProductType[] SECTIONS = { ProductType.BEVERAGE, ProductType.EXTRAS, ProductType.SNACK };
+
+	private final Path directory;
+
+	private final int segmentSize;
+
+	private final Clock clock;
+
+	private final CRC32 crc = new CRC32();
+
+	private ByteBuffer recordBuffer = ByteBuffer.allocate(1024);
+
+	private long segmentNumber;
+
+	private FileChannel segmentChannel;
+
+	private MappedByteBuffer segment;
+
+	private long nextSequence;
+
+	public ReceiptJournal(Path directory) throws IOException {
+		this(directory, DEFAULT_SEGMENT_SIZE, Clock.systemUTC());
+	}
+
+	/**
+	 * Opens the journal in the directory, appending after its last valid record
+	 *
+	 * @param directory directory of the segment files
+	 * @param segmentSize size of a segment file in bytes
+	 * @param clock source of the time of the receipts
+	 * @throws IOException if the journal cannot be read or created
+	 */
+	public ReceiptJournal(Path directory, int segmentSize, Clock clock) throws IOException {
+		if(segmentSize < 4096)
+			throw new IllegalArgumentException("Segment size too small [" + segmentSize + "].");
+
+		this.directory = Files.createDirectories(directory);
+		this.segmentSize = segmentSize;
+		this.clock = clock;
+
+		List<Path> segments = listSegments(directory);
+
+		if(segments.isEmpty()) {
+			openSegment(1);
+		} else {
+			Path last = segments.get(segments.size() - 1);
+			openSegment(parseSegmentNumber(last));
+
+			// the receipt numbers continue after the last valid record
+			try (ReceiptJournalReader reader = new ReceiptJournalReader(Collections.singletonList(last))) {
+				while(reader.next())
+					nextSequence = reader.getSequence();
+
+				segment.position(reader.getPosition());
+			}
+
+			if(nextSequence == 0 && segments.size() > 1) {
+				try (ReceiptJournalReader reader = new ReceiptJournalReader(segments.subList(segments.size() - 2, segments.size() - 1))) {
+					while(reader.next())
+						nextSequence = reader.getSequence();
+				}
+			}
+		}
+
+		nextSequence++;
+	}
+
+	/**
+	 * Appends the receipt of a closed basket. The basket must not be modified while it is being appended.
+	 *
+	 * @param basket the basket
+	 * @return number of the receipt
+	 * @throws IOException if a new segment cannot be created
+	 */
+	public synchronized long append(ClientBasketService basket) throws IOException {
+		BasketContent content = basket.getContent();
+		BonusProgram bonusProgram = basket.getBonusProgram();
+		long sequence = nextSequence;
+
+		ByteBuffer body = encode(sequence, basket.getCatalog().getVersion(), content, bonusProgram);
+		int length = body.remaining();
+
+		if(SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE + length > segmentSize)
+			throw new IllegalArgumentException("Receipt too large for a journal segment [" + length + " bytes].");
+
+		if(segment.remaining() < RECORD_HEADER_SIZE + length) {
+			segment.force();
+			segmentChannel.close();
+			openSegment(segmentNumber + 1);
+		}
+
+		crc.reset();
+		crc.update(body.array(), 0, length);
+
+		int start = segment.position();
+		segment.position(start + RECORD_HEADER_SIZE);
+		segment.put(body);
+		segment.putInt(start + 4, (int) crc.getValue());
+		segment.putInt(start, length);
+
+		nextSequence++;
+
+		return sequence;
+	}
+
+	/**
+	 * Forces the current segment to the disk
+	 */
+	public synchronized void force() {
+		segment.force();
+	}
+
+	/**
+	 * @return a reader of all the records appended so far
+	 * @throws IOException if the segments cannot be listed
+	 */
+	public ReceiptJournalReader newReader() throws IOException {
+		return read(directory);
+	}
+
+	/**
+	 * Opens a reader of all the records of the journal in the directory
+	 *
+	 * @param directory directory of the segment files
+	 * @return the reader
+	 * @throws IOException if the segments cannot be listed
+	 */
+	public static ReceiptJournalReader read(Path directory) throws IOException {
+		return new ReceiptJournalReader(listSegments(directory));
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		segment.force();
+		segmentChannel.close();
+	}
+
+	private ByteBuffer encode(long sequence, long catalogVersion, BasketContent content, BonusProgram bonusProgram) {
+		int[] ordinals = content.getOrdinalsBuffer();
+		int lineCount = 0;
+		int gratisCount = 0;
+
+		for(ProductType productType : SECTIONS)
+			lineCount += content.collectPayableOrdinals(productType, ordinals);
+		for(int i = 0 ; i < bonusProgram.getGratisProductTypeCount() ; i++)
+			gratisCount += content.getGratisCount(bonusProgram.getGratisProductType(i));
+
+		// 10 bytes per variable-length long, at most
+		ByteBuffer buffer = recordBuffer(10 * 7 + 10 * 2 * lineCount + 10 * gratisCount);
+
+		putVarLong(buffer, sequence);
+		putVarLong(buffer, clock.millis());
+		putVarLong(buffer, catalogVersion);
+		putVarLong(buffer, content.getTotalInCents());
+
+		long gratisValue = 0;
+		for(ProductType productType : ProductType.values())
+			gratisValue += content.getGratisValueInCents(productType);
+		putVarLong(buffer, gratisValue);
+
+		putVarLong(buffer, lineCount);
+		for(ProductType productType : SECTIONS) {
+			int count = content.collectPayableOrdinals(productType, ordinals);
+
+			for(int i = 0 ; i < count ; i++) {
+				putVarLong(buffer, ordinals[i]);
+				putVarLong(buffer, content.getPayableQuantity(ordinals[i]));
+			}
+		}
+
+		putVarLong(buffer, gratisCount);
+		for(int i = 0 ; i < bonusProgram.getGratisProductTypeCount() ; i++) {
+			ProductType productType = bonusProgram.getGratisProductType(i);
+
+			for(int index = 0 ; index < content.getGratisCount(productType) ; index++)
+				putVarLong(buffer, content.getOrdinal(productType, index));
+		}
+
+		buffer.flip();
+
+		return buffer;
+	}
+
+	private ByteBuffer recordBuffer(int capacity) {
+		if(recordBuffer.capacity() < capacity)
+			recordBuffer = ByteBuffer.allocate(Math.max(capacity, recordBuffer.capacity() * 2));
+
+		recordBuffer.clear();
+
+		return recordBuffer;
+	}
+
+	private void openSegment(long number) throws IOException {
+		segmentNumber = number;
+		segmentChannel = FileChannel.open(directory.resolve(segmentName(number)), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		try {
+			segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		} catch (IOException | RuntimeException e) {
+			segmentChannel.close();
+			throw e;
+		}
+
+		if(segment.getInt(0) == 0)
+			segment.putInt(0, SEGMENT_MAGIC);
+		else if(segment.getInt(0) != SEGMENT_MAGIC)
+			throw new IOException("Invalid receipt journal segment [" + directory.resolve(segmentName(number)) + "].");
+
+		segment.position(SEGMENT_HEADER_SIZE);
+	}
+
+	static String segmentName(long number) {
+		return String.format("%s%012d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX);
+	}
+
+	static long parseSegmentNumber(Path segment) {
+		String name = segment.getFileName().toString();
+
+		return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	static List<Path> listSegments(Path directory) throws IOException {
+		List<Path> segments = new ArrayList<>();
+
+		if(!Files.isDirectory(directory))
+			return segments;
+
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for(Path segment : stream)
+				segments.add(segment);
+		}
+
+		// the numbers are zero padded, the names sort in the order of the segments
+		Collections.sort(segments);
+
+		return segments;
+	}
+
+	static void putVarLong(ByteBuffer buffer, long value) {
+		while((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	static long getVarLong(ByteBuffer buffer) {
+		long value = 0;
+
+		for(int shift = 0 ; shift < 64 ; shift += 7) {
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+
+			if(b >= 0)
+				return value;
+		}
+
+		throw new IllegalArgumentException("Malformed variable-length number.");
+	}
+}
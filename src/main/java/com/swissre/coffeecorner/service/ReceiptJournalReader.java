@@ -0,0 +1,279 @@
+package com.swissre.coffeecorner.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.swissre.coffeecorner.entity.Product.ProductType;
+
+/**
+ * Sequential reader of the records of a {@link ReceiptJournal}.
+ *
+ * The reader is a cursor: {@link #next()} moves to the next record and the getters return the fields of the
+ * current record. The segments are mapped one at a time and the lines are decoded into arrays reused from
+ * record to record, so replaying a journal of any size takes bounded memory.
+ *
+ * This class is not thread-safe.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public class ReceiptJournalReader implements AutoCloseable {
+
+	private final List<Path> segments;
+
+	private final CRC32 crc = new CRC32();
+
+	private int segmentIndex = -1;
+
+	private MappedByteBuffer segment;
+
+	private long sequence;
+
+	private long timestampMillis;
+
+	private long catalogVersion;
+
+	private long totalInCents;
+
+	private long gratisValueInCents;
+
+	private int lineCount;
+
+	private int[] lineOrdinals = new int[16];
+
+	private int[] lineQuantities = new int[16];
+
+	private int gratisCount;
+
+	private int[] gratisOrdinals = new int[16];
+
+	ReceiptJournalReader(List<Path> segments) {
+		this.segments = segments;
+	}
+
+	/**
+	 * Moves to the next record
+	 *
+	 * @return false if there are no more records
+	 * @throws IOException if a segment cannot be read
+	 */
+	public boolean next() throws IOException {
+		while(true) {
+			if(segment == null && !nextSegment())
+				return false;
+
+			if(readRecord())
+				return true;
+
+			// end of the segment, or a torn record at the end of the journal
+			if(segmentIndex == segments.size() - 1)
+				return false;
+
+			segment = null;
+		}
+	}
+
+	/**
+	 * @return number of the receipt
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	public long getTimestampMillis() {
+		return timestampMillis;
+	}
+
+	/**
+	 * @return version of the catalog snapshot the basket was priced against
+	 */
+	public long getCatalogVersion() {
+		return catalogVersion;
+	}
+
+	/**
+	 * @return total of the receipt in cents
+	 */
+	public long getTotalInCents() {
+		return totalInCents;
+	}
+
+	/**
+	 * @return value of the gratis items in cents
+	 */
+	public long getGratisValueInCents() {
+		return gratisValueInCents;
+	}
+
+	/**
+	 * @return number of payable lines of the receipt
+	 */
+	public int getLineCount() {
+		return lineCount;
+	}
+
+	/**
+	 * @param line index of the payable line in the order of the receipt
+	 * @return catalog ordinal of the product of the line
+	 */
+	public int getLineOrdinal(int line) {
+		return lineOrdinals[line];
+	}
+
+	/**
+	 * @param line index of the payable line in the order of the receipt
+	 * @return number of paid items of the line
+	 */
+	public int getLineQuantity(int line) {
+		return lineQuantities[line];
+	}
+
+	/**
+	 * @return number of gratis items of the receipt
+	 */
+	public int getGratisCount() {
+		return gratisCount;
+	}
+
+	/**
+	 * @param index index of the gratis item in the order of the receipt
+	 * @return catalog ordinal of the gratis item
+	 */
+	public int getGratisOrdinal(int index) {
+		return gratisOrdinals[index];
+	}
+
+	/**
+	 * Restores the basket of the current record
+	 *
+	 * @param catalog the catalog snapshot of the record's catalog version
+	 * @return content of the basket, the gratis items marked
+	 */
+	public BasketContent restore(CatalogSnapshot catalog) {
+		BasketContent content = catalog.newBasketContent();
+		int[] gratisCounts = new int[ProductType.values().length];
+
+		// the gratis items are the first items of their type
+		for(int i = 0 ; i < gratisCount ; i++) {
+			content.add(gratisOrdinals[i]);
+			gratisCounts[catalog.getProduct(gratisOrdinals[i]).getProductType().ordinal()]++;
+		}
+
+		// added in the reverse order, the products sharing a hash bucket are listed as on the receipt
+		for(int line = lineCount - 1 ; line >= 0 ; line--) {
+			for(int i = 0 ; i < lineQuantities[line] ; i++)
+				content.add(lineOrdinals[line]);
+		}
+
+		for(ProductType productType : ProductType.values())
+			content.setGratisCount(productType, gratisCounts[productType.ordinal()]);
+
+		return content;
+	}
+
+	/**
+	 * Prints the receipt of the current record again
+	 *
+	 * @param catalog the catalog snapshot of the record's catalog version
+	 * @param bonusProgram the bonus program of the basket, giving the order of the gratis products
+	 * @param out the target of the receipt
+	 * @throws IOException if appending to the target fails
+	 */
+	public void reprint(CatalogSnapshot catalog, BonusProgram bonusProgram, Appendable out) throws IOException {
+		catalog.getReceiptWriter().write(restore(catalog), bonusProgram, out);
+	}
+
+	@Override
+	public void close() {
+		segment = null;
+	}
+
+	/**
+	 * @return position in the current segment after the last record read
+	 */
+	int getPosition() {
+		return segment == null ? ReceiptJournal.SEGMENT_HEADER_SIZE : segment.position();
+	}
+
+	private boolean nextSegment() throws IOException {
+		if(segmentIndex + 1 >= segments.size())
+			return false;
+
+		Path path = segments.get(++segmentIndex);
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if(segment.limit() < ReceiptJournal.SEGMENT_HEADER_SIZE || segment.getInt(0) != ReceiptJournal.SEGMENT_MAGIC)
+			throw new IOException("Invalid receipt journal segment [" + path + "].");
+
+		segment.position(ReceiptJournal.SEGMENT_HEADER_SIZE);
+
+		return true;
+	}
+
+	private boolean readRecord() {
+		int start = segment.position();
+
+		if(segment.remaining() < ReceiptJournal.RECORD_HEADER_SIZE)
+			return false;
+
+		int length = segment.getInt(start);
+		int body = start + ReceiptJournal.RECORD_HEADER_SIZE;
+
+		if(length <= 0 || length > segment.limit() - body)
+			return false;
+
+		ByteBuffer record = segment.duplicate();
+		record.position(body).limit(body + length);
+
+		crc.reset();
+		crc.update(record);
+		if((int) crc.getValue() != segment.getInt(start + 4))
+			return false;
+
+		record.position(body);
+
+		try {
+			decode(record);
+		} catch (RuntimeException e) {
+			return false;
+		}
+
+		segment.position(body + length);
+
+		return true;
+	}
+
+	private void decode(ByteBuffer record) {
+		sequence = ReceiptJournal.getVarLong(record);
+		timestampMillis = ReceiptJournal.getVarLong(record);
+		catalogVersion = ReceiptJournal.getVarLong(record);
+		totalInCents = ReceiptJournal.getVarLong(record);
+		gratisValueInCents = ReceiptJournal.getVarLong(record);
+
+		lineCount = (int) ReceiptJournal.getVarLong(record);
+		if(lineOrdinals.length < lineCount) {
+			lineOrdinals = Arrays.copyOf(lineOrdinals, lineCount);
+			lineQuantities = Arrays.copyOf(lineQuantities, lineCount);
+		}
+		for(int line = 0 ; line < lineCount ; line++) {
+			lineOrdinals[line] = (int) ReceiptJournal.getVarLong(record);
+			lineQuantities[line] = (int) ReceiptJournal.getVarLong(record);
+		}
+
+		gratisCount = (int) ReceiptJournal.getVarLong(record);
+		if(gratisOrdinals.length < gratisCount)
+			gratisOrdinals = Arrays.copyOf(gratisOrdinals, gratisCount);
+		for(int i = 0 ; i < gratisCount ; i++)
+			gratisOrdinals[i] = (int) ReceiptJournal.getVarLong(record);
+	}
+}
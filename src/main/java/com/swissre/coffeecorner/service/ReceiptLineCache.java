@@ -0,0 +1,97 @@
+package com.swissre.coffeecorner.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Rendered receipt lines per product and quantity, shared by all the {@link IncrementalReceipt}s of a catalog
+ * snapshot.
+ *
+ * The lines are immutable Strings published through racy writes to arrays that only grow: a thread may miss a
+ * line another thread has just rendered and render it once more, but it never sees a wrong line.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+final class ReceiptLineCache {
+
+	private static final String[] NO_LINES = new String[0];
+
+	// largest quantity with a cached line, the lines of larger quantities are rendered every time
+	private static final int MAX_CACHED_QUANTITY = 1024;
+
+	private final ReceiptWriter receiptWriter;
+
+	private final long[] pricesInCents;
+
+	// catalog ordinal -> quantity -> rendered payable line
+	private final String[][] payableLines;
+
+	// catalog ordinal -> quantity -> rendered gratis line
+	private final String[][] gratisLines;
+
+	ReceiptLineCache(ReceiptWriter receiptWriter, long[] pricesInCents) {
+		this.receiptWriter = receiptWriter;
+		this.pricesInCents = pricesInCents;
+
+		payableLines = new String[pricesInCents.length][];
+		gratisLines = new String[pricesInCents.length][];
+		Arrays.fill(payableLines, NO_LINES);
+		Arrays.fill(gratisLines, NO_LINES);
+	}
+
+	String getPayableLine(int ordinal, int quantity) {
+		return getLine(payableLines, ordinal, quantity, pricesInCents[ordinal]);
+	}
+
+	String getGratisLine(int ordinal, int quantity) {
+		return getLine(gratisLines, ordinal, quantity, 0);
+	}
+
+	static String renderTotal(long totalInCents) {
+		StringBuilder line = new StringBuilder();
+
+		try {
+			ReceiptWriter.appendTotal(line, totalInCents);
+		} catch (IOException e) {
+			// a StringBuilder does not throw
+			throw new UncheckedIOException(e);
+		}
+
+		return line.toString();
+	}
+
+	private String getLine(String[][] lines, int ordinal, int quantity, long priceInCents) {
+		if(quantity > MAX_CACHED_QUANTITY)
+			return render(ordinal, quantity, priceInCents);
+
+		String[] cached = lines[ordinal];
+		String line = quantity < cached.length ? cached[quantity] : null;
+
+		if(line == null) {
+			line = render(ordinal, quantity, priceInCents);
+
+			if(quantity >= cached.length) {
+				cached = Arrays.copyOf(cached, Math.min(Math.max(quantity + 1, cached.length * 2), MAX_CACHED_QUANTITY + 1));
+				lines[ordinal] = cached;
+			}
+			cached[quantity] = line;
+		}
+
+		return line;
+	}
+
+	private String render(int ordinal, int quantity, long priceInCents) {
+		StringBuilder line = new StringBuilder();
+
+		try {
+			receiptWriter.appendLine(line, ordinal, quantity, priceInCents);
+		} catch (IOException e) {
+			// a StringBuilder does not throw
+			throw new UncheckedIOException(e);
+		}
+
+		return line.toString();
+	}
+}
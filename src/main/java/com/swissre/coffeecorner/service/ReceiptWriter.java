@@ -0,0 +1,315 @@
+package com.swissre.coffeecorner.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.swissre.coffeecorner.entity.Product;
+import com.swissre.coffeecorner.entity.Product.ProductType;
+
+/**
+ * Renders the receipt of a basket straight into an {@link Appendable} (e.g. a {@link java.io.Writer} or a
+ * {@link StringBuilder}) or into a {@link ByteBuffer}, without any intermediate strings.
+ *
+ * The labels and the product name columns are encoded once, when the writer is created, and the amounts are
+ * formatted from cents by hand. The output is identical to the one of the former String.format based receipt in
+ * {@link java.util.Locale#ROOT}:
+ * <pre>
+ *  %-21s  %3d      %.2f     %.2f
+ * </pre>
+ * Unlike String.format, which used the default Locale, the writer always writes a '.' decimal separator, so the
+ * receipts do not depend on the Locale of the till.
+ *
+ * Instances are immutable and can be shared between threads.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public final class ReceiptWriter {
+
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+	private static final String RECEIPT_HEADER = "Your receipt :" + LINE_SEPARATOR
+			+ "Product description   Quantity   Price    Total" + LINE_SEPARATOR;
+
+	private static final String GRATIS_HEADER = "Gratis products:" + LINE_SEPARATOR;
+
+	// product type ordinal -> header of the receipt section
+	private static final String[] SECTION_HEADERS = new String[ProductType.values().length];
+
+	static {
+		SECTION_HEADERS[ProductType.BEVERAGE.ordinal()] = "Beverages:" + LINE_SEPARATOR;
+		SECTION_HEADERS[ProductType.EXTRAS.ordinal()] = "Extras:" + LINE_SEPARATOR;
+		SECTION_HEADERS[ProductType.SNACK.ordinal()] = "Snacks:" + LINE_SEPARATOR;
+	}
+
+	// receipt sections in the order they are printed
+	private static final ProductType[] SECTIONS = { ProductType.BEVERAGE, ProductType.EXTRAS, ProductType.SNACK };
+
+	private static final String TOTAL_LABEL = "                                Total:   ";
+
+	private static final String QUANTITY_PRICE_SEPARATOR = "      ";
+
+	private static final String PRICE_TOTAL_SEPARATOR = "     ";
+
+	private static final String GRATIS_AMOUNTS = "  1      0.00     0.00";
+
+	private static final int NAME_WIDTH = 21;
+
+	private static final int QUANTITY_WIDTH = 3;
+
+	private static final byte[] RECEIPT_HEADER_BYTES = encode(RECEIPT_HEADER);
+	private static final byte[] GRATIS_HEADER_BYTES = encode(GRATIS_HEADER);
+	private static final byte[][] SECTION_HEADERS_BYTES = new byte[SECTION_HEADERS.length][];
+	private static final byte[] TOTAL_LABEL_BYTES = encode(TOTAL_LABEL);
+	private static final byte[] QUANTITY_PRICE_SEPARATOR_BYTES = encode(QUANTITY_PRICE_SEPARATOR);
+	private static final byte[] PRICE_TOTAL_SEPARATOR_BYTES = encode(PRICE_TOTAL_SEPARATOR);
+	private static final byte[] GRATIS_AMOUNTS_BYTES = encode(GRATIS_AMOUNTS);
+	private static final byte[] LINE_SEPARATOR_BYTES = encode(LINE_SEPARATOR);
+
+	static {
+		for(int i = 0 ; i < SECTION_HEADERS.length ; i++)
+			SECTION_HEADERS_BYTES[i] = encode(SECTION_HEADERS[i]);
+	}
+
+	// catalog ordinal -> " <name padded to NAME_WIDTH>  "
+	private final String[] nameColumns;
+
+	private final byte[][] nameColumnsBytes;
+
+	public ReceiptWriter(Product[] products) {
+		nameColumns = new String[products.length];
+		nameColumnsBytes = new byte[products.length][];
+
+		for(int ordinal = 0 ; ordinal < products.length ; ordinal++) {
+			StringBuilder column = new StringBuilder(" ").append(products[ordinal].getName());
+
+			while(column.length() < NAME_WIDTH + 1)
+				column.append(' ');
+
+			nameColumns[ordinal] = column.append("  ").toString();
+			nameColumnsBytes[ordinal] = encode(nameColumns[ordinal]);
+		}
+	}
+
+	/**
+	 * Writes the receipt of the basket
+	 *
+	 * @param content the basket
+	 * @param bonusProgram the bonus program giving the order of the gratis products
+	 * @param out the target of the receipt
+	 * @throws IOException if appending to the target fails
+	 */
+	public void write(BasketContent content, BonusProgram bonusProgram, Appendable out) throws IOException {
+		out.append(RECEIPT_HEADER);
+
+		if(hasGratisProducts(content, bonusProgram)) {
+			out.append(GRATIS_HEADER);
+
+			for(int i = 0 ; i < bonusProgram.getGratisProductTypeCount() ; i++) {
+				ProductType productType = bonusProgram.getGratisProductType(i);
+
+				for(int index = 0 ; index < content.getGratisCount(productType) ; index++) {
+					out.append(nameColumns[content.getOrdinal(productType, index)]).append(GRATIS_AMOUNTS)
+							.append(LINE_SEPARATOR);
+				}
+			}
+		}
+
+		int[] ordinals = content.getOrdinalsBuffer();
+
+		for(ProductType productType : SECTIONS) {
+			int count = content.collectPayableOrdinals(productType, ordinals);
+
+			if(count == 0)
+				continue;
+
+			out.append(SECTION_HEADERS[productType.ordinal()]);
+
+			for(int i = 0 ; i < count ; i++) {
+				int ordinal = ordinals[i];
+
+				appendLine(out, ordinal, content.getPayableQuantity(ordinal), content.getPriceInCents(ordinal));
+				out.append(LINE_SEPARATOR);
+			}
+		}
+
+		appendTotal(out, content.getTotalInCents());
+		out.append(LINE_SEPARATOR);
+	}
+
+	/**
+	 * Appends a line of the receipt, without the line separator
+	 *
+	 * @param out the target
+	 * @param ordinal catalog ordinal of the product
+	 * @param quantity number of items
+	 * @param priceInCents price of an item, 0 for the gratis items
+	 * @throws IOException if appending to the target fails
+	 */
+	public void appendLine(Appendable out, int ordinal, int quantity, long priceInCents) throws IOException {
+		out.append(nameColumns[ordinal]);
+		appendPadded(out, quantity, QUANTITY_WIDTH);
+		out.append(QUANTITY_PRICE_SEPARATOR);
+		appendMoney(out, priceInCents);
+		out.append(PRICE_TOTAL_SEPARATOR);
+		appendMoney(out, priceInCents * quantity);
+	}
+
+	/**
+	 * Appends the total line of the receipt, without the line separator
+	 *
+	 * @param out the target
+	 * @param totalInCents the total
+	 * @throws IOException if appending to the target fails
+	 */
+	public static void appendTotal(Appendable out, long totalInCents) throws IOException {
+		out.append(TOTAL_LABEL);
+		appendMoney(out, totalInCents);
+	}
+
+	/**
+	 * Writes the receipt of the basket encoded as UTF-8
+	 *
+	 * @param content the basket
+	 * @param bonusProgram the bonus program giving the order of the gratis products
+	 * @param out the target of the receipt
+	 * @throws java.nio.BufferOverflowException if the receipt does not fit in the remaining space of the buffer
+	 */
+	public void write(BasketContent content, BonusProgram bonusProgram, ByteBuffer out) {
+		out.put(RECEIPT_HEADER_BYTES);
+
+		if(hasGratisProducts(content, bonusProgram)) {
+			out.put(GRATIS_HEADER_BYTES);
+
+			for(int i = 0 ; i < bonusProgram.getGratisProductTypeCount() ; i++) {
+				ProductType productType = bonusProgram.getGratisProductType(i);
+
+				for(int index = 0 ; index < content.getGratisCount(productType) ; index++) {
+					out.put(nameColumnsBytes[content.getOrdinal(productType, index)]).put(GRATIS_AMOUNTS_BYTES)
+							.put(LINE_SEPARATOR_BYTES);
+				}
+			}
+		}
+
+		int[] ordinals = content.getOrdinalsBuffer();
+
+		for(ProductType productType : SECTIONS) {
+			int count = content.collectPayableOrdinals(productType, ordinals);
+
+			if(count == 0)
+				continue;
+
+			out.put(SECTION_HEADERS_BYTES[productType.ordinal()]);
+
+			for(int i = 0 ; i < count ; i++) {
+				int ordinal = ordinals[i];
+				int quantity = content.getPayableQuantity(ordinal);
+				long priceInCents = content.getPriceInCents(ordinal);
+
+				out.put(nameColumnsBytes[ordinal]);
+				putPadded(out, quantity, QUANTITY_WIDTH);
+				out.put(QUANTITY_PRICE_SEPARATOR_BYTES);
+				putMoney(out, priceInCents);
+				out.put(PRICE_TOTAL_SEPARATOR_BYTES);
+				putMoney(out, priceInCents * quantity);
+				out.put(LINE_SEPARATOR_BYTES);
+			}
+		}
+
+		out.put(TOTAL_LABEL_BYTES);
+		putMoney(out, content.getTotalInCents());
+		out.put(LINE_SEPARATOR_BYTES);
+	}
+
+	/**
+	 * Appends an amount of cents formatted as "%.2f" would format it in {@link java.util.Locale#ROOT}
+	 *
+	 * @param out the target
+	 * @param cents the amount
+	 * @throws IOException if appending to the target fails
+	 */
+	public static void appendMoney(Appendable out, long cents) throws IOException {
+		if(cents < 0) {
+			out.append('-');
+			cents = -cents;
+		}
+
+		appendDigits(out, cents / 100);
+		out.append('.').append((char) ('0' + cents % 100 / 10)).append((char) ('0' + cents % 10));
+	}
+
+	/**
+	 * Puts an amount of cents formatted as "%.2f" would format it in {@link java.util.Locale#ROOT}
+	 *
+	 * @param out the target
+	 * @param cents the amount
+	 */
+	public static void putMoney(ByteBuffer out, long cents) {
+		if(cents < 0) {
+			out.put((byte) '-');
+			cents = -cents;
+		}
+
+		putDigits(out, cents / 100);
+		out.put((byte) '.').put((byte) ('0' + cents % 100 / 10)).put((byte) ('0' + cents % 10));
+	}
+
+	private static boolean hasGratisProducts(BasketContent content, BonusProgram bonusProgram) {
+		for(int i = 0 ; i < bonusProgram.getGratisProductTypeCount() ; i++) {
+			if(content.getGratisCount(bonusProgram.getGratisProductType(i)) > 0)
+				return true;
+		}
+
+		return false;
+	}
+
+	private static void appendPadded(Appendable out, long value, int width) throws IOException {
+		for(int padding = width - digitCount(value) ; padding > 0 ; padding--)
+			out.append(' ');
+
+		appendDigits(out, value);
+	}
+
+	private static void putPadded(ByteBuffer out, long value, int width) {
+		for(int padding = width - digitCount(value) ; padding > 0 ; padding--)
+			out.put((byte) ' ');
+
+		putDigits(out, value);
+	}
+
+	private static void appendDigits(Appendable out, long value) throws IOException {
+		for(long divisor = divisorOf(value) ; divisor > 0 ; divisor /= 10)
+			out.append((char) ('0' + value / divisor % 10));
+	}
+
+	private static void putDigits(ByteBuffer out, long value) {
+		for(long divisor = divisorOf(value) ; divisor > 0 ; divisor /= 10)
+			out.put((byte) ('0' + value / divisor % 10));
+	}
+
+	// the highest power of 10 not greater than value (1 for 0)
+	private static long divisorOf(long value) {
+		long divisor = 1;
+
+		while(divisor <= value / 10)
+			divisor *= 10;
+
+		return divisor;
+	}
+
+	private static int digitCount(long value) {
+		int count = 1;
+
+		while(value >= 10) {
+			value /= 10;
+			count++;
+		}
+
+		return count;
+	}
+
+	private static byte[] encode(String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,275 @@
+package com.swissre.coffeecorner.service;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.swissre.coffeecorner.entity.Product.ProductType;
+import com.swissre.coffeecorner.exception.UnknownProductException;
+
+/**
+ * End-of-day sales aggregated from the closed baskets of all the registers.
+ *
+ * The baskets are recorded from many threads into {@link LongAdder}s indexed by catalog ordinal and by register.
+ * The counters of an interval form an epoch: {@link #closeInterval()} swaps in a new epoch and waits until the
+ * baskets being recorded into the old one are done, so every basket is either completely in an interval or
+ * completely out of it, while the checkouts go on recording into the new epoch.
+ *
+ * The closed intervals are summed per hour of the day (the hour the interval started), so the intervals should be
+ * closed at every full hour, e.g. from a scheduled executor.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public class SalesAggregator {
+
+	private static final ProductType[] PRODUCT_TYPES = ProductType.values();
+
+	private static final int HOURS_PER_DAY = 24;
+
+	// in-flight counters of the registers are this many ints apart, so they do not share a cache line
+	private static final int IN_FLIGHT_PADDING = 16;
+
+	private final CatalogSnapshot catalog;
+
+	private final int registerCount;
+
+	private final Clock clock;
+
+	private final AtomicReference<Epoch> current = new AtomicReference<>();
+
+	// ordinals in the aggregator's catalog of the products of the last other catalog version seen
+	private volatile OrdinalMapping ordinalMapping;
+
+	// guarded by this
+	private final SalesReport[] hourReports = new SalesReport[HOURS_PER_DAY];
+
+	// guarded by this
+	private SalesReport dayReport;
+
+	public SalesAggregator(CatalogSnapshot catalog, int registerCount) {
+		this(catalog, registerCount, Clock.systemDefaultZone());
+	}
+
+	/**
+	 * @param catalog the catalog the quantities are reported by
+	 * @param registerCount number of registers, numbered from 0
+	 * @param clock source of the time and the hour of the day
+	 */
+	public SalesAggregator(CatalogSnapshot catalog, int registerCount, Clock clock) {
+		if(registerCount <= 0)
+			throw new IllegalArgumentException("Register count has to be positive [" + registerCount + "].");
+
+		this.catalog = catalog;
+		this.registerCount = registerCount;
+		this.clock = clock;
+
+		current.set(new Epoch(clock.instant()));
+	}
+
+	/**
+	 * Records a closed basket. The basket must not be modified while it is being recorded.
+	 *
+	 * @param register register that sold the basket
+	 * @param basket the basket
+	 * @throws UnknownProductException if the basket contains a product that the aggregator's catalog does not
+	 */
+	public void record(int register, ClientBasketService basket) {
+		if(register < 0 || register >= registerCount)
+			throw new IllegalArgumentException("Unknown register [" + register + "].");
+
+		BasketContent content = basket.getContent();
+		int[] ordinals = basket.getCatalog() == catalog ? null : mapOrdinals(basket.getCatalog());
+
+		while(true) {
+			Epoch epoch = current.get();
+			epoch.inFlight.incrementAndGet(register * IN_FLIGHT_PADDING);
+
+			try {
+				// an epoch that has been swapped out may be read already, retry with the new one
+				if(epoch == current.get()) {
+					epoch.add(register, content, ordinals);
+					return;
+				}
+			} finally {
+				epoch.inFlight.decrementAndGet(register * IN_FLIGHT_PADDING);
+			}
+		}
+	}
+
+	/**
+	 * Closes the current interval and adds it to the hour it started in and to the day
+	 *
+	 * @return sales of the closed interval
+	 */
+	public synchronized SalesReport closeInterval() {
+		Instant now = clock.instant();
+		Epoch epoch = current.getAndSet(new Epoch(now));
+
+		for(int register = 0 ; register < registerCount ; register++) {
+			while(epoch.inFlight.get(register * IN_FLIGHT_PADDING) != 0)
+				Thread.yield();
+		}
+
+		SalesReport report = epoch.toReport(now);
+		int hour = LocalDateTime.ofInstant(epoch.start, clock.getZone()).getHour();
+
+		hourReports[hour] = hourReports[hour] == null ? report : hourReports[hour].merge(report);
+		dayReport = dayReport == null ? report : dayReport.merge(report);
+
+		return report;
+	}
+
+	/**
+	 * @return consistent sales of the day so far, closing the current interval
+	 */
+	public synchronized SalesReport snapshot() {
+		closeInterval();
+
+		return dayReport;
+	}
+
+	/**
+	 * @param hour hour of the day
+	 * @return sales of the closed intervals started in the hour, null if there are none
+	 */
+	public synchronized SalesReport getHourReport(int hour) {
+		return hourReports[hour];
+	}
+
+	/**
+	 * Closes the day: the next interval starts a new day
+	 *
+	 * @return sales of the day
+	 */
+	public synchronized SalesReport closeDay() {
+		SalesReport report = snapshot();
+
+		dayReport = null;
+		for(int hour = 0 ; hour < HOURS_PER_DAY ; hour++)
+			hourReports[hour] = null;
+
+		return report;
+	}
+
+	public CatalogSnapshot getCatalog() {
+		return catalog;
+	}
+
+	public int getRegisterCount() {
+		return registerCount;
+	}
+
+	private int[] mapOrdinals(CatalogSnapshot basketCatalog) {
+		OrdinalMapping mapping = ordinalMapping;
+
+		if(mapping == null || mapping.catalog != basketCatalog) {
+			int[] ordinals = new int[basketCatalog.size()];
+
+			for(int ordinal = 0 ; ordinal < ordinals.length ; ordinal++) {
+				try {
+					ordinals[ordinal] = catalog.getOrdinal(basketCatalog.getProduct(ordinal).getName());
+				} catch (UnknownProductException e) {
+					ordinals[ordinal] = -1;
+				}
+			}
+
+			mapping = new OrdinalMapping(basketCatalog, ordinals);
+			ordinalMapping = mapping;
+		}
+
+		return mapping.ordinals;
+	}
+
+	private static class OrdinalMapping {
+
+		final CatalogSnapshot catalog;
+
+		final int[] ordinals;
+
+		OrdinalMapping(CatalogSnapshot catalog, int[] ordinals) {
+			this.catalog = catalog;
+			this.ordinals = ordinals;
+		}
+	}
+
+	/**
+	 * Counters of one interval
+	 */
+	private class Epoch {
+
+		final Instant start;
+
+		final LongAdder[] quantities = newAdders(catalog.size());
+
+		final LongAdder[] gratisQuantities = newAdders(catalog.size());
+
+		final LongAdder[] registerValues = newAdders(registerCount * SalesReport.REGISTER_FIELDS);
+
+		final AtomicIntegerArray inFlight = new AtomicIntegerArray(registerCount * IN_FLIGHT_PADDING);
+
+		Epoch(Instant start) {
+			this.start = start;
+		}
+
+		void add(int register, BasketContent content, int[] ordinals) {
+			if(ordinals != null) {
+				for(int ordinal = 0 ; ordinal < content.getCatalogSize() ; ordinal++) {
+					if(content.getQuantity(ordinal) > 0 && ordinals[ordinal] < 0)
+						throw new UnknownProductException(String.format("Product catalog does not contain product [%s].",
+								content.getProduct(ordinal).getName()));
+				}
+			}
+
+			for(int ordinal = 0 ; ordinal < content.getCatalogSize() ; ordinal++) {
+				int quantity = content.getQuantity(ordinal);
+
+				if(quantity == 0)
+					continue;
+
+				int target = ordinals == null ? ordinal : ordinals[ordinal];
+				quantities[target].add(quantity);
+
+				int gratisQuantity = content.getGratisQuantity(ordinal);
+				if(gratisQuantity > 0)
+					gratisQuantities[target].add(gratisQuantity);
+			}
+
+			int offset = register * SalesReport.REGISTER_FIELDS;
+			registerValues[offset + SalesReport.BASKETS].increment();
+
+			for(ProductType productType : PRODUCT_TYPES) {
+				if(content.getTypeCount(productType) == 0)
+					continue;
+
+				registerValues[offset + SalesReport.REVENUE + productType.ordinal()].add(content.getTotalInCents(productType));
+				registerValues[offset + SalesReport.GRATIS_VALUE + productType.ordinal()].add(content.getGratisValueInCents(productType));
+			}
+		}
+
+		SalesReport toReport(Instant end) {
+			return new SalesReport(catalog, start, end, sums(quantities), sums(gratisQuantities), sums(registerValues));
+		}
+	}
+
+	private static LongAdder[] newAdders(int count) {
+		LongAdder[] adders = new LongAdder[count];
+
+		for(int i = 0 ; i < count ; i++)
+			adders[i] = new LongAdder();
+
+		return adders;
+	}
+
+	private static long[] sums(LongAdder[] adders) {
+		long[] sums = new long[adders.length];
+
+		for(int i = 0 ; i < adders.length ; i++)
+			sums[i] = adders[i].sum();
+
+		return sums;
+	}
+}
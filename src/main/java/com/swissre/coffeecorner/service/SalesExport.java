@@ -0,0 +1,422 @@
+package com.swissre.coffeecorner.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.util.zip.CRC32C;
+
+import com.swissre.coffeecorner.entity.Product.ProductType;
+
+/**
+ * Export of the line items of the closed baskets into a columnar file, for the analysis of the sales with
+ * {@link SalesQuery}s.
+ *
+ * A line item is a product of a basket with its quantity: the time of the sale, the number of the basket, the
+ * register, the catalog ordinal, the {@link ProductType}, the quantity, the unit price in cents and whether the items
+ * are gratis. A basket has a line item per paid product and a line item per gratis product.
+ *
+ * The line items are buffered and written in blocks. A block holds every field as a column of fixed width
+ * primitives (little-endian), so a query maps the blocks and reads only the columns it filters or sums. The header
+ * of a block holds its row count, the time range of its rows and a CRC32C of the block, the blocks outside of the
+ * time range of a query are skipped. The line items of a basket are never split between blocks.
+ *
+ * The buffered line items are written and forced to the disk by {@link #flush()} and {@link #close()}. A torn block
+ * at the end of the file (short, or failing its checksum) is cut off when the export is opened again, and the basket
+ * numbers continue after the last complete block; a block failing its checksum before the end of the file, or an
+ * invalid block header further than one block from the end, is reported as corrupted.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public class SalesExport implements AutoCloseable {
+
+	/** Default maximum number of line items of a block */
+	public static final int DEFAULT_BLOCK_ROWS = 64 * 1024;
+
+	// version 2: the blocks have a checksum
+	static final int FILE_MAGIC = 0x53414C32;
+
+	static final int BLOCK_MAGIC = 0x424C4B32;
+
+	// magic
+	static final int FILE_HEADER_SIZE = 4;
+
+	// offset of the checksum in the block header, the checksum covers the rest of the block
+	static final int CHECKSUM_OFFSET = 4 + 4 + 8 + 8;
+
+	// magic, row count, min timestamp, max timestamp, checksum, padding (the columns stay 8-byte aligned)
+	static final int BLOCK_HEADER_SIZE = CHECKSUM_OFFSET + 4 + 4;
+
+	// bytes of a row: timestamp, basket, price, register, ordinal, quantity, type, gratis
+	private static final int ROW_SIZE = 8 + 8 + 8 + 4 + 4 + 4 + 1 + 1;
+
+	// largest row count whose block size fits an int
+	static final int MAX_BLOCK_ROWS = (Integer.MAX_VALUE - BLOCK_HEADER_SIZE) / ROW_SIZE;
+
+	private static final ProductType[] SECTIONS = { ProductType.BEVERAGE, ProductType.EXTRAS, ProductType.SNACK };
+
+	private final FileChannel channel;
+
+	private final int blockRows;
+
+	private final Clock clock;
+
+	private final ByteBuffer blockBuffer;
+
+	// the buffered rows, by column
+	private final long[] timestamps;
+	private final long[] baskets;
+	private final long[] prices;
+	private final int[] registers;
+	private final int[] ordinals;
+	private final int[] quantities;
+	private final byte[] types;
+	private final byte[] gratis;
+
+	private int rowCount;
+
+	private long position;
+
+	private long nextBasket;
+
+	public SalesExport(Path file) throws IOException {
+		this(file, DEFAULT_BLOCK_ROWS, Clock.systemUTC());
+	}
+
+	/**
+	 * Opens the export file, appending after its last complete block
+	 *
+	 * @param file the export file
+	 * @param blockRows maximum number of line items of a block
+	 * @param clock source of the time of the sales
+	 * @throws IOException if the file cannot be read or created
+	 */
+	public SalesExport(Path file, int blockRows, Clock clock) throws IOException {
+		if(blockRows <= 0)
+			throw new IllegalArgumentException("Block row count has to be positive [" + blockRows + "].");
+		if(blockRows > MAX_BLOCK_ROWS)
+			throw new IllegalArgumentException("Block row count too large [" + blockRows + "].");
+
+		this.blockRows = blockRows;
+		this.clock = clock;
+		this.blockBuffer = ByteBuffer.allocate(blockSize(blockRows)).order(ByteOrder.LITTLE_ENDIAN);
+
+		timestamps = new long[blockRows];
+		baskets = new long[blockRows];
+		prices = new long[blockRows];
+		registers = new int[blockRows];
+		ordinals = new int[blockRows];
+		quantities = new int[blockRows];
+		types = new byte[blockRows];
+		gratis = new byte[blockRows];
+
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		try {
+			open(file);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+
+		nextBasket++;
+	}
+
+	/**
+	 * Appends the line items of a closed basket. The basket must not be modified while it is being appended.
+	 *
+	 * @param register register that sold the basket
+	 * @param basket the basket
+	 * @return number of the basket in the export
+	 * @throws IOException if writing a full block fails
+	 */
+	public synchronized long append(int register, ClientBasketService basket) throws IOException {
+		if(register < 0)
+			throw new IllegalArgumentException("Unknown register [" + register + "].");
+
+		BasketContent content = basket.getContent();
+		int[] payableOrdinals = content.getOrdinalsBuffer();
+		int basketRows = 0;
+
+		for(ProductType productType : SECTIONS)
+			basketRows += content.collectPayableOrdinals(productType, payableOrdinals);
+		for(int ordinal = 0 ; ordinal < content.getCatalogSize() ; ordinal++) {
+			if(content.getGratisQuantity(ordinal) > 0)
+				basketRows++;
+		}
+
+		if(basketRows > blockRows)
+			throw new IllegalArgumentException("Basket too large for an export block [" + basketRows + " line items].");
+
+		if(rowCount + basketRows > blockRows)
+			writeBlock();
+
+		long timestamp = clock.millis();
+		long basketNumber = nextBasket;
+
+		for(ProductType productType : SECTIONS) {
+			int count = content.collectPayableOrdinals(productType, payableOrdinals);
+
+			for(int i = 0 ; i < count ; i++) {
+				int ordinal = payableOrdinals[i];
+				addRow(timestamp, basketNumber, register, content, ordinal, content.getPayableQuantity(ordinal), false);
+			}
+		}
+
+		for(int ordinal = 0 ; ordinal < content.getCatalogSize() ; ordinal++) {
+			if(content.getGratisQuantity(ordinal) > 0)
+				addRow(timestamp, basketNumber, register, content, ordinal, content.getGratisQuantity(ordinal), true);
+		}
+
+		nextBasket++;
+
+		return basketNumber;
+	}
+
+	/**
+	 * Writes the buffered line items as a block and forces it to the disk, so that they can be queried and survive
+	 * a crash
+	 *
+	 * @throws IOException if writing fails
+	 */
+	public synchronized void flush() throws IOException {
+		if(rowCount > 0) {
+			writeBlock();
+			channel.force(false);
+		}
+	}
+
+	/**
+	 * Opens a reader of the blocks of an export file written with the default block row count
+	 *
+	 * @param file the export file
+	 * @return the reader
+	 * @throws IOException if the file cannot be read
+	 */
+	public static SalesExportReader read(Path file) throws IOException {
+		return read(file, DEFAULT_BLOCK_ROWS);
+	}
+
+	/**
+	 * Opens a reader of the blocks of the export file. An invalid block within the size of a block with blockRows
+	 * line items from the end of the file is taken for a torn last block, any other is reported as corrupted.
+	 *
+	 * @param file the export file
+	 * @param blockRows maximum number of line items of a block of the writer
+	 * @return the reader
+	 * @throws IOException if the file cannot be read
+	 */
+	public static SalesExportReader read(Path file, int blockRows) throws IOException {
+		if(blockRows <= 0)
+			throw new IllegalArgumentException("Block row count has to be positive [" + blockRows + "].");
+		if(blockRows > MAX_BLOCK_ROWS)
+			throw new IllegalArgumentException("Block row count too large [" + blockRows + "].");
+
+		return new SalesExportReader(file, blockRows);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void addRow(long timestamp, long basketNumber, int register, BasketContent content, int ordinal, int quantity,
+			boolean gratisItems) {
+		timestamps[rowCount] = timestamp;
+		baskets[rowCount] = basketNumber;
+		prices[rowCount] = content.getPriceInCents(ordinal);
+		registers[rowCount] = register;
+		ordinals[rowCount] = ordinal;
+		quantities[rowCount] = quantity;
+		types[rowCount] = (byte) content.getProduct(ordinal).getProductType().ordinal();
+		gratis[rowCount] = (byte) (gratisItems ? 1 : 0);
+		rowCount++;
+	}
+
+	private void writeBlock() throws IOException {
+		int rows = rowCount;
+		long minTimestamp = Long.MAX_VALUE;
+		long maxTimestamp = Long.MIN_VALUE;
+
+		for(int row = 0 ; row < rows ; row++) {
+			minTimestamp = Math.min(minTimestamp, timestamps[row]);
+			maxTimestamp = Math.max(maxTimestamp, timestamps[row]);
+		}
+
+		ByteBuffer block = blockBuffer;
+		block.clear();
+
+		block.putInt(BLOCK_MAGIC).putInt(rows).putLong(minTimestamp).putLong(maxTimestamp).putInt(0).putInt(0);
+		for(int row = 0 ; row < rows ; row++)
+			block.putLong(timestamps[row]);
+		for(int row = 0 ; row < rows ; row++)
+			block.putLong(baskets[row]);
+		for(int row = 0 ; row < rows ; row++)
+			block.putLong(prices[row]);
+		for(int row = 0 ; row < rows ; row++)
+			block.putInt(registers[row]);
+		for(int row = 0 ; row < rows ; row++)
+			block.putInt(ordinals[row]);
+		for(int row = 0 ; row < rows ; row++)
+			block.putInt(quantities[row]);
+		block.put(types, 0, rows);
+		block.put(gratis, 0, rows);
+
+		block.putInt(CHECKSUM_OFFSET, checksum(block, blockSize(rows)));
+		block.position(blockSize(rows));
+		block.flip();
+
+		while(block.hasRemaining())
+			position += channel.write(block, position);
+
+		rowCount = 0;
+	}
+
+	private void open(Path file) throws IOException {
+		long size = channel.size();
+
+		if(size == 0) {
+			ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(FILE_MAGIC).flip();
+
+			while(header.hasRemaining())
+				position += channel.write(header, position);
+
+			return;
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+		if(size < FILE_HEADER_SIZE || read(header, 0, FILE_HEADER_SIZE).getInt(0) != FILE_MAGIC)
+			throw new IOException("Invalid sales export [" + file + "].");
+
+		ByteBuffer block = blockBuffer;
+		position = FILE_HEADER_SIZE;
+
+		// the basket numbers continue after the last complete block, a torn block is cut off
+		while(position + BLOCK_HEADER_SIZE <= size) {
+			read(header, position, BLOCK_HEADER_SIZE);
+
+			if(blockEnd(header, position, size) < 0) {
+				// only the last write can be torn, an invalid header further from the end is a corrupted block
+				if(size - position > blockSize(blockRows))
+					throw corruptedBlock(file, position);
+				break;
+			}
+
+			int rows = header.getInt(4);
+
+			if(block.capacity() < blockSize(rows))
+				block = ByteBuffer.allocate(blockSize(rows)).order(ByteOrder.LITTLE_ENDIAN);
+			read(block, position, blockSize(rows));
+
+			if(block.getInt(CHECKSUM_OFFSET) != checksum(block, blockSize(rows))) {
+				if(position + blockSize(rows) < size)
+					throw corruptedBlock(file, position);
+				break;
+			}
+
+			nextBasket = block.getLong(basketsOffset(rows) + 8 * (rows - 1));
+
+			position += blockSize(rows);
+		}
+
+		channel.truncate(position);
+	}
+
+	private ByteBuffer read(ByteBuffer buffer, long from, int length) throws IOException {
+		buffer.clear().limit(length);
+
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer, from + buffer.position()) < 0)
+				throw new IOException("Unexpected end of the sales export.");
+		}
+
+		return buffer;
+	}
+
+	/**
+	 * @param block the block, from index 0
+	 * @param size size of the block
+	 * @return CRC32C of the block without its checksum field
+	 */
+	static int checksum(ByteBuffer block, int size) {
+		ByteBuffer bytes = block.duplicate();
+		CRC32C crc = new CRC32C();
+
+		bytes.limit(CHECKSUM_OFFSET).position(0);
+		crc.update(bytes);
+		bytes.limit(size).position(CHECKSUM_OFFSET + 4);
+		crc.update(bytes);
+
+		return (int) crc.getValue();
+	}
+
+	static IOException corruptedBlock(Path file, long position) {
+		return new IOException("Corrupted block of the sales export [" + file + "] at [" + position + "].");
+	}
+
+	/**
+	 * @return size in bytes of a block of the given number of rows, a multiple of 8
+	 */
+	/**
+	 * @param header the block header
+	 * @param position position of the block in the file
+	 * @param size size of the file
+	 * @return end of the block in the file, -1 if the header is invalid or the block does not fit the file
+	 */
+	static long blockEnd(ByteBuffer header, long position, long size) {
+		int rows = header.getInt(4);
+
+		if(header.getInt(0) != BLOCK_MAGIC || rows <= 0 || rows > MAX_BLOCK_ROWS)
+			return -1;
+
+		long end = position + blockSize(rows);
+
+		return end <= size ? end : -1;
+	}
+
+	static int blockSize(int rows) {
+		return (BLOCK_HEADER_SIZE + rows * ROW_SIZE + 7) & ~7;
+	}
+
+	static int timestampsOffset() {
+		return BLOCK_HEADER_SIZE;
+	}
+
+	static int basketsOffset(int rows) {
+		return BLOCK_HEADER_SIZE + 8 * rows;
+	}
+
+	static int pricesOffset(int rows) {
+		return BLOCK_HEADER_SIZE + 16 * rows;
+	}
+
+	static int registersOffset(int rows) {
+		return BLOCK_HEADER_SIZE + 24 * rows;
+	}
+
+	static int ordinalsOffset(int rows) {
+		return BLOCK_HEADER_SIZE + 28 * rows;
+	}
+
+	static int quantitiesOffset(int rows) {
+		return BLOCK_HEADER_SIZE + 32 * rows;
+	}
+
+	static int typesOffset(int rows) {
+		return BLOCK_HEADER_SIZE + 36 * rows;
+	}
+
+	static int gratisOffset(int rows) {
+		return BLOCK_HEADER_SIZE + 37 * rows;
+	}
+}
@@ -0,0 +1,155 @@
+package com.swissre.coffeecorner.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read-only view of the blocks of a {@link SalesExport} file, queried with {@link #query()}.
+ *
+ * The complete blocks written when the reader is opened are mapped into memory, the blocks written later are not
+ * seen by the reader. The checksums of the blocks are verified when the reader is opened, which reads every block
+ * from the disk once.
+ *
+ * Instances are thread-safe, the queries of a reader can run concurrently.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public class SalesExportReader implements AutoCloseable {
+
+	private final ByteBuffer[] blocks;
+
+	private final int[] rowCounts;
+
+	private final long[] minTimestamps;
+
+	private final long[] maxTimestamps;
+
+	private final long rowCount;
+
+	SalesExportReader(Path file, int blockRows) throws IOException {
+		List<ByteBuffer> mapped = new ArrayList<>();
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+
+			if(size < SalesExport.FILE_HEADER_SIZE)
+				throw new IOException("Invalid sales export [" + file + "].");
+
+			ByteBuffer header = ByteBuffer.allocate(SalesExport.BLOCK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+			if(readHeader(channel, header, 0).getInt(0) != SalesExport.FILE_MAGIC)
+				throw new IOException("Invalid sales export [" + file + "].");
+
+			long position = SalesExport.FILE_HEADER_SIZE;
+
+			while(position + SalesExport.BLOCK_HEADER_SIZE <= size) {
+				readHeader(channel, header, position);
+
+				if(SalesExport.blockEnd(header, position, size) < 0) {
+					// a torn block at the end of the file, or a corrupted one before it
+					if(size - position > SalesExport.blockSize(blockRows))
+						throw SalesExport.corruptedBlock(file, position);
+					break;
+				}
+
+				int rows = header.getInt(4);
+
+				ByteBuffer block = channel.map(FileChannel.MapMode.READ_ONLY, position, SalesExport.blockSize(rows))
+						.order(ByteOrder.LITTLE_ENDIAN);
+
+				if(block.getInt(SalesExport.CHECKSUM_OFFSET) != SalesExport.checksum(block, SalesExport.blockSize(rows))) {
+					if(position + SalesExport.blockSize(rows) < size)
+						throw SalesExport.corruptedBlock(file, position);
+					break; // still being written, or torn
+				}
+
+				mapped.add(block);
+
+				position += SalesExport.blockSize(rows);
+			}
+		}
+
+		blocks = mapped.toArray(new ByteBuffer[0]);
+		rowCounts = new int[blocks.length];
+		minTimestamps = new long[blocks.length];
+		maxTimestamps = new long[blocks.length];
+
+		long rows = 0;
+		for(int block = 0 ; block < blocks.length ; block++) {
+			rowCounts[block] = blocks[block].getInt(4);
+			minTimestamps[block] = blocks[block].getLong(8);
+			maxTimestamps[block] = blocks[block].getLong(16);
+			rows += rowCounts[block];
+		}
+		rowCount = rows;
+	}
+
+	/**
+	 * @return a new query over all the line items of the export
+	 */
+	public SalesQuery query() {
+		return new SalesQuery(this);
+	}
+
+	/**
+	 * @return number of line items of the export
+	 */
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	public int getBlockCount() {
+		return blocks.length;
+	}
+
+	/**
+	 * @return number of line items of the largest block
+	 */
+	int getMaxBlockRows() {
+		int max = 0;
+
+		for(int rows : rowCounts)
+			max = Math.max(max, rows);
+
+		return max;
+	}
+
+	ByteBuffer getBlock(int block) {
+		return blocks[block];
+	}
+
+	int getRowCount(int block) {
+		return rowCounts[block];
+	}
+
+	long getMinTimestamp(int block) {
+		return minTimestamps[block];
+	}
+
+	long getMaxTimestamp(int block) {
+		return maxTimestamps[block];
+	}
+
+	private static ByteBuffer readHeader(FileChannel channel, ByteBuffer header, long position) throws IOException {
+		header.clear();
+
+		while(header.hasRemaining()) {
+			if(channel.read(header, position + header.position()) < 0)
+				break;
+		}
+
+		return header;
+	}
+
+	@Override
+	public void close() {
+		// the mappings are released with the buffers by the garbage collector
+	}
+}
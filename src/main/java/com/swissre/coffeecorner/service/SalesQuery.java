@@ -0,0 +1,519 @@
+package com.swissre.coffeecorner.service;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.swissre.coffeecorner.entity.Product.ProductType;
+
+/**
+ * Scan query over the line items of a {@link SalesExport}, e.g. the bacon rolls sold with a coffee between 7 and 9
+ * in the morning:
+ * <pre>
+ * long baconRolls = export.query()
+ *         .hoursOfDay(7, 9, zone)
+ *         .product(catalog.getOrdinal("bacon roll"))
+ *         .inBasketsWith(largeCoffee, mediumCoffee, smallCoffee)
+ *         .sumQuantity();
+ * </pre>
+ *
+ * The filters narrow a vector of the selected rows of a block one after the other, each reading only its column of
+ * the block in a primitive loop, and the result reads only the columns it sums. The blocks outside of the time range
+ * are skipped without being read. With {@link #parallel(ForkJoinPool)} the blocks are scanned by the tasks of a
+ * fork-join pool.
+ *
+ * A query is built by a single thread; once built, its results can be computed any number of times.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public final class SalesQuery {
+
+	private static final long HOUR_MILLIS = 60 * 60 * 1000L;
+
+	private static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+
+	private static final int ROWS = 1;
+	private static final int QUANTITY = 2;
+	private static final int VALUE = 4;
+	private static final int BY_ORDINAL = 8;
+	private static final int BASKETS = 16;
+
+	private final SalesExportReader export;
+
+	private final List<Filter> filters = new ArrayList<>();
+
+	private long fromMillis = Long.MIN_VALUE;
+
+	private long toMillis = Long.MAX_VALUE;
+
+	private ForkJoinPool pool;
+
+	SalesQuery(SalesExportReader export) {
+		this.export = export;
+	}
+
+	/**
+	 * Selects the line items sold in a time range
+	 *
+	 * @param from start of the range, inclusive
+	 * @param to end of the range, exclusive
+	 * @return this query
+	 */
+	public SalesQuery between(Instant from, Instant to) {
+		fromMillis = Math.max(fromMillis, from.toEpochMilli());
+		toMillis = Math.min(toMillis, to.toEpochMilli());
+
+		return this;
+	}
+
+	/**
+	 * Selects the line items sold in the given hours of any day, e.g. 7 to 9 for the sales from 7:00 to 8:59, or 22
+	 * to 2 for the sales from 22:00 to 1:59
+	 *
+	 * @param fromHour first hour, 0 to 23
+	 * @param toHour hour after the last hour, 0 to 24
+	 * @param zone time zone of the hours
+	 * @return this query
+	 */
+	public SalesQuery hoursOfDay(int fromHour, int toHour, ZoneId zone) {
+		if(fromHour < 0 || fromHour > 23 || toHour < 0 || toHour > 24 || fromHour == toHour)
+			throw new IllegalArgumentException("Invalid hours [" + fromHour + ", " + toHour + "].");
+
+		ZoneRules rules = zone.getRules();
+		boolean wraps = fromHour > toHour;
+
+		filters.add((block, selection, count, scratch) -> {
+			ByteBuffer buffer = export.getBlock(block);
+			int column = SalesExport.timestampsOffset();
+			long minTimestamp = export.getMinTimestamp(block);
+			ZoneOffsetTransition transition = rules.nextTransition(Instant.ofEpochMilli(minTimestamp));
+
+			// the offset of the zone is looked up per row only in the blocks spanning a change of the offset
+			boolean fixedOffset = transition == null || transition.toEpochSecond() * 1000 > export.getMaxTimestamp(block);
+			long offsetMillis = rules.getOffset(Instant.ofEpochMilli(minTimestamp)).getTotalSeconds() * 1000L;
+			int selected = 0;
+
+			for(int i = 0 ; i < count ; i++) {
+				int row = selection[i];
+				long timestamp = buffer.getLong(column + 8 * row);
+
+				if(!fixedOffset)
+					offsetMillis = rules.getOffset(Instant.ofEpochMilli(timestamp)).getTotalSeconds() * 1000L;
+
+				long hour = Math.floorMod(timestamp + offsetMillis, DAY_MILLIS) / HOUR_MILLIS;
+
+				if(wraps ? hour >= fromHour || hour < toHour : hour >= fromHour && hour < toHour)
+					selection[selected++] = row;
+			}
+
+			return selected;
+		});
+
+		return this;
+	}
+
+	/**
+	 * @param register the register
+	 * @return this query, selecting the line items sold by the register
+	 */
+	public SalesQuery register(int register) {
+		filters.add((block, selection, count, scratch) -> {
+			ByteBuffer buffer = export.getBlock(block);
+			int column = SalesExport.registersOffset(export.getRowCount(block));
+			int selected = 0;
+
+			for(int i = 0 ; i < count ; i++) {
+				int row = selection[i];
+
+				if(buffer.getInt(column + 4 * row) == register)
+					selection[selected++] = row;
+			}
+
+			return selected;
+		});
+
+		return this;
+	}
+
+	/**
+	 * @param ordinals catalog ordinals of the products
+	 * @return this query, selecting the line items of the products
+	 */
+	public SalesQuery product(int... ordinals) {
+		boolean[] wanted = ordinalSet(ordinals);
+
+		filters.add((block, selection, count, scratch) -> {
+			ByteBuffer buffer = export.getBlock(block);
+			int column = SalesExport.ordinalsOffset(export.getRowCount(block));
+			int selected = 0;
+
+			for(int i = 0 ; i < count ; i++) {
+				int row = selection[i];
+				int ordinal = buffer.getInt(column + 4 * row);
+
+				if(ordinal < wanted.length && wanted[ordinal])
+					selection[selected++] = row;
+			}
+
+			return selected;
+		});
+
+		return this;
+	}
+
+	/**
+	 * @param productType the product type
+	 * @return this query, selecting the line items of the products of the type
+	 */
+	public SalesQuery productType(ProductType productType) {
+		byte type = (byte) productType.ordinal();
+
+		filters.add((block, selection, count, scratch) -> selectByte(block, SalesExport.typesOffset(export.getRowCount(block)),
+				type, selection, count));
+
+		return this;
+	}
+
+	/**
+	 * @param gratis true for the gratis line items, false for the paid ones
+	 * @return this query, selecting the gratis or the paid line items
+	 */
+	public SalesQuery gratis(boolean gratis) {
+		byte flag = (byte) (gratis ? 1 : 0);
+
+		filters.add((block, selection, count, scratch) -> selectByte(block, SalesExport.gratisOffset(export.getRowCount(block)),
+				flag, selection, count));
+
+		return this;
+	}
+
+	/**
+	 * @param ordinals catalog ordinals of the products
+	 * @return this query, selecting the line items of the baskets containing any of the products
+	 */
+	public SalesQuery inBasketsWith(int... ordinals) {
+		boolean[] wanted = ordinalSet(ordinals);
+
+		filters.add((block, selection, count, scratch) -> {
+			ByteBuffer buffer = export.getBlock(block);
+			int rows = export.getRowCount(block);
+			int baskets = SalesExport.basketsOffset(rows);
+			int ordinalColumn = SalesExport.ordinalsOffset(rows);
+			byte[] marks = scratch.marks;
+
+			// the line items of a basket are adjacent, a basket is marked as a whole
+			for(int start = 0 ; start < rows ; ) {
+				long basket = buffer.getLong(baskets + 8 * start);
+				int end = start;
+				boolean found = false;
+
+				while(end < rows && buffer.getLong(baskets + 8 * end) == basket) {
+					int ordinal = buffer.getInt(ordinalColumn + 4 * end);
+					found |= ordinal < wanted.length && wanted[ordinal];
+					end++;
+				}
+
+				Arrays.fill(marks, start, end, (byte) (found ? 1 : 0));
+				start = end;
+			}
+
+			int selected = 0;
+
+			for(int i = 0 ; i < count ; i++) {
+				int row = selection[i];
+
+				if(marks[row] != 0)
+					selection[selected++] = row;
+			}
+
+			return selected;
+		});
+
+		return this;
+	}
+
+	/**
+	 * Scans the blocks in parallel
+	 *
+	 * @param pool the pool scanning the blocks
+	 * @return this query
+	 */
+	public SalesQuery parallel(ForkJoinPool pool) {
+		this.pool = pool;
+
+		return this;
+	}
+
+	/**
+	 * @return number of selected line items
+	 */
+	public long count() {
+		return run(ROWS).rows;
+	}
+
+	/**
+	 * @return number of items of the selected line items
+	 */
+	public long sumQuantity() {
+		return run(QUANTITY).quantity;
+	}
+
+	/**
+	 * @return value of the selected line items at their unit prices (the gratis ones included, unless filtered out),
+	 * in cents
+	 */
+	public long sumValueInCents() {
+		return run(VALUE).value;
+	}
+
+	/**
+	 * @return number of items of the selected line items indexed by catalog ordinal, up to the largest ordinal
+	 * selected
+	 */
+	public long[] quantityByOrdinal() {
+		return run(BY_ORDINAL).quantities;
+	}
+
+	/**
+	 * @return number of baskets with selected line items
+	 */
+	public long countBaskets() {
+		return run(BASKETS).baskets;
+	}
+
+	private Aggregate run(int measure) {
+		if(pool != null)
+			return pool.invoke(new ScanTask(measure, 0, export.getBlockCount()));
+
+		return scan(measure, 0, export.getBlockCount());
+	}
+
+	private Aggregate scan(int measure, int fromBlock, int toBlock) {
+		Aggregate aggregate = new Aggregate();
+		Scratch scratch = new Scratch(export.getMaxBlockRows());
+
+		for(int block = fromBlock ; block < toBlock ; block++)
+			scanBlock(measure, block, scratch, aggregate);
+
+		return aggregate;
+	}
+
+	private void scanBlock(int measure, int block, Scratch scratch, Aggregate aggregate) {
+		long minTimestamp = export.getMinTimestamp(block);
+		long maxTimestamp = export.getMaxTimestamp(block);
+
+		if(maxTimestamp < fromMillis || minTimestamp >= toMillis)
+			return;
+
+		ByteBuffer buffer = export.getBlock(block);
+		int rows = export.getRowCount(block);
+		int[] selection = scratch.selection;
+		int count = 0;
+
+		if(minTimestamp >= fromMillis && maxTimestamp < toMillis) {
+			for(int row = 0 ; row < rows ; row++)
+				selection[count++] = row;
+		} else {
+			int column = SalesExport.timestampsOffset();
+
+			for(int row = 0 ; row < rows ; row++) {
+				long timestamp = buffer.getLong(column + 8 * row);
+
+				if(timestamp >= fromMillis && timestamp < toMillis)
+					selection[count++] = row;
+			}
+		}
+
+		for(int i = 0 ; i < filters.size() && count > 0 ; i++)
+			count = filters.get(i).apply(block, selection, count, scratch);
+
+		if(count == 0)
+			return;
+
+		switch (measure) {
+		case ROWS:
+			aggregate.rows += count;
+			break;
+		case QUANTITY: {
+			int quantities = SalesExport.quantitiesOffset(rows);
+			long sum = 0;
+
+			for(int i = 0 ; i < count ; i++)
+				sum += buffer.getInt(quantities + 4 * selection[i]);
+
+			aggregate.quantity += sum;
+			break;
+		}
+		case VALUE: {
+			int quantities = SalesExport.quantitiesOffset(rows);
+			int prices = SalesExport.pricesOffset(rows);
+			long sum = 0;
+
+			for(int i = 0 ; i < count ; i++) {
+				int row = selection[i];
+				sum += buffer.getInt(quantities + 4 * row) * buffer.getLong(prices + 8 * row);
+			}
+
+			aggregate.value += sum;
+			break;
+		}
+		case BY_ORDINAL: {
+			int quantities = SalesExport.quantitiesOffset(rows);
+			int ordinals = SalesExport.ordinalsOffset(rows);
+
+			for(int i = 0 ; i < count ; i++) {
+				int row = selection[i];
+				int ordinal = buffer.getInt(ordinals + 4 * row);
+
+				if(ordinal >= aggregate.quantities.length)
+					aggregate.quantities = Arrays.copyOf(aggregate.quantities, ordinal + 1);
+
+				aggregate.quantities[ordinal] += buffer.getInt(quantities + 4 * row);
+			}
+			break;
+		}
+		case BASKETS: {
+			int baskets = SalesExport.basketsOffset(rows);
+			long last = 0;
+
+			// the selected rows are in the order of the block, the rows of a basket adjacent
+			for(int i = 0 ; i < count ; i++) {
+				long basket = buffer.getLong(baskets + 8 * selection[i]);
+
+				if(basket != last) {
+					aggregate.baskets++;
+					last = basket;
+				}
+			}
+			break;
+		}
+		default:
+			throw new IllegalArgumentException("Unknown measure [" + measure + "].");
+		}
+	}
+
+	private int selectByte(int block, int column, byte value, int[] selection, int count) {
+		ByteBuffer buffer = export.getBlock(block);
+		int selected = 0;
+
+		for(int i = 0 ; i < count ; i++) {
+			int row = selection[i];
+
+			if(buffer.get(column + row) == value)
+				selection[selected++] = row;
+		}
+
+		return selected;
+	}
+
+	private static boolean[] ordinalSet(int[] ordinals) {
+		int max = -1;
+
+		for(int ordinal : ordinals) {
+			if(ordinal < 0)
+				throw new IllegalArgumentException("Invalid catalog ordinal [" + ordinal + "].");
+			max = Math.max(max, ordinal);
+		}
+
+		boolean[] set = new boolean[max + 1];
+		for(int ordinal : ordinals)
+			set[ordinal] = true;
+
+		return set;
+	}
+
+	/**
+	 * Filter narrowing the selected rows of a block
+	 */
+	private interface Filter {
+
+		/**
+		 * @param block index of the block
+		 * @param selection the selected rows, in ascending order, narrowed in place
+		 * @param count number of selected rows
+		 * @param scratch scratch arrays of the scanning thread
+		 * @return number of rows still selected
+		 */
+		int apply(int block, int[] selection, int count, Scratch scratch);
+	}
+
+	/**
+	 * Arrays reused by a scanning thread from block to block
+	 */
+	private static final class Scratch {
+
+		final int[] selection;
+
+		final byte[] marks;
+
+		Scratch(int maxRows) {
+			selection = new int[maxRows];
+			marks = new byte[maxRows];
+		}
+	}
+
+	private static final class Aggregate {
+
+		long rows;
+
+		long quantity;
+
+		long value;
+
+		long baskets;
+
+		long[] quantities = new long[0];
+
+		Aggregate merge(Aggregate other) {
+			rows += other.rows;
+			quantity += other.quantity;
+			value += other.value;
+			baskets += other.baskets;
+
+			if(other.quantities.length > quantities.length)
+				quantities = Arrays.copyOf(quantities, other.quantities.length);
+			for(int ordinal = 0 ; ordinal < other.quantities.length ; ordinal++)
+				quantities[ordinal] += other.quantities[ordinal];
+
+			return this;
+		}
+	}
+
+	private final class ScanTask extends RecursiveTask<Aggregate> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int measure;
+		private final int fromBlock;
+		private final int toBlock;
+
+		ScanTask(int measure, int fromBlock, int toBlock) {
+			this.measure = measure;
+			this.fromBlock = fromBlock;
+			this.toBlock = toBlock;
+		}
+
+		@Override
+		protected Aggregate compute() {
+			if(toBlock - fromBlock <= 1)
+				return scan(measure, fromBlock, toBlock);
+
+			int middle = (fromBlock + toBlock) >>> 1;
+			ScanTask left = new ScanTask(measure, fromBlock, middle);
+			ScanTask right = new ScanTask(measure, middle, toBlock);
+
+			left.fork();
+			Aggregate aggregate = right.compute();
+
+			return aggregate.merge(left.join());
+		}
+	}
+}
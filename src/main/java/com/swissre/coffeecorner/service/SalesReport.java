@@ -0,0 +1,207 @@
+package com.swissre.coffeecorner.service;
+
+import java.io.IOException;
+import java.time.Instant;
+
+import com.swissre.coffeecorner.entity.Product.ProductType;
+
+/**
+ * Immutable sales of a time interval: the quantities per product, the revenue and the value of the gratis products
+ * per {@link ProductType} and per register. Money is in cents, summed from the same values the receipts print, so
+ * the totals match the receipts exactly.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public final class SalesReport {
+
+	private static final ProductType[] PRODUCT_TYPES = ProductType.values();
+
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+	// per register values: number of baskets, revenue per type, gratis value per type
+	static final int BASKETS = 0;
+	static final int REVENUE = 1;
+	static final int GRATIS_VALUE = REVENUE + PRODUCT_TYPES.length;
+	static final int REGISTER_FIELDS = GRATIS_VALUE + PRODUCT_TYPES.length;
+
+	private final CatalogSnapshot catalog;
+
+	private final Instant start;
+
+	private final Instant end;
+
+	private final long[] quantities;
+
+	private final long[] gratisQuantities;
+
+	private final long[] registerValues;
+
+	SalesReport(CatalogSnapshot catalog, Instant start, Instant end, long[] quantities, long[] gratisQuantities,
+			long[] registerValues) {
+		this.catalog = catalog;
+		this.start = start;
+		this.end = end;
+		this.quantities = quantities;
+		this.gratisQuantities = gratisQuantities;
+		this.registerValues = registerValues;
+	}
+
+	/**
+	 * Merges the sales of two intervals
+	 *
+	 * @param other sales of the same catalog and registers
+	 * @return sales of the interval covering both
+	 */
+	public SalesReport merge(SalesReport other) {
+		if(other.catalog != catalog || other.registerValues.length != registerValues.length)
+			throw new IllegalArgumentException("Sales of different catalogs or registers cannot be merged.");
+
+		long[] mergedQuantities = quantities.clone();
+		long[] mergedGratisQuantities = gratisQuantities.clone();
+		long[] mergedRegisterValues = registerValues.clone();
+
+		for(int ordinal = 0 ; ordinal < quantities.length ; ordinal++) {
+			mergedQuantities[ordinal] += other.quantities[ordinal];
+			mergedGratisQuantities[ordinal] += other.gratisQuantities[ordinal];
+		}
+		for(int i = 0 ; i < registerValues.length ; i++)
+			mergedRegisterValues[i] += other.registerValues[i];
+
+		return new SalesReport(catalog,
+				start.isBefore(other.start) ? start : other.start,
+				end.isAfter(other.end) ? end : other.end,
+				mergedQuantities, mergedGratisQuantities, mergedRegisterValues);
+	}
+
+	public CatalogSnapshot getCatalog() {
+		return catalog;
+	}
+
+	public Instant getStart() {
+		return start;
+	}
+
+	public Instant getEnd() {
+		return end;
+	}
+
+	public int getRegisterCount() {
+		return registerValues.length / REGISTER_FIELDS;
+	}
+
+	/**
+	 * @param ordinal catalog ordinal of the product
+	 * @return number of items sold, the gratis ones included
+	 */
+	public long getQuantity(int ordinal) {
+		return quantities[ordinal];
+	}
+
+	/**
+	 * @param ordinal catalog ordinal of the product
+	 * @return number of gratis items
+	 */
+	public long getGratisQuantity(int ordinal) {
+		return gratisQuantities[ordinal];
+	}
+
+	public long getBasketCount() {
+		return sum(BASKETS);
+	}
+
+	public long getBasketCount(int register) {
+		return registerValues[register * REGISTER_FIELDS + BASKETS];
+	}
+
+	/**
+	 * @return value of all the paid items, the sum of the receipt totals
+	 */
+	public long getRevenueInCents() {
+		long revenue = 0;
+
+		for(ProductType productType : PRODUCT_TYPES)
+			revenue += getRevenueInCents(productType);
+
+		return revenue;
+	}
+
+	public long getRevenueInCents(ProductType productType) {
+		return sum(REVENUE + productType.ordinal());
+	}
+
+	public long getRevenueInCents(int register) {
+		long revenue = 0;
+
+		for(ProductType productType : PRODUCT_TYPES)
+			revenue += getRevenueInCents(register, productType);
+
+		return revenue;
+	}
+
+	public long getRevenueInCents(int register, ProductType productType) {
+		return registerValues[register * REGISTER_FIELDS + REVENUE + productType.ordinal()];
+	}
+
+	/**
+	 * @return value of all the gratis items, the cost of the bonus program
+	 */
+	public long getGratisValueInCents() {
+		long value = 0;
+
+		for(ProductType productType : PRODUCT_TYPES)
+			value += getGratisValueInCents(productType);
+
+		return value;
+	}
+
+	public long getGratisValueInCents(ProductType productType) {
+		return sum(GRATIS_VALUE + productType.ordinal());
+	}
+
+	public long getGratisValueInCents(int register, ProductType productType) {
+		return registerValues[register * REGISTER_FIELDS + GRATIS_VALUE + productType.ordinal()];
+	}
+
+	/**
+	 * Writes the report as text: the products sold, then the revenue and the gratis value per product type
+	 *
+	 * @param out the target
+	 * @throws IOException if appending to the target fails
+	 */
+	public void writeTo(Appendable out) throws IOException {
+		out.append("Sales from ").append(start.toString()).append(" to ").append(end.toString()).append(LINE_SEPARATOR);
+
+		for(int ordinal = 0 ; ordinal < quantities.length ; ordinal++) {
+			if(quantities[ordinal] == 0)
+				continue;
+
+			out.append(' ').append(catalog.getProduct(ordinal).getName())
+					.append(" : ").append(Long.toString(quantities[ordinal]))
+					.append(" (gratis ").append(Long.toString(gratisQuantities[ordinal])).append(')')
+					.append(LINE_SEPARATOR);
+		}
+
+		for(ProductType productType : PRODUCT_TYPES) {
+			out.append(' ').append(productType.name()).append(" : ");
+			ReceiptWriter.appendMoney(out, getRevenueInCents(productType));
+			out.append(" (gratis ");
+			ReceiptWriter.appendMoney(out, getGratisValueInCents(productType));
+			out.append(')').append(LINE_SEPARATOR);
+		}
+
+		out.append(" Baskets : ").append(Long.toString(getBasketCount())).append(LINE_SEPARATOR);
+		out.append(" Total : ");
+		ReceiptWriter.appendMoney(out, getRevenueInCents());
+		out.append(LINE_SEPARATOR);
+	}
+
+	private long sum(int field) {
+		long sum = 0;
+
+		for(int i = field ; i < registerValues.length ; i += REGISTER_FIELDS)
+			sum += registerValues[i];
+
+		return sum;
+	}
+}
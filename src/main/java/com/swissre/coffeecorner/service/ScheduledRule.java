@@ -0,0 +1,47 @@
+package com.swissre.coffeecorner.service;
+
+/**
+ * {@link BonusRule} active in a {@link TimeWindow} only, e.g. a happy hour. Scheduled rules are compiled into a
+ * {@link PromotionSchedule}.
+ *
+ * Instances are immutable and can be shared between threads.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public final class ScheduledRule {
+
+	private final BonusRule rule;
+
+	private final TimeWindow window;
+
+	/**
+	 * @param rule the rule
+	 * @param window the window the rule is active in
+	 */
+	public ScheduledRule(BonusRule rule, TimeWindow window) {
+		this.rule = rule;
+		this.window = window;
+	}
+
+	/**
+	 * @param rule the rule
+	 * @return the rule active all the time
+	 */
+	public static ScheduledRule always(BonusRule rule) {
+		return new ScheduledRule(rule, TimeWindow.always());
+	}
+
+	public BonusRule getRule() {
+		return rule;
+	}
+
+	public TimeWindow getWindow() {
+		return window;
+	}
+
+	@Override
+	public String toString() {
+		return "ScheduledRule [rule=" + rule + ", window=" + window + "]";
+	}
+}
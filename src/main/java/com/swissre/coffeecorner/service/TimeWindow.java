@@ -0,0 +1,124 @@
+package com.swissre.coffeecorner.service;
+
+import java.time.DayOfWeek;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Weekly recurring time window of a promotion, in the local time of the shop, e.g. "before 10:00 on weekdays":
+ * <pre>
+ * TimeWindow.daily(LocalTime.MIDNIGHT, LocalTime.of(10, 0)).onWeekdays()
+ * </pre>
+ * A window ending at or before its start ends on the next day, e.g. 22:00 to 02:00; a window starting and ending at
+ * the same time lasts the whole day.
+ *
+ * Instances are immutable and can be shared between threads.
+ *
+ * @author Andrzej Dabkowski
+ *
+ */
+public final class TimeWindow {
+
+	static final int SECONDS_PER_DAY = 24 * 60 * 60;
+
+	static final int SECONDS_PER_WEEK = 7 * SECONDS_PER_DAY;
+
+	private static final TimeWindow ALWAYS = new TimeWindow(LocalTime.MIDNIGHT, LocalTime.MIDNIGHT, EnumSet.allOf(DayOfWeek.class));
+
+	private final LocalTime from;
+
+	private final LocalTime to;
+
+	private final Set<DayOfWeek> days;
+
+	private TimeWindow(LocalTime from, LocalTime to, Set<DayOfWeek> days) {
+		this.from = from;
+		this.to = to;
+		this.days = days;
+	}
+
+	/**
+	 * @return the window lasting all the time
+	 */
+	public static TimeWindow always() {
+		return ALWAYS;
+	}
+
+	/**
+	 * @param from start of the window, inclusive
+	 * @param to end of the window, exclusive
+	 * @return the window on every day of the week
+	 */
+	public static TimeWindow daily(LocalTime from, LocalTime to) {
+		return new TimeWindow(from, to, EnumSet.allOf(DayOfWeek.class));
+	}
+
+	/**
+	 * @param days the days the window starts on
+	 * @return the window on the given days only
+	 */
+	public TimeWindow on(DayOfWeek... days) {
+		if(days.length == 0)
+			throw new IllegalArgumentException("A time window needs at least one day.");
+
+		return new TimeWindow(from, to, EnumSet.copyOf(Arrays.asList(days)));
+	}
+
+	/**
+	 * @return the window from Monday to Friday only
+	 */
+	public TimeWindow onWeekdays() {
+		return on(DayOfWeek.MONDAY, DayOfWeek.TUESDAY, DayOfWeek.WEDNESDAY, DayOfWeek.THURSDAY, DayOfWeek.FRIDAY);
+	}
+
+	public LocalTime getFrom() {
+		return from;
+	}
+
+	public LocalTime getTo() {
+		return to;
+	}
+
+	public Set<DayOfWeek> getDays() {
+		return EnumSet.copyOf(days);
+	}
+
+	/**
+	 * Computes the intervals of the window within a week, in seconds from Monday 00:00 (local time). A window
+	 * running past Sunday midnight is split in two intervals.
+	 *
+	 * @param starts receives the starts of the intervals, inclusive, at least 14 elements
+	 * @param ends receives the ends of the intervals, exclusive, at least 14 elements
+	 * @return number of intervals
+	 */
+	int weekIntervals(int[] starts, int[] ends) {
+		int fromSecond = from.toSecondOfDay();
+		int toSecond = to.toSecondOfDay();
+		int length = toSecond > fromSecond ? toSecond - fromSecond : SECONDS_PER_DAY - fromSecond + toSecond;
+		int count = 0;
+
+		for(DayOfWeek day : days) {
+			int start = (day.getValue() - 1) * SECONDS_PER_DAY + fromSecond;
+			int end = start + length;
+
+			if(end <= SECONDS_PER_WEEK) {
+				starts[count] = start;
+				ends[count++] = end;
+			} else {
+				starts[count] = start;
+				ends[count++] = SECONDS_PER_WEEK;
+				starts[count] = 0;
+				ends[count++] = end - SECONDS_PER_WEEK;
+			}
+		}
+
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return "TimeWindow [from=" + from + ", to=" + to + ", days=" + days + "]";
+	}
+}
@@ -0,0 +1,124 @@
+package com.swissre.coffeecorner.metrics;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.swissre.coffeecorner.exception.UnknownProductException;
+import com.swissre.coffeecorner.metrics.BasketMetrics.Operation;
+import com.swissre.coffeecorner.service.ClientBasketService;
+import com.swissre.coffeecorner.service.IClientBasket;
+
+public class BasketMetricsTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final BasketMetrics metrics = new BasketMetrics();
+
+	@Test
+	public void histogram_percentiles_within_relative_error() {
+		LatencyHistogram histogram = new LatencyHistogram();
+
+		for(long value = 1 ; value <= 100_000 ; value++)
+			histogram.record(value);
+
+		assertEquals(100_000, histogram.getCount());
+		assertEquals(50_000, histogram.getValueAtPercentile(50), 50_000 / 32);
+		assertEquals(99_000, histogram.getValueAtPercentile(99), 99_000 / 32);
+		assertEquals(100_000, histogram.getMax(), 100_000 / 32);
+		assertEquals(50_000, histogram.getMean());
+	}
+
+	@Test
+	public void histogram_index_round_trip() {
+		long[] values = { 0, 1, 31, 32, 33, 1000, 123_456_789, Long.MAX_VALUE };
+
+		for(long value : values) {
+			int index = LatencyHistogram.indexOf(value);
+
+			assertTrue(LatencyHistogram.highestValueOf(index) >= value);
+			assertTrue(index == 0 || LatencyHistogram.highestValueOf(index - 1) < value);
+		}
+	}
+
+	@Test
+	public void instrumented_basket_records_operations() {
+		IClientBasket basket = new InstrumentedClientBasket(new ClientBasketService(), metrics);
+
+		for(int i = 0 ; i < 5 ; i++)
+			basket.addProduct("small coffee");
+
+		try {
+			basket.addProduct("green tea");
+			fail("Unknown product accepted");
+		} catch (UnknownProductException e) {
+			// expected
+		}
+
+		basket.applyBonusProgram();
+		basket.applyBonusProgram();
+		basket.printReceipt();
+
+		assertEquals(5, metrics.getLatency(Operation.ADD_PRODUCT).getCount());
+		assertEquals(1, metrics.getFailureCount(Operation.ADD_PRODUCT));
+		assertEquals(1, metrics.getUnknownProductCount());
+		assertEquals(2, metrics.getLatency(Operation.APPLY_BONUS_PROGRAM).getCount());
+		assertEquals(1, metrics.getGratisProductCount());
+		assertEquals(1, metrics.getLatency(Operation.PRINT_RECEIPT).getCount());
+	}
+
+	@Test
+	public void instrumented_basket_delegates_addProducts() {
+		ClientBasketService delegate = new ClientBasketService();
+		IClientBasket basket = new InstrumentedClientBasket(delegate, metrics);
+		int[] bonusEvaluations = new int[1];
+
+		// the basket signals the end of a batch, after evaluating the bonus program once, with no added products
+		delegate.addListener((content, addedOrdinals, addedCount) -> {
+			if(addedCount == 0)
+				bonusEvaluations[0]++;
+		});
+
+		assertEquals(3, basket.addProducts(Arrays.asList("small coffee", "bacon roll", "extra milk")).size());
+
+		assertEquals(1, bonusEvaluations[0]);
+		assertEquals(1, metrics.getLatency(Operation.ADD_PRODUCTS).getCount());
+		assertEquals(0, metrics.getLatency(Operation.ADD_PRODUCT).getCount());
+		assertEquals(1, basket.applyBonusProgram().size());
+	}
+
+	@Test
+	public void disabled_metrics_record_nothing() {
+		IClientBasket basket = new InstrumentedClientBasket(new ClientBasketService(), metrics);
+		metrics.setEnabled(false);
+
+		basket.addProduct("small coffee");
+		basket.printReceipt();
+
+		assertEquals(0, metrics.getLatency(Operation.ADD_PRODUCT).getCount());
+		assertEquals(0, metrics.getLatency(Operation.PRINT_RECEIPT).getCount());
+	}
+
+	@Test
+	public void exportSnapshot_writes_json() throws IOException {
+		metrics.recordLatency(Operation.PRINT_RECEIPT, 1500);
+		metrics.recordGratisProducts(3);
+
+		File file = new File(temporaryFolder.getRoot(), "metrics.json");
+		metrics.exportSnapshot(file.toPath());
+
+		String snapshot = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+
+		assertTrue(snapshot.contains("\"printReceipt\":{\"count\":1,\"failures\":0,\"mean\":1500,\"p50\":1503"));
+		assertTrue(snapshot.endsWith("\"unknownProducts\":0,\"gratisProducts\":3}"));
+	}
+}
@@ -0,0 +1,178 @@
+package com.swissre.coffeecorner.server;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.swissre.coffeecorner.service.ClientBasketService;
+
+public class OrderServerTest {
+
+	private final OrderServer server;
+
+	public OrderServerTest() throws IOException {
+		server = new OrderServer(new InetSocketAddress("localhost", 0), ClientBasketService::new).start();
+	}
+
+	@After
+	public void after() throws IOException {
+		server.close();
+	}
+
+	@Test
+	public void pipelined_requests_answered_in_order() throws IOException {
+		try (Socket socket = new Socket("localhost", server.getPort())) {
+			BufferedReader in = reader(socket);
+
+			send(socket, "ADD large coffee with extra milk\nADD bacon roll\r\nBONUS\nPRINT\nQUIT\n");
+
+			assertEquals("OK 2", in.readLine());
+			assertEquals("OK 1", in.readLine());
+			assertEquals("OK 1", in.readLine());
+			assertEquals(receipt("large coffee with extra milk", "bacon roll"), readReceipt(in));
+			assertEquals("OK", in.readLine());
+			assertNull(in.readLine());
+		}
+	}
+
+	@Test
+	public void requests_answered_after_till_shuts_down_output() throws IOException, InterruptedException {
+		int count = 2000;
+		StringBuilder requests = new StringBuilder();
+		for(int i = 0 ; i < count ; i++)
+			requests.append("ADD small coffee\nPRINT\n");
+		// the last request is incomplete
+		requests.append("ADD bacon roll\nPRINT\nADD small");
+
+		try (Socket socket = new Socket("localhost", server.getPort())) {
+			BufferedReader in = reader(socket);
+			// more responses than the server buffers, it reads the end of the requests before answering them all
+			Thread sender = new Thread(() -> {
+				try {
+					send(socket, requests.toString());
+					socket.shutdownOutput();
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			});
+			sender.start();
+
+			String receipt = null;
+			for(int i = 0 ; i < count ; i++) {
+				assertEquals("OK 1", in.readLine());
+				receipt = readReceipt(in);
+			}
+
+			String[] lines = new String[count];
+			Arrays.fill(lines, "small coffee");
+			assertEquals(receipt(lines), receipt);
+
+			assertEquals("OK 1", in.readLine());
+			assertTrue(readReceipt(in).contains("bacon roll"));
+			assertNull(in.readLine());
+			sender.join();
+		}
+	}
+
+	@Test
+	public void failed_requests_answered_with_error() throws IOException {
+		try (Socket socket = new Socket("localhost", server.getPort())) {
+			BufferedReader in = reader(socket);
+
+			send(socket, "ADD tea\nADD large coffee with\nREFUND\nADD café\nADD small coffee\n");
+
+			assertEquals("ERR Product catalog does not contain product [tea].", in.readLine());
+			assertEquals("ERR Product catalog does not contain product [large coffee with].", in.readLine());
+			assertEquals("ERR Unknown request [REFUND].", in.readLine());
+			assertEquals("ERR Product catalog does not contain product [café].", in.readLine());
+			assertEquals("OK 1", in.readLine());
+		}
+	}
+
+	@Test
+	public void connections_have_own_baskets() throws IOException {
+		try (Socket first = new Socket("localhost", server.getPort());
+				Socket second = new Socket("localhost", server.getPort())) {
+			BufferedReader firstIn = reader(first);
+			BufferedReader secondIn = reader(second);
+
+			send(first, "ADD orange juice\n");
+			send(second, "ADD bacon roll\n");
+			assertEquals("OK 1", firstIn.readLine());
+			assertEquals("OK 1", secondIn.readLine());
+
+			send(first, "PRINT\nNEW\nPRINT\n");
+			assertEquals(receipt("orange juice"), readReceipt(firstIn));
+			assertEquals("OK", firstIn.readLine());
+			assertEquals(receipt(), readReceipt(firstIn));
+
+			send(second, "PRINT\n");
+			assertEquals(receipt("bacon roll"), readReceipt(secondIn));
+		}
+	}
+
+	@Test
+	public void many_pipelined_requests() throws IOException {
+		int count = 20000;
+		StringBuilder requests = new StringBuilder();
+		for(int i = 0 ; i < count ; i++)
+			requests.append("ADD small coffee\n");
+		requests.append("PRINT\n");
+
+		try (Socket socket = new Socket("localhost", server.getPort())) {
+			BufferedReader in = reader(socket);
+			Thread sender = new Thread(() -> {
+				try {
+					send(socket, requests.toString());
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			});
+			sender.start();
+
+			for(int i = 0 ; i < count ; i++)
+				assertEquals("OK 1", in.readLine());
+
+			String[] lines = new String[count];
+			Arrays.fill(lines, "small coffee");
+			assertEquals(receipt(lines), readReceipt(in));
+		}
+	}
+
+	private static String receipt(String... productLines) {
+		ClientBasketService basket = new ClientBasketService();
+		basket.addProducts(Arrays.asList(productLines));
+
+		return basket.printReceipt();
+	}
+
+	private static String readReceipt(BufferedReader in) throws IOException {
+		StringBuilder receipt = new StringBuilder();
+		String line;
+
+		while(!".".equals(line = in.readLine()))
+			receipt.append(line).append(System.getProperty("line.separator"));
+
+		return receipt.toString();
+	}
+
+	private static BufferedReader reader(Socket socket) throws IOException {
+		return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+	}
+
+	private static void send(Socket socket, String requests) throws IOException {
+		OutputStream out = socket.getOutputStream();
+		out.write(requests.getBytes(StandardCharsets.UTF_8));
+		out.flush();
+	}
+}
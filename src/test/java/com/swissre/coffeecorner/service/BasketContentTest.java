@@ -0,0 +1,85 @@
+package com.swissre.coffeecorner.service;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.swissre.coffeecorner.entity.Product;
+import com.swissre.coffeecorner.entity.Product.ProductType;
+
+public class BasketContentTest {
+
+	private static final ProductType[] PRODUCT_TYPES = ProductType.values();
+
+	@Test
+	public void collectPayableOrdinals_in_order_of_hashMap_grouping() {
+		Random random = new Random(2024);
+
+		// the built-in catalog and bigger ones, with enough products of a type to resize the grouping map
+		int[] catalogSizes = { 8, 20, 60, 150 };
+
+		for(int basket = 0 ; basket < 20000 ; basket++) {
+			Product[] products = ProductCatalog.getDefault().getSnapshot().getProducts().toArray(new Product[0]);
+			if(basket % 4 != 0)
+				products = randomCatalog(random, catalogSizes[random.nextInt(catalogSizes.length)]);
+
+			long[] pricesInCents = new long[products.length];
+			BasketContent content = new BasketContent(products, pricesInCents);
+			int items = 1 + random.nextInt(3 * products.length);
+
+			for(int i = 0 ; i < items ; i++)
+				content.add(random.nextInt(products.length));
+
+			for(ProductType productType : PRODUCT_TYPES) {
+				content.setGratisCount(productType, random.nextInt(content.getTypeCount(productType) + 1));
+
+				assertEquals("basket " + basket + ", " + productType, referenceGrouping(content, productType),
+						collectedNames(content, productType));
+			}
+		}
+	}
+
+	/**
+	 * Names of the payable products of the type in the order the receipt has always listed them: the key order of
+	 * Collectors.groupingBy, i.e. of a HashMap filled with computeIfAbsent in the order the items were added
+	 */
+	private static List<String> referenceGrouping(BasketContent content, ProductType productType) {
+		Map<String, List<Product>> grouping = new HashMap<>();
+
+		for(int index = content.getGratisCount(productType) ; index < content.getTypeCount(productType) ; index++) {
+			Product product = content.getProduct(content.getOrdinal(productType, index));
+			grouping.computeIfAbsent(product.getName(), name -> new ArrayList<>()).add(product);
+		}
+
+		return new ArrayList<>(grouping.keySet());
+	}
+
+	private static List<String> collectedNames(BasketContent content, ProductType productType) {
+		int[] ordinals = new int[content.getCatalogSize()];
+		int count = content.collectPayableOrdinals(productType, ordinals);
+		List<String> names = new ArrayList<>();
+
+		for(int i = 0 ; i < count ; i++)
+			names.add(content.getProduct(ordinals[i]).getName());
+
+		return names;
+	}
+
+	private static Product[] randomCatalog(Random random, int size) {
+		Product[] products = new Product[size];
+
+		for(int ordinal = 0 ; ordinal < size ; ordinal++) {
+			String name = "product " + Integer.toString(random.nextInt(1 << 30), 36) + " " + ordinal;
+			products[ordinal] = new Product(name, PRODUCT_TYPES[random.nextInt(PRODUCT_TYPES.length)], BigDecimal.ONE);
+		}
+
+		return products;
+	}
+}
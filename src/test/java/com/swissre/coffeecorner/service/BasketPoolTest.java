@@ -0,0 +1,141 @@
+package com.swissre.coffeecorner.service;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.management.ThreadMXBean;
+
+public class BasketPoolTest {
+
+	private static final String[] PRODUCT_LINES = {
+			"large coffee with extra milk",
+			"small coffee with special roast",
+			"bacon roll",
+			"orange juice",
+			"medium coffee with foamed milk",
+			"large coffee"
+	};
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private final BasketPool pool = new BasketPool(4);
+
+	@Test
+	public void release_resets_and_reuses_basket() {
+		ClientBasketService basket = pool.acquire();
+		basket.addProduct("large coffee with extra milk");
+		basket.addListener((content, addedOrdinals, addedCount) -> fail("listener of the previous customer"));
+		pool.release(basket);
+
+		assertEquals(1, pool.size());
+
+		ClientBasketService reused = pool.acquire();
+		assertSame(basket, reused);
+		assertEquals(0, pool.size());
+		assertEquals(0, reused.getTotalInCents());
+		assertEquals(new ClientBasketService().printReceipt(), reused.printReceipt());
+
+		reused.addProduct("bacon roll");
+		assertEquals(450, reused.getTotalInCents());
+	}
+
+	@Test
+	public void acquire_empty_pool_creates_basket() {
+		ClientBasketService first = pool.acquire();
+		ClientBasketService second = pool.acquire();
+
+		assertNotSame(first, second);
+	}
+
+	@Test
+	public void release_full_pool_drops_basket() {
+		BasketPool small = new BasketPool(1);
+
+		ClientBasketService first = small.acquire();
+		ClientBasketService second = small.acquire();
+		small.release(first);
+		small.release(second);
+
+		assertEquals(1, small.size());
+		assertSame(first, small.acquire());
+		assertEquals(0, small.size());
+	}
+
+	@Test
+	public void acquire_after_reload_drops_stale_basket() throws IOException {
+		File catalogFile = temporaryFolder.newFile("catalog.csv");
+		Files.write(catalogFile.toPath(), Arrays.asList("large coffee;BEVERAGE;3.50"), StandardCharsets.UTF_8);
+		ProductCatalog catalog = ProductCatalog.fromFile(catalogFile.toPath());
+		BasketPool reloadingPool = new BasketPool(catalog, BonusProgram.empty(), 4);
+
+		ClientBasketService before = reloadingPool.acquire();
+		reloadingPool.release(before);
+
+		Files.write(catalogFile.toPath(), Arrays.asList("large coffee;BEVERAGE;3.70"), StandardCharsets.UTF_8);
+		catalog.reload();
+
+		ClientBasketService after = reloadingPool.acquire();
+		assertNotSame(before, after);
+		assertEquals(0, reloadingPool.size());
+
+		after.addProduct("large coffee");
+		assertEquals(370, after.getTotalInCents());
+	}
+
+	@Test
+	public void checkout_cycle_does_not_allocate() {
+		Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean);
+
+		ThreadMXBean allocationBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled());
+
+		ByteBuffer receipt = ByteBuffer.allocate(4096);
+		long threadId = Thread.currentThread().getId();
+
+		// warm-up: grows the pooled baskets and the line cache, and lets the JIT compile the cycle
+		for(int i = 0 ; i < 50_000 ; i++)
+			checkout(receipt);
+
+		int checkouts = 10_000;
+		long before = allocationBean.getThreadAllocatedBytes(threadId);
+
+		for(int i = 0 ; i < checkouts ; i++)
+			checkout(receipt);
+
+		long allocated = allocationBean.getThreadAllocatedBytes(threadId) - before;
+
+		// A late request for a C2 compilation of the cycle (the compiler threads may still be busy with the
+		// previous tests) resolves the string literals of the compiled class on this thread, a few dozen bytes
+		// charged once to the window. A single object per checkout would be at least 16 bytes per checkout.
+		assertEquals(0, allocated / checkouts);
+	}
+
+	private void checkout(ByteBuffer receipt) {
+		ClientBasketService basket = pool.acquire();
+
+		try {
+			for(String productLine : PRODUCT_LINES)
+				basket.addProductLine(productLine);
+
+			basket.applyBonusProgram();
+
+			receipt.clear();
+			basket.writeReceipt(receipt);
+		} finally {
+			pool.release(basket);
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package com.swissre.coffeecorner.service;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.swissre.coffeecorner.entity.Product;
+import com.swissre.coffeecorner.exception.UnknownBasketException;
+
+public class BasketRegistryTest {
+
+	@Rule
+	public ExpectedException exceptionRule = ExpectedException.none();
+
+	private final AtomicLong nanoClock = new AtomicLong();
+
+	private final BasketRegistry registry = new BasketRegistry(ClientBasketService::new, 1000, nanoClock::get);
+
+	@After
+	public void after() {
+		registry.close();
+	}
+
+	@Test
+	public void close_removes_basket() {
+		long id = registry.open();
+		registry.addProduct(id, "large coffee");
+
+		ClientBasketService basket = registry.close(id);
+
+		assertEquals(350, basket.getTotalInCents());
+		assertEquals(0, registry.size());
+
+		exceptionRule.expect(UnknownBasketException.class);
+		exceptionRule.expectMessage(String.format("There is no open basket [%d].", id));
+
+		registry.printReceipt(id);
+	}
+
+	@Test
+	public void evictIdle_keeps_recently_used_baskets() {
+		long idle = registry.open();
+		long used = registry.open();
+
+		nanoClock.set(800);
+		registry.addProduct(used, "bacon roll");
+		nanoClock.set(1500);
+
+		assertEquals(1, registry.evictIdle());
+		assertEquals(1, registry.size());
+		assertEquals(1, registry.getEvictedCount());
+		assertEquals(450, registry.apply(used, ClientBasketService::getTotalInCents).longValue());
+
+		exceptionRule.expect(UnknownBasketException.class);
+		registry.addProduct(idle, "bacon roll");
+	}
+
+	@Test
+	public void applyAsync_runs_on_request_thread() throws InterruptedException, ExecutionException {
+		long id = registry.open();
+
+		registry.applyAsync(id, basket -> basket.addProduct("small coffee")).get();
+
+		assertEquals(250, registry.apply(id, ClientBasketService::getTotalInCents).longValue());
+	}
+
+	@Test
+	public void concurrent_clients_stress() throws InterruptedException, ExecutionException {
+		int clients = 16;
+		int basketsPerClient = 500;
+		ExecutorService executor = Executors.newFixedThreadPool(clients);
+		List<Future<Long>> results = new ArrayList<>();
+		List<Long> shared = new ArrayList<>();
+
+		for(int i = 0 ; i < 4 ; i++)
+			shared.add(registry.open());
+
+		for(int client = 0 ; client < clients ; client++) {
+			results.add(executor.submit(() -> {
+				long total = 0;
+
+				for(int i = 0 ; i < basketsPerClient ; i++) {
+					long id = registry.open();
+
+					registry.addProduct(id, "large coffee with extra milk");
+					registry.addProduct(id, "bacon roll");
+					registry.addProduct(shared.get(i % shared.size()), "small coffee");
+					registry.printReceipt(id);
+
+					total += registry.close(id).getTotalInCents();
+				}
+
+				return total;
+			}));
+		}
+
+		for(Future<Long> result : results)
+			assertEquals(basketsPerClient * 800L, result.get().longValue());
+
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+		long sharedBeverages = 0;
+		for(long id : shared)
+			sharedBeverages += registry.apply(id, basket -> basket.getTotalInCents() / 250 + basket.getGratisProducts().size());
+
+		assertEquals(clients * basketsPerClient, sharedBeverages);
+		assertEquals(shared.size(), registry.size());
+	}
+
+	@Test
+	public void applyBonusProgram_returns_copy_while_basket_changes() throws InterruptedException, ExecutionException {
+		long id = registry.open();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		Future<?> adding = executor.submit(() -> {
+			for(int i = 0 ; i < 20000 ; i++)
+				registry.addProduct(id, i % 3 == 0 ? "bacon roll" : "medium coffee with extra milk");
+		});
+
+		int snapshots = 0;
+		while(!adding.isDone()) {
+			List<Product> gratisProducts = registry.applyBonusProgram(id);
+			int size = gratisProducts.size();
+			int iterated = 0;
+
+			for(Product product : gratisProducts) {
+				assertNotNull(product);
+				iterated++;
+			}
+
+			assertEquals(size, iterated);
+			assertEquals(size, gratisProducts.size());
+			snapshots++;
+		}
+
+		adding.get();
+		executor.shutdown();
+
+		assertTrue(snapshots > 0);
+		assertEquals(registry.apply(id, basket -> basket.getGratisProducts().size()).intValue(),
+				registry.applyBonusProgram(id).size());
+	}
+}
@@ -0,0 +1,205 @@
+package com.swissre.coffeecorner.service;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import com.swissre.coffeecorner.entity.Product.ProductType;
+
+public class BasketWriteAheadLogTest {
+
+	private static final String[] PRODUCT_LINES = { "large coffee", "medium coffee", "small coffee", "orange juice",
+			"large coffee with extra milk", "small coffee with special roast", "medium coffee with foamed milk",
+			"bacon roll", "extra milk" };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Rule
+	public ExpectedException exceptionRule = ExpectedException.none();
+
+	private final CatalogSnapshot catalog = ProductCatalog.getDefault().getSnapshot();
+
+	private final BonusProgram bonusProgram = ClientBasketService.getDefaultBonusProgram();
+
+	@Test
+	public void open_baskets_recovered_after_crash() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		Random random = new Random(42);
+		ClientBasketService[] baskets = new ClientBasketService[50];
+
+		// the log is never closed, as if the till process died
+		BasketWriteAheadLog log = new BasketWriteAheadLog(directory, BasketWriteAheadLog.DEFAULT_SEGMENT_SIZE, 0);
+		for(int i = 0 ; i < baskets.length ; i++) {
+			baskets[i] = new ClientBasketService(catalog, bonusProgram);
+			log.attach(i, baskets[i]);
+		}
+
+		for(int i = 0 ; i < 500 ; i++)
+			baskets[random.nextInt(baskets.length)].addProduct(PRODUCT_LINES[random.nextInt(PRODUCT_LINES.length)]);
+		baskets[3].addProducts(Arrays.asList("large coffee", "large coffee", "bacon roll"));
+
+		// every other basket checked out
+		for(int i = 0 ; i < baskets.length ; i += 2)
+			log.close(i);
+
+		try (BasketWriteAheadLog reopened = new BasketWriteAheadLog(directory, BasketWriteAheadLog.DEFAULT_SEGMENT_SIZE, 0)) {
+			assertEquals(baskets.length / 2, reopened.getOpenBasketCount());
+
+			Map<Long, ClientBasketService> recovered = reopened.recover(catalog, bonusProgram);
+			assertEquals(baskets.length / 2, recovered.size());
+
+			for(int i = 1 ; i < baskets.length ; i += 2)
+				assertEquals(baskets[i].printReceipt(), recovered.get((long) i).printReceipt());
+
+			// the old segment replaced with a checkpoint
+			assertEquals(1, BasketWriteAheadLog.listSegments(directory).size());
+		}
+	}
+
+	@Test
+	public void recovered_baskets_logged_further() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		ClientBasketService basket = new ClientBasketService(catalog, bonusProgram);
+		basket.addProduct("large coffee");
+
+		BasketWriteAheadLog log = new BasketWriteAheadLog(directory, BasketWriteAheadLog.DEFAULT_SEGMENT_SIZE, 0);
+		// the products already in the basket are logged on attach
+		log.attach(7, basket);
+		basket.addProduct("bacon roll");
+
+		BasketWriteAheadLog reopened = new BasketWriteAheadLog(directory, BasketWriteAheadLog.DEFAULT_SEGMENT_SIZE, 0);
+		ClientBasketService recovered = reopened.recover(catalog, bonusProgram).get(7L);
+		recovered.addProduct("extra milk");
+		assertTrue(reopened.recover(catalog, bonusProgram).isEmpty());
+
+		try (BasketWriteAheadLog again = new BasketWriteAheadLog(directory, BasketWriteAheadLog.DEFAULT_SEGMENT_SIZE, 0)) {
+			ClientBasketService restored = again.recover(catalog, bonusProgram).get(7L);
+
+			assertEquals(recovered.printReceipt(), restored.printReceipt());
+			// the beverage and the snack logged before the crashes give the extra added after them for free
+			assertEquals(1, restored.getGratisProducts().size());
+
+			again.close(7);
+		}
+
+		try (BasketWriteAheadLog closed = new BasketWriteAheadLog(directory, BasketWriteAheadLog.DEFAULT_SEGMENT_SIZE, 0)) {
+			assertEquals(0, closed.getOpenBasketCount());
+		}
+	}
+
+	@Test
+	public void segments_rolled_over_with_checkpoint() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		Random random = new Random(7);
+		ClientBasketService[] baskets = new ClientBasketService[5];
+
+		BasketWriteAheadLog log = new BasketWriteAheadLog(directory, 4096, 0);
+		for(int i = 0 ; i < baskets.length ; i++) {
+			baskets[i] = new ClientBasketService(catalog, bonusProgram);
+			log.attach(100 + i, baskets[i]);
+		}
+
+		// far more records than a segment holds, the closed baskets are left out of the checkpoints
+		for(int i = 0 ; i < 3000 ; i++) {
+			int index = random.nextInt(baskets.length);
+			baskets[index].addProduct(PRODUCT_LINES[random.nextInt(PRODUCT_LINES.length)]);
+
+			if(baskets[index].getProductCount(ProductType.BEVERAGE) > 10) {
+				log.close(100 + index);
+				baskets[index] = new ClientBasketService(catalog, bonusProgram);
+				log.attach(100 + index, baskets[index]);
+			}
+		}
+
+		assertEquals(1, BasketWriteAheadLog.listSegments(directory).size());
+
+		try (BasketWriteAheadLog reopened = new BasketWriteAheadLog(directory, 4096, 0)) {
+			Map<Long, ClientBasketService> recovered = reopened.recover(catalog, bonusProgram);
+			assertEquals(baskets.length, recovered.size());
+
+			for(int i = 0 ; i < baskets.length ; i++)
+				assertEquals(baskets[i].printReceipt(), recovered.get(100L + i).printReceipt());
+		}
+	}
+
+	@Test
+	public void torn_record_ignored() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		ClientBasketService basket = new ClientBasketService(catalog, bonusProgram);
+
+		BasketWriteAheadLog log = new BasketWriteAheadLog(directory, BasketWriteAheadLog.DEFAULT_SEGMENT_SIZE, 0);
+		log.attach(1, basket);
+		basket.addProduct("large coffee");
+		basket.addProduct("bacon roll");
+		log.force();
+
+		// tear the last record (segment header, open, large coffee, bacon roll), its type is written last
+		Path segment = BasketWriteAheadLog.listSegments(directory).get(0);
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[] { 0 }), 4 * BasketWriteAheadLog.RECORD_SIZE - 1);
+		}
+
+		try (BasketWriteAheadLog reopened = new BasketWriteAheadLog(directory, BasketWriteAheadLog.DEFAULT_SEGMENT_SIZE, 0)) {
+			ClientBasketService recovered = reopened.recover(catalog, bonusProgram).get(1L);
+
+			assertEquals(350, recovered.getTotalInCents());
+		}
+	}
+
+	@Test
+	public void close_stops_logging_attached_baskets() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		ClientBasketService basket = new ClientBasketService(catalog, bonusProgram);
+
+		try (BasketWriteAheadLog log = new BasketWriteAheadLog(directory, BasketWriteAheadLog.DEFAULT_SEGMENT_SIZE, 0)) {
+			log.attach(1, basket);
+			basket.addProduct("large coffee");
+		}
+
+		// the basket is still served after the log is closed, its products are not logged any more
+		basket.addProduct("bacon roll");
+
+		ClientBasketService logged = new ClientBasketService(catalog, bonusProgram);
+		logged.addProduct("large coffee");
+
+		try (BasketWriteAheadLog reopened = new BasketWriteAheadLog(directory, BasketWriteAheadLog.DEFAULT_SEGMENT_SIZE, 0)) {
+			ClientBasketService recovered = reopened.recover(catalog, bonusProgram).get(1L);
+
+			assertEquals(logged.printReceipt(), recovered.printReceipt());
+		}
+	}
+
+	@Test
+	public void attach_closed_log_failure() throws IOException {
+		BasketWriteAheadLog log = new BasketWriteAheadLog(folder.getRoot().toPath(), BasketWriteAheadLog.DEFAULT_SEGMENT_SIZE, 0);
+		log.close();
+
+		exceptionRule.expect(IllegalStateException.class);
+		exceptionRule.expectMessage("Basket log is closed.");
+		log.attach(1, new ClientBasketService(catalog, bonusProgram));
+	}
+
+	@Test
+	public void attach_open_basket_failure() throws IOException {
+		try (BasketWriteAheadLog log = new BasketWriteAheadLog(folder.getRoot().toPath(), BasketWriteAheadLog.DEFAULT_SEGMENT_SIZE, 0)) {
+			log.attach(1, new ClientBasketService(catalog, bonusProgram));
+
+			exceptionRule.expect(IllegalArgumentException.class);
+			exceptionRule.expectMessage("Basket already open [1].");
+			log.attach(1, new ClientBasketService(catalog, bonusProgram));
+		}
+	}
+}
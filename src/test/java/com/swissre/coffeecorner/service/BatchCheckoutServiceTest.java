@@ -0,0 +1,103 @@
+package com.swissre.coffeecorner.service;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BatchCheckoutServiceTest {
+
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+	private static final String[][] BASKETS = {
+			{ "large coffee with extra milk", "bacon roll" },
+			{ "orange juice", "orange juice", "orange juice", "orange juice", "orange juice" },
+			{ "small coffee", "Hiperlarge coffee" },
+			{ "medium coffee with special roast" }
+	};
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void addProducts_same_as_addProduct() {
+		ClientBasketService bulk = new ClientBasketService();
+		ClientBasketService single = new ClientBasketService();
+
+		bulk.addProducts(Arrays.asList(BASKETS[0]));
+		for(String productLine : BASKETS[0])
+			single.addProduct(productLine);
+
+		assertEquals(single.printReceipt(), bulk.printReceipt());
+		assertEquals(single.getGratisProducts(), bulk.getGratisProducts());
+	}
+
+	@Test
+	public void checkout_receipts_in_input_order() throws IOException {
+		File orderFile = writeOrderFile(500, "\r\n");
+		StringBuilder out = new StringBuilder();
+
+		BatchCheckoutService.Summary summary =
+				new BatchCheckoutService(ClientBasketService::new, new ForkJoinPool(4), 64).checkout(orderFile.toPath(), out);
+
+		assertEquals(expectedOutput(500), out.toString());
+		assertEquals(2000, summary.getBasketCount());
+		assertEquals(500, summary.getRejectedBasketCount());
+		assertEquals(500 * (800 + 1580 + 390), summary.getTotalInCents());
+	}
+
+	@Test
+	public void checkout_default_mapping() throws IOException {
+		File orderFile = writeOrderFile(3000, "\n");
+		StringBuilder out = new StringBuilder();
+
+		BatchCheckoutService.Summary summary = new BatchCheckoutService().checkout(orderFile.toPath(), out);
+
+		assertEquals(expectedOutput(3000), out.toString());
+		assertEquals(12000, summary.getBasketCount());
+	}
+
+	private File writeOrderFile(int repetitions, String lineSeparator) throws IOException {
+		StringBuilder orders = new StringBuilder();
+
+		for(int i = 0 ; i < repetitions ; i++) {
+			for(String[] basket : BASKETS) {
+				for(String productLine : basket)
+					orders.append(productLine).append(lineSeparator);
+				orders.append(lineSeparator).append(i % 2 == 0 ? lineSeparator : "");
+			}
+		}
+
+		File orderFile = temporaryFolder.newFile();
+		Files.write(orderFile.toPath(), orders.toString().getBytes(StandardCharsets.UTF_8));
+
+		return orderFile;
+	}
+
+	private static String expectedOutput(int repetitions) {
+		StringBuilder expected = new StringBuilder();
+
+		for(int i = 0 ; i < repetitions ; i++) {
+			for(String[] basket : BASKETS) {
+				ClientBasketService clientBasket = new ClientBasketService();
+				try {
+					clientBasket.addProducts(Arrays.asList(basket));
+					expected.append(clientBasket.printReceipt());
+				} catch (RuntimeException e) {
+					expected.append("Rejected basket : ").append(e.getMessage()).append(LINE_SEPARATOR);
+				}
+				expected.append(LINE_SEPARATOR);
+			}
+		}
+
+		return expected.toString();
+	}
+}
@@ -0,0 +1,84 @@
+package com.swissre.coffeecorner.service;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.swissre.coffeecorner.entity.Product;
+import com.swissre.coffeecorner.entity.Product.ProductType;
+
+public class BonusProgramTest {
+
+	@Test
+	public void compile_orders_product_types_by_priority() {
+		BonusProgram bonusProgram = BonusProgram.compile(Arrays.asList(
+				new FreeBeverageRule(5, 1),
+				new FreeExtrasRule(2)));
+
+		assertEquals(2, bonusProgram.getGratisProductTypeCount());
+		assertEquals(ProductType.BEVERAGE, bonusProgram.getGratisProductType(0));
+		assertEquals(ProductType.EXTRAS, bonusProgram.getGratisProductType(1));
+	}
+
+	@Test
+	public void apply_conflicting_rules_most_generous_wins() {
+		BonusProgram bonusProgram = BonusProgram.compile(Arrays.asList(
+				new FreeBeverageRule(5),
+				new FreeBeverageRule(3),
+				new FreeBeverageRule(4)));
+
+		ClientBasketService basket = new ClientBasketService(bonusProgram);
+		for(int i = 0 ; i < 6 ; i++)
+			basket.addProduct("medium coffee");
+
+		assertEquals(2, basket.getGratisProducts().size());
+		assertEquals(1, bonusProgram.getGratisProductTypeCount());
+	}
+
+	@Test
+	public void apply_custom_rule() {
+		BonusRule freeSnackRule = new BonusRule() {
+
+			@Override
+			public ProductType getGratisProductType() {
+				return ProductType.SNACK;
+			}
+
+			@Override
+			public int getPriority() {
+				return 0;
+			}
+
+			@Override
+			public int computeGratisCount(int[] typeCounts) {
+				return typeCounts[ProductType.EXTRAS.ordinal()] / 2;
+			}
+		};
+
+		ClientBasketService basket = new ClientBasketService(BonusProgram.compile(Arrays.asList(
+				new FreeExtrasRule(), freeSnackRule)));
+
+		basket.addProduct("bacon roll");
+		basket.addProduct("large coffee with extra milk");
+		basket.addProduct("special roast");
+
+		List<Product> gratisProducts = basket.applyBonusProgram();
+
+		assertEquals(2, gratisProducts.size());
+		assertEquals("bacon roll", gratisProducts.get(0).getName());
+		assertEquals("extra milk", gratisProducts.get(1).getName());
+	}
+
+	@Test
+	public void apply_empty_program() {
+		ClientBasketService basket = new ClientBasketService(BonusProgram.empty());
+
+		for(int i = 0 ; i < 5 ; i++)
+			basket.addProduct("large coffee");
+
+		assertTrue(basket.applyBonusProgram().isEmpty());
+	}
+}
@@ -0,0 +1,136 @@
+package com.swissre.coffeecorner.service;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class CheckoutPipelineTest {
+
+	private static final String[] PRODUCT_LINES = {
+			"large coffee with extra milk",
+			"small coffee with special roast",
+			"bacon roll",
+			"orange juice",
+			"medium coffee with foamed milk"
+	};
+
+	private final CatalogSnapshot catalog = ProductCatalog.getDefault().getSnapshot();
+
+	private final BonusProgram bonusProgram = ClientBasketService.getDefaultBonusProgram();
+
+	@Test
+	public void submit_receipts_in_submission_order() throws Exception {
+		List<List<String>> baskets = new ArrayList<>();
+		for(int i = 0 ; i < 500 ; i++)
+			baskets.add(basket(i));
+		baskets.set(7, Arrays.asList("large coffee", "large tea"));
+
+		List<CheckoutPipeline.Checkout> checkouts = Collections.synchronizedList(new ArrayList<>());
+
+		CheckoutPipeline pipeline = new CheckoutPipeline(catalog, bonusProgram, checkouts::add, 4);
+
+		try (pipeline) {
+			for(List<String> basket : baskets)
+				pipeline.submit(basket);
+		}
+
+		pipeline.getCompletion().get(10, TimeUnit.SECONDS);
+
+		assertEquals(baskets.size(), checkouts.size());
+
+		for(int i = 0 ; i < baskets.size() ; i++) {
+			CheckoutPipeline.Checkout checkout = checkouts.get(i);
+			assertEquals(i, checkout.getSequence());
+
+			if(i == 7) {
+				assertTrue(checkout.isRejected());
+				assertEquals("Product catalog does not contain product [large tea].", checkout.getRejection());
+				assertNull(checkout.getReceipt());
+				continue;
+			}
+
+			ClientBasketService expected = new ClientBasketService(catalog, bonusProgram);
+			expected.addProducts(baskets.get(i));
+
+			assertFalse(checkout.isRejected());
+			assertEquals(expected.printReceipt(), checkout.getReceipt());
+			assertEquals(expected.getTotalInCents(), checkout.getTotalInCents());
+		}
+	}
+
+	@Test
+	public void submit_blocks_while_sink_is_slow() throws Exception {
+		CountDownLatch sinkReleased = new CountDownLatch(1);
+		AtomicLong submitted = new AtomicLong();
+		AtomicLong received = new AtomicLong();
+
+		CheckoutPipeline pipeline = new CheckoutPipeline(catalog, bonusProgram, checkout -> {
+			try {
+				sinkReleased.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			received.incrementAndGet();
+		}, 2);
+
+		Thread producer = new Thread(() -> {
+			for(int i = 0 ; i < 1000 ; i++) {
+				pipeline.submit(basket(i));
+				submitted.incrementAndGet();
+			}
+			pipeline.close();
+		});
+		producer.start();
+
+		// the producer stops when the buffers in front of the sink and of every stage are full
+		long before;
+		do {
+			before = submitted.get();
+			Thread.sleep(100);
+		} while(submitted.get() != before);
+
+		assertTrue(producer.isAlive());
+		assertTrue("submitted " + before, before < 100);
+
+		sinkReleased.countDown();
+		producer.join(10_000);
+		pipeline.getCompletion().get(10, TimeUnit.SECONDS);
+
+		assertEquals(1000, received.get());
+	}
+
+	@Test
+	public void sink_failure_completes_exceptionally() throws InterruptedException, TimeoutException {
+		CheckoutPipeline pipeline = new CheckoutPipeline(catalog, bonusProgram, checkout -> {
+			throw new IllegalStateException("printer jammed");
+		}, 4);
+
+		pipeline.submit(basket(0));
+
+		try {
+			pipeline.getCompletion().get(10, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException e) {
+			assertEquals("printer jammed", e.getCause().getMessage());
+		}
+	}
+
+	private static List<String> basket(int index) {
+		List<String> basket = new ArrayList<>();
+
+		for(int i = 0 ; i <= index % 7 ; i++)
+			basket.add(PRODUCT_LINES[(index + i) % PRODUCT_LINES.length]);
+
+		return basket;
+	}
+}
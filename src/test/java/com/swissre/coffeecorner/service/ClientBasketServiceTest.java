@@ -273,4 +273,68 @@ public class ClientBasketServiceTest {
 		"                                Total:   0.00" + LINE_SEPARATOR;
 		assertEquals(expectedReceipt, printedReceipt);
 	}
+	
+	@Test
+	public void applyBonusProgram_idempotent() {
+		String [] inputProductList = {
+				"large coffee with extra milk",
+				"bacon roll",
+				"large coffee"
+		};
+		
+		for(String singleProductLine : inputProductList)
+			clientBasketService.addProduct(singleProductLine);
+		
+		assertEquals(1, clientBasketService.applyBonusProgram().size());
+		assertEquals(1, clientBasketService.applyBonusProgram().size());
+	}
+	
+	@Test
+	public void getGratisProducts_updated_on_addProduct() {
+		ClientBasketService basket = new ClientBasketService();
+		List<Product> gratisProducts = basket.getGratisProducts();
+		
+		for(int i = 0 ; i < 4 ; i++)
+			basket.addProduct("small coffee");
+		
+		assertTrue(gratisProducts.isEmpty());
+		
+		basket.addProduct("orange juice");
+		
+		assertEquals(1, gratisProducts.size());
+		assertEquals("small coffee", gratisProducts.get(0).getName());
+		
+		basket.addProduct("extra milk");
+		basket.addProduct("bacon roll");
+		
+		assertEquals(2, gratisProducts.size());
+		assertEquals("extra milk", gratisProducts.get(0).getName());
+		assertEquals("small coffee", gratisProducts.get(1).getName());
+	}
+	
+	@Test
+	public void printReceipt_without_applying_bonus_program() {
+		String [] inputProductList = {
+				"large coffee with extra milk",
+				"bacon roll",
+				"large coffee"
+		};
+		
+		for(String singleProductLine : inputProductList)
+			clientBasketService.addProduct(singleProductLine);
+		
+		String printedReceipt = clientBasketService.printReceipt();
+		
+		String expectedReceipt =  
+		"Your receipt :" + LINE_SEPARATOR + 
+		"Product description   Quantity   Price    Total" + LINE_SEPARATOR +
+		"Gratis products:" + LINE_SEPARATOR +
+		" extra milk               1      0.00     0.00" + LINE_SEPARATOR +
+		"Beverages:" + LINE_SEPARATOR +
+		" large coffee             2      3.50     7.00" + LINE_SEPARATOR +
+		"Snacks:" + LINE_SEPARATOR +
+		" bacon roll               1      4.50     4.50" + LINE_SEPARATOR +
+		"                                Total:   11.50" + LINE_SEPARATOR;
+		assertEquals(expectedReceipt, printedReceipt);
+	}
 }
@@ -0,0 +1,151 @@
+package com.swissre.coffeecorner.service;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.swissre.coffeecorner.entity.Product;
+import com.swissre.coffeecorner.entity.Product.ProductType;
+import com.swissre.coffeecorner.exception.UnknownProductException;
+
+public class ConcurrentClientBasketTest {
+
+	private static final int THREADS = 4;
+
+	private static final int LINES_PER_THREAD = 5000;
+
+	private final CatalogSnapshot catalog = ProductCatalog.getDefault().getSnapshot();
+
+	@Test
+	public void addProduct_single_thread_same_receipt_as_basket_service() {
+		List<String> lines = Arrays.asList("large coffee with extra milk", "small coffee with special roast",
+				"bacon roll", "orange juice", "medium coffee", "foamed milk");
+
+		ConcurrentClientBasket concurrent = new ConcurrentClientBasket(catalog, ClientBasketService.getDefaultBonusProgram());
+		ClientBasketService expected = new ClientBasketService(catalog, ClientBasketService.getDefaultBonusProgram());
+
+		for(int i = 0 ; i < 3 ; i++) {
+			concurrent.addProducts(lines);
+			expected.addProducts(lines);
+		}
+
+		assertEquals(expected.getGratisProducts(), concurrent.applyBonusProgram());
+		assertEquals(expected.printReceipt(), concurrent.printReceipt());
+		assertEquals(expected.getTotalInCents(), concurrent.getTotalInCents());
+	}
+
+	@Test
+	public void addProduct_unknown_product_adds_nothing() {
+		ConcurrentClientBasket basket = new ConcurrentClientBasket(catalog, BonusProgram.empty());
+		basket.addProduct("bacon roll");
+
+		try {
+			basket.addProduct("large coffee with honey");
+			fail();
+		} catch (UnknownProductException e) {
+			assertEquals(1, basket.getItemCount());
+		}
+	}
+
+	@Test
+	public void addProduct_concurrent_adds_are_not_lost() throws InterruptedException {
+		ConcurrentClientBasket basket = new ConcurrentClientBasket(catalog, ClientBasketService.getDefaultBonusProgram());
+
+		runConcurrently(() -> {
+			for(int i = 0 ; i < LINES_PER_THREAD ; i++)
+				basket.addProduct("large coffee with extra milk");
+		});
+
+		ClientBasketService expected = new ClientBasketService(catalog, ClientBasketService.getDefaultBonusProgram());
+		for(int i = 0 ; i < THREADS * LINES_PER_THREAD ; i++)
+			expected.addProduct("large coffee with extra milk");
+
+		assertEquals(2L * THREADS * LINES_PER_THREAD, basket.getItemCount());
+		assertEquals(expected.printReceipt(), basket.printReceipt());
+	}
+
+	@Test
+	public void printReceipt_snapshot_contains_whole_lines() throws InterruptedException {
+		ConcurrentClientBasket basket = new ConcurrentClientBasket(catalog, BonusProgram.empty());
+		AtomicBoolean adding = new AtomicBoolean(true);
+		AtomicReference<String> inconsistent = new AtomicReference<>();
+
+		Thread reader = new Thread(() -> {
+			while(adding.get()) {
+				String receipt = basket.printReceipt();
+
+				// every line adds a coffee and a milk, so both receipt lines show the same quantity
+				if(!quantityOf(receipt, "large coffee").equals(quantityOf(receipt, "extra milk")))
+					inconsistent.set(receipt);
+			}
+		});
+		reader.start();
+
+		runConcurrently(() -> {
+			for(int i = 0 ; i < LINES_PER_THREAD ; i++)
+				basket.addProduct("large coffee with extra milk");
+		});
+		adding.set(false);
+		reader.join();
+
+		assertNull(inconsistent.get());
+		assertEquals(THREADS * LINES_PER_THREAD * (350 + 30), basket.getTotalInCents());
+	}
+
+	@Test
+	public void applyBonusProgram_counts_concurrently_added_items() throws InterruptedException {
+		ConcurrentClientBasket basket = new ConcurrentClientBasket(catalog, ClientBasketService.getDefaultBonusProgram());
+
+		runConcurrently(() -> {
+			for(int i = 0 ; i < 100 ; i++)
+				basket.addProduct(i % 2 == 0 ? "small coffee" : "bacon roll");
+		});
+
+		int gratisBeverages = 0;
+		for(Product product : basket.applyBonusProgram()) {
+			if(product.getProductType() == ProductType.BEVERAGE)
+				gratisBeverages++;
+		}
+
+		assertEquals(THREADS * 50 / ClientBasketService.BEVERAGE_FREE_THRESHOLD, gratisBeverages);
+	}
+
+	private static String quantityOf(String receipt, String product) {
+		for(String line : receipt.split("\\R")) {
+			if(line.trim().startsWith(product))
+				return line.trim().substring(product.length()).trim().split("\\s+")[0];
+		}
+
+		return "0";
+	}
+
+	private static void runConcurrently(Runnable task) throws InterruptedException {
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+
+		for(int t = 0 ; t < THREADS ; t++) {
+			Thread thread = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				task.run();
+			});
+			thread.start();
+			threads.add(thread);
+		}
+
+		start.countDown();
+		for(Thread thread : threads)
+			thread.join();
+	}
+}
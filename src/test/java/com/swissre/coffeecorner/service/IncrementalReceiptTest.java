@@ -0,0 +1,146 @@
+package com.swissre.coffeecorner.service;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class IncrementalReceiptTest {
+
+	private final CatalogSnapshot catalog = ProductCatalog.getDefault().getSnapshot();
+
+	private final ClientBasketService basket = new ClientBasketService(catalog, ClientBasketService.getDefaultBonusProgram());
+
+	private final RecordingDisplay display = new RecordingDisplay();
+
+	@Test
+	public void only_changed_lines_sent() {
+		IncrementalReceipt.attach(basket, display);
+
+		basket.addProduct("large coffee with extra milk");
+		assertEquals(Arrays.asList(
+				" large coffee             1      3.50     3.50",
+				" extra milk               1      0.30     0.30"), display.takeLines());
+		assertEquals("                                Total:   3.80", display.totalLine);
+
+		basket.addProduct("bacon roll");
+		// the extra milk becomes gratis with a beverage and a snack
+		assertEquals(Arrays.asList(
+				" bacon roll               1      4.50     4.50",
+				"removed extra milk",
+				" extra milk               1      0.00     0.00"), display.takeLines());
+		assertEquals(800, display.totalInCents);
+
+		basket.addProduct("large coffee");
+		assertEquals(Arrays.asList(" large coffee             2      3.50     7.00"), display.takeLines());
+		assertEquals(1150, display.totalInCents);
+	}
+
+	@Test
+	public void lines_cached_per_product_and_quantity() {
+		IncrementalReceipt.attach(basket, display);
+		ClientBasketService other = new ClientBasketService(catalog, ClientBasketService.getDefaultBonusProgram());
+		IncrementalReceipt.attach(other, display);
+
+		basket.addProduct("small coffee");
+		String first = display.lines.get(display.lines.size() - 1);
+		basket.addProduct("small coffee");
+		other.addProduct("small coffee");
+
+		assertSame(first, display.lines.get(display.lines.size() - 1));
+	}
+
+	@Test
+	public void displayed_lines_match_receipt() {
+		String[] productLines = { "large coffee", "medium coffee", "small coffee with special roast",
+				"orange juice", "bacon roll", "extra milk", "large coffee with foamed milk" };
+		Random random = new Random(3);
+
+		IncrementalReceipt.attach(basket, display);
+
+		for(int i = 0 ; i < 300 ; i++) {
+			if(random.nextInt(10) == 0)
+				basket.addProducts(Arrays.asList(productLines[random.nextInt(productLines.length)],
+						productLines[random.nextInt(productLines.length)]));
+			else
+				basket.addProduct(productLines[random.nextInt(productLines.length)]);
+
+			assertEquals(basket.getTotalInCents(), display.totalInCents);
+			assertEquals(payableLines(basket.printReceipt()), new HashSet<>(display.payable.values()));
+		}
+	}
+
+	@Test
+	public void attach_sends_current_lines() {
+		basket.addProducts(Arrays.asList("orange juice", "orange juice"));
+
+		IncrementalReceipt.attach(basket, display);
+
+		assertEquals(Arrays.asList(" orange juice             2      3.95     7.90"), display.takeLines());
+		assertEquals(790, display.totalInCents);
+	}
+
+	private static Set<String> payableLines(String receipt) {
+		Set<String> lines = new HashSet<>();
+		boolean payable = false;
+
+		for(String line : receipt.split(System.getProperty("line.separator"))) {
+			if(line.equals("Beverages:") || line.equals("Extras:") || line.equals("Snacks:"))
+				payable = true;
+			else if(line.contains("Total:"))
+				payable = false;
+			else if(payable)
+				lines.add(line);
+		}
+
+		return lines;
+	}
+
+	private static class RecordingDisplay implements ReceiptDisplay {
+
+		final List<String> lines = new ArrayList<>();
+
+		final Map<Integer, String> payable = new TreeMap<>();
+
+		private int taken;
+
+		long totalInCents;
+
+		String totalLine;
+
+		@Override
+		public void lineChanged(int ordinal, boolean gratis, int quantity, String line) {
+			if(line == null)
+				lines.add("removed " + ProductCatalog.getDefault().getSnapshot().getProduct(ordinal).getName());
+			else
+				lines.add(line);
+
+			if(!gratis) {
+				if(line == null)
+					payable.remove(ordinal);
+				else
+					payable.put(ordinal, line);
+			}
+		}
+
+		@Override
+		public void totalChanged(long totalInCents, String line) {
+			this.totalInCents = totalInCents;
+			this.totalLine = line;
+		}
+
+		List<String> takeLines() {
+			List<String> taken = new ArrayList<>(lines.subList(this.taken, lines.size()));
+			this.taken = lines.size();
+			return taken;
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package com.swissre.coffeecorner.service;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+public class LoyaltyStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Rule
+	public ExpectedException exceptionRule = ExpectedException.none();
+
+	@Test
+	public void beverages_of_previous_visits_count_for_the_bonus() throws IOException {
+		try (LoyaltyStore store = new LoyaltyStore(folder.getRoot().toPath())) {
+			for(int visit = 0 ; visit < 4 ; visit++) {
+				ClientBasketService basket = new ClientBasketService(
+						store.newBonusProgram("anna", ClientBasketService.getDefaultBonusProgram()));
+				basket.addProduct("small coffee");
+
+				assertTrue(basket.applyBonusProgram().isEmpty());
+				store.checkout("anna", basket);
+			}
+
+			ClientBasketService basket = new ClientBasketService(
+					store.newBonusProgram("anna", ClientBasketService.getDefaultBonusProgram()));
+			basket.addProduct("large coffee");
+
+			assertEquals(1, basket.applyBonusProgram().size());
+			assertEquals(0, basket.getTotalInCents());
+			assertEquals(5, store.checkout("anna", basket));
+
+			ClientBasketService otherCustomer = new ClientBasketService(
+					store.newBonusProgram("bob", ClientBasketService.getDefaultBonusProgram()));
+			otherCustomer.addProduct("large coffee");
+
+			assertTrue(otherCustomer.applyBonusProgram().isEmpty());
+		}
+	}
+
+	@Test
+	public void stamps_recovered_from_log() throws IOException {
+		Path directory = folder.getRoot().toPath();
+
+		try (LoyaltyStore store = new LoyaltyStore(directory)) {
+			store.addBeverages("anna", 3);
+			store.addBeverages("bob", 1);
+			store.addBeverages("anna", 2);
+		}
+
+		try (LoyaltyStore store = new LoyaltyStore(directory)) {
+			assertEquals(5, store.getBeverageCount("anna"));
+			assertEquals(1, store.getBeverageCount("bob"));
+			assertEquals(0, store.getBeverageCount("carl"));
+		}
+	}
+
+	@Test
+	public void stamps_recovered_from_snapshots_and_log() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		int logCapacity = 8 * 1024;
+
+		try (LoyaltyStore store = new LoyaltyStore(directory, logCapacity, 1, TimeUnit.MILLISECONDS)) {
+			for(int i = 0 ; i < 2000 ; i++)
+				store.addBeverages("customer-" + (i % 37), 1);
+
+			store.flush();
+			assertTrue(store.getSnapshotCount() > 0);
+		}
+
+		try (LoyaltyStore store = new LoyaltyStore(directory, logCapacity, 1, TimeUnit.MILLISECONDS)) {
+			assertEquals(37, store.size());
+
+			long total = 0;
+			for(int i = 0 ; i < 37 ; i++)
+				total += store.getBeverageCount("customer-" + i);
+
+			assertEquals(2000, total);
+			assertEquals(55, store.getBeverageCount("customer-0"));
+		}
+	}
+
+	@Test
+	public void torn_record_ignored_on_recovery() throws IOException {
+		Path directory = folder.getRoot().toPath();
+
+		try (LoyaltyStore store = new LoyaltyStore(directory)) {
+			store.addBeverages("anna", 3);
+			store.flush();
+			store.addBeverages("bob", 1);
+		}
+
+		// damage the payload of the last record: header 12 bytes, anna record 8 + 2 + 4 + 4 bytes
+		try (FileChannel log = FileChannel.open(directory.resolve(LoyaltyStore.LOG_FILE), StandardOpenOption.WRITE)) {
+			log.write(ByteBuffer.wrap(new byte[] { 'x' }), 12 + 18 + 8 + 2);
+		}
+
+		try (LoyaltyStore store = new LoyaltyStore(directory)) {
+			assertEquals(3, store.getBeverageCount("anna"));
+			assertEquals(0, store.getBeverageCount("bob"));
+
+			store.addBeverages("bob", 2);
+		}
+
+		try (LoyaltyStore store = new LoyaltyStore(directory)) {
+			assertEquals(2, store.getBeverageCount("bob"));
+		}
+	}
+
+	@Test
+	public void checkouts_grouped_into_commits() throws IOException {
+		try (LoyaltyStore store = new LoyaltyStore(folder.getRoot().toPath(), LoyaltyStore.DEFAULT_LOG_CAPACITY, 50,
+				TimeUnit.MILLISECONDS)) {
+			for(int i = 0 ; i < 1000 ; i++)
+				store.addBeverages("anna", 1);
+
+			store.flush();
+
+			assertEquals(1000, store.getBeverageCount("anna"));
+			assertTrue(store.getCommitCount() < 1000);
+		}
+	}
+
+	@Test
+	public void stamps_added_while_closing_committed_or_rejected() throws Exception {
+		Path directory = folder.getRoot().toPath();
+		LoyaltyStore store = new LoyaltyStore(directory);
+		AtomicLong accepted = new AtomicLong();
+
+		Thread customer = new Thread(() -> {
+			try {
+				while(true) {
+					store.addBeverages("anna", 1);
+					accepted.incrementAndGet();
+				}
+			} catch (IllegalStateException e) {
+				// the store is closed
+			}
+		});
+		customer.start();
+
+		while(accepted.get() < 1000)
+			Thread.yield();
+
+		store.close();
+		customer.join();
+
+		try (LoyaltyStore reopened = new LoyaltyStore(directory)) {
+			assertEquals(accepted.get(), reopened.getBeverageCount("anna"));
+		}
+	}
+
+	@Test
+	public void stamps_rejected_after_failed_commit() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		// the snapshot cannot be written over a directory
+		Files.createDirectory(directory.resolve(LoyaltyStore.SNAPSHOT_FILE + ".tmp"));
+
+		try (LoyaltyStore store = new LoyaltyStore(directory, 8 * 1024, 1, TimeUnit.MILLISECONDS)) {
+			IOException failure = null;
+
+			for(int i = 0 ; i < 1000 && failure == null ; i++) {
+				store.addBeverages("anna", 1);
+
+				try {
+					store.flush();
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+
+			assertNotNull(failure);
+			long count = store.getBeverageCount("anna");
+
+			try {
+				store.addBeverages("anna", 1);
+				fail();
+			} catch (IllegalStateException e) {
+				assertSame(failure, e.getCause());
+			}
+
+			assertEquals(count, store.getBeverageCount("anna"));
+
+			exceptionRule.expect(IllegalStateException.class);
+			store.addBeverages("bob", 0);
+		}
+	}
+}
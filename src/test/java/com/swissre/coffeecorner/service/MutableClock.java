@@ -0,0 +1,50 @@
+package com.swissre.coffeecorner.service;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Clock of the tests, set or advanced by the test. The clocks returned by {@link #withZone(ZoneId)} share the
+ * instant of this clock.
+ */
+final class MutableClock extends Clock {
+
+	private final AtomicReference<Instant> instant;
+
+	private final ZoneId zone;
+
+	MutableClock(Instant instant, ZoneId zone) {
+		this(new AtomicReference<>(instant), zone);
+	}
+
+	private MutableClock(AtomicReference<Instant> instant, ZoneId zone) {
+		this.instant = instant;
+		this.zone = zone;
+	}
+
+	void setInstant(Instant instant) {
+		this.instant.set(instant);
+	}
+
+	void advance(Duration duration) {
+		instant.updateAndGet(current -> current.plus(duration));
+	}
+
+	@Override
+	public ZoneId getZone() {
+		return zone;
+	}
+
+	@Override
+	public Clock withZone(ZoneId zone) {
+		return zone.equals(this.zone) ? this : new MutableClock(instant, zone);
+	}
+
+	@Override
+	public Instant instant() {
+		return instant.get();
+	}
+}
@@ -0,0 +1,109 @@
+package com.swissre.coffeecorner.service;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OrderFileSplitterTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void baskets_in_file_order_across_windows_and_regions() throws IOException {
+		List<String> expected = new ArrayList<>();
+		StringBuilder orders = new StringBuilder("\n \n");
+
+		for(int i = 0 ; i < 100 ; i++) {
+			String basket = "basket " + i + "\nsecond line " + i;
+			expected.add(basket);
+			orders.append(basket).append(i % 3 == 0 ? "\n\n\n" : "\r\n\n");
+		}
+		// the last basket is not followed by a blank line
+		expected.add("last basket");
+		orders.append("last basket");
+
+		for(int mappingSize : new int[] { 16, 64, 1 << 20 }) {
+			for(int windowSize : new int[] { 1, 3, 1024 })
+				assertEquals(expected, split(orders.toString(), mappingSize, windowSize));
+		}
+	}
+
+	@Test
+	public void basket_larger_than_region() throws IOException {
+		String[] lines = new String[200];
+		Arrays.fill(lines, "large coffee with extra milk");
+		String basket = String.join("\n", lines);
+
+		assertEquals(Arrays.asList("small coffee", basket, "bacon roll"),
+				split("small coffee\n\n" + basket + "\n\nbacon roll\n", 32, 2));
+	}
+
+	@Test
+	public void empty_file_has_no_baskets() throws IOException {
+		assertEquals(Arrays.asList(), split("", 64, 4));
+		assertEquals(Arrays.asList(), split("\n\n \r\n", 64, 4));
+	}
+
+	@Test
+	public void forEachBasket_product_lines_without_blank_lines() throws IOException {
+		File orderFile = temporaryFolder.newFile();
+		Files.write(orderFile.toPath(), "\nlarge coffee\r\n\t\r\nbacon roll\nsmall coffee\n  \n\norange juice".getBytes(StandardCharsets.UTF_8));
+
+		List<List<String>> baskets = new ArrayList<>();
+		OrderFileSplitter.forEachBasket(orderFile.toPath(), baskets::add);
+
+		assertEquals(Arrays.asList(Arrays.asList("large coffee"), Arrays.asList("bacon roll", "small coffee"),
+				Arrays.asList("orange juice")), baskets);
+	}
+
+	@Test
+	public void line_viewed_in_place_without_carriage_return() {
+		ByteBuffer region = ByteBuffer.wrap("bacon roll\r\ncaf\u00e9 cr\u00e8me\n".getBytes(StandardCharsets.UTF_8));
+		ByteCharSequence view = new ByteCharSequence();
+
+		CharSequence line = OrderFileSplitter.line(view, region, 0, 11);
+		assertSame(view, line);
+		assertEquals("bacon roll", line.toString());
+
+		// a line that is not ASCII is decoded
+		line = OrderFileSplitter.line(view, region, 12, region.limit() - 1);
+		assertEquals("caf\u00e9 cr\u00e8me", line);
+	}
+
+	private List<String> split(String orders, int mappingSize, int windowSize) throws IOException {
+		File orderFile = temporaryFolder.newFile();
+		Files.write(orderFile.toPath(), orders.getBytes(StandardCharsets.UTF_8));
+
+		List<String> baskets = new ArrayList<>();
+		OrderFileSplitter.split(orderFile.toPath(), mappingSize, windowSize, (region, basketStarts, basketEnds, count) -> {
+			assertTrue(count > 0 && count <= windowSize);
+
+			for(int i = 0 ; i < count ; i++) {
+				List<String> productLines = new ArrayList<>();
+				int lineStart = basketStarts[i];
+
+				while(lineStart <= basketEnds[i]) {
+					int lineEnd = OrderFileSplitter.lineEnd(region, lineStart, basketEnds[i]);
+					productLines.add(OrderFileSplitter.decode(region, lineStart, lineEnd));
+					lineStart = lineEnd + 1;
+				}
+
+				baskets.add(String.join("\n", productLines));
+			}
+		});
+
+		return baskets;
+	}
+}
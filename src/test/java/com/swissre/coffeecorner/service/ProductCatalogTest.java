@@ -0,0 +1,171 @@
+package com.swissre.coffeecorner.service;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import com.swissre.coffeecorner.entity.Product.ProductType;
+import com.swissre.coffeecorner.exception.UnknownProductException;
+
+public class ProductCatalogTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Rule
+	public ExpectedException exceptionRule = ExpectedException.none();
+
+	@Test
+	public void getDefault_loads_resource() {
+		CatalogSnapshot snapshot = ProductCatalog.getDefault().getSnapshot();
+
+		assertEquals(8, snapshot.size());
+		assertEquals("large coffee", snapshot.getProduct(0).getName());
+		assertEquals(ProductType.SNACK, snapshot.getProduct(7).getProductType());
+		assertEquals(395, snapshot.getPriceInCents(snapshot.getOrdinal("orange juice")));
+	}
+
+	@Test
+	public void builtIn_matches_resource() throws IOException {
+		CatalogSnapshot builtIn = ProductCatalog.builtIn().getSnapshot();
+		CatalogSnapshot resource = ProductCatalog.fromResource(ProductCatalog.DEFAULT_CATALOG_RESOURCE).getSnapshot();
+
+		assertEquals(resource.size(), builtIn.size());
+		for(int ordinal = 0 ; ordinal < resource.size() ; ordinal++) {
+			assertEquals(resource.getProduct(ordinal).getName(), builtIn.getProduct(ordinal).getName());
+			assertEquals(resource.getProduct(ordinal).getProductType(), builtIn.getProduct(ordinal).getProductType());
+			assertEquals(resource.getPriceInCents(ordinal), builtIn.getPriceInCents(ordinal));
+			assertEquals(resource.getProduct(ordinal).getPrice(), builtIn.getProduct(ordinal).getPrice());
+		}
+	}
+
+	@Test
+	public void builtIn_lookup() {
+		ProductCatalog catalog = ProductCatalog.builtIn();
+
+		assertEquals("special roast", catalog.lookup("special roast").getName());
+		assertEquals(1, catalog.getLookupCount());
+	}
+
+	@Test
+	public void builtIn_lookup_unknown_product_failure() {
+		exceptionRule.expect(UnknownProductException.class);
+		exceptionRule.expectMessage("Product catalog does not contain product [flat white].");
+
+		ProductCatalog.builtIn().lookup("flat white");
+	}
+
+	@Test
+	public void reload_basket_keeps_its_snapshot() throws IOException {
+		File catalogFile = writeCatalog("large coffee;BEVERAGE;3.50");
+		ProductCatalog catalog = ProductCatalog.fromFile(catalogFile.toPath());
+
+		ClientBasketService before = new ClientBasketService(catalog.getSnapshot(), BonusProgram.empty());
+		before.addProduct("large coffee");
+
+		writeCatalog(catalogFile, "large coffee;BEVERAGE;3.70", "flat white;BEVERAGE;3.20");
+		Files.setLastModifiedTime(catalogFile.toPath(), FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+
+		assertTrue(catalog.reloadIfModified());
+		assertFalse(catalog.reloadIfModified());
+
+		ClientBasketService after = new ClientBasketService(catalog.getSnapshot(), BonusProgram.empty());
+		after.addProduct("large coffee");
+		after.addProduct("flat white");
+		before.addProduct("large coffee");
+
+		assertEquals(700, before.getTotalInCents());
+		assertEquals(690, after.getTotalInCents());
+		assertEquals(2, catalog.getSnapshot().getVersion());
+		assertEquals(2, catalog.getReloadCount());
+	}
+
+	@Test
+	public void reload_failure_keeps_snapshot() throws IOException {
+		File catalogFile = writeCatalog("large coffee;BEVERAGE;3.50");
+		ProductCatalog catalog = ProductCatalog.fromFile(catalogFile.toPath());
+
+		writeCatalog(catalogFile, "large coffee;COCKTAIL;3.50");
+
+		try {
+			catalog.reload();
+			fail("Invalid product type accepted");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().startsWith("Invalid catalog line 1"));
+		}
+
+		assertEquals(1, catalog.getSnapshot().getVersion());
+		assertEquals(1, catalog.getReloadFailureCount());
+	}
+
+	@Test
+	public void reload_of_price_in_fractions_of_cents_failure() throws IOException {
+		File catalogFile = writeCatalog("large coffee;BEVERAGE;3.50");
+		ProductCatalog catalog = ProductCatalog.fromFile(catalogFile.toPath());
+
+		writeCatalog(catalogFile, "large coffee;BEVERAGE;3.50", "small coffee;BEVERAGE;2.505");
+
+		exceptionRule.expect(IOException.class);
+		exceptionRule.expectMessage("Invalid catalog line 2 of [" + catalogFile.toPath() + "]: invalid price 2.505");
+
+		try {
+			catalog.reload();
+		} finally {
+			assertEquals(1, catalog.getSnapshot().getVersion());
+		}
+	}
+
+	@Test
+	public void reload_of_duplicate_product_failure() throws IOException {
+		File catalogFile = writeCatalog("large coffee;BEVERAGE;3.50");
+		ProductCatalog catalog = ProductCatalog.fromFile(catalogFile.toPath());
+
+		writeCatalog(catalogFile, "large coffee;BEVERAGE;3.50", "# comment", "large coffee;BEVERAGE;3.60");
+
+		exceptionRule.expect(IOException.class);
+		exceptionRule.expectMessage("Invalid catalog line 3 of [" + catalogFile.toPath() + "]: duplicate product large coffee");
+
+		try {
+			catalog.reload();
+		} finally {
+			assertEquals(1, catalog.getSnapshot().getVersion());
+		}
+	}
+
+	@Test
+	public void lookup_counts_misses() throws IOException {
+		ProductCatalog catalog = ProductCatalog.fromFile(writeCatalog("large coffee;BEVERAGE;3.50").toPath());
+
+		assertEquals("large coffee", catalog.lookup("large coffee").getName());
+
+		exceptionRule.expect(UnknownProductException.class);
+		exceptionRule.expectMessage("Product catalog does not contain product [tea].");
+
+		try {
+			catalog.lookup("tea");
+		} finally {
+			assertEquals(2, catalog.getLookupCount());
+			assertEquals(1, catalog.getLookupMissCount());
+		}
+	}
+
+	private File writeCatalog(String... lines) throws IOException {
+		File catalogFile = temporaryFolder.newFile();
+		writeCatalog(catalogFile, lines);
+
+		return catalogFile;
+	}
+
+	private static void writeCatalog(File catalogFile, String... lines) throws IOException {
+		Files.write(catalogFile.toPath(), String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,185 @@
+package com.swissre.coffeecorner.service;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import com.swissre.coffeecorner.entity.Product;
+import com.swissre.coffeecorner.entity.Product.ProductType;
+import com.swissre.coffeecorner.exception.UnknownProductException;
+
+public class ProductLineCacheTest {
+
+	private static final Product[] CATALOG = {
+			new Product("large coffee", ProductType.BEVERAGE, new BigDecimal("3.50")),
+			new Product("extra milk", ProductType.EXTRAS, new BigDecimal("0.30")),
+			new Product("foamed milk", ProductType.EXTRAS, new BigDecimal("4.50")),
+			new Product("special roast", ProductType.EXTRAS, new BigDecimal("0.90")),
+			new Product("bacon roll", ProductType.SNACK, new BigDecimal("4.50"))
+	};
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Rule
+	public ExpectedException exceptionRule = ExpectedException.none();
+
+	private final ProductLineCache cache = new ProductLineCache(new ProductLineParser(CATALOG), 4);
+
+	private final int[] ordinals = new int[ProductLineCache.MAX_PRODUCTS_PER_LINE];
+
+	@Test
+	public void parse_exact_line_bypasses_cache() {
+		assertEquals(2, cache.parse("large coffee with extra milk", ordinals));
+		assertArrayEquals(new int[] {0, 1}, Arrays.copyOf(ordinals, 2));
+
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getMissCount());
+	}
+
+	@Test
+	public void parse_normalizes_case_and_whitespace() {
+		assertEquals(2, cache.parse("  Large   COFFEE with\tExtra Milk ", ordinals));
+		assertArrayEquals(new int[] {0, 1}, Arrays.copyOf(ordinals, 2));
+
+		assertEquals(1, cache.parse("Bacon Roll", ordinals));
+		assertEquals(4, ordinals[0]);
+	}
+
+	@Test
+	public void parse_multiple_extras_success() {
+		assertEquals(4, cache.parse("large coffee with extra milk, foamed milk and special roast", ordinals));
+		assertArrayEquals(new int[] {0, 1, 2, 3}, Arrays.copyOf(ordinals, 4));
+
+		assertEquals(3, cache.parse("large coffee with extra milk and extra milk", ordinals));
+		assertArrayEquals(new int[] {0, 1, 1}, Arrays.copyOf(ordinals, 3));
+
+		assertEquals(4, cache.parse("large coffee with extra milk, foamed milk, and special roast", ordinals));
+		assertArrayEquals(new int[] {0, 1, 2, 3}, Arrays.copyOf(ordinals, 4));
+
+		assertEquals(3, cache.parse("large coffee with extra milk, and special roast", ordinals));
+		assertArrayEquals(new int[] {0, 1, 3}, Arrays.copyOf(ordinals, 3));
+	}
+
+	@Test
+	public void parse_counts_hits_and_misses() {
+		cache.parse("Large Coffee", ordinals);
+		cache.parse("Large Coffee", ordinals);
+		cache.parse("LARGE COFFEE", ordinals);
+
+		assertEquals(1, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void parse_unknown_extras_keeps_parser_message() {
+		exceptionRule.expect(UnknownProductException.class);
+		exceptionRule.expectMessage("Product catalog does not contain product [honey].");
+
+		cache.parse("large coffee with honey", ordinals);
+	}
+
+	@Test
+	public void parse_cached_failure_throws_again() {
+		for(int i = 0 ; i < 2 ; i++) {
+			try {
+				cache.parse("Large Tea", ordinals);
+				fail();
+			} catch (UnknownProductException e) {
+				assertEquals("Product catalog does not contain product [Large Tea].", e.getMessage());
+			}
+		}
+
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void parse_empty_extras_failure() {
+		exceptionRule.expect(UnknownProductException.class);
+
+		cache.parse("large coffee with extra milk,", ordinals);
+	}
+
+	@Test
+	public void parse_empty_extras_before_serial_comma_failure() {
+		exceptionRule.expect(UnknownProductException.class);
+
+		cache.parse("large coffee with extra milk,, and special roast", ordinals);
+	}
+
+	@Test
+	public void parse_too_many_products_failure() {
+		exceptionRule.expect(UnknownProductException.class);
+
+		cache.parse("large coffee with extra milk" + String.join("", Collections.nCopies(
+				ProductLineCache.MAX_PRODUCTS_PER_LINE - 1, " and extra milk")), ordinals);
+	}
+
+	@Test
+	public void parse_evicts_above_capacity() {
+		for(int i = 0 ; i < 100 ; i++) {
+			try {
+				cache.parse("Product " + i, ordinals);
+			} catch (UnknownProductException e) {
+				// only filling the cache
+			}
+		}
+
+		assertTrue(cache.size() <= cache.getCapacity());
+		assertEquals(100 - cache.size(), cache.getEvictionCount());
+	}
+
+	@Test
+	public void parse_keeps_recently_used_entry() {
+		cache.parse("Bacon Roll", ordinals);
+
+		String padding = "";
+		for(int i = 0 ; i < 20 ; i++, padding += " ") {
+			cache.parse("Bacon Roll", ordinals);
+			cache.parse("Large Coffee with Extra Milk" + padding, ordinals);
+		}
+
+		long misses = cache.getMissCount();
+		cache.parse("Bacon Roll", ordinals);
+
+		assertEquals(misses, cache.getMissCount());
+	}
+
+	@Test
+	public void reload_starts_with_empty_cache() throws IOException {
+		File catalogFile = temporaryFolder.newFile("catalog.csv");
+		Files.write(catalogFile.toPath(), Arrays.asList("large coffee;BEVERAGE;3.50"), StandardCharsets.UTF_8);
+		ProductCatalog catalog = ProductCatalog.fromFile(catalogFile.toPath());
+
+		ClientBasketService before = new ClientBasketService(catalog.getSnapshot(), BonusProgram.empty());
+		before.addProduct("Large Coffee");
+		assertEquals(1, catalog.getSnapshot().getProductLineCache().size());
+
+		Files.write(catalogFile.toPath(), Arrays.asList("large coffee;BEVERAGE;3.70", "flat white;BEVERAGE;3.20"),
+				StandardCharsets.UTF_8);
+		catalog.reload();
+
+		ProductLineCache reloaded = catalog.getSnapshot().getProductLineCache();
+		assertEquals(0, reloaded.size());
+
+		ClientBasketService after = new ClientBasketService(catalog.getSnapshot(), BonusProgram.empty());
+		after.addProduct("Large Coffee");
+		after.addProduct("FLAT WHITE");
+
+		assertEquals(690, after.getTotalInCents());
+		assertEquals(2, reloaded.getMissCount());
+	}
+}
@@ -0,0 +1,85 @@
+package com.swissre.coffeecorner.service;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.swissre.coffeecorner.entity.Product;
+import com.swissre.coffeecorner.entity.Product.ProductType;
+import com.swissre.coffeecorner.exception.UnknownProductException;
+
+public class ProductLineParserTest {
+
+	private static final Product[] CATALOG = {
+			new Product("large coffee", ProductType.BEVERAGE, new BigDecimal("3.50")),
+			new Product("large coffee deluxe", ProductType.BEVERAGE, new BigDecimal("4.50")),
+			new Product("extra milk", ProductType.EXTRAS, new BigDecimal("0.30")),
+			new Product("bacon roll", ProductType.SNACK, new BigDecimal("4.50"))
+	};
+
+	@Rule
+	public ExpectedException exceptionRule = ExpectedException.none();
+
+	private final ProductLineParser parser = new ProductLineParser(CATALOG);
+
+	private final int[] ordinals = new int[ProductLineParser.MAX_PRODUCTS_PER_LINE];
+
+	@Test
+	public void parse_single_product_success() {
+		assertEquals(1, parser.parse("bacon roll", ordinals));
+		assertEquals(3, ordinals[0]);
+	}
+
+	@Test
+	public void parse_product_with_common_prefix_success() {
+		assertEquals(1, parser.parse("large coffee deluxe", ordinals));
+		assertEquals(1, ordinals[0]);
+
+		assertEquals(1, parser.parse("large coffee", ordinals));
+		assertEquals(0, ordinals[0]);
+	}
+
+	@Test
+	public void parse_beverage_and_extras_success() {
+		assertEquals(2, parser.parse("large coffee with extra milk", ordinals));
+		assertEquals(0, ordinals[0]);
+		assertEquals(2, ordinals[1]);
+	}
+
+	@Test
+	public void parse_prefix_of_product_failure() {
+		exceptionRule.expect(UnknownProductException.class);
+		exceptionRule.expectMessage("Product catalog does not contain product [large].");
+
+		parser.parse("large", ordinals);
+	}
+
+	@Test
+	public void parse_unknown_extras_failure() {
+		exceptionRule.expect(UnknownProductException.class);
+		exceptionRule.expectMessage("Product catalog does not contain product [honey].");
+
+		parser.parse("large coffee with honey", ordinals);
+	}
+
+	@Test
+	public void parse_unknown_character_failure() {
+		exceptionRule.expect(UnknownProductException.class);
+		exceptionRule.expectMessage("Product catalog does not contain product [café].");
+
+		parser.parse("café", ordinals);
+	}
+
+	@Test
+	public void parse_two_delimiters_failure() {
+		exceptionRule.expect(UnknownProductException.class);
+		exceptionRule.expectMessage(
+				"Some input parsing issue. It was supposed to containg beverage and extras [large coffee with extra milk with extra milk].");
+
+		parser.parse("large coffee with extra milk with extra milk", ordinals);
+	}
+}
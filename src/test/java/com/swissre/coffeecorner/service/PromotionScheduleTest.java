@@ -0,0 +1,128 @@
+package com.swissre.coffeecorner.service;
+
+import static org.junit.Assert.*;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class PromotionScheduleTest {
+
+	private static final ZoneId ZURICH = ZoneId.of("Europe/Zurich");
+
+	private final CatalogSnapshot catalog = ProductCatalog.getDefault().getSnapshot();
+
+	private final MutableClock clock = new MutableClock(local("2024-05-06T09:00"), ZURICH);
+
+	// every day: free extras with a beverage and a snack
+	// weekdays before 10:00: every 2nd beverage free
+	// Sunday night 22:00 to 02:00: every beverage free
+	private final PromotionSchedule schedule = PromotionSchedule.compile(Arrays.asList(
+			ScheduledRule.always(new FreeExtrasRule()),
+			new ScheduledRule(new FreeBeverageRule(2), TimeWindow.daily(LocalTime.MIDNIGHT, LocalTime.of(10, 0)).onWeekdays()),
+			new ScheduledRule(new FreeBeverageRule(1), TimeWindow.daily(LocalTime.of(22, 0), LocalTime.of(2, 0)).on(DayOfWeek.SUNDAY))),
+			clock);
+
+	@Test
+	public void getProgram_by_window() {
+		// Monday
+		assertEquals(800, total(schedule.getProgram(local("2024-05-06T09:59:59"))));
+		assertEquals(1150, total(schedule.getProgram(local("2024-05-06T10:00"))));
+		// Saturday
+		assertEquals(1150, total(schedule.getProgram(local("2024-05-11T09:00"))));
+		// Sunday night, into Monday
+		assertEquals(1150, total(schedule.getProgram(local("2024-05-12T21:59"))));
+		assertEquals(450, total(schedule.getProgram(local("2024-05-12T23:00"))));
+		// overlapping the weekday window, the most generous rule applies
+		assertEquals(450, total(schedule.getProgram(local("2024-05-13T01:59"))));
+		assertEquals(800, total(schedule.getProgram(local("2024-05-13T02:00"))));
+
+		assertSame(schedule.getProgram(local("2024-05-06T09:00")), schedule.getProgram(local("2024-05-10T00:00")));
+		assertSame(schedule.getProgram(local("2024-05-06T10:00")), schedule.getProgram(local("2024-05-11T09:00")));
+		// Monday 00:00 to 02:00 has both beverage rules
+		assertEquals(4, schedule.getProgramCount());
+	}
+
+	@Test
+	public void current_cached_until_next_boundary() {
+		BonusProgram happyHour = schedule.current();
+
+		assertEquals(local("2024-05-06T10:00"), schedule.getNextBoundary(clock.instant()));
+
+		clock.setInstant(local("2024-05-06T09:59:59.999"));
+		assertSame(happyHour, schedule.current());
+
+		clock.setInstant(local("2024-05-06T10:00"));
+		BonusProgram regular = schedule.current();
+		assertNotSame(happyHour, regular);
+		assertEquals(1150, total(regular));
+
+		// the clock going back
+		clock.setInstant(local("2024-05-06T08:00"));
+		assertSame(happyHour, schedule.current());
+	}
+
+	@Test
+	public void local_time_across_change_of_offset() {
+		// the summer time starts on Sunday 2024-03-31 at 02:00, the segment of Saturday ends then
+		assertEquals(Instant.parse("2024-03-31T01:00:00Z"), schedule.getNextBoundary(local("2024-03-30T12:00")));
+
+		assertEquals(800, total(schedule.getProgram(local("2024-03-29T09:30"))));
+		assertEquals(800, total(schedule.getProgram(local("2024-04-01T09:30"))));
+		assertEquals(1150, total(schedule.getProgram(local("2024-04-01T10:30"))));
+	}
+
+	@Test
+	public void windows_in_zone_of_clock() {
+		PromotionSchedule utc = PromotionSchedule.compile(Arrays.asList(
+				new ScheduledRule(new FreeBeverageRule(2), TimeWindow.daily(LocalTime.MIDNIGHT, LocalTime.of(10, 0)).onWeekdays())),
+				clock.withZone(ZoneOffset.UTC));
+
+		// 11:00 in Zurich is 09:00 UTC
+		clock.setInstant(local("2024-05-06T11:00"));
+		assertEquals(800, total(utc.current()));
+		assertEquals(Instant.parse("2024-05-06T10:00:00Z"), utc.getNextBoundary(clock.instant()));
+
+		clock.setInstant(local("2024-05-06T12:00"));
+		assertEquals(1150, total(utc.current()));
+	}
+
+	@Test
+	public void of_single_program_never_changes() {
+		PromotionSchedule fixed = PromotionSchedule.of(ClientBasketService.getDefaultBonusProgram());
+
+		assertSame(ClientBasketService.getDefaultBonusProgram(), fixed.current());
+		assertNull(fixed.getNextBoundary(Instant.now()));
+	}
+
+	@Test
+	public void basketPool_drops_basket_of_ended_window() {
+		BasketPool pool = new BasketPool(ProductCatalog.getDefault(), schedule, 4);
+
+		ClientBasketService happyHour = pool.acquire();
+		pool.release(happyHour);
+
+		clock.setInstant(local("2024-05-06T10:00"));
+
+		ClientBasketService regular = pool.acquire();
+		assertNotSame(happyHour, regular);
+		assertSame(schedule.current(), regular.getBonusProgram());
+	}
+
+	private long total(BonusProgram bonusProgram) {
+		ClientBasketService basket = new ClientBasketService(catalog, bonusProgram);
+		basket.addProducts(Arrays.asList("large coffee", "large coffee", "bacon roll"));
+
+		return basket.getTotalInCents();
+	}
+
+	private static Instant local(String localDateTime) {
+		return LocalDateTime.parse(localDateTime).atZone(ZURICH).toInstant();
+	}
+}
@@ -0,0 +1,157 @@
+package com.swissre.coffeecorner.service;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import com.swissre.coffeecorner.entity.Product;
+import com.swissre.coffeecorner.exception.UnknownProductException;
+
+public class PromotionSimulatorTest {
+
+	private static final String[] PRODUCT_LINES = {
+			"large coffee with extra milk",
+			"small coffee with special roast",
+			"bacon roll",
+			"orange juice",
+			"medium coffee",
+			"foamed milk"
+	};
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Rule
+	public ExpectedException exceptionRule = ExpectedException.none();
+
+	private final CatalogSnapshot catalog = ProductCatalog.getDefault().getSnapshot();
+
+	@Test
+	public void simulate_matches_checkout_of_every_basket() throws IOException {
+		List<List<String>> baskets = baskets(2000);
+		Path orderFile = writeOrders(baskets);
+
+		List<PromotionConfig> configs = new ArrayList<>();
+		for(int threshold = 0 ; threshold <= 6 ; threshold++) {
+			configs.add(PromotionConfig.of(threshold, false));
+			configs.add(PromotionConfig.of(threshold, true));
+		}
+
+		// small regions and a common pool, so the baskets are split between regions and tasks
+		List<PromotionSimulator.Result> results = new PromotionSimulator(catalog, ForkJoinPool.commonPool(), 4096)
+				.simulate(orderFile, configs);
+
+		assertEquals(configs.size(), results.size());
+
+		for(int k = 0 ; k < configs.size() ; k++) {
+			PromotionSimulator.Result result = results.get(k);
+			long revenue = 0;
+			long gratisValue = 0;
+
+			for(List<String> basket : baskets) {
+				ClientBasketService service = new ClientBasketService(catalog, configs.get(k).getBonusProgram());
+				service.addProducts(basket);
+
+				revenue += service.getTotalInCents();
+				for(Product product : service.getGratisProducts())
+					gratisValue += product.getPrice().movePointRight(2).longValueExact();
+			}
+
+			assertSame(configs.get(k), result.getConfig());
+			assertEquals(baskets.size(), result.getBasketCount());
+			assertEquals(0, result.getRejectedBasketCount());
+			assertEquals(result.toString(), revenue, result.getRevenueInCents());
+			assertEquals(result.toString(), gratisValue, result.getGratisValueInCents());
+		}
+	}
+
+	@Test
+	public void simulate_price_override() throws IOException {
+		Path orderFile = writeOrders(Arrays.asList(
+				Arrays.asList("large coffee", "large coffee", "bacon roll"),
+				Arrays.asList("large coffee")));
+
+		PromotionConfig regular = PromotionConfig.of(2, false);
+		PromotionConfig cheaper = regular.withPrice("large coffee", new BigDecimal("3.00"));
+
+		List<PromotionSimulator.Result> results = new PromotionSimulator(catalog).simulate(orderFile,
+				Arrays.asList(regular, cheaper));
+
+		assertEquals(350 + 450 + 350, results.get(0).getRevenueInCents());
+		assertEquals(350, results.get(0).getGratisValueInCents());
+		assertEquals(300 + 450 + 300, results.get(1).getRevenueInCents());
+		assertEquals(300, results.get(1).getGratisValueInCents());
+		assertEquals("beverage threshold 2, large coffee 3.00", cheaper.getName());
+	}
+
+	@Test
+	public void simulate_rejected_basket_left_out() throws IOException {
+		Path orderFile = writeOrders(Arrays.asList(
+				Arrays.asList("large coffee", "large tea"),
+				Arrays.asList("bacon roll")));
+
+		PromotionSimulator.Result result = new PromotionSimulator(catalog)
+				.simulate(orderFile, Arrays.asList(PromotionConfig.of(0, false))).get(0);
+
+		assertEquals(2, result.getBasketCount());
+		assertEquals(1, result.getRejectedBasketCount());
+		assertEquals(450, result.getRevenueInCents());
+	}
+
+	@Test
+	public void simulate_unknown_price_override_failure() throws IOException {
+		exceptionRule.expect(UnknownProductException.class);
+		exceptionRule.expectMessage("Product catalog does not contain product [flat white].");
+
+		new PromotionSimulator(catalog).simulate(writeOrders(baskets(1)),
+				Arrays.asList(PromotionConfig.of(5, true).withPrice("flat white", BigDecimal.ONE)));
+	}
+
+	@Test
+	public void price_override_in_fractions_of_cents_failure() {
+		exceptionRule.expect(IllegalArgumentException.class);
+		exceptionRule.expectMessage("Invalid price of product [medium coffee] [2.005].");
+
+		PromotionConfig.of(5, true).withPrice("medium coffee", new BigDecimal("2.005"));
+	}
+
+	private static List<List<String>> baskets(int count) {
+		List<List<String>> baskets = new ArrayList<>();
+
+		for(int b = 0 ; b < count ; b++) {
+			List<String> basket = new ArrayList<>();
+			for(int i = 0 ; i <= b % 9 ; i++)
+				basket.add(PRODUCT_LINES[(b * 7 + i * 3) % PRODUCT_LINES.length]);
+			baskets.add(basket);
+		}
+
+		return baskets;
+	}
+
+	private Path writeOrders(List<List<String>> baskets) throws IOException {
+		List<String> lines = new ArrayList<>();
+
+		for(List<String> basket : baskets) {
+			lines.addAll(basket);
+			lines.add("");
+		}
+
+		Path orderFile = temporaryFolder.newFile().toPath();
+		Files.write(orderFile, lines, StandardCharsets.UTF_8);
+
+		return orderFile;
+	}
+}
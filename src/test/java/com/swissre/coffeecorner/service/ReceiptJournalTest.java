@@ -0,0 +1,139 @@
+package com.swissre.coffeecorner.service;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReceiptJournalTest {
+
+	private static final String[] PRODUCT_LINES = { "large coffee", "medium coffee", "small coffee", "orange juice",
+			"large coffee with extra milk", "small coffee with special roast", "medium coffee with foamed milk",
+			"bacon roll", "extra milk" };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final CatalogSnapshot catalog = ProductCatalog.getDefault().getSnapshot();
+
+	private final Clock clock = Clock.fixed(Instant.parse("2024-05-06T08:15:00Z"), ZoneOffset.UTC);
+
+	@Test
+	public void records_replayed_and_reprinted() throws IOException {
+		Random random = new Random(42);
+		ClientBasketService[] baskets = new ClientBasketService[200];
+
+		try (ReceiptJournal journal = new ReceiptJournal(folder.getRoot().toPath(), ReceiptJournal.DEFAULT_SEGMENT_SIZE, clock)) {
+			for(int i = 0 ; i < baskets.length ; i++) {
+				baskets[i] = randomBasket(random);
+				assertEquals(i + 1, journal.append(baskets[i]));
+			}
+		}
+
+		try (ReceiptJournalReader reader = ReceiptJournal.read(folder.getRoot().toPath())) {
+			for(int i = 0 ; i < baskets.length ; i++) {
+				assertTrue(reader.next());
+
+				assertEquals(i + 1, reader.getSequence());
+				assertEquals(clock.millis(), reader.getTimestampMillis());
+				assertEquals(catalog.getVersion(), reader.getCatalogVersion());
+				assertEquals(baskets[i].getTotalInCents(), reader.getTotalInCents());
+				assertEquals(baskets[i].getGratisProducts().size(), reader.getGratisCount());
+
+				StringBuilder receipt = new StringBuilder();
+				reader.reprint(catalog, ClientBasketService.getDefaultBonusProgram(), receipt);
+				assertEquals(baskets[i].printReceipt(), receipt.toString());
+			}
+
+			assertFalse(reader.next());
+		}
+	}
+
+	@Test
+	public void segments_rolled_over() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		Random random = new Random(7);
+
+		try (ReceiptJournal journal = new ReceiptJournal(directory, 4096, clock)) {
+			for(int i = 0 ; i < 2000 ; i++)
+				journal.append(randomBasket(random));
+		}
+
+		List<Path> segments = ReceiptJournal.listSegments(directory);
+		assertTrue(segments.size() > 1);
+
+		long expectedSequence = 1;
+		long total = 0;
+		try (ReceiptJournalReader reader = ReceiptJournal.read(directory)) {
+			while(reader.next()) {
+				assertEquals(expectedSequence++, reader.getSequence());
+				total += reader.getTotalInCents();
+			}
+		}
+
+		assertEquals(2001, expectedSequence);
+		assertTrue(total > 0);
+	}
+
+	@Test
+	public void reopened_journal_continues_after_last_valid_record() throws IOException {
+		Path directory = folder.getRoot().toPath();
+
+		try (ReceiptJournal journal = new ReceiptJournal(directory, 4096, clock)) {
+			journal.append(basket("large coffee"));
+			journal.append(basket("bacon roll"));
+		}
+
+		// tear the second record: segment header 4 bytes, first record 8 bytes of header and its body
+		Path segment = ReceiptJournal.listSegments(directory).get(0);
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer length = ByteBuffer.allocate(4);
+			channel.read(length, 4);
+			length.flip();
+
+			channel.write(ByteBuffer.wrap(new byte[] { (byte) 0xFF }), 4 + 8 + length.getInt() + 8);
+		}
+
+		try (ReceiptJournal journal = new ReceiptJournal(directory, 4096, clock)) {
+			assertEquals(2, journal.append(basket("orange juice")));
+		}
+
+		try (ReceiptJournalReader reader = ReceiptJournal.read(directory)) {
+			assertTrue(reader.next());
+			assertEquals(350, reader.getTotalInCents());
+			assertTrue(reader.next());
+			assertEquals(2, reader.getSequence());
+			assertEquals(395, reader.getTotalInCents());
+			assertFalse(reader.next());
+		}
+	}
+
+	private ClientBasketService randomBasket(Random random) {
+		ClientBasketService basket = new ClientBasketService(catalog, ClientBasketService.getDefaultBonusProgram());
+		int items = 1 + random.nextInt(20);
+
+		for(int i = 0 ; i < items ; i++)
+			basket.addProduct(PRODUCT_LINES[random.nextInt(PRODUCT_LINES.length)]);
+
+		return basket;
+	}
+
+	private ClientBasketService basket(String productLine) {
+		ClientBasketService basket = new ClientBasketService(catalog, ClientBasketService.getDefaultBonusProgram());
+		basket.addProduct(productLine);
+
+		return basket;
+	}
+}
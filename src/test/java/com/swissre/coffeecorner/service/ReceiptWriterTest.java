@@ -0,0 +1,100 @@
+package com.swissre.coffeecorner.service;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import org.junit.Test;
+
+public class ReceiptWriterTest {
+
+	@Test
+	public void writeReceipt_writer_same_as_printReceipt() throws IOException {
+		ClientBasketService basket = newBasket();
+		StringWriter writer = new StringWriter();
+
+		basket.writeReceipt(writer);
+
+		assertEquals(basket.printReceipt(), writer.toString());
+	}
+
+	@Test
+	public void writeReceipt_byteBuffer_same_as_printReceipt() {
+		ClientBasketService basket = newBasket();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+
+		basket.writeReceipt(buffer);
+		buffer.flip();
+
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+
+		assertEquals(basket.printReceipt(), new String(bytes, StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void writeReceipt_large_quantity_same_as_format() {
+		ClientBasketService basket = new ClientBasketService(BonusProgram.empty());
+
+		for(int i = 0 ; i < 1234 ; i++)
+			basket.addProduct("orange juice");
+
+		String expectedLine = String.format(Locale.ROOT, " %-21s  %3d      %.2f     %.2f", "orange juice", 1234,
+				new BigDecimal("3.95"), new BigDecimal("3.95").multiply(new BigDecimal(1234)));
+
+		assertTrue(basket.printReceipt().contains(expectedLine));
+	}
+
+	@Test
+	public void appendMoney_same_as_format() throws IOException {
+		long[] amounts = { 0, 5, 30, 100, 395, 1005, 123456789, -250 };
+
+		for(long cents : amounts) {
+			StringBuilder out = new StringBuilder();
+			ReceiptWriter.appendMoney(out, cents);
+
+			assertEquals(String.format(Locale.ROOT, "%.2f", BigDecimal.valueOf(cents, 2)), out.toString());
+		}
+	}
+
+	@Test
+	public void printReceipt_decimal_point_in_any_default_locale() throws IOException {
+		Locale defaultLocale = Locale.getDefault();
+		Locale.setDefault(Locale.GERMANY);
+
+		try {
+			String receipt = newBasket().printReceipt();
+
+			assertTrue(receipt.contains(" orange juice             2      3.95     7.90"));
+			assertFalse(receipt.contains("3,95"));
+
+			StringBuilder out = new StringBuilder();
+			ReceiptWriter.appendMoney(out, 1005);
+			assertEquals("10.05", out.toString());
+		} finally {
+			Locale.setDefault(defaultLocale);
+		}
+	}
+
+	private static ClientBasketService newBasket() {
+		ClientBasketService basket = new ClientBasketService();
+		String [] inputProductList = {
+				"large coffee with extra milk",
+				"small coffee with special roast",
+				"bacon roll",
+				"orange juice",
+				"medium coffee",
+				"orange juice"
+		};
+
+		for(String singleProductLine : inputProductList)
+			basket.addProduct(singleProductLine);
+
+		return basket;
+	}
+}
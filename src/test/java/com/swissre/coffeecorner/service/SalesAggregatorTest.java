@@ -0,0 +1,159 @@
+package com.swissre.coffeecorner.service;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.swissre.coffeecorner.entity.Product;
+import com.swissre.coffeecorner.entity.Product.ProductType;
+
+public class SalesAggregatorTest {
+
+	private final CatalogSnapshot catalog = ProductCatalog.getDefault().getSnapshot();
+
+	private final MutableClock clock = new MutableClock(Instant.parse("2024-05-06T08:15:00Z"), ZoneOffset.UTC);
+
+	private final SalesAggregator aggregator = new SalesAggregator(catalog, 2, clock);
+
+	@Test
+	public void totals_match_receipts() {
+		ClientBasketService first = basket("large coffee with extra milk", "bacon roll", "orange juice");
+		ClientBasketService second = basket("small coffee", "small coffee", "small coffee", "small coffee", "small coffee");
+
+		aggregator.record(0, first);
+		aggregator.record(1, second);
+
+		SalesReport report = aggregator.snapshot();
+
+		assertEquals(first.getTotalInCents() + second.getTotalInCents(), report.getRevenueInCents());
+		assertEquals(first.getTotalInCents(), report.getRevenueInCents(0));
+		assertEquals(second.getTotalInCents(), report.getRevenueInCents(1));
+		assertEquals(2, report.getBasketCount());
+
+		assertEquals(6, report.getQuantity(catalog.getOrdinal("small coffee")) + report.getQuantity(catalog.getOrdinal("large coffee")));
+		assertEquals(1, report.getGratisQuantity(catalog.getOrdinal("extra milk")));
+		assertEquals(1, report.getGratisQuantity(catalog.getOrdinal("small coffee")));
+		assertEquals(30, report.getGratisValueInCents(ProductType.EXTRAS));
+		assertEquals(250, report.getGratisValueInCents(ProductType.BEVERAGE));
+		assertEquals(450, report.getRevenueInCents(ProductType.SNACK));
+	}
+
+	@Test
+	public void writeTo_lines_end_with_line_separator() throws IOException {
+		aggregator.record(0, basket("large coffee"));
+
+		StringBuilder text = new StringBuilder();
+		aggregator.snapshot().writeTo(text);
+
+		String lineSeparator = System.getProperty("line.separator");
+		String[] lines = text.toString().split(lineSeparator, -1);
+
+		assertEquals(" large coffee : 1 (gratis 0)", lines[1]);
+		assertEquals(" Total : 3.50", lines[lines.length - 2]);
+		assertEquals("", lines[lines.length - 1]);
+	}
+
+	@Test
+	public void intervals_summed_per_hour_and_day() {
+		aggregator.record(0, basket("large coffee"));
+		clock.setInstant(Instant.parse("2024-05-06T09:00:00Z"));
+		SalesReport first = aggregator.closeInterval();
+
+		aggregator.record(1, basket("bacon roll"));
+		aggregator.record(1, basket("bacon roll"));
+		clock.setInstant(Instant.parse("2024-05-06T10:00:00Z"));
+		SalesReport second = aggregator.closeInterval();
+
+		assertEquals(350, first.getRevenueInCents());
+		assertEquals(900, second.getRevenueInCents());
+		assertEquals(350, aggregator.getHourReport(8).getRevenueInCents());
+		assertEquals(900, aggregator.getHourReport(9).getRevenueInCents());
+		assertNull(aggregator.getHourReport(10));
+
+		SalesReport day = aggregator.closeDay();
+
+		assertEquals(1250, day.getRevenueInCents());
+		assertEquals(Instant.parse("2024-05-06T08:15:00Z"), day.getStart());
+		assertNull(aggregator.getHourReport(8));
+		assertEquals(0, aggregator.snapshot().getRevenueInCents());
+	}
+
+	@Test
+	public void snapshots_consistent_while_recording() throws Exception {
+		ClientBasketService basket = basket("large coffee with extra milk", "bacon roll");
+		long revenue = basket.getTotalInCents();
+		long gratisValue = 30;
+		int threads = 4;
+		int basketsPerThread = 20000;
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		AtomicBoolean running = new AtomicBoolean(true);
+		List<Future<?>> futures = new ArrayList<>();
+
+		for(int t = 0 ; t < threads ; t++) {
+			int register = t % 2;
+			futures.add(executor.submit(() -> {
+				for(int i = 0 ; i < basketsPerThread ; i++)
+					aggregator.record(register, basket);
+			}));
+		}
+
+		long basketCount = 0;
+		while(running.get()) {
+			SalesReport interval = aggregator.closeInterval();
+
+			// a basket is never split between intervals
+			assertEquals(interval.getBasketCount() * revenue, interval.getRevenueInCents());
+			assertEquals(interval.getBasketCount() * gratisValue, interval.getGratisValueInCents());
+			basketCount += interval.getBasketCount();
+
+			running.set(!futures.stream().allMatch(Future::isDone));
+		}
+		for(Future<?> future : futures)
+			future.get();
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+
+		basketCount += aggregator.closeInterval().getBasketCount();
+
+		assertEquals(threads * basketsPerThread, basketCount);
+		assertEquals(threads * basketsPerThread * revenue, aggregator.snapshot().getRevenueInCents());
+	}
+
+	@Test
+	public void basket_of_reloaded_catalog_mapped_by_name() {
+		List<Product> products = new ArrayList<>(catalog.getProducts());
+		Collections.reverse(products);
+		CatalogSnapshot reversed = new CatalogSnapshot(catalog.getVersion() + 1, products);
+
+		ClientBasketService basket = new ClientBasketService(reversed, ClientBasketService.getDefaultBonusProgram());
+		basket.addProducts(Arrays.asList("bacon roll", "bacon roll", "orange juice"));
+		aggregator.record(0, basket);
+
+		SalesReport report = aggregator.snapshot();
+
+		assertEquals(2, report.getQuantity(catalog.getOrdinal("bacon roll")));
+		assertEquals(1, report.getQuantity(catalog.getOrdinal("orange juice")));
+		assertEquals(basket.getTotalInCents(), report.getRevenueInCents());
+	}
+
+	private ClientBasketService basket(String... productLines) {
+		ClientBasketService basket = new ClientBasketService(catalog, ClientBasketService.getDefaultBonusProgram());
+		basket.addProducts(Arrays.asList(productLines));
+
+		return basket;
+	}
+}
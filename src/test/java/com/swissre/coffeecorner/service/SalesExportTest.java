@@ -0,0 +1,306 @@
+package com.swissre.coffeecorner.service;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import com.swissre.coffeecorner.entity.Product.ProductType;
+
+public class SalesExportTest {
+
+	private static final String[] PRODUCT_LINES = { "large coffee", "medium coffee", "small coffee", "orange juice",
+			"large coffee with extra milk", "small coffee with special roast", "medium coffee with foamed milk",
+			"bacon roll", "extra milk" };
+
+	private static final ZoneId ZURICH = ZoneId.of("Europe/Zurich");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Rule
+	public ExpectedException exceptionRule = ExpectedException.none();
+
+	private final CatalogSnapshot catalog = ProductCatalog.getDefault().getSnapshot();
+
+	// the sales span the change to the summer time in Zurich (2024-03-31)
+	private final MutableClock clock = new MutableClock(Instant.parse("2024-03-25T00:00:00Z"), ZoneOffset.UTC);
+
+	private final List<ClientBasketService> baskets = new ArrayList<>();
+
+	private final List<Instant> times = new ArrayList<>();
+
+	private final List<Integer> registers = new ArrayList<>();
+
+	@Test
+	public void queries_match_the_baskets() throws IOException {
+		Path file = export(2000, 64);
+
+		int baconRoll = catalog.getOrdinal("bacon roll");
+		int[] coffees = { catalog.getOrdinal("large coffee"), catalog.getOrdinal("medium coffee"),
+				catalog.getOrdinal("small coffee") };
+		Instant from = Instant.parse("2024-03-28T12:00:00Z");
+		Instant to = Instant.parse("2024-04-02T06:30:00Z");
+
+		long items = 0;
+		long revenue = 0;
+		long[] quantities = new long[catalog.size()];
+		long baconRollsWithCoffeeInTheMorning = 0;
+		long register2Items = 0;
+		long gratisExtrasInRange = 0;
+		long basketsInRange = 0;
+
+		for(int i = 0 ; i < baskets.size() ; i++) {
+			BasketContent content = baskets.get(i).getContent();
+			Instant time = times.get(i);
+			int hour = time.atZone(ZURICH).getHour();
+			boolean withCoffee = false;
+			int basketItems = 0;
+
+			for(int ordinal = 0 ; ordinal < catalog.size() ; ordinal++) {
+				quantities[ordinal] += content.getQuantity(ordinal);
+				basketItems += content.getQuantity(ordinal);
+			}
+			for(int coffee : coffees)
+				withCoffee |= content.getQuantity(coffee) > 0;
+
+			items += basketItems;
+			revenue += content.getTotalInCents();
+			if(hour >= 7 && hour < 9 && withCoffee)
+				baconRollsWithCoffeeInTheMorning += content.getQuantity(baconRoll);
+			if(registers.get(i) == 2)
+				register2Items += basketItems;
+			if(!time.isBefore(from) && time.isBefore(to)) {
+				gratisExtrasInRange += content.getGratisCount(ProductType.EXTRAS);
+				basketsInRange++;
+			}
+		}
+
+		try (SalesExportReader export = SalesExport.read(file)) {
+			assertTrue(export.getBlockCount() > 10);
+
+			for(ForkJoinPool pool : new ForkJoinPool[] { null, ForkJoinPool.commonPool() }) {
+				assertEquals(items, query(export, pool).sumQuantity());
+				assertEquals(revenue, query(export, pool).gratis(false).sumValueInCents());
+				assertArrayEquals(quantities, query(export, pool).quantityByOrdinal());
+				assertEquals(baskets.size(), query(export, pool).countBaskets());
+				assertEquals(baconRollsWithCoffeeInTheMorning, query(export, pool).hoursOfDay(7, 9, ZURICH)
+						.product(baconRoll).inBasketsWith(coffees).sumQuantity());
+				assertEquals(register2Items, query(export, pool).register(2).sumQuantity());
+				assertEquals(gratisExtrasInRange, query(export, pool).between(from, to).productType(ProductType.EXTRAS)
+						.gratis(true).sumQuantity());
+				assertEquals(basketsInRange, query(export, pool).between(from, to).countBaskets());
+			}
+		}
+	}
+
+	@Test
+	public void hoursOfDay_across_midnight() throws IOException {
+		Path file = export(500, 1024);
+		long expected = 0;
+
+		for(int i = 0 ; i < baskets.size() ; i++) {
+			int hour = times.get(i).atZone(ZoneOffset.UTC).getHour();
+
+			if(hour >= 22 || hour < 2)
+				expected += baskets.get(i).getContent().getTotalInCents();
+		}
+
+		try (SalesExportReader export = SalesExport.read(file)) {
+			assertEquals(expected, export.query().hoursOfDay(22, 2, ZoneOffset.UTC).gratis(false).sumValueInCents());
+		}
+	}
+
+	@Test
+	public void reopen_continues_after_last_complete_block() throws IOException {
+		Path file = export(100, 32);
+		long rows;
+
+		try (SalesExportReader export = SalesExport.read(file)) {
+			rows = export.getRowCount();
+		}
+
+		// a torn block at the end of the file
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[] { 0x32, 0x4B, 0x4C, 0x42, 10, 0, 0, 0 }), channel.size());
+		}
+
+		try (SalesExport export = new SalesExport(file, 32, clock)) {
+			assertEquals(101, export.append(0, basket("bacon roll")));
+		}
+
+		try (SalesExportReader export = SalesExport.read(file)) {
+			assertEquals(rows + 1, export.getRowCount());
+			assertEquals(101, export.query().countBaskets());
+		}
+	}
+
+	@Test
+	public void reopen_cuts_off_last_block_failing_checksum() throws IOException {
+		Path file = export(100, 32);
+		int blocks;
+
+		try (SalesExportReader export = SalesExport.read(file)) {
+			blocks = export.getBlockCount();
+		}
+
+		// the last block was not written completely before a crash
+		flipByte(file, Files.size(file) - 1);
+
+		try (SalesExportReader export = SalesExport.read(file)) {
+			assertEquals(blocks - 1, export.getBlockCount());
+		}
+
+		long basketNumber;
+		try (SalesExport export = new SalesExport(file, 32, clock)) {
+			basketNumber = export.append(0, basket("bacon roll"));
+		}
+
+		try (SalesExportReader export = SalesExport.read(file)) {
+			assertEquals(blocks, export.getBlockCount());
+			assertEquals(basketNumber, export.query().countBaskets());
+		}
+	}
+
+	@Test
+	public void read_corrupted_block_failure() throws IOException {
+		Path file = export(100, 32);
+		flipByte(file, SalesExport.FILE_HEADER_SIZE + SalesExport.BLOCK_HEADER_SIZE);
+
+		exceptionRule.expect(IOException.class);
+		exceptionRule.expectMessage("Corrupted block of the sales export [" + file + "] at [4].");
+
+		SalesExport.read(file);
+	}
+
+	@Test
+	public void reopen_corrupted_block_failure() throws IOException {
+		Path file = export(100, 32);
+		flipByte(file, SalesExport.FILE_HEADER_SIZE + SalesExport.BLOCK_HEADER_SIZE);
+
+		exceptionRule.expect(IOException.class);
+		exceptionRule.expectMessage("Corrupted block of the sales export [" + file + "] at [4].");
+
+		new SalesExport(file, 32, clock).close();
+	}
+
+	@Test
+	public void reopen_cuts_off_torn_header_with_overflowing_row_count() throws IOException {
+		Path file = export(100, 32);
+		long size = Files.size(file);
+		int blocks;
+
+		try (SalesExportReader export = SalesExport.read(file, 32)) {
+			blocks = export.getBlockCount();
+		}
+
+		// only the header of the last block was written before a crash, its row count garbage
+		ByteBuffer header = ByteBuffer.allocate(SalesExport.BLOCK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(SalesExport.BLOCK_MAGIC).putInt(Integer.MAX_VALUE).rewind();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.write(header, size);
+		}
+
+		try (SalesExportReader export = SalesExport.read(file, 32)) {
+			assertEquals(blocks, export.getBlockCount());
+		}
+
+		new SalesExport(file, 32, clock).close();
+
+		assertEquals(size, Files.size(file));
+	}
+
+	@Test
+	public void read_corrupted_header_failure() throws IOException {
+		Path file = export(100, 32);
+
+		ByteBuffer rows = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, Integer.MAX_VALUE);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.write(rows, SalesExport.FILE_HEADER_SIZE + 4);
+		}
+
+		exceptionRule.expect(IOException.class);
+		exceptionRule.expectMessage("Corrupted block of the sales export [" + file + "] at [4].");
+
+		SalesExport.read(file, 32);
+	}
+
+	@Test
+	public void append_basket_larger_than_block_failure() throws IOException {
+		exceptionRule.expect(IllegalArgumentException.class);
+		exceptionRule.expectMessage("Basket too large for an export block [3 line items].");
+
+		ClientBasketService basket = new ClientBasketService(catalog, BonusProgram.empty());
+		basket.addProduct("large coffee with extra milk");
+		basket.addProduct("bacon roll");
+
+		try (SalesExport export = new SalesExport(folder.newFile().toPath(), 2, clock)) {
+			export.append(0, basket);
+		}
+	}
+
+	private SalesQuery query(SalesExportReader export, ForkJoinPool pool) {
+		return pool == null ? export.query() : export.query().parallel(pool);
+	}
+
+	private Path export(int basketCount, int blockRows) throws IOException {
+		Path file = folder.newFile().toPath();
+		Random random = new Random(42);
+
+		try (SalesExport export = new SalesExport(file, blockRows, clock)) {
+			for(int i = 0 ; i < basketCount ; i++) {
+				ClientBasketService basket = new ClientBasketService(catalog, ClientBasketService.getDefaultBonusProgram());
+				int items = 1 + random.nextInt(12);
+
+				for(int j = 0 ; j < items ; j++)
+					basket.addProduct(PRODUCT_LINES[random.nextInt(PRODUCT_LINES.length)]);
+				basket.applyBonusProgram();
+
+				int register = random.nextInt(4);
+
+				baskets.add(basket);
+				times.add(clock.instant());
+				registers.add(register);
+				assertEquals(i + 1, export.append(register, basket));
+
+				clock.advance(Duration.ofMinutes(17));
+			}
+		}
+
+		return file;
+	}
+
+	private static void flipByte(Path file, long position) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.allocate(1);
+			channel.read(buffer, position);
+			buffer.put(0, (byte) ~buffer.get(0));
+			channel.write(buffer.rewind(), position);
+		}
+	}
+
+	private ClientBasketService basket(String productLine) {
+		ClientBasketService basket = new ClientBasketService(catalog, ClientBasketService.getDefaultBonusProgram());
+		basket.addProduct(productLine);
+
+		return basket;
+	}
+}